@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* search over a <code>RoutingGraph</code>. It works entirely on dense vertex numbers and
+ * primitive arrays: the fringe is an <code>IndexedMinHeap</code> holding each vertex once, and
+ * the distances, parents and settled flags live in the calling thread's reusable
+ * <code>SearchState</code>. That per-vertex state is reused from one search to the next, so a
+ * search allocates only a few small arrays for its ends, its heuristic and its result.
+ *
+ * A search may start from several vertices, each with an initial cost, and may end at several
+ * vertices, each with a cost to finish. This is how a route from the middle of one road to the
+ * middle of another is found: the starts are the ends of the first road, and the targets are the
+ * ends of the last.
+ */
+class AStarSearch {
+    private AStarSearch() {
+    }
+
+    /**
+     * Returns the shortest route between two points snapped onto roads, as the vertex IDs from
+     * an end of the start's road to an end of the goal's road.
+     * @param rg The roads to search.
+     * @param start Where the route starts.
+     * @param goal Where the route ends.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    static List<Long> shortestPath(RoutingGraph rg, SegmentIndex.Snap start,
+                                   SegmentIndex.Snap goal) {
+        int[] sources = ends(rg, start);
+        double[] sourceCosts = snapCosts(rg, sources, start);
+        int[] targets = ends(rg, goal);
+        double[] targetCosts = snapCosts(rg, targets, goal);
+        return shortestPath(rg, sources, sourceCosts, targets, targetCosts, goal.lon, goal.lat);
+    }
+
+    /**
+     * Like <code>shortestPath(rg, start, goal)</code>, but guided by landmark distances.
+     * @param landmarks The landmark distances of the roads to search.
+     * @param start Where the route starts.
+     * @param goal Where the route ends.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    static List<Long> shortestPath(Landmarks landmarks, SegmentIndex.Snap start,
+                                   SegmentIndex.Snap goal) {
+        RoutingGraph rg = landmarks.rg;
+        int[] sources = ends(rg, start);
+        double[] sourceCosts = snapCosts(rg, sources, start);
+        int[] targets = ends(rg, goal);
+        double[] targetCosts = snapCosts(rg, targets, goal);
+        return shortestPath(rg, sources, sourceCosts, targets, targetCosts,
+                landmarks.heuristic(sources, targets, targetCosts, goal.lon, goal.lat));
+    }
+
+    /** Returns the vertex numbers of the ends of a snapped point's road; -1 for unknown ends. */
+    private static int[] ends(RoutingGraph rg, SegmentIndex.Snap snap) {
+        long[] ids = snap.ends();
+        int[] numbers = new int[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            numbers[i] = rg.number(ids[i]);
+        }
+        return numbers;
+    }
+
+    /** Returns the cost between each of the given road ends and a snapped point on the road. */
+    private static double[] snapCosts(RoutingGraph rg, int[] ends, SegmentIndex.Snap snap) {
+        double[] costs = new double[ends.length];
+        for (int i = 0; i < ends.length; i += 1) {
+            costs[i] = ends[i] < 0 ? 0 : rg.snapCost(ends[i], snap);
+        }
+        return costs;
+    }
+
+    /**
+     * Returns the cheapest route from any source to any target, counting each source's initial
+     * cost and each target's cost to finish, guided by the great-circle distance to the goal
+     * point. That is a lower bound on the rest of the route as long as every target's cost to
+     * finish is at least its distance to that point.
+     * @param rg The roads to search.
+     * @param sources The vertex numbers the route may start from; negative numbers are ignored.
+     * @param sourceCosts The cost of starting from each source.
+     * @param targets The vertex numbers the route may end at; negative numbers are ignored.
+     * @param targetCosts The cost of finishing from each target.
+     * @param goalLon The longitude the heuristic aims for.
+     * @param goalLat The latitude the heuristic aims for.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    static List<Long> shortestPath(RoutingGraph rg, int[] sources, double[] sourceCosts,
+                                   int[] targets, double[] targetCosts,
+                                   double goalLon, double goalLat) {
+        return shortestPath(rg, sources, sourceCosts, targets, targetCosts,
+                v -> rg.bound(v, goalLon, goalLat));
+    }
+
+    /**
+     * Returns the cheapest route from any source to any target, counting each source's initial
+     * cost and each target's cost to finish.
+     * @param rg The roads to search.
+     * @param sources The vertex numbers the route may start from; negative numbers are ignored.
+     * @param sourceCosts The cost of starting from each source.
+     * @param targets The vertex numbers the route may end at; negative numbers are ignored.
+     * @param targetCosts The cost of finishing from each target.
+     * @param h A lower bound on the cost of finishing the route from each vertex.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    static List<Long> shortestPath(RoutingGraph rg, int[] sources, double[] sourceCosts,
+                                   int[] targets, double[] targetCosts, Heuristic h) {
+        SearchState state = rg.searchState();
+        IndexedMinHeap fringe = state.fringe;
+        for (int i = 0; i < sources.length; i += 1) {
+            int s = sources[i];
+            if (s >= 0 && state.improve(s, sourceCosts[i], -1)) {
+                fringe.push(s, sourceCosts[i] + h.estimate(s));
+            }
+        }
+
+        double bestGoal = Double.POSITIVE_INFINITY;
+        int goalParent = -1;
+        while (!fringe.isEmpty()) {
+            /* Nothing left in the fringe can improve on the best way to the goal. */
+            if (fringe.minKey() >= bestGoal) {
+                break;
+            }
+            int v = fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            for (int i = 0; i < targets.length; i += 1) {
+                if (targets[i] == v && dv + targetCosts[i] < bestGoal) {
+                    bestGoal = dv + targetCosts[i];
+                    goalParent = v;
+                }
+            }
+            /*
+             * Settled vertices are not skipped: with a consistent heuristic they are never
+             * improved anyway, and with one that is only a lower bound, a settled vertex reached
+             * more cheaply later is searched again, which keeps the route optimal.
+             */
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (state.improve(w, dv + rg.edgeWeight[e], v)) {
+                    fringe.push(w, dv + rg.edgeWeight[e] + h.estimate(w));
+                }
+            }
+        }
+        return path(rg, state, goalParent);
+    }
+
+    /** A lower bound on the cost of finishing a route from a vertex. */
+    interface Heuristic {
+        /**
+         * Returns a lower bound on the cost of the rest of the route from v.
+         * @param v A vertex number.
+         * @return The estimate, which must never exceed the true cost.
+         */
+        double estimate(int v);
+    }
+
+    /** Returns the IDs of the vertices on the recorded path ending at v, in order. */
+    static List<Long> path(RoutingGraph rg, SearchState state, int v) {
+        if (v < 0) {
+            return new ArrayList<>();
+        }
+        int length = 0;
+        for (int u = v; u >= 0; u = state.parent(u)) {
+            length += 1;
+        }
+        Long[] ids = new Long[length];
+        for (int u = v, i = length - 1; u >= 0; u = state.parent(u), i -= 1) {
+            ids[i] = rg.ids[u];
+        }
+        ArrayList<Long> path = new ArrayList<>(length);
+        Collections.addAll(path, ids);
+        return path;
+    }
+}
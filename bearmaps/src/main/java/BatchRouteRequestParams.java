@@ -0,0 +1,70 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The BatchRouteRequestParams contains the origin-destination pairs received from a client in a
+ * batch routing request. This class will primarily be used by the MapServer to unpack the request
+ * body before calling <code>BatchRouter.route</code>.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"pairs": [[start_lon, start_lat, end_lon, end_lat], ...], "profile": "car"}</pre>
+ * where the profile is optional.
+ */
+public class BatchRouteRequestParams {
+    /** The pairs as {start lon, start lat, end lon, end lat}. */
+    public final double[][] pairs;
+    /** Whose costs the routes minimize. */
+    public final Profile profile;
+
+    /**
+     * Validate and return the pairs in a batch routing request body.
+     * @param body The raw body of a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the body is not a valid batch routing request.
+     */
+    public static BatchRouteRequestParams from(String body) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse pairs.");
+        }
+        if (parsed == null || parsed.pairs == null) {
+            throw new IllegalArgumentException("Request failed: pairs not found.");
+        }
+        if (parsed.pairs.length > MAX_PAIRS) {
+            String msg = String.format("Request failed: at most %d pairs allowed.", MAX_PAIRS);
+            throw new IllegalArgumentException(msg);
+        }
+        for (int i = 0; i < parsed.pairs.length; i += 1) {
+            if (parsed.pairs[i] == null || parsed.pairs[i].length != 4) {
+                String msg = String.format("Incorrect parameters: unable to parse pair %d.", i);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        Profile profile = Profile.DISTANCE;
+        if (parsed.profile != null) {
+            try {
+                profile = Profile.valueOf(parsed.profile.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect parameters: unknown profile.");
+            }
+        }
+        return new BatchRouteRequestParams(parsed.pairs, profile);
+    }
+
+    private BatchRouteRequestParams(double[][] pairs, Profile profile) {
+        this.pairs = pairs;
+        this.profile = profile;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private double[][] pairs;
+        private String profile;
+    }
+
+    /** The largest number of pairs accepted in one request. */
+    private static final int MAX_PAIRS = 10000;
+    private static final Gson GSON = new Gson();
+}
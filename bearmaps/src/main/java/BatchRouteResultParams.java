@@ -0,0 +1,36 @@
+import java.util.List;
+
+/**
+ * The BatchRouteResultParams contains one route computed by <code>BatchRouter</code> for
+ * serialization by Gson, as one line of a batch routing response.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class BatchRouteResultParams {
+    /** The position of the pair in the request. */
+    private final int index;
+    /** Whether or not a route was found. */
+    private final boolean routingSuccess;
+    /** The vertex IDs along the route. */
+    private final List<Long> route;
+    /** Why the search for the route was abandoned, or null if it ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of a BatchRouteResultParams instance. */
+    private BatchRouteResultParams() {
+        this(0, List.of(), null);
+    }
+
+    /**
+     * Constructs a BatchRouteResultParams instance for the route of one pair.
+     * @param index The index field.
+     * @param route The route field; routingSuccess is whether it is non-empty.
+     * @param failure The failure field.
+     */
+    BatchRouteResultParams(int index, List<Long> route, String failure) {
+        this.index = index;
+        this.routingSuccess = !route.isEmpty();
+        this.route = route;
+        this.failure = failure;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Routes a batch of origin-destination pairs on a shared pool of worker threads, handing each
+ * route to a listener as soon as it is found rather than in the order asked for. Each batch keeps
+ * at most a bounded number of its routes in flight, so one large batch cannot queue ahead of
+ * every other request, and the pool itself has one thread per core since route searches are
+ * bound by the processor rather than by waiting. The whole batch shares one search budget: each
+ * search may settle the budget's vertices, and once its deadline passes or the client goes away
+ * the remaining pairs are abandoned rather than routed.
+ */
+class BatchRouter {
+    /** The routes currently being searched for by all batches. */
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "batch-router");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private BatchRouter() {
+    }
+
+    /** Receives the routes of a batch as they are found. */
+    interface Listener {
+        /**
+         * Called once for each pair, on the thread that called <code>route</code>.
+         * @param index The position of the pair in the batch.
+         * @param route The vertex IDs along the route, or an empty list if there is none.
+         * @param failure Why the search for the route was abandoned, or null if it was not.
+         * @throws IOException If the route cannot be passed on; the rest of the batch is
+         *                     abandoned.
+         */
+        void routed(int index, List<Long> route, String failure) throws IOException;
+    }
+
+    /**
+     * Routes every pair of a batch.
+     * @param g <code>GraphDB</code> data source.
+     * @param pairs The pairs as {start lon, start lat, end lon, end lat}.
+     * @param profile Whose costs the routes minimize.
+     * @param limit The most routes of this batch to search for at once.
+     * @param budget The limits on the searches of the whole batch.
+     * @param listener Receives each route as soon as it is found.
+     * @throws IOException If the listener fails.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    static void route(GraphDB g, double[][] pairs, Profile profile, int limit, SearchBudget budget,
+                      Listener listener) throws IOException, InterruptedException {
+        CompletionService<Routed> done = new ExecutorCompletionService<>(WORKERS);
+        Future<?>[] futures = new Future<?>[pairs.length];
+        int submitted = 0;
+        try {
+            for (; submitted < Math.min(limit, pairs.length); submitted += 1) {
+                futures[submitted] = submit(done, g, pairs, submitted, profile, budget);
+            }
+            for (int finished = 0; finished < pairs.length; finished += 1) {
+                Routed result = result(done.take());
+                if (submitted < pairs.length) {
+                    futures[submitted] = submit(done, g, pairs, submitted, profile, budget);
+                    submitted += 1;
+                }
+                listener.routed(result.index, result.route, result.failure);
+            }
+        } finally {
+            for (int i = 0; i < submitted; i += 1) {
+                futures[i].cancel(false);
+            }
+        }
+    }
+
+    private static Future<Routed> submit(CompletionService<Routed> done, GraphDB g,
+                                           double[][] pairs, int i, Profile profile,
+                                           SearchBudget budget) {
+        double[] p = pairs[i];
+        return done.submit(() -> {
+            try {
+                return new Routed(i, budget.within(() -> Router.shortestPath(g, p[0], p[1],
+                        p[2], p[3], Router.defaultMode(), profile)), null);
+            } catch (SearchBudget.ExceededException e) {
+                return new Routed(i, List.of(), e.getMessage());
+            }
+        });
+    }
+
+    private static Routed result(Future<Routed> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** The route of one pair of a batch. */
+    private static class Routed {
+        private final int index;
+        private final List<Long> route;
+        private final String failure;
+
+        Routed(int index, List<Long> route, String failure) {
+            this.index = index;
+            this.route = route;
+            this.failure = failure;
+        }
+    }
+}
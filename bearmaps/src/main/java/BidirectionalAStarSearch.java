@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bidirectional A* search over a <code>RoutingGraph</code>: one search runs forward from the
+ * start and one backward from the goal, and the route is found where they meet. Both use the
+ * average potential p(v) = (h_goal(v) - h_start(v)) / 2 of Ikeda et al., where h_goal and h_start
+ * are the great-circle distances to the goal and start points. The forward search orders its
+ * fringe by d_forward(v) + p(v) and the backward search by d_backward(v) - p(v); both potentials
+ * are consistent, so each search settles vertices in order like plain Dijkstra does.
+ *
+ * Whenever either search finds a shorter way to a vertex the other search has reached, the
+ * length of the route through that vertex is a candidate for the best route, mu. The searches
+ * stop once the smallest keys of the two fringes add up to at least mu, at which point no
+ * unexplored route can be shorter. The route found is exactly as long as the one found by
+ * <code>AStarSearch</code>, though it may be a different route of the same length.
+ *
+ * The two searches either take turns on the calling thread, each step advancing whichever
+ * fringe has the smaller key, or run at the same time on two threads. The second threads come
+ * from a pool with one thread per core; when every one of them is busy, a two-thread search
+ * takes turns on the calling thread instead of waiting.
+ * @source https://doi.org/10.1109/VNIS.1994.396824
+ */
+class BidirectionalAStarSearch {
+    /** Runs the backward half of two-thread searches, and refuses more than it has threads. */
+    private static final ExecutorService BACKWARD = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+            0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "bidirectional-a*");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final RoutingGraph rg;
+    private final double startLon, startLat, goalLon, goalLat;
+    private final SearchState forward, backward;
+    /** Whether the searches run on two threads and so must publish what they find. */
+    private final boolean parallel;
+    /**
+     * The length of the best route found so far, and the vertex where its two halves meet. Both
+     * are only written while holding this search's lock.
+     */
+    private volatile double mu = Double.POSITIVE_INFINITY;
+    private int meeting = -1;
+    /** The smallest key each search may still settle; published for the other thread. */
+    private volatile double forwardFrontier, backwardFrontier;
+    /** Set when either thread of a two-thread search has proved mu optimal. */
+    private volatile boolean done;
+
+    private BidirectionalAStarSearch(RoutingGraph rg, double startLon, double startLat,
+                                     double goalLon, double goalLat, boolean parallel) {
+        this.rg = rg;
+        this.parallel = parallel;
+        this.startLon = startLon;
+        this.startLat = startLat;
+        this.goalLon = goalLon;
+        this.goalLat = goalLat;
+        forward = rg.searchState();
+        backward = rg.reverseSearchState();
+    }
+
+    /**
+     * Returns the shortest route between two points snapped onto roads, as the vertex IDs from
+     * an end of the start's road to an end of the goal's road.
+     * @param rg The roads to search.
+     * @param start Where the route starts.
+     * @param goal Where the route ends.
+     * @param parallel If true, run the forward and backward searches on separate threads.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    static List<Long> shortestPath(RoutingGraph rg, SegmentIndex.Snap start,
+                                   SegmentIndex.Snap goal, boolean parallel) {
+        BidirectionalAStarSearch search = new BidirectionalAStarSearch(rg, start.lon, start.lat,
+                goal.lon, goal.lat, parallel);
+        search.seed(search.forward, start, true);
+        search.seed(search.backward, goal, false);
+        if (parallel) {
+            search.runParallel();
+        } else {
+            search.run();
+        }
+        return search.path();
+    }
+
+    /** Puts the ends of a snapped point's road in a search's fringe. */
+    private void seed(SearchState state, SegmentIndex.Snap snap, boolean isForward) {
+        for (long end : snap.ends()) {
+            int v = rg.number(end);
+            if (v < 0) {
+                continue;
+            }
+            double cost = rg.snapCost(v, snap);
+            if (improve(state, v, cost, -1)) {
+                state.fringe.push(v, cost + potential(v, isForward));
+                meet(v, isForward);
+            }
+        }
+    }
+
+    /** Returns the potential of v for the forward or backward search. */
+    private double potential(int v, boolean isForward) {
+        double p = (rg.bound(v, goalLon, goalLat) - rg.bound(v, startLon, startLat)) / 2;
+        return isForward ? p : -p;
+    }
+
+    /** Takes turns between the two searches on this thread until they have proved mu optimal. */
+    private void run() {
+        while (!forward.fringe.isEmpty() && !backward.fringe.isEmpty()) {
+            double topForward = forward.fringe.minKey();
+            double topBackward = backward.fringe.minKey();
+            if (topForward + topBackward >= mu) {
+                return;
+            }
+            if (topForward <= topBackward) {
+                step(forward, true);
+            } else {
+                step(backward, false);
+            }
+        }
+    }
+
+    /**
+     * Runs the backward search on another thread and the forward search on this one, or takes
+     * turns on this thread if no other thread is free.
+     */
+    private void runParallel() {
+        forwardFrontier = forward.fringe.isEmpty() ? Double.POSITIVE_INFINITY
+                : forward.fringe.minKey();
+        backwardFrontier = backward.fringe.isEmpty() ? Double.POSITIVE_INFINITY
+                : backward.fringe.minKey();
+        Future<?> other;
+        try {
+            other = BACKWARD.submit(() -> runOneSide(false));
+        } catch (RejectedExecutionException e) {
+            run();
+            return;
+        }
+        try {
+            runOneSide(true);
+        } finally {
+            done = true;
+            try {
+                other.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    /* For example, the backward search ran out of budget. */
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Runs one direction of a two-thread search. A search publishes the key of each vertex
+     * before scanning it, and every vertex it can reach later has a key at least that large, so
+     * the other thread never overestimates how far this search has got.
+     */
+    private void runOneSide(boolean isForward) {
+        SearchState state = isForward ? forward : backward;
+        try {
+            runOneSideUntilDone(state, isForward);
+        } catch (RuntimeException e) {
+            /* Stop the other side too, then let the caller see why this one stopped. */
+            done = true;
+            throw e;
+        }
+    }
+
+    private void runOneSideUntilDone(SearchState state, boolean isForward) {
+        while (!done) {
+            if (state.fringe.isEmpty()) {
+                /* Every route has been explored from this side. */
+                done = true;
+                return;
+            }
+            double top = state.fringe.minKey();
+            if (isForward) {
+                forwardFrontier = top;
+            } else {
+                backwardFrontier = top;
+            }
+            if (forwardFrontier + backwardFrontier >= mu) {
+                done = true;
+                return;
+            }
+            step(state, isForward);
+        }
+    }
+
+    /** Settles the top of one search's fringe and relaxes its edges. */
+    private void step(SearchState state, boolean isForward) {
+        int v = state.fringe.pop();
+        state.settle(v);
+        double dv = state.dist(v);
+        int[] start = isForward ? rg.edgeStart : rg.reverseStart;
+        int[] to = isForward ? rg.edgeTo : rg.reverseFrom;
+        double[] length = isForward ? rg.edgeWeight : rg.reverseWeight;
+        for (int e = start[v]; e < start[v + 1]; e += 1) {
+            int w = to[e];
+            double dw = dv + length[e];
+            if (!state.isSettled(w) && improve(state, w, dw, v)) {
+                state.fringe.push(w, dw + potential(w, isForward));
+                meet(w, isForward);
+            }
+        }
+    }
+
+    private boolean improve(SearchState state, int v, double d, int from) {
+        return parallel ? state.improveShared(v, d, from) : state.improve(v, d, from);
+    }
+
+    private double dist(SearchState state, int v) {
+        return parallel ? state.distShared(v) : state.dist(v);
+    }
+
+    /** Checks whether the route through v, which one search just improved, is the best yet. */
+    private void meet(int v, boolean isForward) {
+        double other = dist(isForward ? backward : forward, v);
+        if (other == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        double length = dist(isForward ? forward : backward, v) + other;
+        synchronized (this) {
+            if (length < mu) {
+                mu = length;
+                meeting = v;
+            }
+        }
+    }
+
+    /** Joins the forward path to the meeting vertex and the backward path from it. */
+    private List<Long> path() {
+        int m;
+        synchronized (this) {
+            m = meeting;
+        }
+        if (m < 0) {
+            return new ArrayList<>();
+        }
+        List<Long> path = AStarSearch.path(rg, forward, m);
+        for (int u = backward.parent(m); u >= 0; u = backward.parent(u)) {
+            path.add(rg.ids[u]);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.List;
+
+/**
+ * A KD-tree whose leaves are buckets of up to <code>BUCKET_SIZE</code> points. The points are
+ * kept in structure-of-arrays layout, one array of x-values and one of y-values, ordered so that
+ * each leaf owns a contiguous block. Searching a leaf is then a tight loop over two primitive
+ * arrays, which the JIT compiles to vector instructions, instead of a chain of pointer loads and
+ * branches through one node per point. Every tree node stores the bounding box of its points,
+ * so whole subtrees are skipped by their exact distance to the query.
+ */
+public class BucketKDTree implements SpatialIndex {
+    /** The largest number of points in a leaf. */
+    static final int BUCKET_SIZE = 32;
+
+    /** The points, ordered so that each leaf's points are contiguous. */
+    private final double[] xs, ys;
+    private final long[] ids;
+    /** For each tree node: its range of points [lo, hi), and its children (-1 for a leaf). */
+    private final int[] lo, hi, left, right;
+    /** For each tree node: the bounding box of its points. */
+    private final double[] boxMinX, boxMinY, boxMaxX, boxMaxY;
+    /** The number of tree nodes; node 0 is the root. */
+    private int nodeCount;
+
+    /**
+     * Builds a tree over the given vertices.
+     * @param nodes The vertices to index.
+     */
+    public BucketKDTree(List<Node> nodes) {
+        int n = nodes.size();
+        xs = new double[n];
+        ys = new double[n];
+        ids = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            Node node = nodes.get(i);
+            xs[i] = GraphDB.projectToX(node.nodeLon, node.nodeLat);
+            ys[i] = GraphDB.projectToY(node.nodeLon, node.nodeLat);
+            ids[i] = node.nodeID;
+        }
+        /* Splitting at the median leaves more than BUCKET_SIZE / 2 points in every leaf. */
+        int capacity = 4 * (n / BUCKET_SIZE) + 2;
+        lo = new int[capacity];
+        hi = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        boxMinX = new double[capacity];
+        boxMinY = new double[capacity];
+        boxMaxX = new double[capacity];
+        boxMaxY = new double[capacity];
+        if (n > 0) {
+            build(0, n);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    @Override
+    public long nearest(double x, double y) {
+        if (isEmpty()) {
+            return 0;
+        }
+        Champion champion = new Champion();
+        nearest(0, x, y, champion);
+        return ids[champion.position];
+    }
+
+    @Override
+    public void range(double minX, double minY, double maxX, double maxY, List<Long> result) {
+        if (!isEmpty()) {
+            range(0, minX, minY, maxX, maxY, result);
+        }
+    }
+
+    /** Builds the subtree over points [from, to) and returns its node. */
+    private int build(int from, int to) {
+        int node = nodeCount;
+        nodeCount += 1;
+        lo[node] = from;
+        hi[node] = to;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = from; i < to; i += 1) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        boxMinX[node] = minX;
+        boxMinY[node] = minY;
+        boxMaxX[node] = maxX;
+        boxMaxY[node] = maxY;
+        if (to - from <= BUCKET_SIZE) {
+            left[node] = -1;
+            right[node] = -1;
+            return node;
+        }
+        /* Split the wider side of the box, so leaves stay roughly square. */
+        int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, maxX - minX >= maxY - minY ? xs : ys);
+        left[node] = build(from, mid);
+        right[node] = build(mid, to);
+        return node;
+    }
+
+    /** Partially sorts [from, to] by key so position k holds the value it would when sorted. */
+    private void select(int from, int to, int k, double[] key) {
+        while (to > from) {
+            double pivot = key[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (key[i] < pivot) {
+                    i += 1;
+                }
+                while (key[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                to = j;
+            } else if (k >= i) {
+                from = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    /** Returns the squared distance from (x, y) to the bounding box of a node. */
+    private double boxDistance(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(boxMinX[node] - x, x - boxMaxX[node]));
+        double dy = Math.max(0, Math.max(boxMinY[node] - y, y - boxMaxY[node]));
+        return dx * dx + dy * dy;
+    }
+
+    private void nearest(int node, double x, double y, Champion champion) {
+        if (left[node] < 0) {
+            searchLeaf(lo[node], hi[node], x, y, champion);
+            return;
+        }
+        int near = left[node];
+        int far = right[node];
+        double nearDistance = boxDistance(near, x, y);
+        double farDistance = boxDistance(far, x, y);
+        if (farDistance < nearDistance) {
+            near = right[node];
+            far = left[node];
+            double t = nearDistance;
+            nearDistance = farDistance;
+            farDistance = t;
+        }
+        if (nearDistance < champion.bestDistance) {
+            nearest(near, x, y, champion);
+        }
+        if (farDistance < champion.bestDistance) {
+            nearest(far, x, y, champion);
+        }
+    }
+
+    /**
+     * Compares (x, y) with every point in [from, to). The first loop only takes a minimum over
+     * independent lanes, with no branches and no loop-carried index, so it vectorizes; the
+     * second loop, which finds where that minimum is, only runs when the leaf has a new best.
+     */
+    private void searchLeaf(int from, int to, double x, double y, Champion champion) {
+        double min = Double.MAX_VALUE;
+        for (int i = from; i < to; i += 1) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+            min = Math.min(min, dx * dx + dy * dy);
+        }
+        if (min >= champion.bestDistance) {
+            return;
+        }
+        for (int i = from; i < to; i += 1) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+            if (dx * dx + dy * dy == min) {
+                champion.bestDistance = min;
+                champion.position = i;
+                return;
+            }
+        }
+    }
+
+    private void range(int node, double minX, double minY, double maxX, double maxY,
+                       List<Long> result) {
+        if (boxMaxX[node] < minX || boxMinX[node] > maxX
+                || boxMaxY[node] < minY || boxMinY[node] > maxY) {
+            return;
+        }
+        if (left[node] >= 0) {
+            range(left[node], minX, minY, maxX, maxY, result);
+            range(right[node], minX, minY, maxX, maxY, result);
+            return;
+        }
+        for (int i = lo[node]; i < hi[node]; i += 1) {
+            if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+                result.add(ids[i]);
+            }
+        }
+    }
+
+    /** The closest point found so far by a query. */
+    private static class Champion {
+        double bestDistance = Double.MAX_VALUE;
+        int position = 0;
+    }
+}
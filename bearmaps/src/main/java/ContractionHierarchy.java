@@ -0,0 +1,565 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A contraction hierarchy over a <code>RoutingGraph</code>. Preprocessing removes ("contracts")
+ * the vertices one at a time, least important first. When a vertex is removed, every shortest
+ * path that ran through it is kept by a shortcut edge between its neighbors, unless a short
+ * witness search finds another path that is at least as short. Each vertex's rank is the order
+ * it was contracted in.
+ *
+ * Every shortest path then goes up in rank and comes back down, so a query only needs to search
+ * upward from both ends, which settles a few hundred vertices even on large maps. Shortcuts
+ * remember the vertex they skip, so a route is unpacked back into the original vertices.
+ *
+ * A hierarchy can be saved next to the map it was built from and loaded again later; a
+ * fingerprint of the graph makes sure a saved hierarchy is only used with the same graph.
+ * @source https://doi.org/10.1007/978-3-540-68552-4_24
+ */
+class ContractionHierarchy {
+    /** The suffix added to a map's path to name its saved hierarchy. */
+    static final String SUFFIX = ".ch";
+    /** Marks a saved hierarchy, and its format version. */
+    private static final int MAGIC = 0x42434831;
+    /** The most vertices a witness search may settle before giving up and adding a shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+
+    /** The graph this hierarchy was built over. */
+    final RoutingGraph rg;
+    /** The order in which each vertex was contracted. */
+    final int[] rank;
+    /** For each vertex, the edges leaving it toward higher-ranked vertices, in CSR form. */
+    final int[] upStart, upTo, upMiddle;
+    final double[] upWeight;
+    /** For each vertex, the edges entering it from higher-ranked vertices, in CSR form. */
+    final int[] downStart, downFrom, downMiddle;
+    final double[] downWeight;
+
+    private ContractionHierarchy(RoutingGraph rg, int[] rank,
+                                 int[] upStart, int[] upTo, int[] upMiddle, double[] upWeight,
+                                 int[] downStart, int[] downFrom, int[] downMiddle,
+                                 double[] downWeight) {
+        this.rg = rg;
+        this.rank = rank;
+        this.upStart = upStart;
+        this.upTo = upTo;
+        this.upMiddle = upMiddle;
+        this.upWeight = upWeight;
+        this.downStart = downStart;
+        this.downFrom = downFrom;
+        this.downMiddle = downMiddle;
+        this.downWeight = downWeight;
+    }
+
+    /**
+     * Returns the number of edges in the hierarchy, shortcuts included.
+     * @return The number of upward and downward edges.
+     */
+    int edgeCount() {
+        return upTo.length + downFrom.length;
+    }
+
+    /**
+     * Returns the shortest route between two points snapped onto roads, as the vertex IDs from
+     * an end of the start's road to an end of the goal's road, with every shortcut unpacked.
+     * @param start Where the route starts.
+     * @param goal Where the route ends.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    List<Long> shortestPath(SegmentIndex.Snap start, SegmentIndex.Snap goal) {
+        SearchState forward = rg.searchState();
+        SearchState backward = rg.reverseSearchState();
+        double mu = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        for (long end : start.ends()) {
+            int v = rg.number(end);
+            if (v >= 0 && forward.improve(v, rg.snapCost(v, start), -1)) {
+                forward.fringe.push(v, forward.dist(v));
+            }
+        }
+        for (long end : goal.ends()) {
+            int v = rg.number(end);
+            if (v >= 0 && backward.improve(v, rg.snapCost(v, goal), -1)) {
+                backward.fringe.push(v, backward.dist(v));
+                if (forward.dist(v) + backward.dist(v) < mu) {
+                    mu = forward.dist(v) + backward.dist(v);
+                    meeting = v;
+                }
+            }
+        }
+
+        /* Each side may stop once its smallest key reaches mu; alternate by smaller key. */
+        while (true) {
+            double topForward = forward.fringe.isEmpty()
+                    ? Double.POSITIVE_INFINITY : forward.fringe.minKey();
+            double topBackward = backward.fringe.isEmpty()
+                    ? Double.POSITIVE_INFINITY : backward.fringe.minKey();
+            if (Math.min(topForward, topBackward) >= mu) {
+                break;
+            }
+            boolean isForward = topForward <= topBackward;
+            SearchState state = isForward ? forward : backward;
+            SearchState other = isForward ? backward : forward;
+            int[] edgeStart = isForward ? upStart : downStart;
+            int[] edgeEnd = isForward ? upTo : downFrom;
+            double[] weight = isForward ? upWeight : downWeight;
+            int v = state.fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (stalled(state, v, dv, isForward)) {
+                continue;
+            }
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+                int w = edgeEnd[e];
+                double dw = dv + weight[e];
+                if (state.improve(w, dw, v)) {
+                    state.fringe.push(w, dw);
+                    if (dw + other.dist(w) < mu) {
+                        mu = dw + other.dist(w);
+                        meeting = w;
+                    }
+                }
+            }
+        }
+        if (meeting < 0) {
+            return new ArrayList<>();
+        }
+
+        /* Collect the hierarchy's vertices along the route, then unpack each edge between them. */
+        List<Integer> corners = new ArrayList<>();
+        for (int u = meeting; u >= 0; u = forward.parent(u)) {
+            corners.add(u);
+        }
+        Collections.reverse(corners);
+        for (int u = backward.parent(meeting); u >= 0; u = backward.parent(u)) {
+            corners.add(u);
+        }
+        List<Long> path = new ArrayList<>();
+        path.add(rg.ids[corners.get(0)]);
+        for (int i = 1; i < corners.size(); i += 1) {
+            unpack(corners.get(i - 1), corners.get(i), path);
+        }
+        return path;
+    }
+
+    /**
+     * Returns true if v is reached more cheaply by coming down from a higher-ranked vertex this
+     * search has already reached. Then v's upward edges cannot be on a shortest route, and
+     * scanning them is skipped ("stall-on-demand").
+     */
+    private boolean stalled(SearchState state, int v, double dv, boolean isForward) {
+        int[] edgeStart = isForward ? downStart : upStart;
+        int[] edgeEnd = isForward ? downFrom : upTo;
+        double[] weight = isForward ? downWeight : upWeight;
+        for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+            if (state.dist(edgeEnd[e]) + weight[e] < dv) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Appends the original vertices after a on the hierarchy's edge from a to b, through b. */
+    private void unpack(int a, int b, List<Long> path) {
+        int[] stack = new int[16];
+        stack[0] = a;
+        stack[1] = b;
+        int size = 2;
+        while (size > 0) {
+            int to = stack[size - 1];
+            int from = stack[size - 2];
+            size -= 2;
+            int middle = middle(from, to);
+            if (middle < 0) {
+                path.add(rg.ids[to]);
+                continue;
+            }
+            if (size + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            /* Unpack from-middle before middle-to: the top of the stack is handled first. */
+            stack[size] = middle;
+            stack[size + 1] = to;
+            stack[size + 2] = from;
+            stack[size + 3] = middle;
+            size += 4;
+        }
+    }
+
+    /** Returns the vertex skipped by the hierarchy's edge from a to b, or -1 for a road. */
+    private int middle(int a, int b) {
+        if (rank[a] < rank[b]) {
+            for (int e = upStart[a]; e < upStart[a + 1]; e += 1) {
+                if (upTo[e] == b) {
+                    return upMiddle[e];
+                }
+            }
+        } else {
+            for (int e = downStart[b]; e < downStart[b + 1]; e += 1) {
+                if (downFrom[e] == a) {
+                    return downMiddle[e];
+                }
+            }
+        }
+        throw new IllegalStateException("no edge from " + rg.ids[a] + " to " + rg.ids[b]);
+    }
+
+    /**
+     * Loads the hierarchy saved next to a map, or builds it and saves it there if there is no
+     * saved hierarchy or it was built from a different graph.
+     * @param rg The graph of the map.
+     * @param dbPath The path of the map's OSM file.
+     * @return The contraction hierarchy of <code>rg</code>.
+     */
+    static ContractionHierarchy loadOrBuild(RoutingGraph rg, String dbPath) {
+        File file = new File(dbPath + SUFFIX);
+        if (file.isFile()) {
+            try {
+                ContractionHierarchy ch = load(file, rg);
+                if (ch != null) {
+                    return ch;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = build(rg);
+        try {
+            ch.save(file);
+        } catch (IOException e) {
+            /* The hierarchy still works; it is just built again next time. */
+            e.printStackTrace();
+        }
+        return ch;
+    }
+
+    /**
+     * Writes this hierarchy to a file.
+     * @param file Where to save the hierarchy.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint(rg));
+            writeInts(out, rank);
+            writeInts(out, upStart);
+            writeInts(out, upTo);
+            writeInts(out, upMiddle);
+            writeDoubles(out, upWeight);
+            writeInts(out, downStart);
+            writeInts(out, downFrom);
+            writeInts(out, downMiddle);
+            writeDoubles(out, downWeight);
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by <code>save</code>.
+     * @param file The saved hierarchy.
+     * @param rg The graph the hierarchy should belong to.
+     * @return The hierarchy, or null if it was built from a different graph.
+     * @throws IOException If the file cannot be read or is not a saved hierarchy.
+     */
+    static ContractionHierarchy load(File file, RoutingGraph rg) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a saved contraction hierarchy");
+            }
+            if (in.readLong() != fingerprint(rg)) {
+                return null;
+            }
+            return new ContractionHierarchy(rg, readInts(in),
+                    readInts(in), readInts(in), readInts(in), readDoubles(in),
+                    readInts(in), readInts(in), readInts(in), readDoubles(in));
+        }
+    }
+
+    /** Returns a hash of the graph's vertices and edges, to match saved hierarchies to graphs. */
+    static long fingerprint(RoutingGraph rg) {
+        long h = rg.size();
+        for (int v = 0; v < rg.size(); v += 1) {
+            h = 31 * h + rg.ids[v];
+            h = 31 * h + rg.edgeStart[v + 1];
+        }
+        for (int e = 0; e < rg.edgeTo.length; e += 1) {
+            h = 31 * h + rg.edgeTo[e];
+            h = 31 * h + Double.doubleToLongBits(rg.edgeWeight[e]);
+        }
+        return h;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    /**
+     * Builds the hierarchy of a graph.
+     * @param rg The graph to preprocess.
+     * @return Its contraction hierarchy.
+     */
+    static ContractionHierarchy build(RoutingGraph rg) {
+        return new Builder(rg).build();
+    }
+
+    /** The edges of one vertex during preprocessing, each kept only once, at its least weight. */
+    private static class EdgeList {
+        int[] other = new int[4];
+        double[] weight = new double[4];
+        int[] middle = new int[4];
+        int size;
+
+        /** Adds an edge, or lowers the weight of the edge to the same vertex if this is less. */
+        void addOrLower(int v, double w, int mid) {
+            for (int i = 0; i < size; i += 1) {
+                if (other[i] == v) {
+                    if (w < weight[i]) {
+                        weight[i] = w;
+                        middle[i] = mid;
+                    }
+                    return;
+                }
+            }
+            if (size == other.length) {
+                other = Arrays.copyOf(other, 2 * size);
+                weight = Arrays.copyOf(weight, 2 * size);
+                middle = Arrays.copyOf(middle, 2 * size);
+            }
+            other[size] = v;
+            weight[size] = w;
+            middle[size] = mid;
+            size += 1;
+        }
+
+        void remove(int v) {
+            for (int i = 0; i < size; i += 1) {
+                if (other[i] == v) {
+                    size -= 1;
+                    other[i] = other[size];
+                    weight[i] = weight[size];
+                    middle[i] = middle[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Contracts the vertices of a graph one by one and collects the resulting edges. */
+    private static class Builder {
+        private final RoutingGraph rg;
+        private final int n;
+        /** The edges leaving and entering each vertex that has not been contracted yet. */
+        private final EdgeList[] out, in;
+        private final boolean[] contracted;
+        /** How many neighbors of each vertex have been contracted, and how deep it sits. */
+        private final int[] deletedNeighbors, depth;
+        /** Working memory for witness searches. */
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private int witnessEpoch;
+        private final IndexedMinHeap witnessFringe;
+
+        Builder(RoutingGraph rg) {
+            this.rg = rg;
+            n = rg.size();
+            out = new EdgeList[n];
+            in = new EdgeList[n];
+            for (int v = 0; v < n; v += 1) {
+                out[v] = new EdgeList();
+                in[v] = new EdgeList();
+            }
+            for (int v = 0; v < n; v += 1) {
+                for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                    int w = rg.edgeTo[e];
+                    if (w != v) {
+                        out[v].addOrLower(w, rg.edgeWeight[e], -1);
+                        in[w].addOrLower(v, rg.edgeWeight[e], -1);
+                    }
+                }
+            }
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            depth = new int[n];
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            witnessFringe = new IndexedMinHeap(n);
+        }
+
+        ContractionHierarchy build() {
+            /* Contract by priority, recomputing a vertex's priority when it reaches the top. */
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v += 1) {
+                queue.push(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.minKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                contract(v, true);
+                contracted[v] = true;
+                rank[v] = next;
+                next += 1;
+                for (int i = 0; i < out[v].size; i += 1) {
+                    neighborContracted(out[v].other[i], v);
+                    in[out[v].other[i]].remove(v);
+                }
+                for (int i = 0; i < in[v].size; i += 1) {
+                    neighborContracted(in[v].other[i], v);
+                    out[in[v].other[i]].remove(v);
+                }
+            }
+            return collect(rank);
+        }
+
+        private void neighborContracted(int w, int v) {
+            deletedNeighbors[w] += 1;
+            depth[w] = Math.max(depth[w], depth[v] + 1);
+        }
+
+        /**
+         * Returns how attractive it is to contract v next; lower is better. Vertices whose
+         * removal adds few shortcuts compared to the edges it removes go first, spread evenly
+         * over the map by counting neighbors already removed and how deep v sits.
+         */
+        private double priority(int v) {
+            int shortcuts = contract(v, false);
+            int edgeDifference = shortcuts - out[v].size - in[v].size;
+            return 2 * edgeDifference + deletedNeighbors[v] + depth[v];
+        }
+
+        /**
+         * Finds the shortcuts needed to contract v, and adds them if <code>add</code> is true.
+         * @return The number of shortcuts needed.
+         */
+        private int contract(int v, boolean add) {
+            int shortcuts = 0;
+            EdgeList into = in[v];
+            EdgeList from = out[v];
+            for (int i = 0; i < into.size; i += 1) {
+                int u = into.other[i];
+                double maxCost = 0;
+                for (int j = 0; j < from.size; j += 1) {
+                    if (from.other[j] != u) {
+                        maxCost = Math.max(maxCost, into.weight[i] + from.weight[j]);
+                    }
+                }
+                if (maxCost == 0) {
+                    continue;
+                }
+                witnessSearch(u, v, maxCost);
+                for (int j = 0; j < from.size; j += 1) {
+                    int x = from.other[j];
+                    double cost = into.weight[i] + from.weight[j];
+                    if (x == u || witness(x) <= cost) {
+                        continue;
+                    }
+                    shortcuts += 1;
+                    if (add) {
+                        out[u].addOrLower(x, cost, v);
+                        in[x].addOrLower(u, cost, v);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /** Runs a Dijkstra search from u that avoids v and stops beyond maxCost. */
+        private void witnessSearch(int u, int v, double maxCost) {
+            witnessEpoch += 1;
+            witnessFringe.clear();
+            witnessDist[u] = 0;
+            witnessStamp[u] = witnessEpoch;
+            witnessFringe.push(u, 0);
+            int settled = 0;
+            while (!witnessFringe.isEmpty() && witnessFringe.minKey() <= maxCost
+                    && settled < WITNESS_SETTLE_LIMIT) {
+                int w = witnessFringe.pop();
+                settled += 1;
+                EdgeList edges = out[w];
+                for (int i = 0; i < edges.size; i += 1) {
+                    int x = edges.other[i];
+                    double d = witnessDist[w] + edges.weight[i];
+                    if (x != v && d < witness(x)) {
+                        witnessDist[x] = d;
+                        witnessStamp[x] = witnessEpoch;
+                        witnessFringe.push(x, d);
+                    }
+                }
+            }
+        }
+
+        /** Returns the distance the last witness search found to x, or infinity. */
+        private double witness(int x) {
+            return witnessStamp[x] == witnessEpoch ? witnessDist[x] : Double.POSITIVE_INFINITY;
+        }
+
+        /** Lays out the edges left at each vertex when it was contracted in CSR form. */
+        private ContractionHierarchy collect(int[] rank) {
+            int[] upStart = new int[n + 1];
+            int[] downStart = new int[n + 1];
+            for (int v = 0; v < n; v += 1) {
+                upStart[v + 1] = upStart[v] + out[v].size;
+                downStart[v + 1] = downStart[v] + in[v].size;
+            }
+            int[] upTo = new int[upStart[n]];
+            int[] upMiddle = new int[upStart[n]];
+            double[] upWeight = new double[upStart[n]];
+            int[] downFrom = new int[downStart[n]];
+            int[] downMiddle = new int[downStart[n]];
+            double[] downWeight = new double[downStart[n]];
+            for (int v = 0; v < n; v += 1) {
+                System.arraycopy(out[v].other, 0, upTo, upStart[v], out[v].size);
+                System.arraycopy(out[v].middle, 0, upMiddle, upStart[v], out[v].size);
+                System.arraycopy(out[v].weight, 0, upWeight, upStart[v], out[v].size);
+                System.arraycopy(in[v].other, 0, downFrom, downStart[v], in[v].size);
+                System.arraycopy(in[v].middle, 0, downMiddle, downStart[v], in[v].size);
+                System.arraycopy(in[v].weight, 0, downWeight, downStart[v], in[v].size);
+            }
+            return new ContractionHierarchy(rg, rank, upStart, upTo, upMiddle, upWeight,
+                    downStart, downFrom, downMiddle, downWeight);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A customizable contraction hierarchy over a <code>RoutingGraph</code>, for routing on edge
+ * weights that change while the server runs, such as traffic and closures. Preprocessing splits
+ * in two. The first phase depends only on which roads exist: the vertices are ordered by
+ * eliminating the one with the fewest remaining neighbors each time, and every pair of
+ * neighbors of an eliminated vertex is joined by an arc, so each arc of the result can hold a
+ * shortcut for any weights. The second phase, customization, fills in the arcs' weights for one
+ * weight vector. It handles the vertices level by level, lowest first, where a vertex's level is
+ * one more than its lower neighbors' highest. Within a level the vertices are customized in
+ * parallel: each one only writes its own upward arcs and only reads arcs of lower levels.
+ *
+ * Queries search upward from both ends as in <code>ContractionHierarchy</code>. Each
+ * customization builds a new set of arc weights and swaps it in at once, so a query in progress
+ * keeps using the weights it started with.
+ * @source https://doi.org/10.1145/2886843
+ */
+class CustomizableHierarchy {
+    /** The graph this hierarchy was built over. */
+    final RoutingGraph rg;
+    /** The order in which each vertex was eliminated. */
+    private final int[] rank;
+    /** For each vertex, its arcs to higher-ranked vertices in CSR form, sorted by target. */
+    private final int[] upStart, upTo;
+    /** The lower end of each arc. */
+    private final int[] arcFrom;
+    /** For each vertex, its arcs from lower-ranked vertices in CSR form. */
+    private final int[] lowerStart, lowerArc;
+    /** The arc each edge of the graph lies on, or -1, and whether it runs up that arc. */
+    private final int[] edgeArc;
+    private final boolean[] edgeUp;
+    /** The vertices grouped by level; level l is <code>byLevel[levelStart[l]...]</code>. */
+    private final int[] byLevel, levelStart;
+    /** The arc weights of the latest customization. */
+    private volatile Metric metric;
+
+    /** The arc weights for one weight vector, and the vertex each shortcut skips. */
+    private static class Metric {
+        /** The cost of travelling each arc upward and downward. */
+        final double[] up, down;
+        /** The vertex each arc skips in each direction, or -1 for a road. */
+        final int[] upMiddle, downMiddle;
+        /** The edge weights the arc weights were computed from. */
+        final double[] weights;
+        /** How long the customization took, in milliseconds. */
+        long millis;
+
+        Metric(int arcs, double[] weights) {
+            this.weights = weights;
+            up = new double[arcs];
+            down = new double[arcs];
+            upMiddle = new int[arcs];
+            downMiddle = new int[arcs];
+            Arrays.fill(up, Double.POSITIVE_INFINITY);
+            Arrays.fill(down, Double.POSITIVE_INFINITY);
+            Arrays.fill(upMiddle, -1);
+            Arrays.fill(downMiddle, -1);
+        }
+    }
+
+    /**
+     * Runs the metric-independent preprocessing of a graph and customizes it for the graph's
+     * own weights.
+     * @param rg The graph to preprocess.
+     */
+    CustomizableHierarchy(RoutingGraph rg) {
+        this.rg = rg;
+        int n = rg.size();
+        rank = new int[n];
+        List<int[]> upward = eliminate(rg, rank);
+
+        upStart = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            upStart[v + 1] = upStart[v] + upward.get(v).length;
+        }
+        int arcs = upStart[n];
+        upTo = new int[arcs];
+        arcFrom = new int[arcs];
+        int[] lowerCount = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            int[] targets = upward.get(v);
+            Arrays.sort(targets);
+            System.arraycopy(targets, 0, upTo, upStart[v], targets.length);
+            Arrays.fill(arcFrom, upStart[v], upStart[v + 1], v);
+            for (int w : targets) {
+                lowerCount[w + 1] += 1;
+            }
+        }
+        lowerStart = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            lowerStart[v + 1] = lowerStart[v] + lowerCount[v + 1];
+        }
+        lowerArc = new int[arcs];
+        int[] next = Arrays.copyOf(lowerStart, n);
+        for (int e = 0; e < arcs; e += 1) {
+            lowerArc[next[upTo[e]]] = e;
+            next[upTo[e]] += 1;
+        }
+
+        edgeArc = new int[rg.edgeTo.length];
+        edgeUp = new boolean[rg.edgeTo.length];
+        for (int u = 0; u < n; u += 1) {
+            for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                int v = rg.edgeTo[e];
+                edgeUp[e] = rank[u] < rank[v];
+                edgeArc[e] = u == v ? -1 : edgeUp[e] ? arc(u, v) : arc(v, u);
+            }
+        }
+
+        /* A vertex's level is one more than the highest level among its lower neighbors. */
+        int[] level = new int[n];
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v += 1) {
+            order[v] = v;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(rank[a], rank[b]));
+        int levels = 0;
+        for (int v : order) {
+            for (int i = lowerStart[v]; i < lowerStart[v + 1]; i += 1) {
+                level[v] = Math.max(level[v], level[arcFrom[lowerArc[i]]] + 1);
+            }
+            levels = Math.max(levels, level[v] + 1);
+        }
+        levelStart = new int[levels + 1];
+        for (int v = 0; v < n; v += 1) {
+            levelStart[level[v] + 1] += 1;
+        }
+        for (int l = 0; l < levels; l += 1) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        byLevel = new int[n];
+        int[] fill = Arrays.copyOf(levelStart, Math.max(levels, 1));
+        for (int v = 0; v < n; v += 1) {
+            byLevel[fill[level[v]]] = v;
+            fill[level[v]] += 1;
+        }
+        customize(rg.edgeWeight);
+    }
+
+    /**
+     * Eliminates the vertices of a graph one at a time, fewest remaining neighbors first, and
+     * joins the remaining neighbors of each into a clique.
+     * @param rg The graph, whose edges are taken to run both ways.
+     * @param rank Filled in with the order each vertex is eliminated in.
+     * @return For each vertex, the neighbors it still had when it was eliminated.
+     */
+    private static List<int[]> eliminate(RoutingGraph rg, int[] rank) {
+        int n = rg.size();
+        Neighbors[] neighbors = new Neighbors[n];
+        for (int v = 0; v < n; v += 1) {
+            neighbors[v] = new Neighbors();
+        }
+        for (int u = 0; u < n; u += 1) {
+            for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                int v = rg.edgeTo[e];
+                if (u != v) {
+                    neighbors[u].add(v);
+                    neighbors[v].add(u);
+                }
+            }
+        }
+        IndexedMinHeap queue = new IndexedMinHeap(n);
+        for (int v = 0; v < n; v += 1) {
+            queue.push(v, neighbors[v].size);
+        }
+        List<int[]> upward = new ArrayList<>(Collections.nCopies(n, (int[]) null));
+        int[] stamp = new int[n];
+        int epoch = 0;
+        int next = 0;
+        while (!queue.isEmpty()) {
+            int v = queue.pop();
+            Neighbors nv = neighbors[v];
+            if (!queue.isEmpty() && nv.size > queue.minKey()) {
+                queue.push(v, nv.size);
+                continue;
+            }
+            rank[v] = next;
+            next += 1;
+            int[] remaining = Arrays.copyOf(nv.vertices, nv.size);
+            upward.set(v, remaining);
+            for (int u : remaining) {
+                Neighbors nu = neighbors[u];
+                nu.remove(v);
+                epoch += 1;
+                for (int i = 0; i < nu.size; i += 1) {
+                    stamp[nu.vertices[i]] = epoch;
+                }
+                for (int w : remaining) {
+                    if (w != u && stamp[w] != epoch) {
+                        nu.add(w);
+                    }
+                }
+            }
+        }
+        return upward;
+    }
+
+    /** The neighbors of one vertex during elimination. */
+    private static class Neighbors {
+        int[] vertices = new int[4];
+        int size;
+
+        /** Adds a neighbor unless it is already there. */
+        void add(int v) {
+            for (int i = 0; i < size; i += 1) {
+                if (vertices[i] == v) {
+                    return;
+                }
+            }
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * size);
+            }
+            vertices[size] = v;
+            size += 1;
+        }
+
+        void remove(int v) {
+            for (int i = 0; i < size; i += 1) {
+                if (vertices[i] == v) {
+                    size -= 1;
+                    vertices[i] = vertices[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Returns the arc from the lower vertex a to the higher vertex b, or -1 if there is none. */
+    private int arc(int a, int b) {
+        int i = Arrays.binarySearch(upTo, upStart[a], upStart[a + 1], b);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Returns the number of arcs in the hierarchy, shortcuts included.
+     * @return The number of arcs.
+     */
+    int arcCount() {
+        return upTo.length;
+    }
+
+    /**
+     * Replaces the hierarchy's weights. Queries that start after this returns use the new
+     * weights; queries already running finish with the old ones.
+     * @param weights The cost of each edge of the graph, indexed like
+     *                <code>RoutingGraph.edgeWeight</code>; infinity closes an edge. The array is
+     *                kept, and must not be changed afterwards.
+     * @throws IllegalArgumentException If there is not one weight per edge, or a weight is
+     *                                  negative or NaN.
+     */
+    synchronized void customize(double[] weights) {
+        if (weights.length != edgeArc.length) {
+            throw new IllegalArgumentException("expected " + edgeArc.length + " weights");
+        }
+        long startTime = System.nanoTime();
+        Metric m = new Metric(upTo.length, weights);
+        for (int e = 0; e < weights.length; e += 1) {
+            if (!(weights[e] >= 0)) {
+                throw new IllegalArgumentException("bad weight for edge " + e);
+            }
+            int a = edgeArc[e];
+            if (a < 0) {
+                continue;
+            }
+            if (edgeUp[e]) {
+                m.up[a] = Math.min(m.up[a], weights[e]);
+            } else {
+                m.down[a] = Math.min(m.down[a], weights[e]);
+            }
+        }
+        for (int l = 0; l + 1 < levelStart.length; l += 1) {
+            IntStream.range(levelStart[l], levelStart[l + 1]).parallel()
+                    .forEach(i -> relaxTriangles(byLevel[i], m));
+        }
+        m.millis = (System.nanoTime() - startTime) / 1_000_000;
+        metric = m;
+    }
+
+    /**
+     * Returns the edge weights of the latest customization.
+     * @return The cost of each edge of the graph, indexed like
+     *         <code>RoutingGraph.edgeWeight</code>, which must not be changed.
+     */
+    double[] weights() {
+        return metric.weights;
+    }
+
+    /**
+     * Replaces the hierarchy's weights with the graph's own weights scaled by an overlay, for
+     * example the latest traffic report. Edges left out of the overlay keep their own weights.
+     * @param from The ID of the vertex each scaled edge leaves.
+     * @param to The ID of the vertex each scaled edge enters.
+     * @param factors How much each edge's weight is multiplied by; infinity closes it.
+     * @return How many of the overlay's edges were found in the graph.
+     */
+    int customize(long[] from, long[] to, double[] factors) {
+        double[] weights = rg.edgeWeight.clone();
+        int found = 0;
+        for (int i = 0; i < from.length; i += 1) {
+            int u = rg.number(from[i]);
+            int v = rg.number(to[i]);
+            if (u < 0 || v < 0) {
+                continue;
+            }
+            for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                if (rg.edgeTo[e] == v) {
+                    weights[e] = rg.edgeWeight[e] * factors[i];
+                    found += 1;
+                    break;
+                }
+            }
+        }
+        customize(weights);
+        return found;
+    }
+
+    /**
+     * Lowers the weights of v's upward arcs through the triangles below them: for each lower
+     * neighbor x of v and each higher vertex w next to both, v to x to w may be cheaper than the
+     * arc from v to w, and w to x to v cheaper than the arc back.
+     */
+    private void relaxTriangles(int v, Metric m) {
+        for (int i = lowerStart[v]; i < lowerStart[v + 1]; i += 1) {
+            int xv = lowerArc[i];
+            int x = arcFrom[xv];
+            /* Both upward lists are sorted by target, so their common targets merge in order. */
+            int a = upStart[v];
+            int b = upStart[x];
+            while (a < upStart[v + 1] && b < upStart[x + 1]) {
+                if (upTo[a] < upTo[b]) {
+                    a += 1;
+                } else if (upTo[a] > upTo[b]) {
+                    b += 1;
+                } else {
+                    double up = m.down[xv] + m.up[b];
+                    if (up < m.up[a]) {
+                        m.up[a] = up;
+                        m.upMiddle[a] = x;
+                    }
+                    double down = m.down[b] + m.up[xv];
+                    if (down < m.down[a]) {
+                        m.down[a] = down;
+                        m.downMiddle[a] = x;
+                    }
+                    a += 1;
+                    b += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shortest route between two points snapped onto roads under the latest
+     * weights, as the vertex IDs from an end of the start's road to an end of the goal's road.
+     * @param start Where the route starts.
+     * @param goal Where the route ends.
+     * @return The vertex IDs along the route, or an empty list if there is no route.
+     */
+    List<Long> shortestPath(SegmentIndex.Snap start, SegmentIndex.Snap goal) {
+        Metric m = metric;
+        SearchState forward = rg.searchState();
+        SearchState backward = rg.reverseSearchState();
+        for (long end : start.ends()) {
+            int v = rg.number(end);
+            if (v >= 0 && forward.improve(v, rg.snapCost(v, start), -1)) {
+                forward.fringe.push(v, forward.dist(v));
+            }
+        }
+        for (long end : goal.ends()) {
+            int v = rg.number(end);
+            if (v >= 0 && backward.improve(v, rg.snapCost(v, goal), -1)) {
+                backward.fringe.push(v, backward.dist(v));
+            }
+        }
+        int meeting = search(m, forward, backward);
+        if (meeting < 0) {
+            return new ArrayList<>();
+        }
+        List<Integer> corners = new ArrayList<>();
+        for (int u = meeting; u >= 0; u = forward.parent(u)) {
+            corners.add(u);
+        }
+        Collections.reverse(corners);
+        for (int u = backward.parent(meeting); u >= 0; u = backward.parent(u)) {
+            corners.add(u);
+        }
+        List<Long> path = new ArrayList<>();
+        path.add(rg.ids[corners.get(0)]);
+        for (int i = 1; i < corners.size(); i += 1) {
+            unpack(m, corners.get(i - 1), corners.get(i), path);
+        }
+        return path;
+    }
+
+    /**
+     * Returns the cost of the shortest route between two vertices under the latest weights.
+     * @param s The vertex number of the start.
+     * @param t The vertex number of the goal.
+     * @return The cost, or infinity if there is no route.
+     */
+    double distance(int s, int t) {
+        SearchState forward = rg.searchState();
+        SearchState backward = rg.reverseSearchState();
+        forward.improve(s, 0, -1);
+        forward.fringe.push(s, 0);
+        backward.improve(t, 0, -1);
+        backward.fringe.push(t, 0);
+        int meeting = search(metric, forward, backward);
+        return meeting < 0 ? Double.POSITIVE_INFINITY
+                : forward.dist(meeting) + backward.dist(meeting);
+    }
+
+    /**
+     * Searches upward from both seeded states until neither can improve the best route.
+     * @return The vertex where the best route turns downward, or -1 if there is no route.
+     */
+    private int search(Metric m, SearchState forward, SearchState backward) {
+        double mu = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (true) {
+            double topForward = forward.fringe.isEmpty()
+                    ? Double.POSITIVE_INFINITY : forward.fringe.minKey();
+            double topBackward = backward.fringe.isEmpty()
+                    ? Double.POSITIVE_INFINITY : backward.fringe.minKey();
+            if (Math.min(topForward, topBackward) >= mu) {
+                return meeting;
+            }
+            boolean isForward = topForward <= topBackward;
+            SearchState state = isForward ? forward : backward;
+            SearchState other = isForward ? backward : forward;
+            double[] weight = isForward ? m.up : m.down;
+            int v = state.fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            /* A route is found when the second side settles its highest vertex. */
+            if (dv + other.dist(v) < mu) {
+                mu = dv + other.dist(v);
+                meeting = v;
+            }
+            for (int e = upStart[v]; e < upStart[v + 1]; e += 1) {
+                int w = upTo[e];
+                double dw = dv + weight[e];
+                if (state.improve(w, dw, v)) {
+                    state.fringe.push(w, dw);
+                }
+            }
+        }
+    }
+
+    /** Appends the original vertices after a on the arc from a to b, through b. */
+    private void unpack(Metric m, int a, int b, List<Long> path) {
+        int[] stack = new int[16];
+        stack[0] = a;
+        stack[1] = b;
+        int size = 2;
+        while (size > 0) {
+            int to = stack[size - 1];
+            int from = stack[size - 2];
+            size -= 2;
+            int middle = rank[from] < rank[to]
+                    ? m.upMiddle[arc(from, to)] : m.downMiddle[arc(to, from)];
+            if (middle < 0) {
+                path.add(rg.ids[to]);
+                continue;
+            }
+            if (size + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            /* Unpack from-middle before middle-to: the top of the stack is handled first. */
+            stack[size] = middle;
+            stack[size + 1] = to;
+            stack[size + 2] = from;
+            stack[size + 3] = middle;
+            size += 4;
+        }
+    }
+
+    /**
+     * Returns a one-line description of the hierarchy and its latest customization.
+     * @return A report such as "customizable hierarchy over 90000 vertices, 310000 arcs in 95
+     *         levels: customized in 120 ms".
+     */
+    String report() {
+        return String.format("customizable hierarchy over %d vertices, %d arcs in %d levels: "
+                + "customized in %d ms", rg.size(), arcCount(), levelStart.length - 1,
+                metric.millis);
+    }
+}
@@ -0,0 +1,397 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An incremental route search for one navigating client, after D* Lite. The search runs
+ * backward from a fixed goal, so its tree of costs to the goal stays valid when the start
+ * moves: a new start only raises every key by the same amount (the key modifier) instead of
+ * invalidating them. When edge weights change, such as traffic being reported, only the vertices
+ * whose costs depend on the changed edges are repaired. Each call then expands just the vertices
+ * needed to make the new start's cost exact, which for a client moving along its route is
+ * usually a handful.
+ *
+ * The start and goal points are snapped onto roads, and each becomes an extra vertex joined to
+ * the ends of its road at the cost of the partial road. The search keeps two costs per vertex
+ * and its own priority queue, so one instance uses about 40 bytes per vertex; it is not safe
+ * for use by several threads at once.
+ * @source https://doi.org/10.1109/TRO.2004.838026
+ */
+class DStarLite {
+    /** The graph searched. */
+    final RoutingGraph rg;
+    /** The goal the costs lead to. */
+    final SegmentIndex.Snap goal;
+    /** The numbers of the extra start and goal vertices. */
+    private final int startVertex, goalVertex;
+    /** The cost to the goal of each vertex as of its last expansion, and as its edges say. */
+    private final double[] g, rhs;
+    private final KeyHeap queue;
+    /** The edge weights the costs were computed with. */
+    private double[] weights;
+    /** The ends of the current start's road, and the cost of reaching each from the start. */
+    private int[] startEnds = new int[0];
+    private double[] startCosts = new double[0];
+    /** The ends of the goal's road, and the cost of reaching the goal from each. */
+    private final int[] goalEnds;
+    private final double[] goalCosts;
+    /** The current start point; the heuristic is the lower bound on the cost from here. */
+    private double startLon, startLat;
+    private boolean started;
+    /** How far all keys have fallen behind since the search began, as the start moved. */
+    private double keyModifier;
+    /** The number of vertices expanded by the last call to <code>route</code>. */
+    private int expanded;
+
+    /**
+     * Creates the search for routes to a goal. No vertices are expanded until the first route.
+     * @param rg The graph to search.
+     * @param goal The goal, snapped onto a road.
+     * @param weights The cost of each edge of the graph, indexed like
+     *                <code>RoutingGraph.edgeWeight</code>.
+     */
+    DStarLite(RoutingGraph rg, SegmentIndex.Snap goal, double[] weights) {
+        this.rg = rg;
+        this.goal = goal;
+        this.weights = weights;
+        int n = rg.size();
+        startVertex = n;
+        goalVertex = n + 1;
+        g = new double[n + 2];
+        rhs = new double[n + 2];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Double.POSITIVE_INFINITY);
+        queue = new KeyHeap(n + 2);
+        long[] ends = goal.ends();
+        int[] numbers = new int[ends.length];
+        double[] costs = new double[ends.length];
+        int count = 0;
+        for (long end : ends) {
+            int v = rg.number(end);
+            if (v >= 0) {
+                numbers[count] = v;
+                costs[count] = rg.snapCost(v, goal);
+                count += 1;
+            }
+        }
+        goalEnds = Arrays.copyOf(numbers, count);
+        goalCosts = Arrays.copyOf(costs, count);
+        rhs[goalVertex] = 0;
+    }
+
+    /**
+     * Returns the shortest route from a start to the goal, repairing the previous search for
+     * the start's move and for any edge weights that changed.
+     * @param start Where the route starts now, snapped onto a road.
+     * @param newWeights The current cost of each edge of the graph.
+     * @return The vertex IDs from an end of the start's road to an end of the goal's road, or an
+     *         empty list if there is no route.
+     * @throws SearchBudget.ExceededException If the search runs out of budget; the search is
+     *                                        left consistent and can be called again.
+     */
+    List<Long> route(SegmentIndex.Snap start, double[] newWeights) {
+        expanded = 0;
+        if (started) {
+            keyModifier += GraphDB.distance(startLon, startLat, start.lon, start.lat)
+                    * rg.profile.minCostPerMile();
+        }
+        startLon = start.lon;
+        startLat = start.lat;
+        if (!started) {
+            /* The goal only enters the queue once its key can be computed from a start. */
+            started = true;
+            queue.update(goalVertex, key1(goalVertex), key2(goalVertex));
+        }
+        setStart(start);
+        if (newWeights != weights) {
+            double[] old = weights;
+            weights = newWeights;
+            for (int u = 0; u < rg.size(); u += 1) {
+                for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                    if (old[e] != newWeights[e]) {
+                        updateVertex(u);
+                        break;
+                    }
+                }
+            }
+        }
+        computeShortestPath();
+        return path();
+    }
+
+    /**
+     * Returns the number of vertices expanded by the last call to <code>route</code>.
+     * @return The number of expansions.
+     */
+    int expanded() {
+        return expanded;
+    }
+
+    /** Joins the extra start vertex to the ends of the start's road. */
+    private void setStart(SegmentIndex.Snap start) {
+        long[] ends = start.ends();
+        int[] numbers = new int[ends.length];
+        double[] costs = new double[ends.length];
+        int count = 0;
+        for (long end : ends) {
+            int v = rg.number(end);
+            if (v >= 0) {
+                numbers[count] = v;
+                costs[count] = rg.snapCost(v, start);
+                count += 1;
+            }
+        }
+        startEnds = Arrays.copyOf(numbers, count);
+        startCosts = Arrays.copyOf(costs, count);
+        updateVertex(startVertex);
+    }
+
+    /** Expands vertices until the start's cost is exact. */
+    private void computeShortestPath() {
+        SearchBudget budget = SearchBudget.current();
+        while (!queue.isEmpty() && (less(queue.minKey1(), queue.minKey2(),
+                key1(startVertex), key2(startVertex)) || rhs[startVertex] != g[startVertex])) {
+            expanded += 1;
+            if (budget != null) {
+                budget.charge(expanded);
+            }
+            double oldKey1 = queue.minKey1();
+            double oldKey2 = queue.minKey2();
+            int u = queue.pop();
+            if (less(oldKey1, oldKey2, key1(u), key2(u))) {
+                /* The key is stale from before the start moved. */
+                queue.update(u, key1(u), key2(u));
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                updatePredecessors(u);
+            } else {
+                g[u] = Double.POSITIVE_INFINITY;
+                updateVertex(u);
+                updatePredecessors(u);
+            }
+        }
+    }
+
+    /** Updates every vertex with an edge into u. */
+    private void updatePredecessors(int u) {
+        if (u == goalVertex) {
+            for (int v : goalEnds) {
+                updateVertex(v);
+            }
+            return;
+        }
+        if (u == startVertex) {
+            return;
+        }
+        for (int slot = rg.reverseStart[u]; slot < rg.reverseStart[u + 1]; slot += 1) {
+            updateVertex(rg.reverseFrom[slot]);
+        }
+        for (int v : startEnds) {
+            if (v == u) {
+                updateVertex(startVertex);
+            }
+        }
+    }
+
+    /** Recomputes u's cost from its edges, and queues it if that differs from its last cost. */
+    private void updateVertex(int u) {
+        if (u != goalVertex) {
+            double best = Double.POSITIVE_INFINITY;
+            if (u == startVertex) {
+                for (int i = 0; i < startEnds.length; i += 1) {
+                    best = Math.min(best, startCosts[i] + g[startEnds[i]]);
+                }
+            } else {
+                for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                    best = Math.min(best, weights[e] + g[rg.edgeTo[e]]);
+                }
+                for (int i = 0; i < goalEnds.length; i += 1) {
+                    if (goalEnds[i] == u) {
+                        best = Math.min(best, goalCosts[i] + g[goalVertex]);
+                    }
+                }
+            }
+            rhs[u] = best;
+        }
+        if (g[u] != rhs[u]) {
+            queue.update(u, key1(u), key2(u));
+        } else {
+            queue.remove(u);
+        }
+    }
+
+    /** Follows the cheapest edges from the start to the goal. */
+    private List<Long> path() {
+        List<Long> path = new ArrayList<>();
+        if (g[startVertex] == Double.POSITIVE_INFINITY) {
+            return path;
+        }
+        int u = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < startEnds.length; i += 1) {
+            if (startCosts[i] + g[startEnds[i]] < best) {
+                best = startCosts[i] + g[startEnds[i]];
+                u = startEnds[i];
+            }
+        }
+        /* Every step lowers the cost left, so the walk ends within one visit per vertex. */
+        for (int steps = 0; u >= 0 && steps <= rg.size(); steps += 1) {
+            path.add(rg.ids[u]);
+            int next = -1;
+            best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < goalEnds.length; i += 1) {
+                if (goalEnds[i] == u && goalCosts[i] < best) {
+                    best = goalCosts[i];
+                    next = goalVertex;
+                }
+            }
+            for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                if (weights[e] + g[rg.edgeTo[e]] < best) {
+                    best = weights[e] + g[rg.edgeTo[e]];
+                    next = rg.edgeTo[e];
+                }
+            }
+            if (next == goalVertex) {
+                return path;
+            }
+            u = next;
+        }
+        throw new IllegalStateException("the costs to the goal do not lead to it");
+    }
+
+    /** Returns the first part of u's key: its cost through it, as far as is known. */
+    private double key1(int u) {
+        return key2(u) + heuristic(u) + keyModifier;
+    }
+
+    /** Returns the second part of u's key, which breaks ties in the first. */
+    private double key2(int u) {
+        return Math.min(g[u], rhs[u]);
+    }
+
+    /** Returns a lower bound on the cost from the current start to u. */
+    private double heuristic(int u) {
+        if (u == startVertex) {
+            return 0;
+        } else if (u == goalVertex) {
+            return GraphDB.distance(startLon, startLat, goal.lon, goal.lat)
+                    * rg.profile.minCostPerMile();
+        }
+        return rg.bound(u, startLon, startLat);
+    }
+
+    /** Returns true if the key (a1, a2) comes before (b1, b2). */
+    private static boolean less(double a1, double a2, double b1, double b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+    /**
+     * A binary min-heap of vertex numbers keyed by pairs of doubles in lexicographic order,
+     * whose keys can be raised as well as lowered and whose vertices can be removed.
+     */
+    private static class KeyHeap {
+        private final int[] heap;
+        private final double[] key1, key2;
+        /** The position of each vertex in <code>heap</code>, or -1 if it is not there. */
+        private final int[] position;
+        private int size;
+
+        KeyHeap(int capacity) {
+            heap = new int[capacity];
+            key1 = new double[capacity];
+            key2 = new double[capacity];
+            position = new int[capacity];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double minKey1() {
+            return key1[heap[0]];
+        }
+
+        double minKey2() {
+            return key2[heap[0]];
+        }
+
+        /** Adds v with the given key, or changes its key if it is already there. */
+        void update(int v, double k1, double k2) {
+            if (position[v] < 0) {
+                position[v] = size;
+                heap[size] = v;
+                size += 1;
+            }
+            key1[v] = k1;
+            key2[v] = k2;
+            siftUp(position[v]);
+            siftDown(position[v]);
+        }
+
+        int pop() {
+            int top = heap[0];
+            remove(top);
+            return top;
+        }
+
+        /** Removes v if it is there. */
+        void remove(int v) {
+            int i = position[v];
+            if (i < 0) {
+                return;
+            }
+            position[v] = -1;
+            size -= 1;
+            if (i < size) {
+                int moved = heap[size];
+                heap[i] = moved;
+                position[moved] = i;
+                siftUp(i);
+                siftDown(position[moved]);
+            }
+        }
+
+        private boolean before(int a, int b) {
+            return less(key1[a], key2[a], key1[b], key2[b]);
+        }
+
+        private void siftUp(int i) {
+            int v = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                int p = heap[parent];
+                if (!before(v, p)) {
+                    break;
+                }
+                heap[i] = p;
+                position[p] = i;
+                i = parent;
+            }
+            heap[i] = v;
+            position[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child += 1;
+                }
+                int c = heap[child];
+                if (!before(c, v)) {
+                    break;
+                }
+                heap[i] = c;
+                position[c] = i;
+                i = child;
+            }
+            heap[i] = v;
+            position[v] = i;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the road distances between every origin and every destination of a batch. Each point
+ * is snapped onto the roads once, and each origin runs a single one-to-many Dijkstra search that
+ * stops as soon as every destination's road ends are settled, instead of one full search per
+ * pair. Origins are searched in parallel, each on its worker thread's own search state and
+ * under the caller's search budget.
+ */
+class DistanceMatrix {
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Returns the road distance from each origin to each destination, in miles. Like
+     * <code>Router.shortestPath</code>, each point is snapped onto the nearest point of the
+     * nearest road, and the distance includes the partial roads from and to the snapped points.
+     * @param g The graph to route on.
+     * @param originLons The longitudes of the origins.
+     * @param originLats The latitudes of the origins, in the same order as <code>originLons</code>.
+     * @param destLons The longitudes of the destinations.
+     * @param destLats The latitudes of the destinations, in the same order as
+     *                 <code>destLons</code>.
+     * @return <code>distances[i][j]</code>, the distance from origin i to destination j, or
+     *         infinity if there is no route.
+     */
+    static double[][] distances(GraphDB g, double[] originLons, double[] originLats,
+                                double[] destLons, double[] destLats) {
+        RoutingGraph rg = g.routingGraph();
+        SegmentIndex.Snap[] origins = snap(g, originLons, originLats);
+        SegmentIndex.Snap[] dests = snap(g, destLons, destLats);
+
+        /*
+         * Index the destinations by road end: the vertices with targetStart[v] < targetStart[v+1]
+         * finish the routes to targetDest[k], at a cost of targetCost[k], for each k in between.
+         */
+        int n = rg.size();
+        int[] targetStart = new int[n + 1];
+        for (SegmentIndex.Snap d : dests) {
+            for (int v : ends(rg, d)) {
+                targetStart[v + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v += 1) {
+            targetStart[v + 1] += targetStart[v];
+        }
+        int[] targetDest = new int[targetStart[n]];
+        double[] targetCost = new double[targetStart[n]];
+        int[] next = Arrays.copyOf(targetStart, n);
+        int targetVertices = 0;
+        for (int j = 0; j < dests.length; j += 1) {
+            for (int v : ends(rg, dests[j])) {
+                if (next[v] == targetStart[v]) {
+                    targetVertices += 1;
+                }
+                targetDest[next[v]] = j;
+                targetCost[next[v]] = rg.snapCost(v, dests[j]);
+                next[v] += 1;
+            }
+        }
+
+        double[][] result = new double[origins.length][];
+        int numTargets = targetVertices;
+        IntStream.range(0, origins.length).parallel().forEach(SearchBudget.carried(i -> {
+            result[i] = row(rg, origins[i], dests, targetStart, targetDest, targetCost,
+                    numTargets);
+        }));
+        return result;
+    }
+
+    /** Returns the distances from one origin to every destination. */
+    private static double[] row(RoutingGraph rg, SegmentIndex.Snap origin,
+                                SegmentIndex.Snap[] dests, int[] targetStart, int[] targetDest,
+                                double[] targetCost, int numTargets) {
+        double[] row = new double[dests.length];
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        if (origin == null) {
+            return row;
+        }
+        SearchState state = rg.searchState();
+        IndexedMinHeap fringe = state.fringe;
+        for (int s : ends(rg, origin)) {
+            double d = rg.snapCost(s, origin);
+            if (state.improve(s, d, -1)) {
+                fringe.push(s, d);
+            }
+        }
+        int remaining = numTargets;
+        while (remaining > 0 && !fringe.isEmpty()) {
+            int v = fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (targetStart[v] < targetStart[v + 1]) {
+                remaining -= 1;
+                for (int k = targetStart[v]; k < targetStart[v + 1]; k += 1) {
+                    row[targetDest[k]] = Math.min(row[targetDest[k]], dv + targetCost[k]);
+                }
+            }
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (!state.isSettled(w) && state.improve(w, dv + rg.edgeWeight[e], v)) {
+                    fringe.push(w, dv + rg.edgeWeight[e]);
+                }
+            }
+        }
+        /* A destination on the origin's own road is reached along it, as in Router. */
+        for (int j = 0; j < dests.length; j += 1) {
+            if (dests[j] != null && origin.sameSegment(dests[j])
+                    && rg.canFollow(origin, dests[j], rg.edgeWeight)) {
+                row[j] = GraphDB.distance(origin.lon, origin.lat, dests[j].lon, dests[j].lat);
+            }
+        }
+        return row;
+    }
+
+    /** Returns the points snapped onto the roads, or null where there are no roads. */
+    private static SegmentIndex.Snap[] snap(GraphDB g, double[] lons, double[] lats) {
+        SegmentIndex.Snap[] snaps = new SegmentIndex.Snap[lons.length];
+        IntStream.range(0, lons.length).parallel().forEach(i -> {
+            snaps[i] = g.closestSegment(lons[i], lats[i]);
+        });
+        return snaps;
+    }
+
+    /** Returns the vertex numbers a snapped point can be reached from directly. */
+    private static int[] ends(RoutingGraph rg, SegmentIndex.Snap snap) {
+        if (snap == null) {
+            return new int[0];
+        }
+        return Arrays.stream(snap.ends()).mapToInt(rg::number).filter(v -> v >= 0).toArray();
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * The DistanceResultParams contains the cost of the shortest route computed by
+ * <code>HubLabels.distance</code> for serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class DistanceResultParams {
+    /** Whether or not there is a route between the points. */
+    private final boolean routingSuccess;
+    /**
+     * The cost of the shortest route: miles for the distance profile, seconds for the others,
+     * or -1 if there is no route.
+     */
+    private final double distance;
+
+    /** Private constructor to prevent direct instantiation of a DistanceResultParams instance. */
+    private DistanceResultParams() {
+        this(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Constructs a DistanceResultParams instance from the cost of a route.
+     * @param distance The cost of the route, or infinity if there is none.
+     */
+    DistanceResultParams(double distance) {
+        this.routingSuccess = distance != Double.POSITIVE_INFINITY;
+        this.distance = routingSuccess ? distance : -1;
+    }
+}
@@ -0,0 +1,392 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A spatial index that supports inserting and removing points while queries keep running. It
+ * uses the logarithmic method: the points are spread over static KD-trees whose sizes are powers
+ * of two, like the digits of a binary counter. An insert builds one new tree from the new point
+ * and the trees below the first empty slot, so each point is rebuilt O(log n) times in total.
+ * Removals only mark the point dead in its tree, and everything is rebuilt into one tree once
+ * half of the stored points are dead.
+ *
+ * Writers are serialized by the index's lock. Readers never lock: they read the current list of
+ * trees from a volatile field, and each new list is built off to the side and then published
+ * with a new version number. Removed points are stamped with the version that removed them, so
+ * a query keeps seeing exactly the points of the version it started with.
+ * @source https://doi.org/10.1016/0196-6774(80)90015-2
+ */
+public class DynamicSpatialIndex implements SpatialIndex {
+    /** The trees currently answering queries, and their version. */
+    private volatile Snapshot snapshot = new Snapshot(new Level[0], 0);
+    /** Where each live point is stored, for removals. Only accessed while holding the lock. */
+    private final HashMap<Long, Slot> slots = new HashMap<>();
+    /** The number of live points across all trees. Only written while holding the lock. */
+    private volatile int live;
+    /** The number of dead points across all trees. Only accessed while holding the lock. */
+    private int dead;
+
+    /**
+     * Builds an index over the given vertices.
+     * @param nodes The vertices to index.
+     */
+    public DynamicSpatialIndex(List<Node> nodes) {
+        int n = nodes.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            Node node = nodes.get(i);
+            xs[i] = GraphDB.projectToX(node.nodeLon, node.nodeLat);
+            ys[i] = GraphDB.projectToY(node.nodeLon, node.nodeLat);
+            ids[i] = node.nodeID;
+        }
+        synchronized (this) {
+            rebuild(xs, ys, ids, n);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return live == 0;
+    }
+
+    @Override
+    public boolean supportsUpdates() {
+        return true;
+    }
+
+    @Override
+    public long nearest(double x, double y) {
+        Champion champion = new Champion();
+        Snapshot current = snapshot;
+        for (Level level : current.levels) {
+            if (level != null) {
+                level.nearest(x, y, 0, level.size(), 0, current.version, champion);
+            }
+        }
+        return champion.id;
+    }
+
+    @Override
+    public void range(double minX, double minY, double maxX, double maxY, List<Long> result) {
+        Snapshot current = snapshot;
+        for (Level level : current.levels) {
+            if (level != null) {
+                level.range(minX, minY, maxX, maxY, 0, level.size(), 0, current.version, result);
+            }
+        }
+    }
+
+    /**
+     * Adds a point to the index, or moves it if a point with the same ID is already indexed.
+     * Queries running at the same time see either the old or the new set of points.
+     * @param id The ID of the point.
+     * @param x The projected x-value of the point.
+     * @param y The projected y-value of the point.
+     */
+    @Override
+    public synchronized void insert(long id, double x, double y) {
+        Slot old = slots.remove(id);
+        Level[] current = snapshot.levels;
+        int k = 0;
+        int count = 1;
+        while (k < current.length && current[k] != null) {
+            count += current[k].size();
+            k += 1;
+        }
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        long[] ids = new long[count];
+        xs[0] = x;
+        ys[0] = y;
+        ids[0] = id;
+        int n = 1;
+        boolean merged = false;
+        for (int i = 0; i < k; i += 1) {
+            /* A point moving within the merged trees is simply left out of the merge. */
+            int skip = old != null && old.level == current[i] ? old.position : -1;
+            merged |= skip >= 0;
+            n = current[i].copyLive(xs, ys, ids, n, skip);
+            dead -= current[i].size() - current[i].live();
+        }
+        Level level = new Level(xs, ys, ids, n);
+        for (int i = 0; i < n; i += 1) {
+            slots.put(level.ids[i], new Slot(level, i));
+        }
+        Level[] next = Arrays.copyOf(current, Math.max(current.length, k + 1));
+        Arrays.fill(next, 0, k, null);
+        next[k] = level;
+        long version = publish(next);
+        if (old == null) {
+            live += 1;
+        } else if (!merged) {
+            /* Only queries of the new version, which also see the new tree, skip the old point. */
+            old.level.kill(old.position, version);
+            dead += 1;
+            compactIfMostlyDead();
+        }
+    }
+
+    /**
+     * Removes a point from the index. Queries running at the same time may or may not see it.
+     * @param id The ID of the point.
+     * @return True if the point was in the index.
+     */
+    @Override
+    public synchronized boolean remove(long id) {
+        Slot slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        slot.level.kill(slot.position, publish(snapshot.levels));
+        live -= 1;
+        dead += 1;
+        compactIfMostlyDead();
+        return true;
+    }
+
+    /** Rebuilds everything into a single tree once more points are dead than live. */
+    private void compactIfMostlyDead() {
+        if (dead > live) {
+            /* Too much of the index is dead weight: compact everything into a single tree. */
+            int count = live;
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            long[] ids = new long[count];
+            int n = 0;
+            for (Level level : snapshot.levels) {
+                if (level != null) {
+                    n = level.copyLive(xs, ys, ids, n, -1);
+                }
+            }
+            rebuild(xs, ys, ids, n);
+        }
+    }
+
+    /** Replaces every tree with a single tree over the given points. Requires the lock. */
+    private void rebuild(double[] xs, double[] ys, long[] ids, int n) {
+        slots.clear();
+        live = n;
+        dead = 0;
+        if (n == 0) {
+            publish(new Level[0]);
+            return;
+        }
+        Level level = new Level(xs, ys, ids, n);
+        for (int i = 0; i < n; i += 1) {
+            slots.put(level.ids[i], new Slot(level, i));
+        }
+        /* Put the tree in the slot its size belongs to, so later inserts merge into it in turn. */
+        int k = 32 - Integer.numberOfLeadingZeros(n - 1);
+        Level[] next = new Level[k + 1];
+        next[k] = level;
+        publish(next);
+    }
+
+    /** Publishes a new list of trees to queries. Requires the lock. Returns its version. */
+    private long publish(Level[] next) {
+        long version = snapshot.version + 1;
+        snapshot = new Snapshot(next, version);
+        return version;
+    }
+
+    /** A list of trees, where slot i holds at most 2^i points or null, and its version. */
+    private static class Snapshot {
+        final Level[] levels;
+        final long version;
+
+        Snapshot(Level[] levels, long version) {
+            this.levels = levels;
+            this.version = version;
+        }
+    }
+
+    /** Where a point is stored: the tree, and its position in the tree's arrays. */
+    private static class Slot {
+        final Level level;
+        final int position;
+
+        Slot(Level level, int position) {
+            this.level = level;
+            this.position = position;
+        }
+    }
+
+    /** The closest live point found so far by a query. */
+    private static class Champion {
+        double bestDistance = Double.MAX_VALUE;
+        long id = 0;
+    }
+
+    /**
+     * A static KD-tree stored implicitly in arrays: the root of the range [lo, hi) is at the
+     * middle position, with its left subtree before it and its right subtree after it. Points
+     * are never moved once built; removing one only marks it dead.
+     */
+    private static class Level {
+        final double[] xs, ys;
+        final long[] ids;
+        /**
+         * The version that removed the point at each position, or 0 while it is live. Written by
+         * writers, read by queries.
+         */
+        final AtomicLongArray killedAt;
+        /** The number of live points. Only accessed while holding the index's lock. */
+        private int liveCount;
+
+        Level(double[] srcX, double[] srcY, long[] srcIds, int n) {
+            xs = Arrays.copyOf(srcX, n);
+            ys = Arrays.copyOf(srcY, n);
+            ids = Arrays.copyOf(srcIds, n);
+            killedAt = new AtomicLongArray(n);
+            liveCount = n;
+            build(0, n, 0);
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        int live() {
+            return liveCount;
+        }
+
+        void kill(int position, long version) {
+            killedAt.set(position, version);
+            liveCount -= 1;
+        }
+
+        /**
+         * Copies this tree's live points, except the one at position skip, into the given arrays
+         * starting at n; returns the end.
+         */
+        int copyLive(double[] toX, double[] toY, long[] toIds, int n, int skip) {
+            for (int i = 0; i < ids.length; i += 1) {
+                if (killedAt.get(i) == 0 && i != skip) {
+                    toX[n] = xs[i];
+                    toY[n] = ys[i];
+                    toIds[n] = ids[i];
+                    n += 1;
+                }
+            }
+            return n;
+        }
+
+        /** Arranges the points in [lo, hi) into an implicit tree splitting on the given axis. */
+        private void build(int lo, int hi, int depth) {
+            if (hi - lo <= 1) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, depth % 2 == 0 ? xs : ys);
+            build(lo, mid, depth + 1);
+            build(mid + 1, hi, depth + 1);
+        }
+
+        /** Partially sorts [lo, hi] by key so position k holds the value it would when sorted. */
+        private void select(int lo, int hi, int k, double[] key) {
+            while (hi > lo) {
+                double pivot = key[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (key[i] < pivot) {
+                        i += 1;
+                    }
+                    while (key[j] > pivot) {
+                        j -= 1;
+                    }
+                    if (i <= j) {
+                        swap(i, j);
+                        i += 1;
+                        j -= 1;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            double t = xs[i];
+            xs[i] = xs[j];
+            xs[j] = t;
+            t = ys[i];
+            ys[i] = ys[j];
+            ys[j] = t;
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+
+        /** Returns whether the point at a position is live to queries of the given version. */
+        boolean isLive(int position, long version) {
+            long killed = killedAt.get(position);
+            return killed == 0 || killed > version;
+        }
+
+        void nearest(double x, double y, int lo, int hi, int depth, long version,
+                     Champion champion) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            double dx = xs[mid] - x;
+            double dy = ys[mid] - y;
+            double d = dx * dx + dy * dy;
+            if (d < champion.bestDistance && isLive(mid, version)) {
+                champion.bestDistance = d;
+                champion.id = ids[mid];
+            }
+            double diff = depth % 2 == 0 ? x - xs[mid] : y - ys[mid];
+            if (diff < 0) {
+                nearest(x, y, lo, mid, depth + 1, version, champion);
+                if (diff * diff < champion.bestDistance) {
+                    nearest(x, y, mid + 1, hi, depth + 1, version, champion);
+                }
+            } else {
+                nearest(x, y, mid + 1, hi, depth + 1, version, champion);
+                if (diff * diff < champion.bestDistance) {
+                    nearest(x, y, lo, mid, depth + 1, version, champion);
+                }
+            }
+        }
+
+        void range(double minX, double minY, double maxX, double maxY,
+                   int lo, int hi, int depth, long version, List<Long> result) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (xs[mid] >= minX && xs[mid] <= maxX && ys[mid] >= minY && ys[mid] <= maxY
+                    && isLive(mid, version)) {
+                result.add(ids[mid]);
+            }
+            double split = depth % 2 == 0 ? xs[mid] : ys[mid];
+            double low = depth % 2 == 0 ? minX : minY;
+            double high = depth % 2 == 0 ? maxX : maxY;
+            if (low <= split) {
+                range(minX, minY, maxX, maxY, lo, mid, depth + 1, version, result);
+            }
+            if (high >= split) {
+                range(minX, minY, maxX, maxY, mid + 1, hi, depth + 1, version, result);
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of every live point, for tests and debugging.
+     * @return The IDs of the points in the index, in no particular order.
+     */
+    synchronized List<Long> ids() {
+        return new ArrayList<>(slots.keySet());
+    }
+}
@@ -1,9 +1,16 @@
 import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class Edge {
     String edgeName;
     long edgeID;
     boolean valid;
     String maxSpeed;
+    // the speed limit parsed from maxSpeed, in miles per hour, or NaN if there is none
+    double maxSpeedMph = Double.NaN;
+    // the value of the way's highway tag
+    String highway;
     double distance;
     // the node IDs in the edge
     ArrayList<Long> nodeIds;
@@ -32,5 +39,39 @@ public class Edge {
 
     void setMaxSpeed(String maxSpeed) {
         this.maxSpeed = maxSpeed;
+        this.maxSpeedMph = parseSpeed(maxSpeed);
+    }
+
+    void setHighway(String highway) {
+        this.highway = highway;
     }
+
+    /**
+     * Parses an OSM maxspeed value such as "25 mph", "50", "50 km/h" or "10 knots". A bare
+     * number is in kilometers per hour, as OSM specifies.
+     * @param value The value of a maxspeed tag.
+     * @return The speed in miles per hour, or NaN for values such as "none" or "signals".
+     */
+    static double parseSpeed(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        Matcher m = SPEED.matcher(value.trim().toLowerCase());
+        if (!m.matches()) {
+            return Double.NaN;
+        }
+        double speed = Double.parseDouble(m.group(1));
+        String unit = m.group(2);
+        if (unit.equals("mph")) {
+            return speed;
+        } else if (unit.equals("knots")) {
+            return speed * MPH_PER_KNOT;
+        }
+        return speed * MPH_PER_KMH;
+    }
+
+    private static final Pattern SPEED =
+            Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(mph|km/h|kmh|knots|)");
+    private static final double MPH_PER_KMH = 0.621371;
+    private static final double MPH_PER_KNOT = 1.150779;
 }
@@ -113,6 +113,7 @@ public class GraphBuildingHandler extends DefaultHandler {
                 if (ALLOWED_HIGHWAY_TYPES.contains(v)) {
                     tempEdge.valid = true;
                 }
+                tempEdge.setHighway(v);
                 /* Figure out whether this way and its connections are valid.
                  * Hint: Set a "flag". */
 
@@ -132,6 +133,10 @@ public class GraphBuildingHandler extends DefaultHandler {
              * last node that you looked at (check the first if-case). */
 
             //System.out.println("Node's name: " + attributes.getValue("v"));
+        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
+                .equals("amenity")) {
+            /* While looking at a node, found a <tag...> with k="amenity", such as "fuel". */
+            g.vertexMap.get(tempNode.nodeID).setAmenity(attributes.getValue("v"));
         }
     }
 
@@ -154,11 +159,11 @@ public class GraphBuildingHandler extends DefaultHandler {
                 int numOfNodes = nodeIds.size();
                 for (int i = 0; i < numOfNodes - 1; i += 1) {
                     Node curr = g.vertexMap.get(nodeIds.get(i));
-                    curr.addAdj(nodeIds.get(i + 1));
+                    curr.addAdj(nodeIds.get(i + 1), tempEdge);
 
                     //ways go both directions
                     Node endCurr = g.vertexMap.get(nodeIds.get(numOfNodes - i - 1));
-                    endCurr.addAdj(nodeIds.get(numOfNodes - i - 2));
+                    endCurr.addAdj(nodeIds.get(numOfNodes - i - 2), tempEdge);
                 }
             }
             /* Done looking at a way. (Finished looking at the nodes, speeds, etc.) */
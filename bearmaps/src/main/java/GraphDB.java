@@ -7,10 +7,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 
 
 /**
@@ -23,27 +28,92 @@ import java.util.List;
  * @author Kevin Lowe, Antares Chen, Kevin Lin
  */
 public class GraphDB {
-    // a hashMap to store the vertices
-    HashMap<Long, Node> vertexMap;
-    KDTree KDTree2D = new KDTree();
+    // a map to store the vertices; concurrent so vertices can be added while queries run
+    Map<Long, Node> vertexMap;
+    // the index used to find the vertex closest to a point
+    SpatialIndex index;
+    // an R-tree over the road segments, for snapping onto roads, built again after vertices change
+    private volatile SegmentIndex segmentIndex;
+    // a lookup table in front of the segment index, built again along with it, if enabled
+    private volatile SegmentSnapTable segmentSnapTable;
+    // the cell size and memory cap of each segment lookup table, or a cap of 0 for none
+    private double snapCellSize;
+    private long snapTableBytes;
+    // the named places and amenities, which are kept even when they are not on a road
+    private final List<Node> places = new ArrayList<>();
+    // the places snapped onto the roads, built again after vertices change
+    private volatile PointsOfInterest pointsOfInterest;
+    // a compact copy of the roads for route searches, built when first needed
+    private volatile RoutingGraph routingGraph;
+    // the contraction hierarchy of each profile's routing graph, built or loaded when first needed
+    private final AtomicReferenceArray<ContractionHierarchy> contractionHierarchies =
+            new AtomicReferenceArray<>(Profile.values().length);
+    // the customizable hierarchy of each profile's routing graph, built when first needed
+    private final AtomicReferenceArray<CustomizableHierarchy> customizableHierarchies =
+            new AtomicReferenceArray<>(Profile.values().length);
+    // the hub labels of each profile's routing graph, built or loaded when first needed
+    private final AtomicReferenceArray<HubLabels> hubLabels =
+            new AtomicReferenceArray<>(Profile.values().length);
+    // the landmark distances of each profile's routing graph, built when first needed
+    private final AtomicReferenceArray<Landmarks> landmarks =
+            new AtomicReferenceArray<>(Profile.values().length);
+    // the locks held while each profile's hierarchies, labels and landmarks are built, apart
+    // from this graph's own lock, so a build that takes minutes holds up nothing else
+    private final Object[] contractionLocks = locks();
+    private final Object[] customizableLocks = locks();
+    private final Object[] hubLabelLocks = locks();
+    private final Object[] landmarkLocks = locks();
+    // the number of landmarks to choose when they are built
+    private volatile int landmarkCount = Landmarks.DEFAULT_COUNT;
+    // the path of the OSM file this graph was read from
+    private final String dbPath;
     /**
      * This constructor creates and starts an XML parser, cleans the nodes, and prepares the
      * data structures for processing. Modify this constructor to initialize your data structures.
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        vertexMap = new HashMap<>();
+        this(dbPath, SpatialIndex.Type.KDTREE);
+    }
+
+    /**
+     * This constructor creates and starts an XML parser, cleans the nodes, and indexes them with
+     * the chosen kind of <code>SpatialIndex</code>.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param indexType The kind of index to use for <code>closest</code>.
+     */
+    public GraphDB(String dbPath, SpatialIndex.Type indexType) {
+        this.dbPath = dbPath;
+        vertexMap = new ConcurrentHashMap<>();
         File inputFile = new File(dbPath);
         try (FileInputStream inputStream = new FileInputStream(inputFile)) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
             saxParser.parse(inputStream, new GraphBuildingHandler(this));
+            /* Most places are not on a road, so remember them before cleaning removes them. */
+            for (Node n : vertexMap.values()) {
+                if (n.nodeName != null || n.amenity != null) {
+                    places.add(n);
+                }
+            }
             clean();
-            ArrayList<Node> givenList = new ArrayList<Node>(vertexMap.values());
-            KDTree2D.constructTree(givenList);
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
+        /* Index whatever was read, so a graph that failed to load is empty rather than broken. */
+        ArrayList<Node> givenList = new ArrayList<Node>(vertexMap.values());
+        index = SpatialIndex.create(indexType, givenList);
+        segmentIndex = new SegmentIndex(this);
+        pointsOfInterest = new PointsOfInterest(segmentIndex, places);
+    }
+
+    /** Returns one new lock for each profile. */
+    private static Object[] locks() {
+        Object[] locks = new Object[Profile.values().length];
+        for (int i = 0; i < locks.length; i += 1) {
+            locks[i] = new Object();
+        }
+        return locks;
     }
 
     /**
@@ -92,6 +162,300 @@ public class GraphDB {
         vertexMap.put(id, n);
     }
 
+    /**
+     * Adds a vertex to a graph that has already been built, or moves it if it is already in the
+     * graph, without rebuilding the spatial index. Requires an index that supports updates, such
+     * as <code>SpatialIndex.Type.DYNAMIC</code>; <code>closest</code> may keep running meanwhile.
+     * Roads to and from the vertex are left to the caller.
+     * @param n The vertex to add.
+     */
+    void addVertex(Node n) {
+        requireUpdatableIndex();
+        /* Store the vertex before indexing it, so anything the index returns can be looked up. */
+        vertexMap.put(n.nodeID, n);
+        index.insert(n.nodeID, projectToX(n.nodeLon, n.nodeLat), projectToY(n.nodeLon, n.nodeLat));
+        invalidateRoads();
+    }
+
+    /**
+     * Removes a vertex from a graph that has already been built, without rebuilding the spatial
+     * index. Requires an index that supports updates, such as
+     * <code>SpatialIndex.Type.DYNAMIC</code>; <code>closest</code> may keep running meanwhile.
+     * @param v The ID of the vertex to remove.
+     */
+    void removeVertex(long v) {
+        requireUpdatableIndex();
+        index.remove(v);
+        vertexMap.remove(v);
+        invalidateRoads();
+    }
+
+    /** Checks that vertices can be added and removed, before anything about the graph changes. */
+    private void requireUpdatableIndex() {
+        if (!index.supportsUpdates()) {
+            throw new UnsupportedOperationException(index.getClass().getName()
+                    + " does not support adding or removing vertices");
+        }
+    }
+
+    /**
+     * Drops everything built from the roads, so it is built again from the current vertices.
+     * This holds the lock the builders hold, so a build that read the old vertices publishes its
+     * result before it is dropped rather than after.
+     */
+    private synchronized void invalidateRoads() {
+        routingGraph = null;
+        segmentIndex = null;
+        pointsOfInterest = null;
+    }
+
+    /**
+     * Returns the R-tree over the road segments, building it the first time it is needed and
+     * again after vertices are added or removed.
+     * @return The <code>SegmentIndex</code> for the current vertices.
+     */
+    SegmentIndex segmentIndex() {
+        SegmentIndex si = segmentIndex;
+        if (si == null) {
+            synchronized (this) {
+                si = segmentIndex;
+                if (si == null) {
+                    si = new SegmentIndex(this);
+                    segmentIndex = si;
+                    if (snapTableBytes > 0) {
+                        segmentSnapTable = new SegmentSnapTable(si, snapCellSize,
+                                snapTableBytes, false);
+                    }
+                }
+            }
+        }
+        return si;
+    }
+
+    /**
+     * Returns the named places and amenities snapped onto the roads, snapping them the first
+     * time they are needed and again after vertices are added or removed.
+     * @return The <code>PointsOfInterest</code> for the current vertices.
+     */
+    PointsOfInterest pointsOfInterest() {
+        PointsOfInterest pois = pointsOfInterest;
+        if (pois == null) {
+            synchronized (this) {
+                pois = pointsOfInterest;
+                if (pois == null) {
+                    /* Under the lock, so the roads cannot be dropped between the two builds. */
+                    pois = new PointsOfInterest(segmentIndex(), places);
+                    pointsOfInterest = pois;
+                }
+            }
+        }
+        return pois;
+    }
+
+    /**
+     * Returns the roads of this graph in the compact form used by route searches, building it
+     * the first time it is needed and again after vertices are added or removed.
+     * @return The <code>RoutingGraph</code> for the current vertices.
+     */
+    RoutingGraph routingGraph() {
+        RoutingGraph rg = routingGraph;
+        if (rg == null) {
+            synchronized (this) {
+                rg = routingGraph;
+                if (rg == null) {
+                    rg = new RoutingGraph(this);
+                    routingGraph = rg;
+                }
+            }
+        }
+        return rg;
+    }
+
+    /**
+     * Returns the roads of this graph weighted for a profile. The profiles share the vertices
+     * and, where they can, the edges of <code>routingGraph()</code>.
+     * @param profile The profile.
+     * @return The <code>RoutingGraph</code> for the current vertices and the profile.
+     */
+    RoutingGraph routingGraph(Profile profile) {
+        return routingGraph().forProfile(profile);
+    }
+
+    /**
+     * Returns the landmark distances of this graph's roads for ALT search, building them the
+     * first time they are needed and again after vertices are added or removed.
+     * @return The <code>Landmarks</code> for the current vertices.
+     */
+    Landmarks landmarks() {
+        return landmarks(Profile.DISTANCE);
+    }
+
+    /**
+     * Like <code>landmarks()</code>, but for the roads weighted for a profile.
+     * @param profile The profile.
+     * @return The <code>Landmarks</code> for the current vertices and the profile.
+     */
+    Landmarks landmarks(Profile profile) {
+        RoutingGraph rg = routingGraph(profile);
+        Landmarks lm = landmarks.get(profile.ordinal());
+        if (lm == null || lm.rg != rg || lm.count() != Math.min(landmarkCount, rg.size())) {
+            synchronized (landmarkLocks[profile.ordinal()]) {
+                lm = landmarks.get(profile.ordinal());
+                if (lm == null || lm.rg != rg
+                        || lm.count() != Math.min(landmarkCount, rg.size())) {
+                    lm = new Landmarks(rg, landmarkCount);
+                    landmarks.set(profile.ordinal(), lm);
+                }
+            }
+        }
+        return lm;
+    }
+
+    /**
+     * Sets the number of landmarks used by ALT search. More landmarks give tighter bounds and
+     * smaller searches, at the cost of 8 bytes per vertex per landmark. The landmarks are built
+     * again the next time they are needed.
+     * @param count The number of landmarks.
+     */
+    void setLandmarkCount(int count) {
+        landmarkCount = count;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph's roads. The first call loads it from
+     * next to the OSM file, or builds it and saves it there; after vertices are added or
+     * removed it is built again.
+     * @return The <code>ContractionHierarchy</code> for the current vertices.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        return contractionHierarchy(Profile.DISTANCE);
+    }
+
+    /**
+     * Like <code>contractionHierarchy()</code>, but for the roads weighted for a profile. Each
+     * profile's hierarchy is saved to its own file.
+     * @param profile The profile.
+     * @return The <code>ContractionHierarchy</code> for the current vertices and the profile.
+     */
+    ContractionHierarchy contractionHierarchy(Profile profile) {
+        RoutingGraph rg = routingGraph(profile);
+        ContractionHierarchy ch = contractionHierarchies.get(profile.ordinal());
+        if (ch == null || ch.rg != rg) {
+            synchronized (contractionLocks[profile.ordinal()]) {
+                ch = contractionHierarchies.get(profile.ordinal());
+                if (ch == null || ch.rg != rg) {
+                    ch = ContractionHierarchy.loadOrBuild(rg, savePath(profile));
+                    contractionHierarchies.set(profile.ordinal(), ch);
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the customizable contraction hierarchy of this graph's roads, for routing with
+     * live traffic. It is built the first time it is needed, customized for the profile's own
+     * weights, and built again after vertices are added or removed, which drops any traffic
+     * applied to it.
+     * @param profile The profile.
+     * @return The <code>CustomizableHierarchy</code> for the current vertices and the profile.
+     */
+    CustomizableHierarchy customizableHierarchy(Profile profile) {
+        RoutingGraph rg = routingGraph(profile);
+        CustomizableHierarchy cch = customizableHierarchies.get(profile.ordinal());
+        if (cch == null || cch.rg != rg) {
+            synchronized (customizableLocks[profile.ordinal()]) {
+                cch = customizableHierarchies.get(profile.ordinal());
+                if (cch == null || cch.rg != rg) {
+                    cch = new CustomizableHierarchy(rg);
+                    customizableHierarchies.set(profile.ordinal(), cch);
+                }
+            }
+        }
+        return cch;
+    }
+
+    /**
+     * Returns the current cost of each edge of a profile's routing graph: the latest traffic
+     * applied to its customizable hierarchy, or the graph's own weights if none has been built.
+     * @param profile The profile.
+     * @return The weights, indexed like <code>RoutingGraph.edgeWeight</code>, which must not be
+     *         changed.
+     */
+    double[] liveWeights(Profile profile) {
+        RoutingGraph rg = routingGraph(profile);
+        CustomizableHierarchy cch = customizableHierarchies.get(profile.ordinal());
+        return cch != null && cch.rg == rg ? cch.weights() : rg.edgeWeight;
+    }
+
+    /**
+     * Returns the hub labels of this graph's roads, for distance queries without a search. The
+     * first call loads them from next to the OSM file, or builds them from the contraction
+     * hierarchy and saves them there; after vertices are added or removed they are built again.
+     * Only other callers for the same profile wait for a build.
+     * @param profile The profile whose costs the labels hold.
+     * @return The <code>HubLabels</code> for the current vertices and the profile.
+     */
+    HubLabels hubLabels(Profile profile) {
+        RoutingGraph rg = routingGraph(profile);
+        HubLabels labels = hubLabels.get(profile.ordinal());
+        if (labels == null || labels.rg != rg) {
+            synchronized (hubLabelLocks[profile.ordinal()]) {
+                labels = hubLabels.get(profile.ordinal());
+                if (labels == null || labels.rg != rg) {
+                    labels = HubLabels.loadOrBuild(rg, savePath(profile),
+                            () -> contractionHierarchy(profile));
+                    hubLabels.set(profile.ordinal(), labels);
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Returns the hub labels of this graph's roads if they are ready, without loading or building
+     * them, so a caller that cannot wait can tell whether <code>hubLabels</code> would block.
+     * @param profile The profile whose costs the labels hold.
+     * @return The <code>HubLabels</code> for the current vertices and the profile, or null if
+     *         they have not been loaded or built since the vertices last changed.
+     */
+    HubLabels readyHubLabels(Profile profile) {
+        HubLabels labels = hubLabels.get(profile.ordinal());
+        return labels != null && labels.rg == routingGraph(profile) ? labels : null;
+    }
+
+    /** Returns the path that a profile's preprocessed data is saved under, before its suffix. */
+    private String savePath(Profile profile) {
+        return profile == Profile.DISTANCE ? dbPath : dbPath + "." + profile.name().toLowerCase();
+    }
+
+    /**
+     * Puts a <code>SnapLookupTable</code> in front of the spatial index and a
+     * <code>SegmentSnapTable</code> in front of the segment index, so <code>closest</code> and
+     * <code>closestSegment</code> only compare a query against the few vertices or segments
+     * stored for its grid cell. Snaps restricted to a profile's roads still search the segment
+     * index, since a cell's candidates only bound the nearest segment of any kind.
+     * @param cellMiles The side length of each cell of the tables, in miles.
+     * @param maxBytes The largest number of bytes the tables may use, split evenly between them;
+     *                 queries in cells that do not fit fall back to the indexes.
+     * @param eager If true, fill in both tables now, in parallel; otherwise fill in each cell
+     *              the first time a query lands in it. Segment tables built again after the
+     *              vertices change are always filled in lazily.
+     */
+    void enableSnapTable(double cellMiles, long maxBytes, boolean eager) {
+        if (index instanceof SnapLookupTable) {
+            return;
+        }
+        index = new SnapLookupTable(index, new ArrayList<>(vertexMap.values()), cellMiles / R,
+                maxBytes / 2, eager);
+        synchronized (this) {
+            snapCellSize = cellMiles / R;
+            snapTableBytes = maxBytes - maxBytes / 2;
+            segmentSnapTable = new SegmentSnapTable(segmentIndex(), snapCellSize, snapTableBytes,
+                    eager);
+        }
+    }
+
     /**
      * Returns an iterable of all vertex IDs in the graph.
      * @return An iterable of all vertex IDs in the graph.
@@ -119,22 +483,27 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     public double distance(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double dphi = Math.toRadians(lat(w) - lat(v));
-        double dlambda = Math.toRadians(lon(w) - lon(v));
-
-        double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
-        a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+        return distance(lon(v), lat(v), lon(w), lat(w));
     }
 
     public double distance(double tempLon, double tempLat, long vertexID) {
-        double phi1 = Math.toRadians(tempLat);
-        double phi2 = Math.toRadians(lat(vertexID));
-        double dphi = Math.toRadians(lat(vertexID) - tempLat);
-        double dlambda = Math.toRadians(lon(vertexID) - tempLon);
+        return distance(tempLon, tempLat, lon(vertexID), lat(vertexID));
+    }
+
+    /**
+     * Returns the great-circle distance between two points, in miles.
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return The great-circle distance between the points.
+     * @source https://www.movable-type.co.uk/scripts/latlong.html
+     */
+    static double distance(double lonV, double latV, double lonW, double latW) {
+        double phi1 = Math.toRadians(latV);
+        double phi2 = Math.toRadians(latW);
+        double dphi = Math.toRadians(latW - latV);
+        double dlambda = Math.toRadians(lonW - lonV);
 
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
@@ -163,10 +532,211 @@ public class GraphDB {
         */
         double x = projectToX(lon, lat);
         double y = projectToY(lon, lat);
-        long returnID = KDTree2D.nearest(x, y);
+        long returnID = index.nearest(x, y);
         return returnID;
     }
 
+    /**
+     * Returns the point on the road network closest to the given longitude and latitude. Unlike
+     * <code>closest</code>, a point beside the middle of a long road snaps onto that road rather
+     * than onto whichever intersection happens to be nearest.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @return The closest point on any road, or null if the graph has no roads.
+     */
+    public SegmentIndex.Snap closestSegment(double lon, double lat) {
+        double x = projectToX(lon, lat);
+        double y = projectToY(lon, lat);
+        SegmentSnapTable table = segmentSnapTable;
+        SegmentIndex si = segmentIndex();
+        if (table != null && table.index == si) {
+            return table.nearest(x, y);
+        }
+        /* No table, or the roads changed and its replacement has not been read yet. */
+        return si.nearest(x, y);
+    }
+
+    /**
+     * Like <code>closestSegment(lon, lat)</code>, but only snaps onto roads open to a profile, so
+     * that a walker beside a motorway is put on the nearest street rather than on the motorway.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param profile The profile whose roads may be snapped onto.
+     * @return The closest point on a road open to the profile, or null if there is none.
+     */
+    SegmentIndex.Snap closestSegment(double lon, double lat, Profile profile) {
+        if (profile == Profile.DISTANCE) {
+            /* Every road is open to the distance profile. */
+            return closestSegment(lon, lat);
+        }
+        RoutingGraph rg = routingGraph(profile);
+        return segmentIndex().nearest(projectToX(lon, lat), projectToY(lon, lat), rg::isOpen);
+    }
+
+    /**
+     * Returns the nearest point of every road segment within a distance of the given longitude
+     * and latitude, nearest first.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param miles The largest great-circle distance to a segment, in miles.
+     * @return The nearest point of each segment within the distance.
+     */
+    List<SegmentIndex.Snap> closestSegments(double lon, double lat, double miles) {
+        List<SegmentIndex.Snap> candidates = new ArrayList<>();
+        /* Projected distances are in Earth radii, and stretch slightly away from the center. */
+        segmentIndex().near(projectToX(lon, lat), projectToY(lon, lat),
+                miles / R * (1 + BOX_PADDING), candidates);
+        List<SegmentIndex.Snap> result = new ArrayList<>();
+        for (SegmentIndex.Snap snap : candidates) {
+            if (distance(lon, lat, snap.lon, snap.lat) <= miles) {
+                result.add(snap);
+            }
+        }
+        result.sort(Comparator.comparingDouble(snap -> snap.distance));
+        return result;
+    }
+
+    /**
+     * Returns the IDs of every vertex inside the box with the given corners. The box is answered
+     * with a range query on the spatial index, so the cost depends on how many vertices are in
+     * view rather than on the size of the whole graph.
+     * @param ullon The longitude of the upper-left corner of the box.
+     * @param ullat The latitude of the upper-left corner of the box.
+     * @param lrlon The longitude of the lower-right corner of the box.
+     * @param lrlat The latitude of the lower-right corner of the box.
+     * @return The IDs of the vertices inside the box, in no particular order.
+     */
+    public List<Long> verticesInBox(double ullon, double ullat, double lrlon, double lrlat) {
+        double[] box = projectBox(ullon, ullat, lrlon, lrlat);
+        List<Long> candidates = new ArrayList<>();
+        index.range(box[0], box[1], box[2], box[3], candidates);
+        /* The projected box is slightly larger than the lon/lat box, so check each candidate. */
+        List<Long> result = new ArrayList<>();
+        for (long v : candidates) {
+            if (lon(v) >= ullon && lon(v) <= lrlon && lat(v) <= ullat && lat(v) >= lrlat) {
+                result.add(v);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the IDs of every vertex inside the area covered by a rastered image.
+     * @param params The <code>RasterResultParams</code> of the image.
+     * @return The IDs of the vertices inside the image, in no particular order.
+     */
+    public List<Long> verticesInBox(RasterResultParams params) {
+        return verticesInBox(params.rasterUlLon, params.rasterUlLat,
+                params.rasterLrLon, params.rasterLrLat);
+    }
+
+    /**
+     * Returns every road segment that may cross the box with the given corners, as
+     * <code>{from, to}</code> pairs of vertex IDs. Every segment crossing the box is returned,
+     * along with a few that only pass near one of its corners.
+     * @param ullon The longitude of the upper-left corner of the box.
+     * @param ullat The latitude of the upper-left corner of the box.
+     * @param lrlon The longitude of the lower-right corner of the box.
+     * @param lrlat The latitude of the lower-right corner of the box.
+     * @return The ends of the segments, in no particular order.
+     */
+    public List<long[]> segmentsInBox(double ullon, double ullat, double lrlon, double lrlat) {
+        double[] box = projectBox(ullon, ullat, lrlon, lrlat);
+        List<long[]> candidates = new ArrayList<>();
+        segmentIndex().range(box[0], box[1], box[2], box[3], candidates);
+        List<long[]> result = new ArrayList<>();
+        for (long[] segment : candidates) {
+            long v = segment[0];
+            long w = segment[1];
+            if (Math.max(lon(v), lon(w)) >= ullon && Math.min(lon(v), lon(w)) <= lrlon
+                    && Math.min(lat(v), lat(w)) <= ullat && Math.max(lat(v), lat(w)) >= lrlat) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every road segment that may cross the area covered by a rastered image.
+     * @param params The <code>RasterResultParams</code> of the image.
+     * @return The ends of the segments, as <code>{from, to}</code> pairs of vertex IDs.
+     */
+    public List<long[]> segmentsInBox(RasterResultParams params) {
+        return segmentsInBox(params.rasterUlLon, params.rasterUlLat,
+                params.rasterLrLon, params.rasterLrLat);
+    }
+
+    /**
+     * Returns a projected box <code>{minX, minY, maxX, maxY}</code> containing the given lon/lat
+     * box. Lines of latitude curve slightly under the projection, so the box is found from points
+     * along every side and then padded.
+     */
+    static double[] projectBox(double ullon, double ullat, double lrlon, double lrlat) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i <= BOX_SAMPLES; i += 1) {
+            double lon = ullon + (lrlon - ullon) * i / BOX_SAMPLES;
+            double lat = lrlat + (ullat - lrlat) * i / BOX_SAMPLES;
+            double[][] points = {{lon, ullat}, {lon, lrlat}, {ullon, lat}, {lrlon, lat}};
+            for (double[] p : points) {
+                double x = projectToX(p[0], p[1]);
+                double y = projectToY(p[0], p[1]);
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+        }
+        double pad = BOX_PADDING * Math.max(maxX - minX, maxY - minY);
+        return new double[]{minX - pad, minY - pad, maxX + pad, maxY + pad};
+    }
+
+    /**
+     * Returns the IDs of the vertices closest to each of the given points. The batch is answered
+     * in Hilbert-curve order so that consecutive index queries visit the same part of the index
+     * and can start from the previous answer; the sorted batch is then split into chunks that are
+     * answered in parallel.
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, in the same order as <code>lons</code>.
+     * @return The IDs of the closest vertices, in the same order as the given points.
+     */
+    public long[] closest(double[] lons, double[] lats) {
+        int n = lons.length;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i += 1) {
+            xs[i] = projectToX(lons[i], lats[i]);
+            ys[i] = projectToY(lons[i], lats[i]);
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double span = Math.max(maxX - minX, maxY - minY);
+
+        /* Pack each point's curve position above its index so one primitive sort orders both. */
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = (HilbertCurve.index(xs[i], ys[i], minX, minY, span) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = (int) keys[i];
+        }
+
+        long[] result = new long[n];
+        int chunks = (n + SNAP_CHUNK_SIZE - 1) / SNAP_CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * SNAP_CHUNK_SIZE;
+            int to = Math.min(n, from + SNAP_CHUNK_SIZE);
+            index.nearest(xs, ys, order, from, to, result);
+        });
+        return result;
+    }
+
     /**
      * Return the Euclidean x-value for some point, p, in Berkeley. Found by computing the
      * Transverse Mercator projection centered at Berkeley.
@@ -241,6 +811,12 @@ public class GraphDB {
         return Math.toDegrees(Math.atan2(y, x));
     }
 
+    /** Number of points sampled along each side of a box when projecting it. */
+    private static final int BOX_SAMPLES = 8;
+    /** Fraction of its size a projected box is padded by, to cover curvature between samples. */
+    private static final double BOX_PADDING = 0.01;
+    /** Number of consecutive points along the curve answered by one task in a batch snap. */
+    private static final int SNAP_CHUNK_SIZE = 2048;
     /** Radius of the Earth in miles. */
     private static final int R = 3963;
     /** Latitude centered on Berkeley. */
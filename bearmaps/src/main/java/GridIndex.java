@@ -0,0 +1,180 @@
+import java.util.List;
+
+/**
+ * A spatial hash over projected vertex coordinates: the bounding box of the vertices is cut into
+ * square cells of equal size, and each cell's points are stored contiguously. A nearest query
+ * scans the query's cell and then rings of cells around it, stopping as soon as no unscanned
+ * cell can hold anything closer than the best point found so far.
+ *
+ * Unlike <code>KDTree</code>, there is no pointer chasing: every cell is a run of the same three
+ * primitive arrays, which suits regions where points are fairly evenly spread.
+ */
+public class GridIndex implements SpatialIndex {
+    /** The average number of points per cell the grid is sized for. */
+    static final double POINTS_PER_CELL = 2.0;
+
+    /** The lower-left corner of the grid and the side length of each cell. */
+    private final double minX, minY, cellSize;
+    /** The number of cells along each axis. */
+    private final int cols, rows;
+    /** The points of cell c are at positions cellStart[c] (inclusive) to cellStart[c + 1]. */
+    private final int[] cellStart;
+    /** The coordinates and IDs of the points, grouped by cell. */
+    private final double[] xs, ys;
+    private final long[] ids;
+
+    /**
+     * Builds a grid over the given vertices.
+     * @param nodes The vertices to index.
+     */
+    public GridIndex(List<Node> nodes) {
+        int n = nodes.size();
+        double[] px = new double[n];
+        double[] py = new double[n];
+        double loX = Double.MAX_VALUE, loY = Double.MAX_VALUE;
+        double hiX = -Double.MAX_VALUE, hiY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i += 1) {
+            Node node = nodes.get(i);
+            px[i] = GraphDB.projectToX(node.nodeLon, node.nodeLat);
+            py[i] = GraphDB.projectToY(node.nodeLon, node.nodeLat);
+            loX = Math.min(loX, px[i]);
+            loY = Math.min(loY, py[i]);
+            hiX = Math.max(hiX, px[i]);
+            hiY = Math.max(hiY, py[i]);
+        }
+        if (n == 0) {
+            loX = 0;
+            loY = 0;
+            hiX = 0;
+            hiY = 0;
+        }
+        double width = hiX - loX;
+        double height = hiY - loY;
+        double size = Math.sqrt(width * height * POINTS_PER_CELL / Math.max(n, 1));
+        if (!(size > 0)) {
+            /* All points on a line or a single point: fall back to cells along the longer side. */
+            size = Math.max(Math.max(width, height) * POINTS_PER_CELL / Math.max(n, 1), 1e-12);
+        }
+        /* Grow the cells rather than clamp points into the last ones, so every cell is square. */
+        size = Math.max(size, Math.max(width, height) / (MAX_CELLS_PER_AXIS - 1));
+        minX = loX;
+        minY = loY;
+        cellSize = size;
+        cols = (int) Math.floor(width / size) + 1;
+        rows = (int) Math.floor(height / size) + 1;
+
+        /* Counting sort the points by cell. */
+        int[] cellOf = new int[n];
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i += 1) {
+            cellOf[i] = row(py[i]) * cols + col(px[i]);
+            cellStart[cellOf[i] + 1] += 1;
+        }
+        for (int c = 0; c < cols * rows; c += 1) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = new int[cols * rows];
+        System.arraycopy(cellStart, 0, next, 0, cols * rows);
+        xs = new double[n];
+        ys = new double[n];
+        ids = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            int p = next[cellOf[i]];
+            next[cellOf[i]] += 1;
+            xs[p] = px[i];
+            ys[p] = py[i];
+            ids[p] = nodes.get(i).nodeID;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    @Override
+    public long nearest(double x, double y) {
+        if (ids.length == 0) {
+            return 0;
+        }
+        int cx = col(x);
+        int cy = row(y);
+        double bestDist = Double.MAX_VALUE;
+        long bestID = ids[0];
+        int maxRing = Math.max(Math.max(cx, cols - 1 - cx), Math.max(cy, rows - 1 - cy));
+        for (int r = 0; r <= maxRing; r += 1) {
+            int loCol = cx - r, hiCol = cx + r;
+            int loRow = cy - r, hiRow = cy + r;
+            for (int j = Math.max(loRow, 0); j <= Math.min(hiRow, rows - 1); j += 1) {
+                /* Rows on the edge of the ring are scanned fully; others only at both ends. */
+                boolean edgeRow = j == loRow || j == hiRow;
+                int step = edgeRow ? 1 : Math.max(hiCol - loCol, 1);
+                for (int i = loCol; i <= hiCol; i += step) {
+                    if (i < 0 || i >= cols) {
+                        continue;
+                    }
+                    int c = j * cols + i;
+                    for (int p = cellStart[c]; p < cellStart[c + 1]; p += 1) {
+                        double dx = xs[p] - x;
+                        double dy = ys[p] - y;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDist) {
+                            bestDist = d;
+                            bestID = ids[p];
+                        }
+                    }
+                }
+            }
+            /* Any unscanned cell lies past one of the ring's sides that still has cells beyond. */
+            double reach = Double.MAX_VALUE;
+            if (loCol > 0) {
+                reach = Math.min(reach, x - (minX + loCol * cellSize));
+            }
+            if (hiCol < cols - 1) {
+                reach = Math.min(reach, minX + (hiCol + 1) * cellSize - x);
+            }
+            if (loRow > 0) {
+                reach = Math.min(reach, y - (minY + loRow * cellSize));
+            }
+            if (hiRow < rows - 1) {
+                reach = Math.min(reach, minY + (hiRow + 1) * cellSize - y);
+            }
+            if (reach > 0 && bestDist <= reach * reach) {
+                break;
+            }
+        }
+        return bestID;
+    }
+
+    @Override
+    public void range(double loX, double loY, double hiX, double hiY, List<Long> result) {
+        if (ids.length == 0 || loX > hiX || loY > hiY) {
+            return;
+        }
+        for (int j = row(loY); j <= row(hiY); j += 1) {
+            for (int i = col(loX); i <= col(hiX); i += 1) {
+                int c = j * cols + i;
+                for (int p = cellStart[c]; p < cellStart[c + 1]; p += 1) {
+                    if (xs[p] >= loX && xs[p] <= hiX && ys[p] >= loY && ys[p] <= hiY) {
+                        result.add(ids[p]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the column of the cell containing x, clamped to the grid. */
+    private int col(double x) {
+        int c = (int) Math.floor((x - minX) / cellSize);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    /** Returns the row of the cell containing y, clamped to the grid. */
+    private int row(double y) {
+        int r = (int) Math.floor((y - minY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    /** Bounds the grid's memory use when the points are very unevenly spread. */
+    private static final int MAX_CELLS_PER_AXIS = 4096;
+}
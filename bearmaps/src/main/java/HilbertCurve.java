@@ -0,0 +1,55 @@
+/**
+ * Maps points in the projected plane onto their position along a Hilbert curve. Sorting a batch of
+ * points by this position keeps points that are close on the map close in the batch, which lets
+ * spatial queries over the batch reuse work done for the previous point.
+ * @source https://en.wikipedia.org/wiki/Hilbert_curve
+ */
+public class HilbertCurve {
+    /** Number of bits used for each axis when quantizing a point onto the curve. */
+    static final int ORDER = 15;
+    /** Number of cells along each axis of the quantization grid. */
+    private static final int SIDE = 1 << ORDER;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * Returns the distance along the Hilbert curve of the point (x, y), after quantizing it onto a
+     * grid covering the square with lower-left corner (minX, minY) and side length span.
+     * @param x The x-value of the point.
+     * @param y The y-value of the point.
+     * @param minX The smallest x-value covered by the grid.
+     * @param minY The smallest y-value covered by the grid.
+     * @param span The side length of the grid; non-positive spans map every point to 0.
+     * @return The position of the point along the curve, in [0, 2^(2 * ORDER)).
+     */
+    static long index(double x, double y, double minX, double minY, double span) {
+        if (span <= 0) {
+            return 0;
+        }
+        int qx = quantize((x - minX) / span);
+        int qy = quantize((y - minY) / span);
+        long d = 0;
+        for (int s = SIDE / 2; s > 0; s /= 2) {
+            int rx = (qx & s) > 0 ? 1 : 0;
+            int ry = (qy & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            /* Rotate the quadrant so the sub-curve has the right orientation. */
+            if (ry == 0) {
+                if (rx == 1) {
+                    qx = SIDE - 1 - qx;
+                    qy = SIDE - 1 - qy;
+                }
+                int t = qx;
+                qx = qy;
+                qy = t;
+            }
+        }
+        return d;
+    }
+
+    private static int quantize(double fraction) {
+        int q = (int) (fraction * SIDE);
+        return Math.max(0, Math.min(SIDE - 1, q));
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A hub labeling of a <code>RoutingGraph</code>: every vertex v has an outgoing label, a list of
+ * hubs h with the road distance from v to h, and an incoming label, a list of hubs with the road
+ * distance from each hub to v. The labels are chosen so that some shortest route from s to t
+ * passes through a hub in both the outgoing label of s and the incoming label of t, so the
+ * distance from s to t is the smallest <code>out(s, h) + in(h, t)</code> over their common hubs.
+ * A query merges two short sorted arrays and never searches the graph.
+ *
+ * The labels are derived from the graph's contraction hierarchy: a vertex's hubs are the
+ * vertices its upward search reaches, filled in from the highest rank down by extending the
+ * labels of its upward neighbors, and a hub is dropped if the labels already found a shorter
+ * way to it. Each vertex's hubs are sorted by vertex number and stored in one shared array.
+ *
+ * Labels can be saved next to the map they were built from and loaded again later, with the
+ * same graph fingerprint as <code>ContractionHierarchy</code>.
+ * @source https://doi.org/10.1007/978-3-642-20662-7_20
+ */
+class HubLabels {
+    /** The suffix added to a map's path to name its saved labels. */
+    static final String SUFFIX = ".hl";
+    /** Marks saved labels, and their format version. */
+    private static final int MAGIC = 0x42484c31;
+
+    /** The graph the labels were built over. */
+    final RoutingGraph rg;
+    /** The outgoing label of v is <code>outHub[i], outDist[i]</code> for i in its CSR range. */
+    private final int[] outStart, outHub;
+    private final double[] outDist;
+    /** The incoming label of v is <code>inHub[i], inDist[i]</code> for i in its CSR range. */
+    private final int[] inStart, inHub;
+    private final double[] inDist;
+
+    private HubLabels(RoutingGraph rg, int[] outStart, int[] outHub, double[] outDist,
+                      int[] inStart, int[] inHub, double[] inDist) {
+        this.rg = rg;
+        this.outStart = outStart;
+        this.outHub = outHub;
+        this.outDist = outDist;
+        this.inStart = inStart;
+        this.inHub = inHub;
+        this.inDist = inDist;
+    }
+
+    /**
+     * Returns the cost of the shortest route between two vertices.
+     * @param s The vertex number of the start.
+     * @param t The vertex number of the goal.
+     * @return The cost, or infinity if there is no route.
+     */
+    double distance(int s, int t) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = outStart[s];
+        int j = inStart[t];
+        int iEnd = outStart[s + 1];
+        int jEnd = inStart[t + 1];
+        while (i < iEnd && j < jEnd) {
+            int a = outHub[i];
+            int b = inHub[j];
+            if (a < b) {
+                i += 1;
+            } else if (a > b) {
+                j += 1;
+            } else {
+                best = Math.min(best, outDist[i] + inDist[j]);
+                i += 1;
+                j += 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the cost of the shortest route between two points snapped onto roads. Like
+     * <code>Router.shortestPath</code>, the cost includes the partial roads from and to the
+     * snapped points, and two points on the same road are joined along it.
+     * @param start Where the route starts, or null.
+     * @param goal Where the route ends, or null.
+     * @return The cost, or infinity if there is no route.
+     */
+    double distance(SegmentIndex.Snap start, SegmentIndex.Snap goal) {
+        if (start == null || goal == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (start.sameSegment(goal) && rg.canFollow(start, goal, rg.edgeWeight)) {
+            int v = rg.number(start.from);
+            return Math.abs(rg.snapCost(v, start) - rg.snapCost(v, goal));
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (long s : start.ends()) {
+            int vs = rg.number(s);
+            if (vs < 0) {
+                continue;
+            }
+            for (long t : goal.ends()) {
+                int vt = rg.number(t);
+                if (vt >= 0) {
+                    best = Math.min(best, rg.snapCost(vs, start) + distance(vs, vt)
+                            + rg.snapCost(vt, goal));
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the average number of hubs in a label.
+     * @return The number of outgoing and incoming hubs per vertex, halved.
+     */
+    double averageLabelSize() {
+        int n = rg.size();
+        return n == 0 ? 0 : (outHub.length + inHub.length) / (2.0 * n);
+    }
+
+    /**
+     * Returns the memory used by the labels.
+     * @return The size of the label arrays, in bytes.
+     */
+    long memoryBytes() {
+        return 4L * (outStart.length + inStart.length) + 12L * (outHub.length + inHub.length);
+    }
+
+    /**
+     * Returns a one-line description of the labels and their memory use.
+     * @return A report such as "hub labels over 90000 vertices: 84.2 hubs each, 181.9 MB".
+     */
+    String report() {
+        return String.format("hub labels over %d vertices: %.1f hubs each, %.1f MB", rg.size(),
+                averageLabelSize(), memoryBytes() / 1e6);
+    }
+
+    /**
+     * Loads the labels saved next to a map, or builds them and saves them there if there are no
+     * saved labels or they were built from a different graph.
+     * @param rg The graph of the map.
+     * @param dbPath The path of the map's OSM file.
+     * @param hierarchy Returns the contraction hierarchy of <code>rg</code>; only called if the
+     *                  labels have to be built.
+     * @return The hub labels of <code>rg</code>.
+     */
+    static HubLabels loadOrBuild(RoutingGraph rg, String dbPath,
+                                 Supplier<ContractionHierarchy> hierarchy) {
+        File file = new File(dbPath + SUFFIX);
+        if (file.isFile()) {
+            try {
+                HubLabels labels = load(file, rg);
+                if (labels != null) {
+                    return labels;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        HubLabels labels = build(hierarchy.get());
+        try {
+            labels.save(file);
+        } catch (IOException e) {
+            /* The labels still work; they are just built again next time. */
+            e.printStackTrace();
+        }
+        return labels;
+    }
+
+    /**
+     * Writes these labels to a file.
+     * @param file Where to save the labels.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(ContractionHierarchy.fingerprint(rg));
+            ContractionHierarchy.writeInts(out, outStart);
+            ContractionHierarchy.writeInts(out, outHub);
+            ContractionHierarchy.writeDoubles(out, outDist);
+            ContractionHierarchy.writeInts(out, inStart);
+            ContractionHierarchy.writeInts(out, inHub);
+            ContractionHierarchy.writeDoubles(out, inDist);
+        }
+    }
+
+    /**
+     * Reads labels written by <code>save</code>.
+     * @param file The saved labels.
+     * @param rg The graph the labels should belong to.
+     * @return The labels, or null if they were built from a different graph.
+     * @throws IOException If the file cannot be read or does not hold saved labels.
+     */
+    static HubLabels load(File file, RoutingGraph rg) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " does not hold saved hub labels");
+            }
+            if (in.readLong() != ContractionHierarchy.fingerprint(rg)) {
+                return null;
+            }
+            return new HubLabels(rg,
+                    ContractionHierarchy.readInts(in), ContractionHierarchy.readInts(in),
+                    ContractionHierarchy.readDoubles(in),
+                    ContractionHierarchy.readInts(in), ContractionHierarchy.readInts(in),
+                    ContractionHierarchy.readDoubles(in));
+        }
+    }
+
+    /**
+     * Builds the labels of a graph from its contraction hierarchy.
+     * @param ch The contraction hierarchy of the graph to label.
+     * @return The graph's hub labels.
+     */
+    static HubLabels build(ContractionHierarchy ch) {
+        int n = ch.rg.size();
+        Integer[] byRank = new Integer[n];
+        for (int v = 0; v < n; v += 1) {
+            byRank[v] = v;
+        }
+        Arrays.sort(byRank, (a, b) -> Integer.compare(ch.rank[b], ch.rank[a]));
+
+        Label[] out = new Label[n];
+        Label[] in = new Label[n];
+        Merger merger = new Merger(n);
+        for (int v : byRank) {
+            out[v] = merger.label(v, ch.upStart, ch.upTo, ch.upWeight, out, in);
+            in[v] = merger.label(v, ch.downStart, ch.downFrom, ch.downWeight, in, out);
+        }
+
+        int[] outStart = new int[n + 1];
+        int[] inStart = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            outStart[v + 1] = outStart[v] + out[v].hub.length;
+            inStart[v + 1] = inStart[v] + in[v].hub.length;
+        }
+        int[] outHub = new int[outStart[n]];
+        double[] outDist = new double[outStart[n]];
+        int[] inHub = new int[inStart[n]];
+        double[] inDist = new double[inStart[n]];
+        for (int v = 0; v < n; v += 1) {
+            System.arraycopy(out[v].hub, 0, outHub, outStart[v], out[v].hub.length);
+            System.arraycopy(out[v].dist, 0, outDist, outStart[v], out[v].hub.length);
+            System.arraycopy(in[v].hub, 0, inHub, inStart[v], in[v].hub.length);
+            System.arraycopy(in[v].dist, 0, inDist, inStart[v], in[v].hub.length);
+        }
+        return new HubLabels(ch.rg, outStart, outHub, outDist, inStart, inHub, inDist);
+    }
+
+    /** One vertex's label during preprocessing, sorted by hub. */
+    private static class Label {
+        final int[] hub;
+        final double[] dist;
+
+        Label(int[] hub, double[] dist) {
+            this.hub = hub;
+            this.dist = dist;
+        }
+    }
+
+    /** Builds each label from the labels of the vertex's higher-ranked neighbors. */
+    private static class Merger {
+        /** The best distance found to each hub by the current label, valid if stamped. */
+        private final double[] best;
+        private final int[] stamp;
+        private int epoch;
+        /** The hubs the current label has found so far. */
+        private int[] found;
+        private int size;
+
+        Merger(int n) {
+            best = new double[n];
+            stamp = new int[n];
+            found = new int[16];
+        }
+
+        /**
+         * Returns the label of v in one direction.
+         * @param v The vertex to label; every higher-ranked vertex is already labeled.
+         * @param start The CSR offsets of v's edges toward higher-ranked vertices.
+         * @param end The higher-ranked vertex at the other end of each edge.
+         * @param weight The weight of each edge.
+         * @param same The finished labels in this direction.
+         * @param opposite The finished labels in the other direction, used for pruning.
+         */
+        Label label(int v, int[] start, int[] end, double[] weight, Label[] same,
+                    Label[] opposite) {
+            epoch += 1;
+            size = 0;
+            offer(v, 0);
+            for (int e = start[v]; e < start[v + 1]; e += 1) {
+                Label next = same[end[e]];
+                for (int i = 0; i < next.hub.length; i += 1) {
+                    offer(next.hub[i], weight[e] + next.dist[i]);
+                }
+            }
+            /* Keep a hub only if no other hub of this label already reaches it more cheaply. */
+            int kept = 0;
+            for (int i = 0; i < size; i += 1) {
+                int h = found[i];
+                if (h == v || !dominated(opposite[h], best[h])) {
+                    found[kept] = h;
+                    kept += 1;
+                }
+            }
+            int[] hubs = Arrays.copyOf(found, kept);
+            Arrays.sort(hubs);
+            double[] dists = new double[kept];
+            for (int i = 0; i < kept; i += 1) {
+                dists[i] = best[hubs[i]];
+            }
+            return new Label(hubs, dists);
+        }
+
+        private void offer(int h, double d) {
+            if (stamp[h] != epoch) {
+                stamp[h] = epoch;
+                best[h] = d;
+                if (size == found.length) {
+                    found = Arrays.copyOf(found, 2 * size);
+                }
+                found[size] = h;
+                size += 1;
+            } else if (d < best[h]) {
+                best[h] = d;
+            }
+        }
+
+        /** Returns true if going through the label of the hub h costs less than d. */
+        private boolean dominated(Label hubLabel, double d) {
+            for (int i = 0; i < hubLabel.hub.length; i += 1) {
+                int x = hubLabel.hub[i];
+                if (stamp[x] == epoch && best[x] + hubLabel.dist[i] < d) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the dense vertex numbers 0 to n - 1, keyed by doubles, that can lower the
+ * key of a vertex already in the heap. Each vertex is in the heap at most once, so a search never
+ * has to skip stale entries, and all storage is allocated once up front.
+ *
+ * Clearing takes constant time: every vertex's heap position is stamped with the epoch it was
+ * written in, and positions from earlier epochs count as absent.
+ */
+class IndexedMinHeap {
+    /** The vertices in heap order. */
+    private final int[] heap;
+    /** The key of each vertex. */
+    private final double[] keys;
+    /** The position of each vertex in <code>heap</code>, or -1 once it has been popped. */
+    private final int[] position;
+    /** The epoch in which each vertex's position was last written. */
+    private final int[] stamp;
+    private int epoch = 1;
+    private int size;
+
+    /**
+     * Creates an empty heap for vertices 0 to capacity - 1.
+     * @param capacity The number of vertices.
+     */
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        stamp = new int[capacity];
+    }
+
+    /** Removes every vertex from the heap and forgets which vertices were popped. */
+    void clear() {
+        size = 0;
+        epoch += 1;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the smallest key in the heap.
+     * @return The key of the vertex <code>pop</code> would return.
+     */
+    double minKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Adds vertex v with the given key, or lowers its key if it is already in the heap and the
+     * new key is smaller. Vertices popped since the last <code>clear</code> are added again.
+     * @param v The vertex.
+     * @param key Its key.
+     */
+    void push(int v, double key) {
+        if (stamp[v] != epoch || position[v] < 0) {
+            stamp[v] = epoch;
+            position[v] = size;
+            heap[size] = v;
+            size += 1;
+        } else if (key >= keys[v]) {
+            return;
+        }
+        keys[v] = key;
+        siftUp(position[v]);
+    }
+
+    /**
+     * Removes and returns the vertex with the smallest key.
+     * @return The vertex with the smallest key.
+     */
+    int pop() {
+        int top = heap[0];
+        size -= 1;
+        position[top] = -1;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            position[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child += 1;
+            }
+            int c = heap[child];
+            if (keys[c] >= key) {
+                break;
+            }
+            heap[i] = c;
+            position[c] = i;
+            i = child;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+}
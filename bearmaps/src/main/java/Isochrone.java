@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The area reachable from a point within a budget: the vertices whose route cost from the
+ * snapped start is within the budget, and a simplified polygon around them. The costs are those
+ * of a profile, so a budget is a road distance for <code>Profile.DISTANCE</code> and a travel
+ * time, which follows road classes, speed limits and closed roads, for the others. The search is
+ * a Dijkstra over the profile's <code>RoutingGraph</code>, on the calling thread's reused search
+ * state, that stops as soon as the fringe passes the budget.
+ *
+ * The polygon is star-shaped around the start: the reachable points, including the points part
+ * way along roads where the budget runs out, are split into equal angular sectors, the farthest
+ * point of each sector becomes a corner, and corners that barely bend the outline are dropped.
+ */
+class Isochrone {
+    /** The number of angular sectors around the start. */
+    private static final int SECTORS = 72;
+    /** Corners nearer than this fraction of the radius to their neighbors' chord are dropped. */
+    private static final double SIMPLIFY_TOLERANCE = 0.02;
+
+    /** The IDs of the reachable vertices, in the order they were reached. */
+    final long[] vertices;
+    /** The corners of the boundary polygon as {lon, lat} pairs, counterclockwise. */
+    final double[][] boundary;
+
+    private Isochrone(long[] vertices, double[][] boundary) {
+        this.vertices = vertices;
+        this.boundary = boundary;
+    }
+
+    /**
+     * Returns the area reachable from a point within a budget.
+     * @param g The graph to search.
+     * @param lon The longitude of the start, which is snapped onto the nearest road.
+     * @param lat The latitude of the start.
+     * @param profile Whose costs the budget is spent in.
+     * @param budget The largest route cost, in miles for <code>Profile.DISTANCE</code> and in
+     *               seconds for the other profiles.
+     * @return The reachable area, which is empty if there are no roads.
+     */
+    static Isochrone reachable(GraphDB g, double lon, double lat, Profile profile,
+                               double budget) {
+        SegmentIndex.Snap start = g.closestSegment(lon, lat, profile);
+        if (start == null || !(budget >= 0)) {
+            return new Isochrone(new long[0], new double[0][]);
+        }
+        RoutingGraph rg = g.routingGraph(profile);
+        Outline outline = new Outline(start.lon, start.lat);
+
+        SearchState state = rg.searchState();
+        IndexedMinHeap fringe = state.fringe;
+        for (long id : start.ends()) {
+            int s = rg.number(id);
+            if (s < 0) {
+                continue;
+            }
+            double d = rg.snapCost(s, start);
+            if (d <= budget) {
+                if (state.improve(s, d, -1)) {
+                    fringe.push(s, d);
+                }
+            } else {
+                outline.add(start.lon, start.lat, rg.lons[s], rg.lats[s], budget / d);
+            }
+        }
+
+        long[] reached = new long[16];
+        int count = 0;
+        while (!fringe.isEmpty() && fringe.minKey() <= budget) {
+            int v = fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (count == reached.length) {
+                reached = Arrays.copyOf(reached, 2 * count);
+            }
+            reached[count] = rg.ids[v];
+            count += 1;
+            outline.add(rg.lons[v], rg.lats[v]);
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                double dw = dv + rg.edgeWeight[e];
+                if (dw > budget) {
+                    /* The budget runs out part way along this road. */
+                    outline.add(rg.lons[v], rg.lats[v], rg.lons[w], rg.lats[w],
+                            (budget - dv) / rg.edgeWeight[e]);
+                } else if (!state.isSettled(w) && state.improve(w, dw, v)) {
+                    fringe.push(w, dw);
+                }
+            }
+        }
+        return new Isochrone(Arrays.copyOf(reached, count), outline.polygon());
+    }
+
+    /** The farthest reachable point in each angular sector around the start. */
+    private static class Outline {
+        private final double lon0, lat0, lonScale;
+        private final double[] far = new double[SECTORS];
+        private final double[][] corner = new double[SECTORS][];
+
+        Outline(double lon0, double lat0) {
+            this.lon0 = lon0;
+            this.lat0 = lat0;
+            /* Shrink longitudes so that both axes measure roughly the same ground distance. */
+            this.lonScale = Math.cos(Math.toRadians(lat0));
+            Arrays.fill(far, -1);
+        }
+
+        /** Adds the point the given fraction of the way from (lonA, latA) to (lonB, latB). */
+        void add(double lonA, double latA, double lonB, double latB, double fraction) {
+            add(lonA + fraction * (lonB - lonA), latA + fraction * (latB - latA));
+        }
+
+        /** Adds a reachable point. */
+        void add(double lon, double lat) {
+            double dx = (lon - lon0) * lonScale;
+            double dy = lat - lat0;
+            double angle = Math.atan2(dy, dx) + Math.PI;
+            int sector = Math.min(SECTORS - 1, (int) (angle / (2 * Math.PI) * SECTORS));
+            double r = dx * dx + dy * dy;
+            if (r > far[sector]) {
+                far[sector] = r;
+                corner[sector] = new double[]{lon, lat};
+            }
+        }
+
+        /** Returns the corners of the simplified polygon, counterclockwise. */
+        double[][] polygon() {
+            List<double[]> ring = new ArrayList<>();
+            double radius = 0;
+            for (int s = 0; s < SECTORS; s += 1) {
+                if (corner[s] != null) {
+                    ring.add(corner[s]);
+                    radius = Math.max(radius, Math.sqrt(far[s]));
+                }
+            }
+            if (ring.isEmpty()) {
+                /* Nothing but the start itself is reachable. */
+                return new double[][]{{lon0, lat0}};
+            }
+            double tolerance = SIMPLIFY_TOLERANCE * radius;
+            boolean changed = true;
+            while (changed && ring.size() > 3) {
+                changed = false;
+                for (int i = 0; i < ring.size() && ring.size() > 3; i += 1) {
+                    double[] a = ring.get((i + ring.size() - 1) % ring.size());
+                    double[] b = ring.get(i);
+                    double[] c = ring.get((i + 1) % ring.size());
+                    if (offset(a, b, c) < tolerance) {
+                        ring.remove(i);
+                        changed = true;
+                    }
+                }
+            }
+            return ring.toArray(new double[0][]);
+        }
+
+        /** Returns how far b lies from the chord from a to c, in scaled degrees. */
+        private double offset(double[] a, double[] b, double[] c) {
+            double ax = a[0] * lonScale, ay = a[1];
+            double bx = b[0] * lonScale, by = b[1];
+            double cx = c[0] * lonScale, cy = c[1];
+            double length = Math.hypot(cx - ax, cy - ay);
+            if (length == 0) {
+                return Math.hypot(bx - ax, by - ay);
+            }
+            return Math.abs((cx - ax) * (by - ay) - (cy - ay) * (bx - ax)) / length;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Map;
+
+/**
+ * The IsochroneRequestParams contains the fields received from a client in a reachable-area
+ * request. This class will primarily be used by the MapServer to unpack the query parameters
+ * before calling <code>Isochrone.reachable</code>.
+ *
+ * The start is given by <code>lon</code> and <code>lat</code>, and the budget either by
+ * <code>distance</code> in miles or by <code>minutes</code> of travel with the given
+ * <code>profile</code>, which defaults to driving.
+ */
+public class IsochroneRequestParams {
+    /** The start point longitude. */
+    public final double lon;
+    /** The start point latitude. */
+    public final double lat;
+    /** Whose costs the budget is spent in. */
+    public final Profile profile;
+    /** The largest route cost, in miles for the distance profile and seconds for the others. */
+    public final double budget;
+
+    /**
+     * Validate and return the parameters of a reachable-area request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If a parameter is missing or not a number.
+     */
+    public static IsochroneRequestParams from(Map<String, String[]> req) {
+        double lon = parse(req, "lon");
+        double lat = parse(req, "lat");
+        if (req.containsKey("distance")) {
+            double distance = parse(req, "distance");
+            if (!(distance >= 0) || distance > MAX_DISTANCE) {
+                String msg = String.format("Request failed: the distance must be 0 to %.0f miles.",
+                        MAX_DISTANCE);
+                throw new IllegalArgumentException(msg);
+            }
+            return new IsochroneRequestParams(lon, lat, Profile.DISTANCE, distance);
+        }
+        if (!req.containsKey("minutes")) {
+            throw new IllegalArgumentException("Request failed: distance or minutes not found.");
+        }
+        double minutes = parse(req, "minutes");
+        if (!(minutes >= 0) || minutes > MAX_MINUTES) {
+            String msg = String.format("Request failed: the minutes must be 0 to %.0f.",
+                    MAX_MINUTES);
+            throw new IllegalArgumentException(msg);
+        }
+        Profile profile = Profile.CAR;
+        if (req.containsKey("profile")) {
+            try {
+                profile = Profile.valueOf(req.get("profile")[0].toUpperCase());
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect parameters: unknown profile.");
+            }
+        }
+        if (profile == Profile.DISTANCE) {
+            throw new IllegalArgumentException(
+                    "Incorrect parameters: the distance profile has no travel times.");
+        }
+        return new IsochroneRequestParams(lon, lat, profile, minutes * SECONDS_PER_MINUTE);
+    }
+
+    private static double parse(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param)) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        try {
+            return Double.parseDouble(req.get(param)[0]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    private IsochroneRequestParams(double lon, double lat, Profile profile, double budget) {
+        this.lon = lon;
+        this.lat = lat;
+        this.profile = profile;
+        this.budget = budget;
+    }
+
+    /** The largest distance budget accepted, in miles. */
+    private static final double MAX_DISTANCE = 100;
+    /** The largest travel time budget accepted, in minutes. */
+    private static final double MAX_MINUTES = 240;
+    private static final double SECONDS_PER_MINUTE = 60;
+}
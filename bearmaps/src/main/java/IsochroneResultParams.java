@@ -0,0 +1,45 @@
+/**
+ * The IsochroneResultParams contains the reachable area computed by
+ * <code>Isochrone.reachable</code> for serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class IsochroneResultParams {
+    /** Whether or not the start could be snapped onto a road. */
+    private final boolean isochroneSuccess;
+    /** The IDs of the reachable vertices. */
+    private final long[] vertices;
+    /** The corners of the boundary polygon as [lon, lat] pairs. */
+    private final double[][] boundary;
+    /** Why the search was abandoned, or null if it ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of an IsochroneResultParams instance. */
+    private IsochroneResultParams() {
+        this(false, new long[0], new double[0][]);
+    }
+
+    /**
+     * Constructs an IsochroneResultParams instance for a search that was abandoned.
+     * @param failure Why the search was abandoned.
+     */
+    IsochroneResultParams(String failure) {
+        this.isochroneSuccess = false;
+        this.vertices = new long[0];
+        this.boundary = new double[0][];
+        this.failure = failure;
+    }
+
+    /**
+     * Constructs an IsochroneResultParams instance from a reachable area.
+     * @param isochroneSuccess The isochroneSuccess field.
+     * @param vertices The vertices field.
+     * @param boundary The boundary field.
+     */
+    IsochroneResultParams(boolean isochroneSuccess, long[] vertices, double[][] boundary) {
+        this.isochroneSuccess = isochroneSuccess;
+        this.vertices = vertices;
+        this.boundary = boundary;
+        this.failure = null;
+    }
+}
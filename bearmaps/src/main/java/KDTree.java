@@ -3,9 +3,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Comparator;
 
-public class KDTree {
+public class KDTree implements SpatialIndex {
     private KDNode root = null;
     ArrayList<KDNode> constructList = new ArrayList<>();
+    @Override
     public boolean isEmpty() {
         return root == null;
     }
@@ -107,6 +108,7 @@ public class KDTree {
     }
 
 
+    @Override
     public long nearest(double xCor, double yCor) {
         if (root == null) {
             return 0;
@@ -128,6 +130,7 @@ public class KDTree {
         if (dist < champion.bestDistant) {
             champion.bestID = node.id;
             champion.bestDistant = dist;
+            champion.bestNode = node;
         }
 
         boolean goLeftOrBottom = false;
@@ -177,9 +180,75 @@ public class KDTree {
         return champion;
     }
 
+    /**
+     * Answers a batch of nearest queries in the order given by <code>order</code>. Each traversal
+     * starts with the previous answer as its champion, so when consecutive queries are close
+     * together (for example, after sorting them along a space-filling curve) most of the tree is
+     * pruned right away instead of being walked from the root with an infinite bound.
+     * @param xs The x-values of the queries.
+     * @param ys The y-values of the queries.
+     * @param order Indices into <code>xs</code> and <code>ys</code> in the order to answer them.
+     * @param from The first position of <code>order</code> to answer, inclusive.
+     * @param to The last position of <code>order</code> to answer, exclusive.
+     * @param result Receives the ID of the nearest point at the index of each query.
+     */
+    @Override
+    public void nearest(double[] xs, double[] ys, int[] order, int from, int to, long[] result) {
+        if (root == null) {
+            for (int i = from; i < to; i += 1) {
+                result[order[i]] = 0;
+            }
+            return;
+        }
+        KDNode previous = root;
+        for (int i = from; i < to; i += 1) {
+            int q = order[i];
+            double bound = euclidean(xs[q], ys[q], previous.xAxis, previous.yAxis);
+            Champion champion = new Champion(bound, previous.id);
+            champion.bestNode = previous;
+            nearestHelper(xs[q], ys[q], root, champion, 1);
+            result[q] = champion.bestID;
+            previous = champion.bestNode;
+        }
+    }
+
+    @Override
+    public void range(double minX, double minY, double maxX, double maxY, List<Long> result) {
+        rangeHelper(root, 1, minX, minY, maxX, maxY, result);
+    }
+
+    private void rangeHelper(KDNode node, int level, double minX, double minY,
+                             double maxX, double maxY, List<Long> result) {
+        if (node == null) {
+            return;
+        }
+        if (node.xAxis >= minX && node.xAxis <= maxX
+                && node.yAxis >= minY && node.yAxis <= maxY) {
+            result.add(node.id);
+        }
+        double split, lo, hi;
+        if (level % 2 == 0) {
+            split = node.yAxis;
+            lo = minY;
+            hi = maxY;
+        } else {
+            split = node.xAxis;
+            lo = minX;
+            hi = maxX;
+        }
+        /* Points equal to the split value may have been sorted to either side. */
+        if (lo <= split) {
+            rangeHelper(node.left, level + 1, minX, minY, maxX, maxY, result);
+        }
+        if (hi >= split) {
+            rangeHelper(node.right, level + 1, minX, minY, maxX, maxY, result);
+        }
+    }
+
     public class Champion {
         double bestDistant;
         long bestID;
+        KDNode bestNode;
 
         public Champion(double dis, long id) {
             bestDistant = dis;
@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+/**
+ * Landmark distances for ALT search (A*, Landmarks, Triangle inequality). A few landmark vertices
+ * are chosen far apart near the edges of the map, and the road distance from every landmark to
+ * every vertex, and back, is stored. For any vertex v, target t and landmark L, the triangle
+ * inequality gives two lower bounds on the road distance from v to t:
+ * <code>d(L, t) - d(L, v)</code> and <code>d(v, L) - d(t, L)</code>. The largest bound over all
+ * landmarks is usually far closer to the real distance than the great-circle distance, so A*
+ * settles far fewer vertices.
+ *
+ * Distances are stored as floats, vertex by vertex, so all of a vertex's landmark distances
+ * share a cache line. Every bound is lowered by a small tolerance to make up for the rounding.
+ * @source https://doi.org/10.1137/1.9781611972856.5
+ */
+class Landmarks {
+    /** The number of landmarks used unless another is chosen. */
+    static final int DEFAULT_COUNT = 16;
+    /** The number of landmarks consulted during one search: those giving the best bounds. */
+    private static final int ACTIVE = 6;
+
+    /** The graph the distances were computed on. */
+    final RoutingGraph rg;
+    /** The vertex numbers of the landmarks. */
+    private final int[] landmarks;
+    /** <code>fromLandmark[v * k + j]</code> is the road distance from landmark j to v. */
+    private final float[] fromLandmark;
+    /** <code>toLandmark[v * k + j]</code> is the road distance from v to landmark j. */
+    private final float[] toLandmark;
+    /** How much float rounding can raise a bound. */
+    private final double tolerance;
+
+    /**
+     * Chooses landmarks by farthest-point selection and computes their distances. The first
+     * landmark is the vertex farthest from an arbitrary vertex, and each further landmark is
+     * the vertex farthest from its nearest landmark so far.
+     * @param rg The graph to preprocess.
+     * @param count The number of landmarks to choose; fewer are used if the map is tiny.
+     */
+    Landmarks(RoutingGraph rg, int count) {
+        this.rg = rg;
+        int n = rg.size();
+        int k = Math.max(0, Math.min(count, n));
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        double[] dist = new double[n];
+        int[] chosen = new int[k];
+        float[] from = new float[n * k];
+        float[] to = new float[n * k];
+        double longest = 0;
+        IndexedMinHeap fringe = new IndexedMinHeap(n);
+        if (k > 0) {
+            dijkstra(0, true, dist, fringe);
+            chosen[0] = farthest(dist);
+        }
+        for (int j = 0; j < k; j += 1) {
+            dijkstra(chosen[j], true, dist, fringe);
+            for (int v = 0; v < n; v += 1) {
+                from[v * k + j] = (float) dist[v];
+                nearest[v] = Math.min(nearest[v], dist[v]);
+                if (dist[v] != Double.POSITIVE_INFINITY) {
+                    longest = Math.max(longest, dist[v]);
+                }
+            }
+            dijkstra(chosen[j], false, dist, fringe);
+            for (int v = 0; v < n; v += 1) {
+                to[v * k + j] = (float) dist[v];
+                if (dist[v] != Double.POSITIVE_INFINITY) {
+                    longest = Math.max(longest, dist[v]);
+                }
+            }
+            if (j + 1 < k) {
+                chosen[j + 1] = farthest(nearest);
+            }
+        }
+        landmarks = chosen;
+        fromLandmark = from;
+        toLandmark = to;
+        /* Each bound subtracts one rounded float from another. */
+        tolerance = 2 * Math.ulp((float) longest);
+    }
+
+    /**
+     * Returns the number of landmarks.
+     * @return The number of landmarks.
+     */
+    int count() {
+        return landmarks.length;
+    }
+
+    /**
+     * Returns the memory used by the landmark distances.
+     * @return The size of the distance arrays, in bytes.
+     */
+    long memoryBytes() {
+        return 4L * (fromLandmark.length + toLandmark.length) + 4L * landmarks.length;
+    }
+
+    /**
+     * Returns a one-line description of the landmarks and their memory use.
+     * @return A report such as "16 landmarks over 90000 vertices: 11.0 MB".
+     */
+    String report() {
+        return String.format("%d landmarks over %d vertices: %.1f MB", count(), rg.size(),
+                memoryBytes() / 1e6);
+    }
+
+    /**
+     * Returns a heuristic for a search ending at the given targets: the lower bound on the
+     * distance to each target plus its cost to finish, minimized over the targets, and never
+     * less than the great-circle distance to the goal point. Only the landmarks giving the
+     * best bounds from the first source are consulted.
+     * @param sources The vertex numbers the search starts from; negative numbers are ignored.
+     * @param targets The vertex numbers the route may end at; negative numbers are ignored.
+     * @param targetCosts The cost of finishing from each target.
+     * @param goalLon The longitude of the goal point.
+     * @param goalLat The latitude of the goal point.
+     * @return A heuristic that never overestimates the cost to finish.
+     */
+    AStarSearch.Heuristic heuristic(int[] sources, int[] targets, double[] targetCosts,
+                                    double goalLon, double goalLat) {
+        int k = landmarks.length;
+        int source = -1;
+        for (int s : sources) {
+            if (s >= 0) {
+                source = s;
+                break;
+            }
+        }
+        int[] active = activeLandmarks(source, targets);
+        int m = active.length;
+        /* Copy each target's landmark distances so the heuristic reads them from one array. */
+        float[] fromToTarget = new float[targets.length * m];
+        float[] targetToLandmark = new float[targets.length * m];
+        for (int i = 0; i < targets.length; i += 1) {
+            for (int a = 0; a < m; a += 1) {
+                if (targets[i] >= 0) {
+                    fromToTarget[i * m + a] = fromLandmark[targets[i] * k + active[a]];
+                    targetToLandmark[i * m + a] = toLandmark[targets[i] * k + active[a]];
+                }
+            }
+        }
+        return v -> {
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < targets.length; i += 1) {
+                if (targets[i] < 0) {
+                    continue;
+                }
+                double bound = 0;
+                for (int a = 0; a < m; a += 1) {
+                    double b1 = fromToTarget[i * m + a] - fromLandmark[v * k + active[a]];
+                    double b2 = toLandmark[v * k + active[a]] - targetToLandmark[i * m + a];
+                    /* NaN, from two unreachable distances, compares false and is skipped. */
+                    if (b1 > bound) {
+                        bound = b1;
+                    }
+                    if (b2 > bound) {
+                        bound = b2;
+                    }
+                }
+                best = Math.min(best, Math.max(0, bound - tolerance) + targetCosts[i]);
+            }
+            return Math.max(best == Double.POSITIVE_INFINITY ? 0 : best,
+                    rg.bound(v, goalLon, goalLat));
+        };
+    }
+
+    /** Returns the landmarks with the largest lower bounds from source to the targets. */
+    private int[] activeLandmarks(int source, int[] targets) {
+        int k = landmarks.length;
+        int m = Math.min(ACTIVE, k);
+        if (source < 0 || m == k) {
+            int[] all = new int[m];
+            for (int j = 0; j < m; j += 1) {
+                all[j] = j;
+            }
+            return all;
+        }
+        double[] score = new double[k];
+        for (int j = 0; j < k; j += 1) {
+            for (int t : targets) {
+                if (t >= 0) {
+                    double b1 = fromLandmark[t * k + j] - fromLandmark[source * k + j];
+                    double b2 = toLandmark[source * k + j] - toLandmark[t * k + j];
+                    score[j] = Math.max(score[j], Math.max(b1, b2));
+                }
+            }
+        }
+        Integer[] order = new Integer[k];
+        for (int j = 0; j < k; j += 1) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(score[b], score[a]));
+        int[] active = new int[m];
+        for (int a = 0; a < m; a += 1) {
+            active[a] = order[a];
+        }
+        return active;
+    }
+
+    /**
+     * Returns the vertex with the largest finite value of <code>dist</code>. Landmarks already
+     * chosen are at distance 0 from their nearest landmark, so they are never picked again
+     * while any other vertex is left.
+     */
+    private static int farthest(double[] dist) {
+        int best = 0;
+        double bestDist = -1;
+        for (int v = 0; v < dist.length; v += 1) {
+            if (dist[v] > bestDist && dist[v] != Double.POSITIVE_INFINITY) {
+                best = v;
+                bestDist = dist[v];
+            }
+        }
+        return best;
+    }
+
+    /** Fills <code>dist</code> with the road distances from s, or to s if not forward. */
+    private void dijkstra(int s, boolean forward, double[] dist, IndexedMinHeap fringe) {
+        int[] start = forward ? rg.edgeStart : rg.reverseStart;
+        int[] end = forward ? rg.edgeTo : rg.reverseFrom;
+        double[] length = forward ? rg.edgeWeight : rg.reverseWeight;
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        fringe.clear();
+        dist[s] = 0;
+        fringe.push(s, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.pop();
+            for (int e = start[v]; e < start[v + 1]; e += 1) {
+                int w = end[e];
+                double d = dist[v] + length[e];
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    fringe.push(w, d);
+                }
+            }
+        }
+    }
+}
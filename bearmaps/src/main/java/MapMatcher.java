@@ -0,0 +1,424 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Matches GPS traces onto the roads of a <code>GraphDB</code> with a hidden Markov model. The
+ * hidden states of each point are the nearest points of the roads within <code>RADIUS</code> of
+ * it, found by the segment index. A candidate is likelier the nearer it is to its GPS point, and
+ * a step between the candidates of consecutive points is likelier the closer its road distance is
+ * to the straight-line distance between the points. The likeliest sequence of roads is found by
+ * Viterbi decoding, in the negative log space where probabilities become additive costs.
+ *
+ * Points are taken one at a time by a <code>Stream</code>, which hands back each point as soon as
+ * every likely road sequence agrees on where it was, usually a few points later. Road distances
+ * between candidates come from bounded Dijkstra searches, one from each road end rather than one
+ * per pair of candidates, and each stream keeps its recent searches: consecutive points mostly
+ * have candidates on the same few roads, so most steps reuse a search from an earlier one.
+ * @source https://doi.org/10.1145/1653771.1653818
+ */
+class MapMatcher {
+    /** The standard deviation of GPS noise, in miles (about 10 meters). */
+    static final double SIGMA = 0.0062;
+    /** How far a step's road distance may stray from the straight line, in miles (5 meters). */
+    static final double BETA = 0.003;
+    /** The distance to look for roads around each point, in miles (about 80 meters). */
+    static final double RADIUS = 0.05;
+    /** The most candidates considered for each point, nearest first. */
+    static final int MAX_CANDIDATES = 8;
+    /** A step's road distance may be at most this many times the straight-line distance... */
+    private static final double MAX_DETOUR = 2;
+    /** ...plus this many miles, or the step is taken to be impossible. */
+    private static final double DETOUR_SLACK = 0.03;
+    /** The number of searches each stream keeps for reuse. */
+    private static final int TREE_CACHE_SIZE = 256;
+    /** The most points a stream holds back while their roads are still undecided. */
+    private static final int MAX_PENDING = 64;
+
+    private final GraphDB g;
+    private final RoutingGraph rg;
+
+    /**
+     * Creates a matcher for the roads of a graph.
+     * @param g The graph to match onto.
+     */
+    MapMatcher(GraphDB g) {
+        this.g = g;
+        this.rg = g.routingGraph();
+    }
+
+    /** A GPS point matched onto a road. */
+    static class Matched {
+        /** The position of the point in its trace. */
+        final int index;
+        /** The point on the road the GPS point was matched to. */
+        final SegmentIndex.Snap snap;
+        /** Whether the road leads here from the previous matched point of the trace. */
+        final boolean connected;
+        /** The vertex IDs passed since the previous matched point, if connected. */
+        final List<Long> path;
+
+        Matched(int index, SegmentIndex.Snap snap, boolean connected, List<Long> path) {
+            this.index = index;
+            this.snap = snap;
+            this.connected = connected;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Matches a whole trace at once.
+     * @param lons The longitudes of the points, in the order they were recorded.
+     * @param lats The latitudes of the points, in the same order as <code>lons</code>.
+     * @return The points that are near a road, matched, in order.
+     */
+    List<Matched> match(double[] lons, double[] lats) {
+        Stream stream = stream();
+        List<Matched> result = new ArrayList<>();
+        for (int i = 0; i < lons.length; i += 1) {
+            result.addAll(stream.push(lons[i], lats[i]));
+        }
+        result.addAll(stream.finish());
+        return result;
+    }
+
+    /**
+     * Returns a new stream for matching a trace one point at a time.
+     * @return A stream with no points yet.
+     */
+    Stream stream() {
+        return new Stream();
+    }
+
+    /**
+     * The Viterbi decoding of one trace, taken a point at a time. A stream is not safe for use
+     * by more than one thread at a time.
+     */
+    class Stream {
+        /** The number of points pushed so far. */
+        private int count;
+        /** The points whose roads are still undecided, oldest first. */
+        private final List<Column> pending = new ArrayList<>();
+        /** The last point whose road was decided, with only that candidate left, or null. */
+        private Column decided;
+        /** The recent searches, by the vertex number they started from, least recent first. */
+        private final Map<Integer, Tree> trees = new LinkedHashMap<Integer, Tree>(16, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > TREE_CACHE_SIZE;
+            }
+        };
+
+        private Stream() {
+        }
+
+        /**
+         * Adds the next point of the trace.
+         * @param lon The longitude of the point.
+         * @param lat The latitude of the point.
+         * @return The earlier points whose roads are now decided, in order, which may include
+         *         this one; points with no road nearby are left out.
+         */
+        List<Matched> push(double lon, double lat) {
+            int index = count;
+            count += 1;
+            List<Matched> out = new ArrayList<>();
+            List<SegmentIndex.Snap> snaps = g.closestSegments(lon, lat, RADIUS);
+            if (snaps.isEmpty()) {
+                return out;
+            }
+            snaps = snaps.subList(0, Math.min(snaps.size(), MAX_CANDIDATES));
+            Column column = new Column(index, lon, lat,
+                    snaps.toArray(new SegmentIndex.Snap[0]));
+            Column prev = pending.isEmpty() ? decided : pending.get(pending.size() - 1);
+            if (prev == null || !step(prev, column)) {
+                /* No candidate can be reached from the last point, so the trace breaks here. */
+                out.addAll(finish());
+                column.start();
+            }
+            pending.add(column);
+            decide(out);
+            return out;
+        }
+
+        /**
+         * Decides the roads of every point still held back, as the trace has ended or broken.
+         * @return The points held back, matched, in order.
+         */
+        List<Matched> finish() {
+            List<Matched> out = new ArrayList<>();
+            if (!pending.isEmpty()) {
+                emit(pending.size() - 1, pending.get(pending.size() - 1).best(), out);
+            }
+            decided = null;
+            return out;
+        }
+
+        /**
+         * Scores the candidates of a new point by the likeliest way to reach each one from the
+         * candidates of the previous point.
+         * @return Whether any candidate can be reached.
+         */
+        private boolean step(Column prev, Column next) {
+            double straight = GraphDB.distance(prev.lon, prev.lat, next.lon, next.lat);
+            double bound = straight * MAX_DETOUR + DETOUR_SLACK;
+            boolean reached = false;
+            for (int i = 0; i < prev.snaps.length; i += 1) {
+                if (prev.score[i] == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                SegmentIndex.Snap a = prev.snaps[i];
+                for (int j = 0; j < next.snaps.length; j += 1) {
+                    SegmentIndex.Snap b = next.snaps[j];
+                    double best = Double.POSITIVE_INFINITY;
+                    int bestU = -1;
+                    int bestW = -1;
+                    if (a.sameSegment(b)) {
+                        int v = rg.number(a.from);
+                        best = Math.abs(rg.snapCost(v, a) - rg.snapCost(v, b));
+                    }
+                    for (long uId : a.ends()) {
+                        int u = rg.number(uId);
+                        Tree tree = tree(u, bound);
+                        double du = rg.snapCost(u, a);
+                        for (long wId : b.ends()) {
+                            int w = rg.number(wId);
+                            double d = du + tree.dist(w) + rg.snapCost(w, b);
+                            if (d < best) {
+                                best = d;
+                                bestU = u;
+                                bestW = w;
+                            }
+                        }
+                    }
+                    if (best > bound) {
+                        continue;
+                    }
+                    double score = prev.score[i] + Math.abs(best - straight) / BETA;
+                    if (score < next.score[j]) {
+                        next.score[j] = score;
+                        next.back[j] = i;
+                        next.backU[j] = bestU;
+                        next.backW[j] = bestW;
+                        next.backDist[j] = best;
+                        reached = true;
+                    }
+                }
+            }
+            next.addEmissions();
+            return reached;
+        }
+
+        /**
+         * Hands back the points held back up to the newest one whose road every likely sequence
+         * agrees on, or the older half of them if too many are held back.
+         */
+        private void decide(List<Matched> out) {
+            int k = pending.size() - 1;
+            int[] alive = pending.get(k).reachable();
+            while (alive.length > 1 && k > 0) {
+                Column column = pending.get(k);
+                alive = Arrays.stream(alive).map(j -> column.back[j]).distinct().toArray();
+                k -= 1;
+            }
+            if (alive.length == 1) {
+                emit(k, alive[0], out);
+            } else if (pending.size() > MAX_PENDING) {
+                int half = pending.size() / 2;
+                int j = pending.get(pending.size() - 1).best();
+                for (int i = pending.size() - 1; i > half; i -= 1) {
+                    j = pending.get(i).back[j];
+                }
+                emit(half, j, out);
+            }
+        }
+
+        /** Hands back the points held back up to position k, at whose candidate j they meet. */
+        private void emit(int k, int j, List<Matched> out) {
+            int[] chosen = new int[k + 1];
+            chosen[k] = j;
+            for (int i = k; i > 0; i -= 1) {
+                chosen[i - 1] = pending.get(i).back[chosen[i]];
+            }
+            for (int i = 0; i <= k; i += 1) {
+                out.add(matched(pending.get(i), chosen[i]));
+            }
+            decided = pending.get(k).only(chosen[k]);
+            pending.subList(0, k + 1).clear();
+        }
+
+        /** Returns a point matched to its candidate j. */
+        private Matched matched(Column column, int j) {
+            List<Long> path = new ArrayList<>();
+            boolean connected = column.back[j] >= 0;
+            if (connected && column.backU[j] >= 0) {
+                Tree tree = tree(column.backU[j], column.backDist[j]);
+                for (int v : tree.path(column.backW[j])) {
+                    path.add(rg.ids[v]);
+                }
+            }
+            return new Matched(column.index, column.snaps[j], connected, path);
+        }
+
+        /** Returns a search from vertex u that reaches at least a distance of limit. */
+        private Tree tree(int u, double limit) {
+            Tree tree = trees.get(u);
+            if (tree == null || tree.limit < limit) {
+                tree = new Tree(rg, u, limit);
+                trees.put(u, tree);
+            }
+            return tree;
+        }
+    }
+
+    /** The candidates of one point and the likeliest way to reach each of them. */
+    private static class Column {
+        /** The position of the point in its trace. */
+        final int index;
+        /** The coordinates of the point. */
+        final double lon, lat;
+        /** The candidates, nearest first. */
+        final SegmentIndex.Snap[] snaps;
+        /** The cost of the likeliest sequence ending at each candidate, or infinity. */
+        final double[] score;
+        /** The candidate of the previous point on that sequence, or -1 if it starts here. */
+        final int[] back;
+        /** The vertex numbers the step from there leaves and joins by, or -1 along one road. */
+        final int[] backU, backW;
+        /** The road distance of that step, in miles. */
+        final double[] backDist;
+
+        Column(int index, double lon, double lat, SegmentIndex.Snap[] snaps) {
+            int n = snaps.length;
+            this.index = index;
+            this.lon = lon;
+            this.lat = lat;
+            this.snaps = snaps;
+            score = new double[n];
+            Arrays.fill(score, Double.POSITIVE_INFINITY);
+            back = new int[n];
+            Arrays.fill(back, -1);
+            backU = new int[n];
+            backW = new int[n];
+            backDist = new double[n];
+        }
+
+        /** Scores the candidates as the start of a new sequence. */
+        void start() {
+            Arrays.fill(score, 0);
+            Arrays.fill(back, -1);
+            addEmissions();
+        }
+
+        /**
+         * Adds the cost of each candidate being where the GPS point was, and shifts the scores
+         * so that the best is 0, which keeps them small along long traces.
+         */
+        void addEmissions() {
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < snaps.length; j += 1) {
+                double d = GraphDB.distance(lon, lat, snaps[j].lon, snaps[j].lat) / SIGMA;
+                score[j] += 0.5 * d * d;
+                min = Math.min(min, score[j]);
+            }
+            if (min < Double.POSITIVE_INFINITY) {
+                for (int j = 0; j < snaps.length; j += 1) {
+                    score[j] -= min;
+                }
+            }
+        }
+
+        /** Returns the candidates that can be reached. */
+        int[] reachable() {
+            return IntStream.range(0, snaps.length)
+                    .filter(j -> score[j] < Double.POSITIVE_INFINITY).toArray();
+        }
+
+        /** Returns the likeliest candidate. */
+        int best() {
+            int best = 0;
+            for (int j = 1; j < snaps.length; j += 1) {
+                if (score[j] < score[best]) {
+                    best = j;
+                }
+            }
+            return best;
+        }
+
+        /** Returns this point with candidate j as its only candidate. */
+        Column only(int j) {
+            Column column = new Column(index, lon, lat, new SegmentIndex.Snap[]{snaps[j]});
+            column.score[0] = 0;
+            return column;
+        }
+    }
+
+    /**
+     * The vertices within a distance of a start vertex, found by Dijkstra's algorithm. The
+     * searches are small, so the vertices are kept sorted and looked up by binary search.
+     */
+    private static class Tree {
+        /** The distance the search reached. */
+        final double limit;
+        /** The vertex numbers found, in increasing order. */
+        private final int[] vertices;
+        /** The distance to each vertex found, and the vertex before it, or -1 at the start. */
+        private final double[] dist;
+        private final int[] parent;
+
+        Tree(RoutingGraph rg, int start, double limit) {
+            this.limit = limit;
+            SearchState state = rg.searchState();
+            IndexedMinHeap fringe = state.fringe;
+            state.improve(start, 0, -1);
+            fringe.push(start, 0);
+            int[] found = new int[16];
+            int size = 0;
+            while (!fringe.isEmpty() && fringe.minKey() <= limit) {
+                int v = fringe.pop();
+                state.settle(v);
+                if (size == found.length) {
+                    found = Arrays.copyOf(found, size * 2);
+                }
+                found[size] = v;
+                size += 1;
+                double dv = state.dist(v);
+                for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                    int w = rg.edgeTo[e];
+                    if (!state.isSettled(w) && state.improve(w, dv + rg.edgeWeight[e], v)) {
+                        fringe.push(w, dv + rg.edgeWeight[e]);
+                    }
+                }
+            }
+            vertices = Arrays.copyOf(found, size);
+            Arrays.sort(vertices);
+            dist = new double[size];
+            parent = new int[size];
+            for (int i = 0; i < size; i += 1) {
+                dist[i] = state.dist(vertices[i]);
+                parent[i] = state.parent(vertices[i]);
+            }
+        }
+
+        /** Returns the distance to vertex v, or infinity if it is beyond the limit. */
+        double dist(int v) {
+            int i = Arrays.binarySearch(vertices, v);
+            return i < 0 ? Double.POSITIVE_INFINITY : dist[i];
+        }
+
+        /** Returns the vertices from the start to vertex v, which must have been found. */
+        List<Integer> path(int v) {
+            List<Integer> path = new ArrayList<>();
+            for (; v >= 0; v = parent[Arrays.binarySearch(vertices, v)]) {
+                path.add(v);
+            }
+            Collections.reverse(path);
+            return path;
+        }
+    }
+}
@@ -7,9 +7,21 @@ import java.io.File;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.server.Request;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
@@ -49,26 +61,100 @@ public class MapServer {
     /** The <code>Rasterer</code> responsible for computing the shortest path and directions. */
     private static Rasterer rasterer;
     /**
-     * The most recently-requested shortest-paths route. The <code>renderImage</code> method redraws
-     * this route every time a new rastering result is requested from the browser.
+     * The most recently-requested shortest-paths route of each session, by session token. The
+     * <code>renderImage</code> method redraws a session's route every time that session requests
+     * a new rastering result.
      */
-    private static List<Long> route;
+    private static SessionStore<List<Long>> routeSessions;
+    /** The recently computed routes and directions, shared by all requests. */
+    private static RouteCache routeCache;
+    /** The incremental searches of navigating clients, by session token. */
+    private static SessionStore<DStarLite> searchSessions;
+    /** The GPS traces being matched a few points at a time, by session token. */
+    private static SessionStore<MapMatcher.Stream> matchSessions;
     /** The configured Gson Java serializer. */
     private static Gson gson;
+    /** Runs the slow preprocessing that requests must not wait for, one job at a time. */
+    private static final ExecutorService PREPROCESSING = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "preprocessing");
+        t.setDaemon(true);
+        return t;
+    });
+    /** The latest background load or build of each profile's hub labels. */
+    private static final Map<Profile, Future<?>> HUB_LABEL_BUILDS = new ConcurrentHashMap<>();
 
     /**
      * Code responsible for initializing variables. These objects must be instantiated
      * independently of the main method for the tests to function properly.
      */
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = new GraphDB(OSM_DB_PATH, indexType());
+        HUB_LABEL_BUILDS.clear();
+        Integer landmarks = Integer.getInteger(LANDMARKS_PROPERTY);
+        if (landmarks != null) {
+            graph.setLandmarkCount(landmarks);
+        }
+        String mode = System.getProperty(ROUTER_MODE_PROPERTY);
+        if (mode != null) {
+            Router.Mode m = Router.Mode.valueOf(mode.toUpperCase());
+            Router.setDefaultMode(m);
+            if (m == Router.Mode.ALT) {
+                System.out.println(graph.landmarks().report());
+            }
+            if (m == Router.Mode.CUSTOMIZABLE) {
+                System.out.println(graph.customizableHierarchy(Profile.DISTANCE).report());
+            }
+        }
+        if (Boolean.getBoolean(HUB_LABELS_PROPERTY)) {
+            System.out.println(graph.hubLabels(Profile.DISTANCE).report());
+        }
+        long snapTableMB = Long.getLong(SNAP_TABLE_PROPERTY, 0);
+        if (snapTableMB > 0) {
+            graph.enableSnapTable(SNAP_TABLE_CELL_MILES, snapTableMB << 20,
+                    Boolean.getBoolean(SNAP_TABLE_EAGER_PROPERTY));
+        }
         rasterer = new Rasterer();
-        route = Collections.emptyList();
+        routeSessions = new SessionStore<>(Integer.getInteger(ROUTE_SESSIONS_PROPERTY,
+                DEFAULT_ROUTE_SESSIONS), 1000 * Long.getLong(SESSION_IDLE_PROPERTY,
+                DEFAULT_SESSION_IDLE_SECONDS));
+        if (routeCache != null) {
+            routeCache.invalidate();
+        }
+        routeCache = new RouteCache(Integer.getInteger(ROUTE_CACHE_SIZE_PROPERTY,
+                DEFAULT_ROUTE_CACHE_SIZE), 1000 * Long.getLong(ROUTE_CACHE_TTL_PROPERTY,
+                DEFAULT_ROUTE_CACHE_TTL_SECONDS));
+        searchSessions = new SessionStore<>(Integer.getInteger(SEARCH_SESSIONS_PROPERTY,
+                DEFAULT_SEARCH_SESSIONS), 1000 * Long.getLong(SESSION_IDLE_PROPERTY,
+                DEFAULT_SESSION_IDLE_SECONDS));
+        matchSessions = new SessionStore<>(Integer.getInteger(MATCH_SESSIONS_PROPERTY,
+                DEFAULT_MATCH_SESSIONS), 1000 * Long.getLong(SESSION_IDLE_PROPERTY,
+                DEFAULT_SESSION_IDLE_SECONDS));
         gson = new GsonBuilder()
                 .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
                 .create();
     }
 
+    /**
+     * Starts loading or building a profile's hub labels in the background, unless that is
+     * already under way.
+     * @param profile The profile whose labels are wanted.
+     */
+    private static void buildHubLabels(Profile profile) {
+        GraphDB g = graph;
+        HUB_LABEL_BUILDS.compute(profile, (p, build) -> build != null && !build.isDone() ? build
+                : PREPROCESSING.submit(() -> System.out.println(g.hubLabels(p).report())));
+    }
+
+    /**
+     * Returns the kind of spatial index chosen with the <code>bearmaps.index</code> system
+     * property, for example <code>-Dbearmaps.index=grid</code>. Defaults to a KD-tree.
+     * @return The configured <code>SpatialIndex.Type</code>.
+     */
+    static SpatialIndex.Type indexType() {
+        String name = System.getProperty(INDEX_PROPERTY, SpatialIndex.Type.KDTREE.name());
+        return SpatialIndex.Type.valueOf(name.toUpperCase());
+    }
+
     /**
      * Launch the <code>mapServer</code>, register server routes, and listen on the default port.
      * @param args Ignored
@@ -94,7 +180,8 @@ public class MapServer {
             }
             try {
                 ByteArrayOutputStream os = new ByteArrayOutputStream();
-                BufferedImage img = renderImage(resultParams);
+                BufferedImage img = renderImage(resultParams,
+                        routeSessions.get(sessionToken(req, res)));
                 ImageIO.write(img, "png", os);
                 return gson.toJson(
                         new RenderedRasterResultParams(
@@ -116,16 +203,252 @@ public class MapServer {
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            route = Router.shortestPath(graph,
-                    params.startLon, params.startLat, params.endLon, params.endLat);
-            String directions = getDirectionsText(Router.routeDirections(graph, route));
-            RouteResultParams routeParams = new RouteResultParams(!route.isEmpty(), directions);
+            RouteRequestParams p = params;
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, ROUTE_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            String token = sessionToken(req, res);
+            List<Long> route;
+            String directions;
+            try {
+                if (p.session != null) {
+                    /* A navigating client's route changes as it moves, so it is not cached. */
+                    route = budget.within(() -> Router.shortestPath(graph, searchSessions,
+                            p.session, graph.closestSegment(p.startLon, p.startLat, p.profile),
+                            graph.closestSegment(p.endLon, p.endLat, p.profile), p.profile));
+                    directions = route.isEmpty() ? ""
+                            : getDirectionsText(Router.routeDirections(graph, route));
+                } else {
+                    RouteCache.Entry cached = budget.within(() -> routeCache.route(graph,
+                            p.startLon, p.startLat, p.endLon, p.endLat, p.profile,
+                            r -> getDirectionsText(Router.routeDirections(graph, r))));
+                    route = cached.route;
+                    directions = cached.directions;
+                }
+            } catch (SearchBudget.ExceededException e) {
+                /* Leave the drawn route alone; nothing was cached. */
+                return gson.toJson(new RouteResultParams(false, "", e.getMessage()));
+            }
+            routeSessions.put(token, route);
+            RouteResultParams routeParams =
+                    new RouteResultParams(!route.isEmpty(), directions);
             return gson.toJson(routeParams);
         });
 
+        /*
+         * Define the batch routing endpoint for HTTP POST requests. Routes are written as they
+         * are found, one JSON object per line, and leave the drawn route alone.
+         */
+        post("/route/batch", (req, res) -> {
+            BatchRouteRequestParams params = null;
+            try {
+                params = BatchRouteRequestParams.from(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            res.type("application/x-ndjson");
+            Writer out = new OutputStreamWriter(res.raw().getOutputStream(),
+                    StandardCharsets.UTF_8);
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, BATCH_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            BatchRouter.route(graph, params.pairs, params.profile, BATCH_ROUTE_LIMIT, budget,
+                    (i, r, failure) -> {
+                        out.write(gson.toJson(new BatchRouteResultParams(i, r, failure)));
+                        out.write('\n');
+                        out.flush();
+                    });
+            return "";
+        });
+
+        /*
+         * Define the traffic endpoint for HTTP POST requests. Each report is applied to the
+         * profile's customizable hierarchy, which routes in the customizable mode use, and the
+         * cached routes are dropped.
+         */
+        post("/traffic", (req, res) -> {
+            TrafficRequestParams params = null;
+            try {
+                params = TrafficRequestParams.from(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            CustomizableHierarchy cch = graph.customizableHierarchy(params.profile);
+            int found = cch.customize(params.from, params.to, params.factors);
+            routeCache.invalidate();
+            return String.format("applied %d of %d edges; %s", found, params.from.length,
+                    cch.report());
+        });
+
+        /* Define the API endpoint for the route cache's hit rate. */
+        get("/route_cache", (req, res) -> routeCache.report());
+
+        /* Define the batch snapping endpoint for HTTP POST requests. */
+        post("/snap", (req, res) -> {
+            SnapRequestParams params = null;
+            try {
+                params = SnapRequestParams.from(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            long[] ids = graph.closest(params.lons, params.lats);
+            return gson.toJson(new SnapResultParams(true, ids));
+        });
+
+        /* Define the distance matrix endpoint for HTTP POST requests. */
+        post("/matrix", (req, res) -> {
+            MatrixRequestParams params = null;
+            try {
+                params = MatrixRequestParams.from(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            MatrixRequestParams p = params;
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, BATCH_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            try {
+                double[][] matrix = budget.within(() -> DistanceMatrix.distances(graph,
+                        p.originLons, p.originLats, p.destLons, p.destLats));
+                return gson.toJson(new MatrixResultParams(true, matrix));
+            } catch (SearchBudget.ExceededException e) {
+                return gson.toJson(new MatrixResultParams(e.getMessage()));
+            }
+        });
+
+        /* Define the multi-stop tour endpoint for HTTP POST requests; the tour is drawn. */
+        post("/tour", (req, res) -> {
+            TourRequestParams params = null;
+            try {
+                params = TourRequestParams.from(req.body());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            TourRequestParams p = params;
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, BATCH_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            Tour tour;
+            try {
+                tour = budget.within(() -> Tour.plan(graph, p.lons, p.lats, p.roundTrip,
+                        p.timeLimit));
+            } catch (SearchBudget.ExceededException e) {
+                /* Leave the drawn route alone. */
+                return gson.toJson(new TourResultParams(e.getMessage()));
+            }
+            routeSessions.put(sessionToken(req, res), tour.route);
+            return gson.toJson(new TourResultParams(tour));
+        });
+
+        /*
+         * Define the map-matching endpoint for HTTP POST requests. A request naming a session
+         * continues that session's trace, and is answered with the points decided so far.
+         */
+        post("/match", (req, res) -> {
+            MatchRequestParams params = null;
+            try {
+                params = MatchRequestParams.from(req.body(), req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            MatchRequestParams p = params;
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, BATCH_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            if (p.session == null) {
+                try {
+                    return gson.toJson(new MatchResultParams(budget.within(() ->
+                            new MapMatcher(graph).match(p.lons, p.lats))));
+                } catch (SearchBudget.ExceededException e) {
+                    return gson.toJson(new MatchResultParams(e.getMessage()));
+                }
+            }
+            MapMatcher.Stream stream = matchSessions.get(p.session,
+                    () -> new MapMatcher(graph).stream());
+            List<MapMatcher.Matched> matched = new ArrayList<>();
+            synchronized (stream) {
+                try {
+                    budget.within(() -> {
+                        for (int i = 0; i < p.lons.length; i += 1) {
+                            matched.addAll(stream.push(p.lons[i], p.lats[i]));
+                        }
+                        if (p.end) {
+                            matched.addAll(stream.finish());
+                        }
+                        return null;
+                    });
+                } catch (SearchBudget.ExceededException e) {
+                    /* The trace stopped part way through a point, so it cannot be continued. */
+                    matchSessions.remove(p.session);
+                    return gson.toJson(new MatchResultParams(e.getMessage()));
+                }
+                if (p.end) {
+                    matchSessions.remove(p.session);
+                }
+            }
+            return gson.toJson(new MatchResultParams(matched));
+        });
+
+        /* Define the distance-only endpoint for HTTP GET requests, answered by hub labels. */
+        get("/distance", (req, res) -> {
+            RouteRequestParams params = null;
+            try {
+                params = RouteRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            HubLabels labels = graph.readyHubLabels(params.profile);
+            if (labels == null) {
+                /* Building the labels takes minutes, so it is not done on a request thread. */
+                buildHubLabels(params.profile);
+                halt(UNAVAILABLE_RESPONSE, "distances are not ready yet; try again later");
+            }
+            double distance = labels.distance(
+                    graph.closestSegment(params.startLon, params.startLat, params.profile),
+                    graph.closestSegment(params.endLon, params.endLat, params.profile));
+            return gson.toJson(new DistanceResultParams(distance));
+        });
+
+        /* Define the reachable-area endpoint for HTTP GET requests. */
+        get("/isochrone", (req, res) -> {
+            IsochroneRequestParams params = null;
+            try {
+                params = IsochroneRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            IsochroneRequestParams p = params;
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, ROUTE_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            try {
+                Isochrone area = budget.within(() -> Isochrone.reachable(graph, p.lon, p.lat,
+                        p.profile, p.budget));
+                return gson.toJson(new IsochroneResultParams(area.boundary.length > 0,
+                        area.vertices, area.boundary));
+            } catch (SearchBudget.ExceededException e) {
+                return gson.toJson(new IsochroneResultParams(e.getMessage()));
+            }
+        });
+
+        /* Define the nearest-places endpoint for HTTP GET requests. */
+        get("/nearest", (req, res) -> {
+            NearestRequestParams params = null;
+            try {
+                params = NearestRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            NearestRequestParams p = params;
+            PointsOfInterest pois = graph.pointsOfInterest();
+            SearchBudget budget = new SearchBudget(MAX_SETTLED, ROUTE_TIMEOUT_MS,
+                    () -> !connectionOpen(req.raw()));
+            try {
+                List<PointsOfInterest.Found> found = budget.within(() ->
+                        pois.nearest(graph, p.lon, p.lat, p.k, p.amenity, p.profile, p.radius));
+                return gson.toJson(new NearestResultParams(pois, found));
+            } catch (SearchBudget.ExceededException e) {
+                return gson.toJson(new NearestResultParams(e.getMessage()));
+            }
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            route = Collections.emptyList();
+            routeSessions.remove(sessionToken(req, res));
             return true;
         });
 
@@ -150,12 +473,36 @@ public class MapServer {
         });
     }
 
+    /**
+     * Returns the token of the session whose drawn route a request uses: its
+     * <code>route_session</code> parameter if it has one, or else its session cookie. A request
+     * with neither starts a new session, whose cookie is set on the response. This is separate
+     * from the <code>session</code> parameter of /route, which asks for incremental re-routing.
+     * @param req The request.
+     * @param res The response, which may be given a cookie.
+     * @return The session token.
+     */
+    private static String sessionToken(spark.Request req, spark.Response res) {
+        String token = req.queryParams(ROUTE_SESSION_PARAM);
+        if (token == null || token.isEmpty()) {
+            token = req.cookie(SESSION_COOKIE);
+        }
+        if (token == null || token.isEmpty()) {
+            byte[] bytes = new byte[SESSION_TOKEN_BYTES];
+            TOKENS.nextBytes(bytes);
+            token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            res.cookie("/", SESSION_COOKIE, token, -1, false, true);
+        }
+        return token;
+    }
+
     /**
      * Return the image defined by the <code>resultParams</code>.
      * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
+     * @param route The route to draw over the image, or null if there is none.
      * @return The final, rastered image including any shortest-paths routes.
      */
-    private static BufferedImage renderImage(RasterResultParams resultParams) {
+    private static BufferedImage renderImage(RasterResultParams resultParams, List<Long> route) {
         String[][] renderGrid = resultParams.renderGrid;
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -187,10 +534,16 @@ public class MapServer {
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
             route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                        (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
+                /* Only draw the legs of the route that can cross the image. */
+                if (Math.max(graph.lon(v), graph.lon(w)) >= ullon
+                        && Math.min(graph.lon(v), graph.lon(w)) <= lrlon
+                        && Math.min(graph.lat(v), graph.lat(w)) <= ullat
+                        && Math.max(graph.lat(v), graph.lat(w)) >= lrlat) {
+                    g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
+                            (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
+                            (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
+                            (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
+                }
                 return w;
             });
         }
@@ -228,8 +581,99 @@ public class MapServer {
         return sb.toString();
     }
 
+    /**
+     * Returns whether the client of a request is still connected. Jetty only notices a closed
+     * connection once it next reads or writes it, so this is a best effort.
+     * @param req The request.
+     * @return False if the request's connection is known to be closed.
+     */
+    private static boolean connectionOpen(HttpServletRequest req) {
+        Request base = Request.getBaseRequest(req);
+        return base == null || base.getHttpChannel().getEndPoint().isOpen();
+    }
+
+    /**
+     * The system property giving the most routes kept in the route cache, for example
+     * <code>-Dbearmaps.routeCacheSize=0</code> to turn the cache off.
+     */
+    private static final String ROUTE_CACHE_SIZE_PROPERTY = "bearmaps.routeCacheSize";
+    /** The system property giving how long a cached route is used, in seconds. */
+    private static final String ROUTE_CACHE_TTL_PROPERTY = "bearmaps.routeCacheTtl";
+    /** The most routes kept in the route cache unless another size is chosen. */
+    private static final int DEFAULT_ROUTE_CACHE_SIZE = 4096;
+    /** How long a cached route is used unless another time is chosen: ten minutes. */
+    private static final long DEFAULT_ROUTE_CACHE_TTL_SECONDS = 600;
+    /**
+     * The system property giving the most navigating clients whose searches are kept for
+     * re-routing; each search takes about 40 bytes per vertex.
+     */
+    private static final String SEARCH_SESSIONS_PROPERTY = "bearmaps.searchSessions";
+    /** The system property giving how long an idle client's search is kept, in seconds. */
+    private static final String SESSION_IDLE_PROPERTY = "bearmaps.sessionIdle";
+    /** The most searches kept for re-routing unless another number is chosen. */
+    private static final int DEFAULT_SEARCH_SESSIONS = 32;
+    /** The system property giving the most sessions whose drawn routes are kept. */
+    private static final String ROUTE_SESSIONS_PROPERTY = "bearmaps.routeSessions";
+    /** The most sessions whose drawn routes are kept unless another number is chosen. */
+    private static final int DEFAULT_ROUTE_SESSIONS = 100000;
+    /** The query parameter that names the session whose drawn route a request uses. */
+    private static final String ROUTE_SESSION_PARAM = "route_session";
+    /** The name of the cookie that carries a browser's session token. */
+    private static final String SESSION_COOKIE = "bearmaps_session";
+    /** The number of random bytes in a new session token. */
+    private static final int SESSION_TOKEN_BYTES = 18;
+    /** The source of new session tokens, which must not be guessable. */
+    private static final SecureRandom TOKENS = new SecureRandom();
+    /** The system property giving the most GPS traces matched a few points at a time. */
+    private static final String MATCH_SESSIONS_PROPERTY = "bearmaps.matchSessions";
+    /** The most traces matched a few points at a time unless another number is chosen. */
+    private static final int DEFAULT_MATCH_SESSIONS = 4096;
+    /** How long an idle client's search is kept unless another time is chosen: 15 minutes. */
+    private static final long DEFAULT_SESSION_IDLE_SECONDS = 900;
+    /** The most vertices each direction of any one search may settle. */
+    private static final int MAX_SETTLED = Integer.getInteger("bearmaps.maxSettled",
+            Integer.MAX_VALUE);
+    /** How long the search of a /route, /nearest or /isochrone query may run, in milliseconds. */
+    private static final long ROUTE_TIMEOUT_MS = Long.getLong("bearmaps.routeTimeoutMs", 2000);
+    /**
+     * How long the searches of a /route/batch, /matrix, /tour or /match query may run, in
+     * milliseconds.
+     */
+    private static final long BATCH_TIMEOUT_MS = Long.getLong("bearmaps.batchTimeoutMs", 30000);
+    /** The system property used to choose the kind of spatial index. */
+    private static final String INDEX_PROPERTY = "bearmaps.index";
+    /**
+     * The system property used to choose how routes are searched for, for example
+     * <code>-Dbearmaps.routerMode=bidirectional</code>. Defaults to unidirectional A*.
+     */
+    private static final String ROUTER_MODE_PROPERTY = "bearmaps.routerMode";
+    /**
+     * The system property giving the number of landmarks for ALT search, for example
+     * <code>-Dbearmaps.landmarks=8</code>.
+     */
+    private static final String LANDMARKS_PROPERTY = "bearmaps.landmarks";
+    /**
+     * The system property that loads or builds the hub labels for /distance at startup, for
+     * example <code>-Dbearmaps.hubLabels=true</code>. Otherwise the first request starts them
+     * in the background and /distance is unavailable until they are ready.
+     */
+    private static final String HUB_LABELS_PROPERTY = "bearmaps.hubLabels";
+    /**
+     * The system property giving the memory cap of the snapping lookup tables in megabytes, for
+     * example <code>-Dbearmaps.snapTableMB=64</code>: one table for /snap's vertices and one for
+     * the road segments that routes start and end on. The tables are off unless this is set.
+     */
+    private static final String SNAP_TABLE_PROPERTY = "bearmaps.snapTableMB";
+    /** The system property that fills in the whole snapping lookup tables at startup. */
+    private static final String SNAP_TABLE_EAGER_PROPERTY = "bearmaps.snapTableEager";
+    /** The side length of a cell of the snapping lookup tables: about 30 meters. */
+    private static final double SNAP_TABLE_CELL_MILES = 0.02;
+    /** The most routes of one batch request searched for at once. */
+    private static final int BATCH_ROUTE_LIMIT = Runtime.getRuntime().availableProcessors();
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response for a request that can be answered once background work is done. */
+    private static final int UNAVAILABLE_RESPONSE = 503;
     /** Route stroke information: typically roads are not more than 5px wide. */
     private static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: semi-transparent cyan. */
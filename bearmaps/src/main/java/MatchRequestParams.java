@@ -0,0 +1,86 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.util.Map;
+
+/**
+ * The MatchRequestParams contains the GPS points received from a client in a map-matching
+ * request. This class will primarily be used by the MapServer to unpack the request before
+ * calling <code>MapMatcher</code>.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"points": [[lon, lat], [lon, lat], ...]}</pre>
+ * with the points in the order they were recorded. A streaming request also names its trace with
+ * the <code>session</code> query parameter, and ends it with <code>end=true</code>.
+ */
+public class MatchRequestParams {
+    /** The longitudes of the points. */
+    public final double[] lons;
+    /** The latitudes of the points, in the same order as <code>lons</code>. */
+    public final double[] lats;
+    /** The token of the trace the points continue, or null. */
+    public final String session;
+    /** Whether the points are the last of their trace. */
+    public final boolean end;
+
+    /**
+     * Validate and return the points in a map-matching request.
+     * @param body The raw body of a Spark HTTP Request.
+     * @param req The queryParams map from the same request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the request is not a valid map-matching request.
+     */
+    public static MatchRequestParams from(String body, Map<String, String[]> req) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse points.");
+        }
+        if (parsed == null || parsed.points == null) {
+            throw new IllegalArgumentException("Request failed: points not found.");
+        }
+        if (parsed.points.length > MAX_POINTS) {
+            String msg = String.format("Request failed: at most %d points allowed.", MAX_POINTS);
+            throw new IllegalArgumentException(msg);
+        }
+        double[] lons = new double[parsed.points.length];
+        double[] lats = new double[parsed.points.length];
+        for (int i = 0; i < parsed.points.length; i += 1) {
+            double[] point = parsed.points[i];
+            if (point == null || point.length != 2) {
+                String msg = String.format("Incorrect parameters: unable to parse point %d.", i);
+                throw new IllegalArgumentException(msg);
+            }
+            lons[i] = point[0];
+            lats[i] = point[1];
+        }
+        String session = null;
+        if (req.containsKey("session")) {
+            String[] values = req.get("session");
+            if (values.length == 0 || values[0].isEmpty()) {
+                throw new IllegalArgumentException("Incorrect parameters: empty session.");
+            }
+            session = values[0];
+        }
+        boolean end = req.containsKey("end") && req.get("end").length > 0
+                && Boolean.parseBoolean(req.get("end")[0]);
+        return new MatchRequestParams(lons, lats, session, end);
+    }
+
+    private MatchRequestParams(double[] lons, double[] lats, String session, boolean end) {
+        this.lons = lons;
+        this.lats = lats;
+        this.session = session;
+        this.end = end;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private double[][] points;
+    }
+
+    /** The largest number of points accepted in one request. */
+    private static final int MAX_POINTS = 1 << 20;
+    private static final Gson GSON = new Gson();
+}
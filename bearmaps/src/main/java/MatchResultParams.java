@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MatchResultParams contains the GPS points matched by <code>MapMatcher</code> for
+ * serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class MatchResultParams {
+    /** Whether or not any point was matched. */
+    private final boolean matchSuccess;
+    /** The matched points, in the order they were recorded. */
+    private final List<Point> matched;
+    /**
+     * The vertex IDs along the matched roads, split into pieces wherever the trace breaks. A
+     * streaming request's first piece continues the last piece of the one before it.
+     */
+    private final List<long[]> route;
+    /** Why the searches were abandoned, or null if they ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of a MatchResultParams instance. */
+    private MatchResultParams() {
+        this(new ArrayList<>());
+    }
+
+    /**
+     * Constructs a MatchResultParams instance for a trace whose searches were abandoned.
+     * @param failure Why the searches were abandoned.
+     */
+    MatchResultParams(String failure) {
+        this.matchSuccess = false;
+        this.matched = new ArrayList<>();
+        this.route = new ArrayList<>();
+        this.failure = failure;
+    }
+
+    /**
+     * Constructs a MatchResultParams instance from matched points.
+     * @param points The matched points, in order.
+     */
+    MatchResultParams(List<MapMatcher.Matched> points) {
+        this.matchSuccess = !points.isEmpty();
+        this.matched = new ArrayList<>();
+        this.route = new ArrayList<>();
+        this.failure = null;
+        List<Long> piece = new ArrayList<>();
+        for (MapMatcher.Matched m : points) {
+            matched.add(new Point(m.index, m.snap));
+            if (!m.connected && !piece.isEmpty()) {
+                route.add(piece.stream().mapToLong(Long::longValue).toArray());
+                piece.clear();
+            }
+            for (long v : m.path) {
+                if (piece.isEmpty() || piece.get(piece.size() - 1) != v) {
+                    piece.add(v);
+                }
+            }
+        }
+        if (!piece.isEmpty()) {
+            route.add(piece.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /** A GPS point and the point on a road it was matched to. */
+    private static class Point {
+        /** The position of the GPS point in its trace. */
+        private final int index;
+        /** The coordinates of the matched point. */
+        private final double lon, lat;
+        /** The IDs of the vertices at either end of the matched road segment. */
+        private final long from, to;
+
+        Point(int index, SegmentIndex.Snap snap) {
+            this.index = index;
+            this.lon = snap.lon;
+            this.lat = snap.lat;
+            this.from = snap.from;
+            this.to = snap.to;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The MatrixRequestParams contains the points received from a client in a distance matrix
+ * request. This class will primarily be used by the MapServer to unpack the request body before
+ * calling <code>DistanceMatrix.distances</code>.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"origins": [[lon, lat], ...], "destinations": [[lon, lat], ...]}</pre>
+ * If the destinations are left out, the origins are used as the destinations too.
+ */
+public class MatrixRequestParams {
+    /** The longitudes and latitudes of the origins. */
+    public final double[] originLons, originLats;
+    /** The longitudes and latitudes of the destinations. */
+    public final double[] destLons, destLats;
+
+    /**
+     * Validate and return the points in a distance matrix request body.
+     * @param body The raw body of a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the body is not a valid distance matrix request.
+     */
+    public static MatrixRequestParams from(String body) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse points.");
+        }
+        if (parsed == null || parsed.origins == null) {
+            throw new IllegalArgumentException("Request failed: origins not found.");
+        }
+        double[][] destinations = parsed.destinations == null
+                ? parsed.origins : parsed.destinations;
+        if ((long) parsed.origins.length * destinations.length > MAX_CELLS) {
+            String msg = String.format("Request failed: at most %d distances allowed.",
+                    MAX_CELLS);
+            throw new IllegalArgumentException(msg);
+        }
+        double[][] origins = split(parsed.origins, "origin");
+        double[][] dests = split(destinations, "destination");
+        return new MatrixRequestParams(origins[0], origins[1], dests[0], dests[1]);
+    }
+
+    /** Returns the longitudes and the latitudes of the given [lon, lat] points. */
+    private static double[][] split(double[][] points, String kind) {
+        double[] lons = new double[points.length];
+        double[] lats = new double[points.length];
+        for (int i = 0; i < points.length; i += 1) {
+            double[] point = points[i];
+            if (point == null || point.length != 2) {
+                String msg = String.format("Incorrect parameters: unable to parse %s %d.",
+                        kind, i);
+                throw new IllegalArgumentException(msg);
+            }
+            lons[i] = point[0];
+            lats[i] = point[1];
+        }
+        return new double[][]{lons, lats};
+    }
+
+    private MatrixRequestParams(double[] originLons, double[] originLats,
+                                double[] destLons, double[] destLats) {
+        this.originLons = originLons;
+        this.originLats = originLats;
+        this.destLons = destLons;
+        this.destLats = destLats;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private double[][] origins;
+        private double[][] destinations;
+    }
+
+    /** The largest number of distances computed for one request. */
+    private static final int MAX_CELLS = 1 << 20;
+    private static final Gson GSON = new Gson();
+}
@@ -0,0 +1,60 @@
+/**
+ * The MatrixResultParams contains the distances computed by <code>DistanceMatrix</code> for
+ * serialization by Gson. To keep large matrices small on the wire, the distances are sent as one
+ * flat row-major array, rounded to the nearest ten-thousandth of a mile (about 16 centimeters),
+ * with -1 marking pairs that have no route.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class MatrixResultParams {
+    /** Whether or not the distances were successfully computed. */
+    private final boolean matrixSuccess;
+    /** The number of origins, which is the number of rows. */
+    private final int rows;
+    /** The number of destinations, which is the number of columns. */
+    private final int cols;
+    /** The distance in miles from origin i to destination j at index i * cols + j. */
+    private final double[] distances;
+    /** Why the searches were abandoned, or null if they ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of a MatrixResultParams instance. */
+    private MatrixResultParams() {
+        this(false, new double[0][]);
+    }
+
+    /**
+     * Constructs a MatrixResultParams instance for searches that were abandoned.
+     * @param failure Why the searches were abandoned.
+     */
+    MatrixResultParams(String failure) {
+        this.matrixSuccess = false;
+        this.rows = 0;
+        this.cols = 0;
+        this.distances = new double[0];
+        this.failure = failure;
+    }
+
+    /**
+     * Constructs a MatrixResultParams instance from a matrix of distances.
+     * @param matrixSuccess The matrixSuccess field.
+     * @param matrix The distance from each origin to each destination, infinite if unreachable.
+     */
+    MatrixResultParams(boolean matrixSuccess, double[][] matrix) {
+        this.matrixSuccess = matrixSuccess;
+        this.rows = matrix.length;
+        this.cols = matrix.length == 0 ? 0 : matrix[0].length;
+        this.distances = new double[rows * cols];
+        this.failure = null;
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                double d = matrix[i][j];
+                distances[i * cols + j] = d == Double.POSITIVE_INFINITY
+                        ? -1 : Math.round(d * ROUNDING) / ROUNDING;
+            }
+        }
+    }
+
+    /** The reciprocal of the precision distances are rounded to. */
+    private static final double ROUNDING = 1e4;
+}
@@ -0,0 +1,98 @@
+import java.util.Map;
+
+/**
+ * The NearestRequestParams contains the fields received from a client in a nearest-places
+ * request. This class will primarily be used by the MapServer to unpack the query parameters
+ * before calling <code>PointsOfInterest.nearest</code>.
+ *
+ * The start is given by <code>lon</code> and <code>lat</code>. The optional parameters are
+ * <code>k</code>, the number of places to return; <code>amenity</code>, an OSM amenity tag such
+ * as "fuel" that the places must have; <code>profile</code>, whose costs rank the places; and
+ * <code>radius</code>, the straight-line distance in miles to look for places within.
+ */
+public class NearestRequestParams {
+    /** The start point longitude. */
+    public final double lon;
+    /** The start point latitude. */
+    public final double lat;
+    /** The largest number of places to return. */
+    public final int k;
+    /** The amenity tag the places must have, or null for any named place. */
+    public final String amenity;
+    /** Whose costs rank the places. */
+    public final Profile profile;
+    /** The straight-line radius to look for places in, in miles. */
+    public final double radius;
+
+    /**
+     * Validate and return the parameters of a nearest-places request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If a parameter is missing, malformed or out of range.
+     */
+    public static NearestRequestParams from(Map<String, String[]> req) {
+        double lon = parse(req, "lon");
+        double lat = parse(req, "lat");
+        double k = req.containsKey("k") ? parse(req, "k") : DEFAULT_K;
+        if (k != Math.rint(k) || k < 1 || k > MAX_K) {
+            String msg = String.format("Request failed: k must be a whole number from 1 to %d.",
+                    MAX_K);
+            throw new IllegalArgumentException(msg);
+        }
+        double radius = req.containsKey("radius") ? parse(req, "radius") : DEFAULT_RADIUS;
+        if (!(radius >= 0) || radius > MAX_RADIUS) {
+            String msg = String.format("Request failed: the radius must be 0 to %.0f miles.",
+                    MAX_RADIUS);
+            throw new IllegalArgumentException(msg);
+        }
+        String amenity = null;
+        if (req.containsKey("amenity")) {
+            String[] values = req.get("amenity");
+            if (values.length == 0 || values[0].isEmpty()) {
+                throw new IllegalArgumentException("Incorrect parameters: empty amenity.");
+            }
+            amenity = values[0];
+        }
+        Profile profile = Profile.DISTANCE;
+        if (req.containsKey("profile")) {
+            try {
+                profile = Profile.valueOf(req.get("profile")[0].toUpperCase());
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect parameters: unknown profile.");
+            }
+        }
+        return new NearestRequestParams(lon, lat, (int) k, amenity, profile, radius);
+    }
+
+    private static double parse(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param)) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        try {
+            return Double.parseDouble(req.get(param)[0]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    private NearestRequestParams(double lon, double lat, int k, String amenity, Profile profile,
+                                 double radius) {
+        this.lon = lon;
+        this.lat = lat;
+        this.k = k;
+        this.amenity = amenity;
+        this.profile = profile;
+        this.radius = radius;
+    }
+
+    /** The number of places returned when k is not given. */
+    private static final int DEFAULT_K = 5;
+    /** The largest number of places returned by one request. */
+    private static final int MAX_K = 100;
+    /** The radius searched when none is given, in miles. */
+    private static final double DEFAULT_RADIUS = 5;
+    /** The largest radius accepted, in miles. */
+    private static final double MAX_RADIUS = 50;
+}
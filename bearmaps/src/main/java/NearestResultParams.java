@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The NearestResultParams contains the places found by <code>PointsOfInterest.nearest</code> for
+ * serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class NearestResultParams {
+    /** The places, nearest first. */
+    private final List<Place> places;
+    /** Why the search was abandoned, or null if it ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of a NearestResultParams instance. */
+    private NearestResultParams() {
+        this(null);
+    }
+
+    /**
+     * Constructs a NearestResultParams instance for a search that was abandoned.
+     * @param failure Why the search was abandoned.
+     */
+    NearestResultParams(String failure) {
+        this.places = new ArrayList<>();
+        this.failure = failure;
+    }
+
+    /**
+     * Constructs a NearestResultParams instance from the places found.
+     * @param pois The places of the map.
+     * @param found The places found, nearest first.
+     */
+    NearestResultParams(PointsOfInterest pois, List<PointsOfInterest.Found> found) {
+        this.places = new ArrayList<>();
+        this.failure = null;
+        for (PointsOfInterest.Found f : found) {
+            int i = f.place;
+            places.add(new Place(pois.ids[i], pois.names[i], pois.amenities[i], pois.lons[i],
+                    pois.lats[i], f.cost));
+        }
+    }
+
+    /** A place and the cost of the route to it. */
+    private static class Place {
+        /** The OSM ID of the place. */
+        private final long id;
+        /** The name of the place, or null. */
+        private final String name;
+        /** The amenity tag of the place, or null. */
+        private final String amenity;
+        /** The coordinates of the place. */
+        private final double lon, lat;
+        /** The cost of the route to the place: miles for the distance profile, else seconds. */
+        private final double distance;
+
+        Place(long id, String name, String amenity, double lon, double lat, double distance) {
+            this.id = id;
+            this.name = name;
+            this.amenity = amenity;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+}
@@ -4,8 +4,12 @@ public class Node implements Comparable<Node> {
     double nodeLat;
     double nodeLon;
     String nodeName;
+    // the kind of place this vertex is, from its OSM amenity tag, or null
+    String amenity;
     // the adjacent vertices of this vertex
     ArrayList<Long> adjacent;
+    // the way each adjacent vertex is reached along, or null if unknown
+    ArrayList<Edge> ways;
 
     Node prev;
     double priority;
@@ -16,6 +20,7 @@ public class Node implements Comparable<Node> {
         this.nodeLat = lat;
         this.nodeLon = lon;
         adjacent = new ArrayList<>();
+        ways = new ArrayList<>();
     }
 
     // Create the nodes this way to run the shortest path
@@ -41,8 +46,17 @@ public class Node implements Comparable<Node> {
         this.nodeName = name;
     }
 
+    void setAmenity(String amenity) {
+        this.amenity = amenity;
+    }
+
     void addAdj(Long a) {
+        addAdj(a, null);
+    }
+
+    void addAdj(Long a, Edge way) {
         adjacent.add(a);
+        ways.add(way);
     }
 
     //compare nodes in PQ for running shortest paths
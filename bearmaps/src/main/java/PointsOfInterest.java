@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The named places and amenities of a map, and the nearest of them by road. Each place is
+ * snapped onto the nearest road once, when the map is read, and the snapped points are kept in a
+ * spatial index of their own.
+ *
+ * A nearest-places query first asks that index for the places within a straight-line radius of
+ * the start, and then runs a single Dijkstra search from the snapped start over the graph's
+ * <code>RoutingGraph</code>. The candidates bound the search: it stops as soon as k of them are
+ * settled, or once every road end leading to a candidate is settled, rather than exploring the
+ * whole radius. The search runs on the calling thread's reused search state, so a
+ * <code>SearchBudget</code> applies to it like to any other search.
+ */
+class PointsOfInterest {
+    /** The OSM IDs of the places. */
+    final long[] ids;
+    /** The names of the places, or null where a place has none. */
+    final String[] names;
+    /** The OSM amenity tags of the places, such as "fuel", or null where a place has none. */
+    final String[] amenities;
+    /** The coordinates of the places themselves. */
+    final double[] lons, lats;
+    /** Each place snapped onto the nearest road, or null if the map has no roads. */
+    private final SegmentIndex.Snap[] snaps;
+    /** An index over the snapped points, keyed by place number. */
+    private final SpatialIndex index;
+
+    /**
+     * Snaps the given places onto the roads of a graph and indexes them.
+     * @param roads The graph's segment index.
+     * @param places The named places and amenities, whether or not they are on a road.
+     */
+    PointsOfInterest(SegmentIndex roads, List<Node> places) {
+        int n = places.size();
+        ids = new long[n];
+        names = new String[n];
+        amenities = new String[n];
+        lons = new double[n];
+        lats = new double[n];
+        snaps = new SegmentIndex.Snap[n];
+        List<Node> snapped = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            Node p = places.get(i);
+            ids[i] = p.nodeID;
+            names[i] = p.nodeName;
+            amenities[i] = p.amenity;
+            lons[i] = p.nodeLon;
+            lats[i] = p.nodeLat;
+            snaps[i] = roads.nearest(GraphDB.projectToX(p.nodeLon, p.nodeLat),
+                    GraphDB.projectToY(p.nodeLon, p.nodeLat));
+            if (snaps[i] != null) {
+                snapped.add(new Node(i, snaps[i].lat, snaps[i].lon));
+            }
+        }
+        index = SpatialIndex.create(SpatialIndex.Type.KDTREE, snapped);
+    }
+
+    /**
+     * Returns the number of places.
+     * @return The number of named places and amenities on the map.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /** A place found by <code>nearest</code>, and the cost of the route to it. */
+    static class Found {
+        /** The place number, an index into the arrays of <code>PointsOfInterest</code>. */
+        final int place;
+        /** The cost of the route to the place's snapped point, in the profile's cost units. */
+        final double cost;
+
+        Found(int place, double cost) {
+            this.place = place;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * Returns the places nearest to a point by road, among those within a straight-line radius.
+     * Every place whose snapped point is within the radius is considered, so for the distance
+     * profile the answer is exact for every place within <code>radius</code> miles by road.
+     * @param g The graph to route on.
+     * @param lon The longitude of the start, which is snapped onto the nearest road.
+     * @param lat The latitude of the start.
+     * @param k The largest number of places to return.
+     * @param amenity The amenity tag the places must have, or null for any place.
+     * @param profile Whose costs the routes minimize.
+     * @param radius The straight-line radius to look for places in, in miles.
+     * @return Up to k reachable places, nearest first.
+     */
+    List<Found> nearest(GraphDB g, double lon, double lat, int k, String amenity,
+                        Profile profile, double radius) {
+        List<Found> found = new ArrayList<>();
+        SegmentIndex.Snap start = g.closestSegment(lon, lat, profile);
+        if (start == null || k <= 0) {
+            return found;
+        }
+        int[] candidates = candidates(start, amenity, radius);
+        if (candidates.length == 0) {
+            return found;
+        }
+        RoutingGraph rg = g.routingGraph(profile);
+
+        /*
+         * Index the candidates by the road ends they are reached from. A candidate's cost is only
+         * known for sure once the fringe has moved past it, so tentative costs wait in their own
+         * queue until then, keyed by candidate number rather than place number.
+         */
+        Map<Integer, List<Integer>> targets = new HashMap<>();
+        double[] best = new double[candidates.length];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        PriorityQueue<Found> tentative = new PriorityQueue<>((a, b) -> Double.compare(a.cost,
+                b.cost));
+        for (int c = 0; c < candidates.length; c += 1) {
+            SegmentIndex.Snap snap = snaps[candidates[c]];
+            if (start.sameSegment(snap) && rg.canFollow(start, snap, rg.edgeWeight)) {
+                /* A place on the start's own road is reached along it, as in Router. */
+                int v = rg.number(snap.from);
+                if (v >= 0) {
+                    best[c] = Math.abs(rg.snapCost(v, snap) - rg.snapCost(v, start));
+                    tentative.add(new Found(c, best[c]));
+                }
+            }
+            for (long id : snap.ends()) {
+                int v = rg.number(id);
+                if (v >= 0) {
+                    targets.computeIfAbsent(v, x -> new ArrayList<>()).add(c);
+                }
+            }
+        }
+        int remaining = targets.size();
+
+        SearchState state = rg.searchState();
+        IndexedMinHeap fringe = state.fringe;
+        for (long id : start.ends()) {
+            int s = rg.number(id);
+            if (s >= 0) {
+                double d = rg.snapCost(s, start);
+                if (state.improve(s, d, -1)) {
+                    fringe.push(s, d);
+                }
+            }
+        }
+        boolean[] done = new boolean[candidates.length];
+        while (found.size() < k) {
+            double frontier = remaining == 0 || fringe.isEmpty()
+                    ? Double.POSITIVE_INFINITY : fringe.minKey();
+            if (!tentative.isEmpty() && tentative.peek().cost <= frontier) {
+                Found f = tentative.poll();
+                if (!done[f.place]) {
+                    done[f.place] = true;
+                    found.add(new Found(candidates[f.place], f.cost));
+                }
+                continue;
+            }
+            if (frontier == Double.POSITIVE_INFINITY) {
+                break;
+            }
+            int v = fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            List<Integer> reached = targets.get(v);
+            if (reached != null) {
+                remaining -= 1;
+                for (int c : reached) {
+                    double cost = dv + rg.snapCost(v, snaps[candidates[c]]);
+                    if (cost < best[c]) {
+                        best[c] = cost;
+                        tentative.add(new Found(c, cost));
+                    }
+                }
+            }
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (!state.isSettled(w) && state.improve(w, dv + rg.edgeWeight[e], v)) {
+                    fringe.push(w, dv + rg.edgeWeight[e]);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the numbers of the places with the given amenity whose snapped points are within a
+     * straight-line radius of the snapped start.
+     */
+    private int[] candidates(SegmentIndex.Snap start, String amenity, double radius) {
+        double dLat = radius / MILES_PER_DEGREE;
+        double dLon = dLat / Math.max(Math.cos(Math.toRadians(start.lat)), MIN_COS);
+        double[] box = GraphDB.projectBox(start.lon - dLon, start.lat + dLat,
+                start.lon + dLon, start.lat - dLat);
+        List<Long> inBox = new ArrayList<>();
+        index.range(box[0], box[1], box[2], box[3], inBox);
+        return inBox.stream().mapToInt(Long::intValue)
+                .filter(i -> amenity == null || amenity.equals(amenities[i]))
+                .filter(i -> GraphDB.distance(start.lon, start.lat, snaps[i].lon, snaps[i].lat)
+                        <= radius)
+                .toArray();
+    }
+
+    /** A lower bound on the miles per degree of latitude, which keeps the search box large. */
+    private static final double MILES_PER_DEGREE = 68.7;
+    /** Keeps the box finite for starts near the poles. */
+    private static final double MIN_COS = 0.01;
+}
@@ -0,0 +1,81 @@
+import java.util.List;
+
+/**
+ * The ways of travelling a route can be planned for. Each profile turns a road's kind and speed
+ * limit into the cost of travelling one mile along it, once, when its <code>RoutingGraph</code>
+ * is built, so searches only ever add up precomputed weights.
+ *
+ * <code>DISTANCE</code> costs are miles, as routes were always planned before profiles existed;
+ * the other profiles' costs are travel times in seconds.
+ */
+public enum Profile {
+    /** The shortest route on any road, in miles. */
+    DISTANCE(1, false),
+    /** The fastest route by car, at the speed limit or a typical speed for the kind of road. */
+    CAR(80, false),
+    /** The fastest route by bike at up to 12 miles per hour, staying off motorways. */
+    BIKE(12, true),
+    /** The fastest route on foot at 3 miles per hour, staying off motorways. */
+    WALK(3, true);
+
+    /**
+     * The kinds of road, as OSM highway tags, in the order of their road class numbers. Class 0
+     * is any other kind.
+     */
+    static final List<String> ROAD_CLASSES = List.of("",
+            "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
+            "living_street", "motorway_link", "trunk_link", "primary_link", "secondary_link",
+            "tertiary_link");
+    /** The typical car speed on each class of road without a speed limit, in miles per hour. */
+    private static final double[] CAR_SPEEDS = {
+        25, 65, 55, 40, 35, 30, 25, 25, 10, 45, 40, 30, 30, 25
+    };
+
+    /** The fastest this profile ever travels, in miles per hour, or 1 for distances. */
+    private final double topSpeed;
+    /** Whether motorways and their links are closed to this profile. */
+    private final boolean avoidsMotorways;
+
+    Profile(double topSpeed, boolean avoidsMotorways) {
+        this.topSpeed = topSpeed;
+        this.avoidsMotorways = avoidsMotorways;
+    }
+
+    /**
+     * Returns the road class number of an OSM highway tag.
+     * @param highway The value of a way's highway tag, or null.
+     * @return The index of the tag in <code>ROAD_CLASSES</code>, or 0 for any other kind.
+     */
+    static byte roadClass(String highway) {
+        int c = highway == null ? -1 : ROAD_CLASSES.indexOf(highway);
+        return (byte) Math.max(0, c);
+    }
+
+    /**
+     * Returns the cost of travelling one mile along a road.
+     * @param roadClass The road's class number.
+     * @param maxSpeed The road's speed limit in miles per hour, or NaN if it has none.
+     * @return The cost per mile, or infinity if the road is closed to this profile.
+     */
+    double costPerMile(int roadClass, double maxSpeed) {
+        if (this == DISTANCE) {
+            return 1;
+        }
+        if (avoidsMotorways && (roadClass == MOTORWAY || roadClass == MOTORWAY_LINK)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double speed = maxSpeed > 0 ? maxSpeed : CAR_SPEEDS[roadClass];
+        return SECONDS_PER_HOUR / Math.min(speed, topSpeed);
+    }
+
+    /**
+     * Returns a lower bound on the cost of travelling one mile, for A* heuristics.
+     * @return The cost per mile at this profile's top speed.
+     */
+    double minCostPerMile() {
+        return this == DISTANCE ? 1 : SECONDS_PER_HOUR / topSpeed;
+    }
+
+    private static final int MOTORWAY = 1, MOTORWAY_LINK = 9;
+    private static final double SECONDS_PER_HOUR = 3600;
+}
@@ -0,0 +1,247 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of recent routes and their rendered directions, shared by all requests. Routes
+ * are keyed by the road segments both ends snap onto, with the position along each segment
+ * rounded to one of <code>FRACTION_BUCKETS</code> stretches, so requests from nearby points on
+ * the same roads share an entry. A route only depends on which end of each road it leaves by,
+ * so a shared route is at most two stretches of road longer than the best one for the exact
+ * points at each end.
+ *
+ * The least recently used entry is evicted once the cache is full, and entries older than the
+ * time to live are treated as missing. The whole cache is dropped when the graph it was filled
+ * from is replaced or its vertices change. Lookups and insertions lock the cache only briefly:
+ * routes are computed outside the lock, so two requests that miss on the same pair at once may
+ * both compute it.
+ */
+class RouteCache {
+    /** The number of stretches each road segment is split into for keys. */
+    static final int FRACTION_BUCKETS = 8;
+
+    /** A cached route and its rendered directions. */
+    static class Entry {
+        /** The vertex IDs along the route. */
+        final List<Long> route;
+        /** The rendered directions of the route. */
+        final String directions;
+        /** When the entry was created, in the cache's clock. */
+        private final long created;
+
+        private Entry(List<Long> route, String directions, long created) {
+            this.route = Collections.unmodifiableList(route);
+            this.directions = directions;
+            this.created = created;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    /** The entries from least to most recently used. */
+    private final LinkedHashMap<Key, Entry> entries;
+    /** The graph and routing graph the entries were computed on. */
+    private GraphDB graph;
+    private RoutingGraph routingGraph;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty route cache.
+     * @param capacity The most entries to keep; 0 disables the cache.
+     * @param ttlMillis How long an entry may be used after it is computed, in milliseconds.
+     */
+    RouteCache(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, System::nanoTime);
+    }
+
+    /**
+     * Creates an empty route cache with the given clock.
+     * @param capacity The most entries to keep; 0 disables the cache.
+     * @param ttlMillis How long an entry may be used after it is computed, in milliseconds.
+     * @param clock The current time in nanoseconds.
+     */
+    RouteCache(int capacity, long ttlMillis, LongSupplier clock) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > RouteCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the route between two points and its directions, from the cache if possible.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param profile Whose costs the route minimizes.
+     * @param render Renders the directions of a route that has to be computed.
+     * @return The cached or newly computed route.
+     */
+    Entry route(GraphDB g, double stlon, double stlat, double destlon, double destlat,
+                Profile profile, Function<List<Long>, String> render) {
+        SegmentIndex.Snap start = g.closestSegment(stlon, stlat, profile);
+        SegmentIndex.Snap goal = g.closestSegment(destlon, destlat, profile);
+        Key key = start == null || goal == null ? null : new Key(start, goal, profile);
+        RoutingGraph rg = g.routingGraph();
+        if (key != null && capacity > 0) {
+            synchronized (this) {
+                if (g != graph || rg != routingGraph) {
+                    entries.clear();
+                    graph = g;
+                    routingGraph = rg;
+                }
+                Entry cached = entries.get(key);
+                if (cached != null && clock.getAsLong() - cached.created < ttlNanos) {
+                    hits.incrementAndGet();
+                    return cached;
+                } else if (cached != null) {
+                    entries.remove(key);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        List<Long> route = Router.shortestPath(g, start, goal, Router.defaultMode(),
+                profile);
+        /* There are no directions to render when either end has no road or there is no path. */
+        Entry computed = new Entry(route, route.isEmpty() ? "" : render.apply(route),
+                clock.getAsLong());
+        if (key != null && capacity > 0) {
+            synchronized (this) {
+                /* Do not cache a route computed on a graph that has since changed. */
+                if (g == graph && rg == routingGraph) {
+                    entries.put(key, computed);
+                }
+            }
+        }
+        return computed;
+    }
+
+    /** Drops every entry, for example after the graph is reloaded. */
+    synchronized void invalidate() {
+        entries.clear();
+        graph = null;
+        routingGraph = null;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     * @return The number of entries, including any that have expired but not been dropped.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     * @return The number of hits.
+     */
+    long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to compute their route.
+     * @return The number of misses, including expired entries.
+     */
+    long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to make room for newer ones.
+     * @return The number of evictions.
+     */
+    long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     * @return The hit rate, or 0 before the first lookup.
+     */
+    double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Returns a one-line summary of the cache's use.
+     * @return A report such as "route cache: 812 entries, 1500 hits, 500 misses (75.0%),
+     *         3 evicted".
+     */
+    String report() {
+        return String.format("route cache: %d entries, %d hits, %d misses (%.1f%%), %d evicted",
+                size(), hits(), misses(), 100 * hitRate(), evictions());
+    }
+
+    /**
+     * The road segments both ends of a route snap onto, roughly where along them, and whose costs
+     * the route minimizes.
+     */
+    private static class Key {
+        private final long startFrom, startTo, goalFrom, goalTo;
+        private final int startBucket, goalBucket;
+        /** Whether both ends are on one segment with the goal before the start along it. */
+        private final boolean backward;
+        private final Profile profile;
+
+        Key(SegmentIndex.Snap start, SegmentIndex.Snap goal, Profile profile) {
+            this.profile = profile;
+            startFrom = start.from;
+            startTo = start.to;
+            startBucket = bucket(start.fraction);
+            goalFrom = goal.from;
+            goalTo = goal.to;
+            goalBucket = bucket(goal.fraction);
+            backward = start.sameSegment(goal) && goal.fraction < start.fraction;
+        }
+
+        /** Returns which stretch of its segment a snapped point is on. */
+        private static int bucket(double fraction) {
+            return Math.min(FRACTION_BUCKETS - 1, (int) (fraction * FRACTION_BUCKETS));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return startFrom == k.startFrom && startTo == k.startTo
+                    && goalFrom == k.goalFrom && goalTo == k.goalTo
+                    && startBucket == k.startBucket && goalBucket == k.goalBucket
+                    && backward == k.backward
+                    && profile == k.profile;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = startFrom * 31 + startTo;
+            h = h * 31 + goalFrom;
+            h = h * 31 + goalTo;
+            h = h * 31 + startBucket;
+            h = h * 31 + goalBucket;
+            h = h * 31 + (backward ? 1 : 0);
+            h = h * 31 + profile.ordinal();
+            return Long.hashCode(h);
+        }
+    }
+}
@@ -19,6 +19,14 @@ public class RouteRequestParams {
     public final double endLat;
     /** The end point longitude. */
     public final double endLon;
+    /** Whose costs the route minimizes; the optional <code>profile</code> parameter. */
+    public final Profile profile;
+    /**
+     * The token of a navigating client whose previous search should be reused, or null; the
+     * optional <code>session</code> parameter. Only navigating clients should give it, since
+     * their routes are not cached; the drawn route is chosen by <code>route_session</code>.
+     */
+    public final String session;
 
     /**
      * Validate and return a parameter map of the required request parameters.
@@ -42,6 +50,20 @@ public class RouteRequestParams {
                 }
             }
         }
+        if (req.containsKey("profile")) {
+            try {
+                builder.setProfile(Profile.valueOf(req.get("profile")[0].toUpperCase()));
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect parameters: unknown profile.");
+            }
+        }
+        if (req.containsKey("session")) {
+            String[] session = req.get("session");
+            if (session.length == 0 || session[0].isEmpty()) {
+                throw new IllegalArgumentException("Incorrect parameters: empty session.");
+            }
+            builder.setSession(session[0]);
+        }
         return builder.create();
     }
 
@@ -50,18 +72,23 @@ public class RouteRequestParams {
      * instance. Use the the factory method, from, instead.
      */
     private RouteRequestParams() {
-        this(0.0, 0.0, 0.0, 0.0);
+        this(0.0, 0.0, 0.0, 0.0, Profile.DISTANCE, null);
     }
 
-    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon) {
+    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon,
+                               Profile profile, String session) {
         this.startLat = startLat;
         this.startLon = startLon;
         this.endLat = endLat;
         this.endLon = endLon;
+        this.profile = profile;
+        this.session = session;
     }
 
     public static class Builder {
         private double startLat, startLon, endLat, endLon;
+        private Profile profile = Profile.DISTANCE;
+        private String session;
 
         /**
          * Creates a RouteRequestParams.Builder instance that can be used to build
@@ -71,7 +98,8 @@ public class RouteRequestParams {
         }
 
         public RouteRequestParams create() {
-            return new RouteRequestParams(startLat, startLon, endLat, endLon);
+            return new RouteRequestParams(startLat, startLon, endLat, endLon, profile,
+                    session);
         }
 
         public Builder setStartLat(double value) {
@@ -94,6 +122,16 @@ public class RouteRequestParams {
             return this;
         }
 
+        public Builder setProfile(Profile value) {
+            this.profile = value;
+            return this;
+        }
+
+        public Builder setSession(String value) {
+            this.session = value;
+            return this;
+        }
+
         private Builder set(String field, double value) {
             switch (field) {
                 case "start_lat":
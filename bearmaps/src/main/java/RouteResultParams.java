@@ -11,6 +11,8 @@ class RouteResultParams {
     private final boolean routingSuccess;
     /** The HTML-friendly String representation of the navigation directions. */
     private final String directions;
+    /** Why the route could not be computed, or null if the search ran to completion. */
+    private final String failure;
 
     /** Private constructor to prevent direct instantiation of a RouteResultParams instance. */
     private RouteResultParams() {
@@ -23,7 +25,18 @@ class RouteResultParams {
      * @param directions The directions field.
      */
     RouteResultParams(boolean routingSuccess, String directions) {
+        this(routingSuccess, directions, null);
+    }
+
+    /**
+     * Constructs a RouteResultParams instance for a search that may have been abandoned.
+     * @param routingSuccess The routingSuccess field.
+     * @param directions The directions field.
+     * @param failure Why the search was abandoned, or null if it was not.
+     */
+    RouteResultParams(boolean routingSuccess, String directions, String failure) {
         this.routingSuccess = routingSuccess;
         this.directions = directions;
+        this.failure = failure;
     }
 }
@@ -1,8 +1,5 @@
 import java.util.List;
 import java.util.ArrayList;
-import java.util.PriorityQueue;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -12,9 +9,47 @@ import java.util.regex.Pattern;
  * finding routes between two points on the map.
  */
 public class Router {
+    /** The ways <code>shortestPath</code> can search for a route. */
+    public enum Mode {
+        /** A* forward from the start. */
+        UNIDIRECTIONAL,
+        /** A* from both ends at once, taking turns on the calling thread. */
+        BIDIRECTIONAL,
+        /** A* from both ends at once, with each direction on its own thread. */
+        PARALLEL_BIDIRECTIONAL,
+        /** An upward search from both ends of the graph's contraction hierarchy. */
+        CONTRACTION_HIERARCHY,
+        /** A* guided by landmark distances instead of the great-circle distance alone. */
+        ALT,
+        /** An upward search of the customizable hierarchy, with the latest traffic applied. */
+        CUSTOMIZABLE
+    }
+
+    /** The mode used when <code>shortestPath</code> is not given one. */
+    private static volatile Mode defaultMode = Mode.UNIDIRECTIONAL;
+
+    /**
+     * Sets the mode used when <code>shortestPath</code> is not given one.
+     * @param mode The new default mode.
+     */
+    public static void setDefaultMode(Mode mode) {
+        defaultMode = mode;
+    }
+
+    /**
+     * Returns the mode used when <code>shortestPath</code> is not given one.
+     * @return The default mode.
+     */
+    static Mode defaultMode() {
+        return defaultMode;
+    }
+
     /**
      * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
-     * starting coordinate and destination coordinate.
+     * starting coordinate and destination coordinate. Both coordinates are first snapped onto the
+     * nearest point of the nearest road, and the search starts from that point, so a start in the
+     * middle of a long road heads straight for whichever end of it leads to the destination.
+     * The search itself is an <code>AStarSearch</code> over the graph's <code>RoutingGraph</code>.
      * @param g <code>GraphDB</code> data source.
      * @param stlon The longitude of the starting coordinate.
      * @param stlat The latitude of the starting coordinate.
@@ -25,68 +60,125 @@ public class Router {
     public static List<Long> shortestPath(GraphDB g,
                                           double stlon, double stlat,
                                           double destlon, double destlat) {
-        // the list to contain the vertices in the route
-        ArrayList<Long> recordVertices = new ArrayList<>();
-        // The priority queue to use
-        PriorityQueue<Node> fringe = new PriorityQueue<>();
-        // the mashMap to record the distances from starting point to this vertex
-        HashMap<Long, Double> best = new HashMap<>();
-        // the hashMap to record parent Nodes of vertices
-        HashMap<Long, Node> parentNode = new HashMap<>();
-        // a hashSet to mark the visited Nodes
-        HashSet<Long> marked = new HashSet<>();
+        return shortestPath(g, stlon, stlat, destlon, destlat, defaultMode);
+    }
 
-        // Get the starting Node and the end Node
-        Node startingNode = g.vertexMap.get(g.closest(stlon, stlat));
-        Node endingNode = g.vertexMap.get(g.closest(destlon, destlat));
+    /**
+     * Like <code>shortestPath(g, stlon, stlat, destlon, destlat)</code>, but with the given
+     * search mode. Every mode finds a route of the same length.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param mode How to search for the route.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat, Mode mode) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, mode, Profile.DISTANCE);
+    }
 
-        // add the starting Node to the fringe
-        Node sourceNode = new Node(startingNode.nodeID, null,
-                heuristic(g, startingNode.nodeID, endingNode.nodeID));
-        parentNode.put(startingNode.nodeID, null);
-        best.put(startingNode.nodeID, 0.0);
-        fringe.add(sourceNode);
+    /**
+     * Like <code>shortestPath(g, stlon, stlat, destlon, destlat, mode)</code>, but finding the
+     * cheapest route for the given profile, such as the fastest by car, rather than the shortest.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param mode How to search for the route.
+     * @param profile Whose costs to minimize.
+     * @return The <code>List</code> of vertex IDs corresponding to the cheapest path.
+     */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          Mode mode, Profile profile) {
+        // Snap the starting point and the destination onto the roads open to the profile
+        return shortestPath(g, g.closestSegment(stlon, stlat, profile),
+                g.closestSegment(destlon, destlat, profile), mode, profile);
+    }
 
-        while (!fringe.isEmpty()) {
-            // dequeue the vertex with the closest distance
-            Node pop = fringe.poll();
-            // if this vertex is the destination, exit
-            if (pop.nodeID == endingNode.nodeID) {
-                break;
-            }
-            if (marked.contains(pop.nodeID)) {
-                continue;
-            }
-            marked.add(pop.nodeID);
-            Node tempNode = g.vertexMap.get(pop.nodeID);
-            //System.out.println(tempNode);
-            //System.out.println(tempNode.adjacent.size());
-            for (long adjNodeId: tempNode.adjacent) {
-                if (!marked.contains(adjNodeId)) {
-                    // relax the edges
-                    double dis = best.get(tempNode.nodeID) + g.distance(tempNode.nodeID, adjNodeId);
-                    if (!best.containsKey(adjNodeId) || dis < best.get(adjNodeId)) {
-                        // Change the best distance of this Node
-                        best.put(adjNodeId, dis);
-                        // Change the parent Node of this Node
-                        parentNode.put(adjNodeId, pop);
-                        // add the this Node to the fringe
-                        Node toAdd = new Node(adjNodeId,
-                                pop, dis + heuristic(g, adjNodeId, endingNode.nodeID));
-                        fringe.add(toAdd);
-                    }
-                }
+    /**
+     * Like <code>shortestPath(g, stlon, stlat, destlon, destlat, mode, profile)</code>, but
+     * between two points already snapped onto the roads.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The snapped starting point, or null if there are no roads.
+     * @param goal The snapped destination, or null if there are no roads.
+     * @param mode How to search for the route.
+     * @param profile Whose costs to minimize.
+     * @return The <code>List</code> of vertex IDs corresponding to the cheapest path.
+     */
+    static List<Long> shortestPath(GraphDB g, SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                                   Mode mode, Profile profile) {
+        // the list to contain the vertices in the route
+        ArrayList<Long> recordVertices = new ArrayList<>();
+        if (start == null || goal == null) {
+            return recordVertices;
+        }
+        // On the same road segment, the route is simply that segment in the direction of travel,
+        // unless the profile or the traffic has closed it
+        if (start.sameSegment(goal)
+                && g.routingGraph(profile).canFollow(start, goal, g.liveWeights(profile))) {
+            if (start.fraction <= goal.fractionFrom(start.from)) {
+                recordVertices.add(start.from);
+                recordVertices.add(start.to);
+            } else {
+                recordVertices.add(start.to);
+                recordVertices.add(start.from);
             }
+            return recordVertices;
         }
-        while (endingNode != null) {
-            recordVertices.add(0, endingNode.nodeID);
-            endingNode = parentNode.get(endingNode.nodeID);
+
+        RoutingGraph rg = g.routingGraph(profile);
+        switch (mode) {
+            case BIDIRECTIONAL:
+                return BidirectionalAStarSearch.shortestPath(rg, start, goal, false);
+            case PARALLEL_BIDIRECTIONAL:
+                return BidirectionalAStarSearch.shortestPath(rg, start, goal, true);
+            case CONTRACTION_HIERARCHY:
+                return g.contractionHierarchy(profile).shortestPath(start, goal);
+            case ALT:
+                return AStarSearch.shortestPath(g.landmarks(profile), start, goal);
+            case CUSTOMIZABLE:
+                return g.customizableHierarchy(profile).shortestPath(start, goal);
+            case UNIDIRECTIONAL:
+            default:
+                return AStarSearch.shortestPath(rg, start, goal);
         }
-        return recordVertices;
     }
 
-    private static double heuristic(GraphDB g, long n, long goal) {
-        return g.distance(n, goal);
+    /**
+     * Like <code>shortestPath(g, start, goal, mode, profile)</code>, but for a navigating client
+     * that asks again as it moves: the client's previous search is repaired for the new start
+     * and any changed traffic instead of starting over. A new goal, profile or graph starts a
+     * new search.
+     * @param g <code>GraphDB</code> data source.
+     * @param sessions The searches of each client.
+     * @param session The client's session token.
+     * @param start The snapped starting point, or null if there are no roads.
+     * @param goal The snapped destination, or null if there are no roads.
+     * @param profile Whose costs to minimize.
+     * @return The <code>List</code> of vertex IDs corresponding to the cheapest path.
+     */
+    static List<Long> shortestPath(GraphDB g, SessionStore<DStarLite> sessions, String session,
+                                   SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                                   Profile profile) {
+        if (start == null || goal == null || start.sameSegment(goal)) {
+            return shortestPath(g, start, goal, defaultMode, profile);
+        }
+        RoutingGraph rg = g.routingGraph(profile);
+        DStarLite search = sessions.get(session);
+        if (search == null || search.rg != rg || search.goal.from != goal.from
+                || search.goal.to != goal.to || search.goal.fraction != goal.fraction) {
+            search = new DStarLite(rg, goal, g.liveWeights(profile));
+            sessions.put(session, search);
+        }
+        synchronized (search) {
+            return search.route(start, g.liveWeights(profile));
+        }
     }
 
     /**
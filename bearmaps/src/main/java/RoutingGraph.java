@@ -0,0 +1,348 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A read-only copy of the roads of a <code>GraphDB</code> laid out for route searches. Vertices
+ * are renumbered densely from 0 to n - 1, so per-vertex search data lives in plain arrays, and
+ * the edges are stored in compressed sparse row form: the edges leaving vertex v are positions
+ * <code>edgeStart[v]</code> to <code>edgeStart[v + 1] - 1</code> of <code>edgeTo</code> and
+ * <code>edgeWeight</code>.
+ *
+ * Every edge is also stored a second time, grouped by the vertex it leads to, so searches can
+ * run backward from a destination.
+ *
+ * Each thread that searches the graph gets its own <code>SearchState</code>, allocated on its
+ * first search and reused for every search after that.
+ */
+class RoutingGraph {
+    /** The OSM ID of each dense vertex number. */
+    final long[] ids;
+    /** The longitude and latitude of each vertex. */
+    final double[] lons, lats;
+    /** The profile whose costs the edge weights are. */
+    final Profile profile;
+    /** Where each vertex's edges begin in the edge arrays; one extra entry marks the end. */
+    final int[] edgeStart;
+    /** The vertex each edge leads to. */
+    final int[] edgeTo;
+    /** The cost of each edge under the profile: its great-circle length in miles by default. */
+    final double[] edgeWeight;
+    /** The same edges grouped by the vertex they lead to, for searching backward. */
+    final int[] reverseStart, reverseFrom;
+    final double[] reverseWeight;
+    /** The dense vertex number of each OSM ID. */
+    private final HashMap<Long, Integer> numbers;
+    private final ThreadLocal<SearchState> states, reverseStates;
+    /** The road class and speed limit of each edge, kept by the distance graph only. */
+    private final byte[] edgeRoadClass;
+    private final float[] edgeMaxSpeed;
+    /** The forward edge stored at each position of the reverse edge arrays. */
+    final int[] reverseEdge;
+    /** The graph the profiles were derived from, and the graph of each profile so far. */
+    private final RoutingGraph base;
+    private final RoutingGraph[] profiles;
+
+    /**
+     * Copies the vertices and roads of the given graph, weighted by distance.
+     * @param g The graph to copy.
+     */
+    RoutingGraph(GraphDB g) {
+        /* Copy the vertices once, so vertices added meanwhile are simply left for the next copy. */
+        List<Node> nodes = new ArrayList<>(g.vertexMap.values());
+        int n = nodes.size();
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        numbers = new HashMap<>(2 * n);
+        int edges = 0;
+        for (int v = 0; v < n; v += 1) {
+            Node node = nodes.get(v);
+            ids[v] = node.nodeID;
+            lons[v] = node.nodeLon;
+            lats[v] = node.nodeLat;
+            numbers.put(node.nodeID, v);
+            edges += node.adjacent.size();
+        }
+        profile = Profile.DISTANCE;
+        edgeStart = new int[n + 1];
+        int[] to = new int[edges];
+        double[] length = new double[edges];
+        byte[] roadClass = new byte[edges];
+        float[] maxSpeed = new float[edges];
+        int e = 0;
+        for (int v = 0; v < n; v += 1) {
+            edgeStart[v] = e;
+            Node node = nodes.get(v);
+            for (int i = 0; i < node.adjacent.size(); i += 1) {
+                Integer target = numbers.get(node.adjacent.get(i));
+                if (target != null && e < edges) {
+                    Edge way = i < node.ways.size() ? node.ways.get(i) : null;
+                    to[e] = target;
+                    length[e] = GraphDB.distance(lons[v], lats[v], lons[target], lats[target]);
+                    roadClass[e] = Profile.roadClass(way == null ? null : way.highway);
+                    maxSpeed[e] = way == null ? Float.NaN : (float) way.maxSpeedMph;
+                    e += 1;
+                }
+            }
+        }
+        edgeStart[n] = e;
+        edgeTo = Arrays.copyOf(to, e);
+        edgeWeight = Arrays.copyOf(length, e);
+        edgeRoadClass = Arrays.copyOf(roadClass, e);
+        edgeMaxSpeed = Arrays.copyOf(maxSpeed, e);
+
+        reverseStart = new int[n + 1];
+        reverseFrom = new int[e];
+        reverseEdge = new int[e];
+        reverse(edgeStart, edgeTo, reverseStart, reverseFrom, reverseEdge);
+        reverseWeight = reverseWeights(edgeWeight, reverseEdge);
+        states = ThreadLocal.withInitial(() -> new SearchState(n));
+        reverseStates = ThreadLocal.withInitial(() -> new SearchState(n));
+        base = this;
+        profiles = new RoutingGraph[Profile.values().length];
+        profiles[Profile.DISTANCE.ordinal()] = this;
+    }
+
+    /**
+     * Creates the graph of a profile. It shares the vertices and search states of the distance
+     * graph, and its edges too unless some roads are closed to the profile, in which case those
+     * edges are left out.
+     */
+    private RoutingGraph(RoutingGraph base, Profile profile) {
+        ids = base.ids;
+        lons = base.lons;
+        lats = base.lats;
+        numbers = base.numbers;
+        states = base.states;
+        reverseStates = base.reverseStates;
+        this.base = base;
+        this.profile = profile;
+        profiles = null;
+        edgeRoadClass = null;
+        edgeMaxSpeed = null;
+
+        int n = ids.length;
+        int m = base.edgeTo.length;
+        double[] weight = new double[m];
+        int open = 0;
+        for (int e = 0; e < m; e += 1) {
+            weight[e] = base.edgeWeight[e]
+                    * profile.costPerMile(base.edgeRoadClass[e], base.edgeMaxSpeed[e]);
+            if (weight[e] != Double.POSITIVE_INFINITY) {
+                open += 1;
+            }
+        }
+        if (open == m) {
+            edgeStart = base.edgeStart;
+            edgeTo = base.edgeTo;
+            edgeWeight = weight;
+            reverseStart = base.reverseStart;
+            reverseFrom = base.reverseFrom;
+            reverseEdge = base.reverseEdge;
+        } else {
+            edgeStart = new int[n + 1];
+            edgeTo = new int[open];
+            edgeWeight = new double[open];
+            int f = 0;
+            for (int v = 0; v < n; v += 1) {
+                edgeStart[v] = f;
+                for (int e = base.edgeStart[v]; e < base.edgeStart[v + 1]; e += 1) {
+                    if (weight[e] != Double.POSITIVE_INFINITY) {
+                        edgeTo[f] = base.edgeTo[e];
+                        edgeWeight[f] = weight[e];
+                        f += 1;
+                    }
+                }
+            }
+            edgeStart[n] = f;
+            reverseStart = new int[n + 1];
+            reverseFrom = new int[open];
+            reverseEdge = new int[open];
+            reverse(edgeStart, edgeTo, reverseStart, reverseFrom, reverseEdge);
+        }
+        reverseWeight = reverseWeights(edgeWeight, reverseEdge);
+    }
+
+    /**
+     * Fills in the reverse edge arrays, grouping the given edges by the vertex they lead to and
+     * recording which forward edge each one is.
+     */
+    private static void reverse(int[] edgeStart, int[] edgeTo, int[] reverseStart,
+                                int[] reverseFrom, int[] reverseEdge) {
+        int n = edgeStart.length - 1;
+        for (int i = 0; i < edgeTo.length; i += 1) {
+            reverseStart[edgeTo[i] + 1] += 1;
+        }
+        for (int v = 0; v < n; v += 1) {
+            reverseStart[v + 1] += reverseStart[v];
+        }
+        int[] next = Arrays.copyOf(reverseStart, n);
+        for (int v = 0; v < n; v += 1) {
+            for (int i = edgeStart[v]; i < edgeStart[v + 1]; i += 1) {
+                int slot = next[edgeTo[i]];
+                next[edgeTo[i]] += 1;
+                reverseFrom[slot] = v;
+                reverseEdge[slot] = i;
+            }
+        }
+    }
+
+    /** Returns the weights of the reverse edges. */
+    private static double[] reverseWeights(double[] edgeWeight, int[] reverseEdge) {
+        double[] weight = new double[reverseEdge.length];
+        for (int slot = 0; slot < weight.length; slot += 1) {
+            weight[slot] = edgeWeight[reverseEdge[slot]];
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the graph of the same roads weighted for a profile, computing its weights the
+     * first time it is asked for.
+     * @param p The profile.
+     * @return The graph whose edge weights are the profile's costs.
+     */
+    RoutingGraph forProfile(Profile p) {
+        RoutingGraph[] cache = base.profiles;
+        synchronized (cache) {
+            if (cache[p.ordinal()] == null) {
+                cache[p.ordinal()] = new RoutingGraph(base, p);
+            }
+            return cache[p.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the number of vertices.
+     * @return The number of vertices.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the dense number of the vertex with the given OSM ID.
+     * @param id An OSM vertex ID.
+     * @return The vertex's number, or -1 if it is not in the graph.
+     */
+    int number(long id) {
+        Integer v = numbers.get(id);
+        return v == null ? -1 : v;
+    }
+
+    /**
+     * Returns the great-circle distance in miles from vertex v to a point.
+     * @param v A vertex number.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The distance between them.
+     */
+    double distance(int v, double lon, double lat) {
+        return GraphDB.distance(lon, lat, lons[v], lats[v]);
+    }
+
+    /**
+     * Returns a lower bound on the cost of travelling from vertex v to a point, or back: the
+     * great-circle distance at the profile's top speed. A* uses this as its heuristic.
+     * @param v A vertex number.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The lower bound, in the profile's cost units.
+     */
+    double bound(int v, double lon, double lat) {
+        return distance(v, lon, lat) * profile.minCostPerMile();
+    }
+
+    /**
+     * Returns whether a route between two points on the same road segment can simply follow the
+     * segment, which it can unless the segment is closed in the direction of travel.
+     * @param start Where the route starts.
+     * @param goal Where the route ends, on the same segment as <code>start</code>.
+     * @param weights The weight of each edge, such as <code>edgeWeight</code> or live weights.
+     * @return Whether the segment has an edge of finite weight in the direction of travel.
+     */
+    boolean canFollow(SegmentIndex.Snap start, SegmentIndex.Snap goal, double[] weights) {
+        boolean forward = start.fraction <= goal.fractionFrom(start.from);
+        int v = number(forward ? start.from : start.to);
+        int w = number(forward ? start.to : start.from);
+        if (v < 0 || w < 0) {
+            return false;
+        }
+        for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+            if (edgeTo[e] == w && weights[e] < Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the road segment between two vertices is open to this graph's profile in
+     * at least one direction, so that a point snapped onto it can be routed from or to.
+     * @param from The ID of the vertex at one end of the segment.
+     * @param to The ID of the vertex at the other end.
+     * @return Whether either direction of the segment has an edge of finite weight.
+     */
+    boolean isOpen(long from, long to) {
+        int v = number(from);
+        int w = number(to);
+        return v >= 0 && w >= 0 && (hasEdge(v, w) || hasEdge(w, v));
+    }
+
+    /** Returns whether there is an edge of finite weight from vertex number v to w. */
+    private boolean hasEdge(int v, int w) {
+        for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+            if (edgeTo[e] == w && edgeWeight[e] < Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cost of travelling between vertex v and a point snapped onto one of v's roads,
+     * along that road. If the road is closed to the profile, the point is taken to be reached at
+     * the profile's top speed, which keeps routes from points next to motorways possible.
+     * @param v A vertex number at one end of the snapped point's segment.
+     * @param snap The snapped point.
+     * @return The cost of the partial road, in the profile's cost units.
+     */
+    double snapCost(int v, SegmentIndex.Snap snap) {
+        double miles = distance(v, snap.lon, snap.lat);
+        if (profile == Profile.DISTANCE || miles == 0) {
+            return miles;
+        }
+        long other = ids[v] == snap.from ? snap.to : snap.from;
+        for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+            int w = edgeTo[e];
+            if (ids[w] == other) {
+                double length = GraphDB.distance(lons[v], lats[v], lons[w], lats[w]);
+                return miles * (edgeWeight[e] / length);
+            }
+        }
+        return miles * profile.minCostPerMile();
+    }
+
+    /**
+     * Returns this thread's search state for this graph, reset and ready for a new search.
+     * @return The calling thread's <code>SearchState</code>.
+     */
+    SearchState searchState() {
+        SearchState state = states.get();
+        state.reset();
+        return state;
+    }
+
+    /**
+     * Returns this thread's second search state for this graph, reset and ready for a new
+     * search, for searches that run a backward search alongside the forward one.
+     * @return The calling thread's backward <code>SearchState</code>.
+     */
+    SearchState reverseSearchState() {
+        SearchState state = reverseStates.get();
+        state.reset();
+        return state;
+    }
+}
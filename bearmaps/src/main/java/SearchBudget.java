@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Limits on one route query: how many vertices each direction of its search may settle, a
+ * deadline, and a check for whether the client has gone away. A budget applies to every search
+ * its thread starts inside <code>within</code>; each <code>SearchState</code> picks it up when it
+ * is reset and charges it once per settled vertex, so the engines themselves need not know about
+ * budgets. Counting is a field increment and compare; the clock and the cancellation check are
+ * only consulted every <code>CHECK_INTERVAL</code> vertices. The two directions of a
+ * bidirectional search each have the whole vertex allowance.
+ */
+class SearchBudget {
+    /** The budget of the searches started on each thread, or null for none. */
+    private static final ThreadLocal<SearchBudget> CURRENT = new ThreadLocal<>();
+    /** How many vertices are settled between looks at the clock and the cancellation check. */
+    static final int CHECK_INTERVAL = 256;
+
+    /** Why a search was abandoned. */
+    enum Reason {
+        /** A direction of the search settled more vertices than allowed. */
+        TOO_MANY_VERTICES("search settled too many vertices"),
+        /** The deadline passed. */
+        DEADLINE("search took too long"),
+        /** The client stopped waiting. */
+        CANCELLED("request was cancelled");
+
+        /** A short description for responses. */
+        final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+    }
+
+    /** Thrown out of a search whose budget ran out. */
+    static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /** Why the search was abandoned. */
+        final Reason reason;
+
+        ExceededException(Reason reason) {
+            super(reason.message, null, false, false);
+            this.reason = reason;
+        }
+    }
+
+    private final int maxSettled;
+    private final long deadline;
+    private final BooleanSupplier cancelled;
+    /** The vertices settled so far by every search under this budget, in either direction. */
+    private final LongAdder settled = new LongAdder();
+
+    /**
+     * Creates a budget.
+     * @param maxSettled The most vertices each direction of a search may settle.
+     * @param timeoutMillis How long from now the search may run, in milliseconds.
+     * @param cancelled Returns true once the search is no longer wanted.
+     */
+    SearchBudget(int maxSettled, long timeoutMillis, BooleanSupplier cancelled) {
+        this.maxSettled = maxSettled;
+        this.deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Runs a query with this budget applied to the searches it starts on this thread.
+     * @param query The query to run.
+     * @param <T> The type of the query's result.
+     * @return The query's result.
+     * @throws ExceededException If a search ran out of budget.
+     */
+    <T> T within(Supplier<T> query) {
+        SearchBudget outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return query.get();
+        } finally {
+            CURRENT.set(outer);
+        }
+    }
+
+    /**
+     * Returns the budget of searches started on this thread now.
+     * @return The current budget, or null if searches are unlimited.
+     */
+    static SearchBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns an action that runs under the budget of the calling thread, so that a query which
+     * hands its searches to other threads, for example through a parallel stream, stays within
+     * its budget on each of them.
+     * @param action The action to run for each index.
+     * @return The action, applying the current budget if there is one.
+     */
+    static IntConsumer carried(IntConsumer action) {
+        SearchBudget budget = CURRENT.get();
+        if (budget == null) {
+            return action;
+        }
+        return i -> budget.within(() -> {
+            action.accept(i);
+            return null;
+        });
+    }
+
+    /**
+     * Returns how many vertices the searches under this budget have settled, in total.
+     * @return The number of vertices settled so far.
+     */
+    long settled() {
+        return settled.sum();
+    }
+
+    /**
+     * Charges the settling of one more vertex by a search.
+     * @param settled How many vertices the search has settled, including this one.
+     * @throws ExceededException If the budget has run out.
+     */
+    void charge(int settled) {
+        this.settled.increment();
+        if (settled > maxSettled) {
+            throw new ExceededException(Reason.TOO_MANY_VERTICES);
+        }
+        /* Look at the first vertex too, so a search begun too late stops at once. */
+        if (settled % CHECK_INTERVAL == 1) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new ExceededException(Reason.DEADLINE);
+            }
+            if (cancelled.getAsBoolean()) {
+                throw new ExceededException(Reason.CANCELLED);
+            }
+        }
+    }
+}
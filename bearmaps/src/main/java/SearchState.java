@@ -0,0 +1,137 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * The per-vertex working memory of a shortest-path search over a <code>RoutingGraph</code>: the
+ * best known distance to each vertex, its parent on that path, whether it is settled, and the
+ * fringe. It is allocated once per thread and reused, and <code>reset</code> takes constant time
+ * because entries stamped with an earlier epoch count as unset.
+ */
+class SearchState {
+    /** The best known distance to each vertex. */
+    private final double[] dist;
+    /** The vertex before each vertex on its best known path, or -1 at a start. */
+    private final int[] parent;
+    /** The epoch in which each vertex's distance and parent were last written. */
+    private final int[] reached;
+    /** The epoch in which each vertex was settled. */
+    private final int[] settled;
+    private int epoch = 0;
+    /** The budget of the current search, or null, and how many vertices it has settled. */
+    private SearchBudget budget;
+    private int settledCount;
+    /** The vertices waiting to be settled, keyed by their priority. */
+    final IndexedMinHeap fringe;
+
+    /**
+     * Creates a search state for a graph of n vertices.
+     * @param n The number of vertices.
+     */
+    SearchState(int n) {
+        dist = new double[n];
+        parent = new int[n];
+        reached = new int[n];
+        settled = new int[n];
+        fringe = new IndexedMinHeap(n);
+    }
+
+    /** Forgets everything about the previous search, and takes on the thread's budget. */
+    void reset() {
+        budget = SearchBudget.current();
+        settledCount = 0;
+        epoch += 1;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            epoch = 1;
+        }
+        fringe.clear();
+    }
+
+    /**
+     * Returns the best known distance to v.
+     * @param v A vertex number.
+     * @return The distance, or infinity if v has not been reached.
+     */
+    double dist(int v) {
+        return reached[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the vertex before v on its best known path.
+     * @param v A vertex number that has been reached.
+     * @return The parent of v, or -1 if v is where the search started.
+     */
+    int parent(int v) {
+        return parent[v];
+    }
+
+    /**
+     * Records a path to v if it is shorter than the best known one.
+     * @param v A vertex number.
+     * @param d The length of the new path.
+     * @param from The vertex before v on the new path, or -1 if v is a start.
+     * @return True if the new path is shorter and was recorded.
+     */
+    boolean improve(int v, double d, int from) {
+        if (reached[v] == epoch && dist[v] <= d) {
+            return false;
+        }
+        reached[v] = epoch;
+        dist[v] = d;
+        parent[v] = from;
+        return true;
+    }
+
+    boolean isSettled(int v) {
+        return settled[v] == epoch;
+    }
+
+    /**
+     * Marks v as settled, charging the search's budget if it has one.
+     * @param v A vertex number.
+     * @throws SearchBudget.ExceededException If the budget has run out.
+     */
+    void settle(int v) {
+        settled[v] = epoch;
+        if (budget != null) {
+            settledCount += 1;
+            budget.charge(settledCount);
+        }
+    }
+
+    /**
+     * Like <code>dist</code>, but safe to call while another thread runs
+     * <code>improveShared</code> on this state: it sees every distance written before the call.
+     * @param v A vertex number.
+     * @return The distance, or infinity if v has not been reached.
+     */
+    double distShared(int v) {
+        return (int) STAMP.getVolatile(reached, v) == epoch
+                ? (double) DIST.getVolatile(dist, v) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Like <code>improve</code>, but publishes the new distance to threads calling
+     * <code>distShared</code>. Distance and stamp accesses are sequentially consistent, so when
+     * two threads each write a vertex in their own state and then read the other's, at least
+     * one of them sees both writes.
+     * @param v A vertex number.
+     * @param d The length of the new path.
+     * @param from The vertex before v on the new path, or -1 if v is a start.
+     * @return True if the new path is shorter and was recorded.
+     */
+    boolean improveShared(int v, double d, int from) {
+        if (reached[v] == epoch && dist[v] <= d) {
+            return false;
+        }
+        parent[v] = from;
+        DIST.setVolatile(dist, v, d);
+        STAMP.setVolatile(reached, v, epoch);
+        return true;
+    }
+
+    private static final VarHandle DIST = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle STAMP = MethodHandles.arrayElementVarHandle(int[].class);
+}
@@ -0,0 +1,579 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An R-tree over the road segments of a <code>GraphDB</code>, used to snap points onto the
+ * nearest road rather than the nearest intersection. Segments are stored in the Transverse
+ * Mercator coordinates of <code>GraphDB.projectToX</code> and <code>GraphDB.projectToY</code>.
+ *
+ * The tree is bulk loaded once with Sort-Tile-Recursive packing, so every node is full and the
+ * whole structure lives in a handful of primitive arrays: segment endpoints are laid out in leaf
+ * order, and tree nodes are laid out level by level with the leaves first.
+ * @source https://apps.dtic.mil/sti/pdfs/ADA324493.pdf
+ */
+public class SegmentIndex {
+    /** The maximum number of entries in each node of the tree. */
+    static final int NODE_CAPACITY = 16;
+
+    /** The IDs of the vertices at either end of each segment. */
+    private final long[] fromIds, toIds;
+    /** The longitudes and latitudes of either end of each segment. */
+    private final double[] fromLon, fromLat, toLon, toLat;
+    /** The projected coordinates of either end of each segment. */
+    private final double[] ax, ay, bx, by;
+
+    /** The bounding box of each tree node. */
+    private final double[] minX, minY, maxX, maxY;
+    /** The first child (a segment for leaves, a node otherwise) and number of children. */
+    private final int[] firstChild, numChildren;
+    /** Tree nodes with an index below this value are leaves. */
+    private final int numLeaves;
+    /** The index of the root node, or -1 if there are no segments. */
+    private final int root;
+
+    /**
+     * Builds the index over every edge of the graph.
+     * @param g The graph whose roads should be indexed.
+     */
+    SegmentIndex(GraphDB g) {
+        List<long[]> pairs = new ArrayList<>();
+        for (long v : g.vertices()) {
+            for (long w : g.adjacent(v)) {
+                /* Roads go both ways, so only index each pair once; skip removed vertices. */
+                if (v < w && g.vertexMap.containsKey(w)) {
+                    pairs.add(new long[]{v, w});
+                }
+            }
+        }
+        int n = pairs.size();
+        double[] cx = new double[n];
+        double[] cy = new double[n];
+        double[][] ends = new double[n][];
+        for (int i = 0; i < n; i += 1) {
+            long v = pairs.get(i)[0];
+            long w = pairs.get(i)[1];
+            double x1 = GraphDB.projectToX(g.lon(v), g.lat(v));
+            double y1 = GraphDB.projectToY(g.lon(v), g.lat(v));
+            double x2 = GraphDB.projectToX(g.lon(w), g.lat(w));
+            double y2 = GraphDB.projectToY(g.lon(w), g.lat(w));
+            ends[i] = new double[]{x1, y1, x2, y2};
+            cx[i] = (x1 + x2) / 2;
+            cy[i] = (y1 + y2) / 2;
+        }
+
+        int[] order = strOrder(identity(n), cx, cy);
+        fromIds = new long[n];
+        toIds = new long[n];
+        fromLon = new double[n];
+        fromLat = new double[n];
+        toLon = new double[n];
+        toLat = new double[n];
+        ax = new double[n];
+        ay = new double[n];
+        bx = new double[n];
+        by = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            int s = order[i];
+            fromIds[i] = pairs.get(s)[0];
+            toIds[i] = pairs.get(s)[1];
+            fromLon[i] = g.lon(fromIds[i]);
+            fromLat[i] = g.lat(fromIds[i]);
+            toLon[i] = g.lon(toIds[i]);
+            toLat[i] = g.lat(toIds[i]);
+            ax[i] = ends[s][0];
+            ay[i] = ends[s][1];
+            bx[i] = ends[s][2];
+            by[i] = ends[s][3];
+        }
+
+        /* Every level holds ceil(size / capacity) nodes, so the total is bounded geometrically. */
+        int capacity = 0;
+        int levelNodes = n;
+        do {
+            levelNodes = ceilDiv(levelNodes, NODE_CAPACITY);
+            capacity += levelNodes;
+        } while (levelNodes > 1);
+        minX = new double[capacity];
+        minY = new double[capacity];
+        maxX = new double[capacity];
+        maxY = new double[capacity];
+        firstChild = new int[capacity];
+        numChildren = new int[capacity];
+
+        if (n == 0) {
+            numLeaves = 0;
+            root = -1;
+            return;
+        }
+        int count = 0;
+        for (int i = 0; i < n; i += NODE_CAPACITY) {
+            firstChild[count] = i;
+            numChildren[count] = Math.min(NODE_CAPACITY, n - i);
+            minX[count] = Double.MAX_VALUE;
+            minY[count] = Double.MAX_VALUE;
+            maxX[count] = -Double.MAX_VALUE;
+            maxY[count] = -Double.MAX_VALUE;
+            for (int s = i; s < i + numChildren[count]; s += 1) {
+                minX[count] = Math.min(minX[count], Math.min(ax[s], bx[s]));
+                minY[count] = Math.min(minY[count], Math.min(ay[s], by[s]));
+                maxX[count] = Math.max(maxX[count], Math.max(ax[s], bx[s]));
+                maxY[count] = Math.max(maxY[count], Math.max(ay[s], by[s]));
+            }
+            count += 1;
+        }
+        numLeaves = count;
+
+        int levelStart = 0;
+        int levelSize = count;
+        while (levelSize > 1) {
+            /* Pack this level's nodes, then build parents over them in packed order. */
+            int[] levelOrder = new int[levelSize];
+            double[] ncx = new double[levelSize];
+            double[] ncy = new double[levelSize];
+            for (int i = 0; i < levelSize; i += 1) {
+                levelOrder[i] = i;
+                ncx[i] = (minX[levelStart + i] + maxX[levelStart + i]) / 2;
+                ncy[i] = (minY[levelStart + i] + maxY[levelStart + i]) / 2;
+            }
+            levelOrder = strOrder(levelOrder, ncx, ncy);
+            permuteLevel(levelStart, levelOrder);
+
+            int parentStart = count;
+            for (int i = 0; i < levelSize; i += NODE_CAPACITY) {
+                firstChild[count] = levelStart + i;
+                numChildren[count] = Math.min(NODE_CAPACITY, levelSize - i);
+                minX[count] = Double.MAX_VALUE;
+                minY[count] = Double.MAX_VALUE;
+                maxX[count] = -Double.MAX_VALUE;
+                maxY[count] = -Double.MAX_VALUE;
+                for (int c = levelStart + i; c < levelStart + i + numChildren[count]; c += 1) {
+                    minX[count] = Math.min(minX[count], minX[c]);
+                    minY[count] = Math.min(minY[count], minY[c]);
+                    maxX[count] = Math.max(maxX[count], maxX[c]);
+                    maxY[count] = Math.max(maxY[count], maxY[c]);
+                }
+                count += 1;
+            }
+            levelStart = parentStart;
+            levelSize = count - parentStart;
+        }
+        root = levelStart;
+    }
+
+    /** Returns the number of segments in the index. */
+    int size() {
+        return fromIds.length;
+    }
+
+    /** Decides which segments a query may snap onto. */
+    interface Filter {
+        /**
+         * Returns whether a segment may be snapped onto.
+         * @param from The ID of the vertex at one end of the segment.
+         * @param to The ID of the vertex at the other end.
+         * @return Whether the segment is wanted.
+         */
+        boolean accepts(long from, long to);
+    }
+
+    /**
+     * Returns the point on the road network closest to the given projected point.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @return The closest point on any indexed segment, or null if there are no segments.
+     */
+    Snap nearest(double x, double y) {
+        return nearest(x, y, null);
+    }
+
+    /**
+     * Like <code>nearest(x, y)</code>, but only snaps onto segments the filter accepts. Rejected
+     * segments do not tighten the search, so it looks further out until it finds one.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @param filter The segments that may be snapped onto, or null for all of them.
+     * @return The closest point on an accepted segment, or null if there is none.
+     */
+    Snap nearest(double x, double y, Filter filter) {
+        if (root < 0) {
+            return null;
+        }
+        /* Best-first search: always expand the node whose box is closest to the query point. */
+        double[] keys = new double[64];
+        int[] nodes = new int[64];
+        keys[0] = boxDistance(root, x, y);
+        nodes[0] = root;
+        int size = 1;
+
+        double bestDist = Double.MAX_VALUE;
+        int bestSegment = -1;
+        double bestFraction = 0;
+        while (size > 0) {
+            double key = keys[0];
+            int node = nodes[0];
+            size -= 1;
+            keys[0] = keys[size];
+            nodes[0] = nodes[size];
+            siftDown(keys, nodes, size);
+            if (key >= bestDist) {
+                break;
+            }
+            int first = firstChild[node];
+            int last = first + numChildren[node];
+            if (node < numLeaves) {
+                for (int s = first; s < last; s += 1) {
+                    if (filter != null && !filter.accepts(fromIds[s], toIds[s])) {
+                        continue;
+                    }
+                    double t = projection(s, x, y);
+                    double px = ax[s] + t * (bx[s] - ax[s]);
+                    double py = ay[s] + t * (by[s] - ay[s]);
+                    double d = KDTree.euclidean(x, y, px, py);
+                    if (d < bestDist) {
+                        bestDist = d;
+                        bestSegment = s;
+                        bestFraction = t;
+                    }
+                }
+            } else {
+                for (int c = first; c < last; c += 1) {
+                    double d = boxDistance(c, x, y);
+                    if (d < bestDist) {
+                        if (size == keys.length) {
+                            keys = Arrays.copyOf(keys, size * 2);
+                            nodes = Arrays.copyOf(nodes, size * 2);
+                        }
+                        keys[size] = d;
+                        nodes[size] = c;
+                        siftUp(keys, nodes, size);
+                        size += 1;
+                    }
+                }
+            }
+        }
+        return bestSegment < 0 ? null : snap(bestSegment, bestFraction, bestDist);
+    }
+
+    /**
+     * Collects the ends of every segment whose bounding box overlaps the given axis-aligned box,
+     * in time proportional to the number of segments found rather than the index size.
+     * @param loX The smallest x-value of the box.
+     * @param loY The smallest y-value of the box.
+     * @param hiX The largest x-value of the box.
+     * @param hiY The largest y-value of the box.
+     * @param result Receives a <code>{from, to}</code> pair of vertex IDs for each segment found.
+     */
+    void range(double loX, double loY, double hiX, double hiY, List<long[]> result) {
+        if (root < 0) {
+            return;
+        }
+        int[] stack = new int[64];
+        stack[0] = root;
+        int size = 1;
+        while (size > 0) {
+            size -= 1;
+            int node = stack[size];
+            if (minX[node] > hiX || maxX[node] < loX || minY[node] > hiY || maxY[node] < loY) {
+                continue;
+            }
+            int first = firstChild[node];
+            int last = first + numChildren[node];
+            if (node < numLeaves) {
+                for (int s = first; s < last; s += 1) {
+                    if (Math.min(ax[s], bx[s]) <= hiX && Math.max(ax[s], bx[s]) >= loX
+                            && Math.min(ay[s], by[s]) <= hiY && Math.max(ay[s], by[s]) >= loY) {
+                        result.add(new long[]{fromIds[s], toIds[s]});
+                    }
+                }
+            } else {
+                if (size + NODE_CAPACITY > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                for (int c = first; c < last; c += 1) {
+                    stack[size] = c;
+                    size += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the nearest point of every segment that passes within a distance of the given
+     * projected point, in time proportional to the number of segments near it.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @param radius The largest projected distance to a segment.
+     * @param result Receives the nearest point of each segment found, in no particular order.
+     */
+    void near(double x, double y, double radius, List<Snap> result) {
+        for (int s : within(x, y, radius)) {
+            double t = projection(s, x, y);
+            result.add(snap(s, t, KDTree.euclidean(x, y, ax[s] + t * (bx[s] - ax[s]),
+                    ay[s] + t * (by[s] - ay[s]))));
+        }
+    }
+
+    /**
+     * Returns the positions of every segment that passes within a distance of the given
+     * projected point, for <code>nearestAmong</code> to compare queries against later.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @param radius The largest projected distance to a segment.
+     * @return The positions of the segments found, in no particular order.
+     */
+    int[] within(double x, double y, double radius) {
+        if (root < 0) {
+            return new int[0];
+        }
+        int[] found = new int[16];
+        int numFound = 0;
+        int[] stack = new int[64];
+        stack[0] = root;
+        int size = 1;
+        while (size > 0) {
+            size -= 1;
+            int node = stack[size];
+            if (boxDistance(node, x, y) > radius) {
+                continue;
+            }
+            int first = firstChild[node];
+            int last = first + numChildren[node];
+            if (node < numLeaves) {
+                for (int s = first; s < last; s += 1) {
+                    double t = projection(s, x, y);
+                    double d = KDTree.euclidean(x, y, ax[s] + t * (bx[s] - ax[s]),
+                            ay[s] + t * (by[s] - ay[s]));
+                    if (d <= radius) {
+                        if (numFound == found.length) {
+                            found = Arrays.copyOf(found, numFound * 2);
+                        }
+                        found[numFound] = s;
+                        numFound += 1;
+                    }
+                }
+            } else {
+                if (size + NODE_CAPACITY > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                for (int c = first; c < last; c += 1) {
+                    stack[size] = c;
+                    size += 1;
+                }
+            }
+        }
+        return Arrays.copyOf(found, numFound);
+    }
+
+    /**
+     * Returns the closest point to the given projected point on any of the given segments.
+     * @param segments Positions of segments, as returned by <code>within</code>.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @return The closest point on one of the segments, or null if there are none.
+     */
+    Snap nearestAmong(int[] segments, double x, double y) {
+        double bestDist = Double.MAX_VALUE;
+        int bestSegment = -1;
+        double bestFraction = 0;
+        for (int s : segments) {
+            double t = projection(s, x, y);
+            double d = KDTree.euclidean(x, y, ax[s] + t * (bx[s] - ax[s]),
+                    ay[s] + t * (by[s] - ay[s]));
+            if (d < bestDist) {
+                bestDist = d;
+                bestSegment = s;
+                bestFraction = t;
+            }
+        }
+        return bestSegment < 0 ? null : snap(bestSegment, bestFraction, bestDist);
+    }
+
+    /**
+     * Returns the bounding box of every indexed segment.
+     * @return The box as <code>{minX, minY, maxX, maxY}</code>, or null if there are no segments.
+     */
+    double[] bounds() {
+        return root < 0 ? null : new double[]{minX[root], minY[root], maxX[root], maxY[root]};
+    }
+
+    /** Returns the snap of the point at <code>fraction</code> of the way along segment s. */
+    private Snap snap(int s, double fraction, double dist) {
+        double lon = fromLon[s] + fraction * (toLon[s] - fromLon[s]);
+        double lat = fromLat[s] + fraction * (toLat[s] - fromLat[s]);
+        return new Snap(fromIds[s], toIds[s], fraction, lon, lat, dist);
+    }
+
+    /** Returns how far along segment s the projection of (x, y) falls, clamped to [0, 1]. */
+    private double projection(int s, double x, double y) {
+        double dx = bx[s] - ax[s];
+        double dy = by[s] - ay[s];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double t = ((x - ax[s]) * dx + (y - ay[s]) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /** Returns the distance from (x, y) to the bounding box of the given node. */
+    private double boxDistance(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** Reorders the nodes of the level starting at <code>start</code> into the given order. */
+    private void permuteLevel(int start, int[] order) {
+        int n = order.length;
+        double[][] boxes = new double[4][n];
+        int[] first = new int[n];
+        int[] num = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int src = start + order[i];
+            boxes[0][i] = minX[src];
+            boxes[1][i] = minY[src];
+            boxes[2][i] = maxX[src];
+            boxes[3][i] = maxY[src];
+            first[i] = firstChild[src];
+            num[i] = numChildren[src];
+        }
+        System.arraycopy(boxes[0], 0, minX, start, n);
+        System.arraycopy(boxes[1], 0, minY, start, n);
+        System.arraycopy(boxes[2], 0, maxX, start, n);
+        System.arraycopy(boxes[3], 0, maxY, start, n);
+        System.arraycopy(first, 0, firstChild, start, n);
+        System.arraycopy(num, 0, numChildren, start, n);
+    }
+
+    /**
+     * Returns the given items in Sort-Tile-Recursive order: sorted into vertical slices by x, and
+     * each slice sorted by y, so that consecutive runs of NODE_CAPACITY items are compact tiles.
+     */
+    private static int[] strOrder(int[] items, double[] cx, double[] cy) {
+        int n = items.length;
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            boxed[i] = items[i];
+        }
+        Arrays.sort(boxed, Comparator.comparingDouble(i -> cx[i]));
+        int numTiles = ceilDiv(n, NODE_CAPACITY);
+        int numSlices = (int) Math.ceil(Math.sqrt(numTiles));
+        int sliceSize = numSlices * NODE_CAPACITY;
+        Comparator<Integer> byY = Comparator.comparingDouble(i -> cy[i]);
+        for (int i = 0; i < n; i += sliceSize) {
+            Arrays.sort(boxed, i, Math.min(n, i + sliceSize), byY);
+        }
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = boxed[i];
+        }
+        return result;
+    }
+
+    private static int[] identity(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static void siftUp(double[] keys, int[] values, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (keys[parent] <= keys[i]) {
+                return;
+            }
+            swap(keys, values, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] keys, int[] values, int size) {
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child += 1;
+            }
+            if (keys[i] <= keys[child]) {
+                return;
+            }
+            swap(keys, values, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(double[] keys, int[] values, int i, int j) {
+        double k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+        int v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+    }
+
+    /**
+     * A point on the road network: the segment between vertices <code>from</code> and
+     * <code>to</code>, and how far along that segment the point lies.
+     */
+    public static class Snap {
+        /** The IDs of the vertices at either end of the segment. */
+        final long from, to;
+        /** How far along the segment from <code>from</code> to <code>to</code>, in [0, 1]. */
+        final double fraction;
+        /** The longitude and latitude of the snapped point. */
+        final double lon, lat;
+        /** The projected distance from the query point to the snapped point. */
+        final double distance;
+
+        Snap(long from, long to, double fraction, double lon, double lat, double distance) {
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+
+        /**
+         * Returns true if this point and <code>other</code> lie on the same road segment.
+         * @param other Another snapped point.
+         * @return Whether both points share a segment, in either direction.
+         */
+        boolean sameSegment(Snap other) {
+            return (from == other.from && to == other.to)
+                    || (from == other.to && to == other.from);
+        }
+
+        /**
+         * Returns the vertices this point can be reached from directly. A point lying exactly on
+         * an end of its segment is only reachable through that vertex, so routes through it still
+         * include the vertex rather than cutting across the whole segment.
+         * @return The IDs of one or both ends of the segment.
+         */
+        long[] ends() {
+            if (fraction == 0) {
+                return new long[]{from};
+            } else if (fraction == 1) {
+                return new long[]{to};
+            }
+            return new long[]{from, to};
+        }
+
+        /**
+         * Returns how far along the segment this point lies, measured from vertex <code>v</code>.
+         * @param v One of the ends of this point's segment.
+         * @return The fraction of the segment between <code>v</code> and this point.
+         */
+        double fractionFrom(long v) {
+            return v == from ? fraction : 1 - fraction;
+        }
+    }
+}
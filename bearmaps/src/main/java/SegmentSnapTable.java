@@ -0,0 +1,143 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed lookup layer in front of a <code>SegmentIndex</code>, the segment counterpart of
+ * <code>SnapLookupTable</code>. The region is cut into a fine grid, and each cell stores every
+ * road segment that could hold the nearest road point to some location inside the cell, so a
+ * snap only compares the query against the few candidates of its cell.
+ *
+ * If s0 is the segment nearest the center c of a cell with half-diagonal h, every location p in
+ * the cell is within d(c, s0) + h of s0, so the segment nearest p passes within d(c, s0) + 2h of
+ * c. Those segments are the cell's candidates.
+ *
+ * The index never changes once built, so neither does the table; <code>GraphDB</code> builds a
+ * new one alongside each new index. Cells are filled in lazily by the first query that lands in
+ * them, or all at once in parallel. Their total size is capped; queries in cells that did not
+ * fit, or outside the grid, are answered by the index.
+ */
+public class SegmentSnapTable {
+    /** The index the table was built over, used to fill in cells and to answer the rest. */
+    final SegmentIndex index;
+    /** The lower-left corner of the grid and the side length of each cell. */
+    private final double minX, minY, cellSize;
+    /** The number of cells along each axis. */
+    private final int cols, rows;
+    /** The largest number of bytes the cells and their array may use. */
+    private final long maxBytes;
+    /** The candidate segments of each cell, or null if the cell has not been filled in. */
+    private final AtomicReferenceArray<int[]> cells;
+    /** An estimate of the bytes used by the array and the cells filled in so far. */
+    private final AtomicLong usedBytes;
+
+    /**
+     * Builds a lookup table in front of the given index.
+     * @param index The index over the road segments.
+     * @param cellSize The side length of each cell, in projected units.
+     * @param maxBytes The largest number of bytes the cells may use.
+     * @param eager If true, fill in every cell now, in parallel; otherwise fill them in lazily.
+     */
+    SegmentSnapTable(SegmentIndex index, double cellSize, long maxBytes, boolean eager) {
+        this.index = index;
+        this.cellSize = cellSize;
+        this.maxBytes = maxBytes;
+        double[] bounds = index.bounds();
+        int numCols = bounds == null ? 0
+                : (int) Math.min(Math.floor((bounds[2] - bounds[0]) / cellSize) + 1, MAX_CELLS);
+        int numRows = bounds == null ? 0
+                : (int) Math.min(Math.floor((bounds[3] - bounds[1]) / cellSize) + 1,
+                        MAX_CELLS / Math.max(numCols, 1));
+        if (arrayBytes(numCols * numRows) > maxBytes) {
+            /* Not even the array of cells fits, so every query goes to the index. */
+            numCols = 0;
+            numRows = 0;
+        }
+        minX = bounds == null ? 0 : bounds[0];
+        minY = bounds == null ? 0 : bounds[1];
+        cols = numCols;
+        rows = numRows;
+        cells = new AtomicReferenceArray<>(cols * rows);
+        usedBytes = new AtomicLong(arrayBytes(cols * rows));
+        if (eager) {
+            IntStream.range(0, cols * rows).parallel().forEach(c -> cell(c));
+        }
+    }
+
+    /**
+     * Returns the point on the road network closest to the given projected point, exactly as
+     * <code>SegmentIndex.nearest(x, y)</code> would.
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @return The closest point on any indexed segment, or null if there are no segments.
+     */
+    SegmentIndex.Snap nearest(double x, double y) {
+        int i = (int) Math.floor((x - minX) / cellSize);
+        int j = (int) Math.floor((y - minY) / cellSize);
+        if (i < 0 || i >= cols || j < 0 || j >= rows) {
+            return index.nearest(x, y);
+        }
+        int[] candidates = cell(j * cols + i);
+        if (candidates == null) {
+            return index.nearest(x, y);
+        }
+        return index.nearestAmong(candidates, x, y);
+    }
+
+    /**
+     * Returns an estimate of the number of bytes used by the array of cells and the cells filled
+     * in so far.
+     * @return The estimated memory use of the table.
+     */
+    long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /** Returns the candidates of cell c, filling it in first if needed, or null if too large. */
+    private int[] cell(int c) {
+        int[] cell = cells.get(c);
+        if (cell != null) {
+            return cell == TOO_LARGE ? null : cell;
+        }
+        if (usedBytes.get() >= maxBytes) {
+            return null;
+        }
+        cell = fill(c % cols, c / cols);
+        if (usedBytes.addAndGet(cellBytes(cell)) > maxBytes) {
+            usedBytes.addAndGet(-cellBytes(cell));
+            cells.compareAndSet(c, null, TOO_LARGE);
+            return null;
+        }
+        if (!cells.compareAndSet(c, null, cell)) {
+            /* Another query filled in the same cell first. */
+            usedBytes.addAndGet(-cellBytes(cell));
+            cell = cells.get(c);
+            return cell == TOO_LARGE ? null : cell;
+        }
+        return cell;
+    }
+
+    /** Computes the candidates of the cell in column i and row j. */
+    private int[] fill(int i, int j) {
+        double cx = minX + (i + 0.5) * cellSize;
+        double cy = minY + (j + 0.5) * cellSize;
+        double halfDiagonal = cellSize * Math.sqrt(2) / 2;
+        SegmentIndex.Snap s0 = index.nearest(cx, cy);
+        return index.within(cx, cy, s0.distance + 2 * halfDiagonal);
+    }
+
+    /** Returns an estimate of the memory used by the array of cells: 2 objects, 8 bytes a cell. */
+    private static long arrayBytes(int size) {
+        return 2 * 16 + 8L * size;
+    }
+
+    /** Returns an estimate of the memory used by one cell: one object and 4 bytes each. */
+    private static long cellBytes(int[] cell) {
+        return 16 + 4L * cell.length;
+    }
+
+    /** Marks a cell that is answered by the index instead. */
+    private static final int[] TOO_LARGE = new int[0];
+    /** Bounds the number of cells when the cell size is tiny compared to the region. */
+    private static final int MAX_CELLS = 1 << 24;
+}
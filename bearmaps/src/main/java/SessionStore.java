@@ -0,0 +1,119 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A bounded store of per-client state, keyed by a session token the client sends with each
+ * request. The least recently used session is evicted once the store is full, and a session
+ * that has not been used for longer than the idle timeout is treated as missing. Lookups lock the
+ * store only briefly; the state itself is handed out to the caller, which must synchronize on it
+ * if requests for one session can run at once.
+ * @param <T> The type of state kept for each session.
+ */
+class SessionStore<T> {
+    private final int capacity;
+    private final long idleNanos;
+    private final LongSupplier clock;
+    /** The sessions from least to most recently used, each with when it was last used. */
+    private final LinkedHashMap<String, Session<T>> sessions;
+
+    /** One session's state and when it was last used. */
+    private static class Session<T> {
+        final T state;
+        long lastUsed;
+
+        Session(T state, long lastUsed) {
+            this.state = state;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Creates an empty session store.
+     * @param capacity The most sessions to keep.
+     * @param idleMillis How long a session is kept without being used, in milliseconds.
+     */
+    SessionStore(int capacity, long idleMillis) {
+        this(capacity, idleMillis, System::nanoTime);
+    }
+
+    /**
+     * Creates an empty session store with the given clock.
+     * @param capacity The most sessions to keep.
+     * @param idleMillis How long a session is kept without being used, in milliseconds.
+     * @param clock The current time in nanoseconds.
+     */
+    SessionStore(int capacity, long idleMillis, LongSupplier clock) {
+        this.capacity = capacity;
+        this.idleNanos = idleMillis * 1_000_000;
+        this.clock = clock;
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session<T>> eldest) {
+                return size() > SessionStore.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a session's state, or null if the session is unknown or has been idle too long.
+     * @param token The session token.
+     * @return The state, which now counts as just used.
+     */
+    synchronized T get(String token) {
+        long now = clock.getAsLong();
+        Session<T> session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (now - session.lastUsed >= idleNanos) {
+            sessions.remove(token);
+            return null;
+        }
+        session.lastUsed = now;
+        return session.state;
+    }
+
+    /**
+     * Returns a session's state, creating it if the session is unknown or has been idle too
+     * long.
+     * @param token The session token.
+     * @param create Creates the state of a new session.
+     * @return The session's state.
+     */
+    synchronized T get(String token, Supplier<T> create) {
+        T state = get(token);
+        if (state == null) {
+            state = create.get();
+            put(token, state);
+        }
+        return state;
+    }
+
+    /**
+     * Replaces a session's state, creating the session if needed.
+     * @param token The session token.
+     * @param state The new state.
+     */
+    synchronized void put(String token, T state) {
+        sessions.put(token, new Session<>(state, clock.getAsLong()));
+    }
+
+    /**
+     * Ends a session.
+     * @param token The session token.
+     */
+    synchronized void remove(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Returns the number of sessions kept.
+     * @return The number of sessions, including any that have been idle too long but not been
+     *         dropped yet.
+     */
+    synchronized int size() {
+        return sessions.size();
+    }
+}
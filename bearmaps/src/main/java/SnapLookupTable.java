@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed lookup layer in front of another <code>SpatialIndex</code>. The region is cut
+ * into a fine grid, and each cell stores every point that could be the nearest point to some
+ * location inside the cell. A nearest query then only compares the query against the few
+ * candidates of its cell, which takes constant time however large the map is.
+ *
+ * If v0 is the point nearest the center c of a cell with half-diagonal h, every location p in
+ * the cell is within d(c, v0) + h of v0, so its nearest point is within d(c, v0) + 2h of c. Those
+ * points are the cell's candidates.
+ *
+ * Cells are filled in lazily by the first query that lands in them, or all at once in parallel.
+ * The total size of the cells, and of the array holding them, is capped; queries in cells that
+ * did not fit, or outside the grid, are answered by the backing index.
+ */
+public class SnapLookupTable implements SpatialIndex {
+    /** The index used to fill in cells and to answer queries the table cannot. */
+    private final SpatialIndex backing;
+    /** Every indexed point, sorted by ID so a candidate's coordinates can be found quickly. */
+    private final long[] sortedIds;
+    private final double[] sortedX, sortedY;
+    /** The coordinates of points inserted after the table was built, which take precedence. */
+    private final Map<Long, double[]> inserted = new ConcurrentHashMap<>();
+    /** The lower-left corner of the grid and the side length of each cell. */
+    private final double minX, minY, cellSize;
+    /** The number of cells along each axis. */
+    private final int cols, rows;
+    /** The largest number of bytes the cells and their array may use. */
+    private final long maxBytes;
+    /** The cells filled in so far; replaced as a whole whenever the points change. */
+    private volatile Table table;
+
+    /**
+     * Builds a lookup table in front of the given index.
+     * @param backing The index over the same points, used to fill in cells.
+     * @param nodes The points in <code>backing</code>.
+     * @param cellSize The side length of each cell, in projected units.
+     * @param maxBytes The largest number of bytes the cells may use.
+     * @param eager If true, fill in every cell now, in parallel; otherwise fill them in lazily.
+     */
+    public SnapLookupTable(SpatialIndex backing, List<Node> nodes, double cellSize,
+                           long maxBytes, boolean eager) {
+        this.backing = backing;
+        this.cellSize = cellSize;
+        this.maxBytes = maxBytes;
+        int n = nodes.size();
+        Node[] byId = nodes.toArray(new Node[0]);
+        Arrays.sort(byId, (a, b) -> Long.compare(a.nodeID, b.nodeID));
+        sortedIds = new long[n];
+        sortedX = new double[n];
+        sortedY = new double[n];
+        double loX = Double.MAX_VALUE, loY = Double.MAX_VALUE;
+        double hiX = -Double.MAX_VALUE, hiY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i += 1) {
+            sortedIds[i] = byId[i].nodeID;
+            sortedX[i] = GraphDB.projectToX(byId[i].nodeLon, byId[i].nodeLat);
+            sortedY[i] = GraphDB.projectToY(byId[i].nodeLon, byId[i].nodeLat);
+            loX = Math.min(loX, sortedX[i]);
+            loY = Math.min(loY, sortedY[i]);
+            hiX = Math.max(hiX, sortedX[i]);
+            hiY = Math.max(hiY, sortedY[i]);
+        }
+        minX = loX;
+        minY = loY;
+        int numCols = n == 0 ? 0
+                : (int) Math.min(Math.floor((hiX - loX) / cellSize) + 1, MAX_CELLS);
+        int numRows = n == 0 ? 0
+                : (int) Math.min(Math.floor((hiY - loY) / cellSize) + 1,
+                        MAX_CELLS / Math.max(numCols, 1));
+        if (Table.arrayBytes(numCols * numRows) > maxBytes) {
+            /* Not even the array of cells fits, so every query goes to the backing index. */
+            numCols = 0;
+            numRows = 0;
+        }
+        cols = numCols;
+        rows = numRows;
+        table = new Table(cols * rows);
+        if (eager) {
+            IntStream.range(0, cols * rows).parallel().forEach(c -> cell(c));
+        }
+    }
+
+    @Override
+    public long nearest(double x, double y) {
+        int i = (int) Math.floor((x - minX) / cellSize);
+        int j = (int) Math.floor((y - minY) / cellSize);
+        if (i < 0 || i >= cols || j < 0 || j >= rows) {
+            return backing.nearest(x, y);
+        }
+        Cell cell = cell(j * cols + i);
+        if (cell == null) {
+            return backing.nearest(x, y);
+        }
+        double bestDist = Double.MAX_VALUE;
+        long bestID = 0;
+        for (int k = 0; k < cell.ids.length; k += 1) {
+            double dx = cell.xs[k] - x;
+            double dy = cell.ys[k] - y;
+            double d = dx * dx + dy * dy;
+            if (d < bestDist) {
+                bestDist = d;
+                bestID = cell.ids[k];
+            }
+        }
+        return bestID;
+    }
+
+    @Override
+    public void range(double loX, double loY, double hiX, double hiY, List<Long> result) {
+        backing.range(loX, loY, hiX, hiY, result);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return backing.isEmpty();
+    }
+
+    @Override
+    public boolean supportsUpdates() {
+        return backing.supportsUpdates();
+    }
+
+    /**
+     * Adds or moves a point in the backing index. Every cell is dropped, since the candidates
+     * of any of them may have changed, and is filled in again by later queries.
+     */
+    @Override
+    public void insert(long id, double x, double y) {
+        backing.insert(id, x, y);
+        inserted.put(id, new double[]{x, y});
+        invalidate();
+    }
+
+    /**
+     * Removes a point from the backing index. Every cell is dropped, since the candidates of any
+     * of them may have changed, and is filled in again by later queries.
+     */
+    @Override
+    public boolean remove(long id) {
+        boolean removed = backing.remove(id);
+        invalidate();
+        return removed;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes used by the array of cells and the cells filled
+     * in so far.
+     * @return The estimated memory use of the table.
+     */
+    public long usedBytes() {
+        return table.usedBytes.get();
+    }
+
+    /**
+     * Drops every cell. Fills still running are counted against the table they started in, so
+     * they cannot throw off the accounting of the new one.
+     */
+    private void invalidate() {
+        table = new Table(cols * rows);
+    }
+
+    /** Returns cell c, filling it in first if needed, or null if the table cannot answer it. */
+    private Cell cell(int c) {
+        Table current = table;
+        Cell cell = current.cells.get(c);
+        if (cell != null) {
+            return cell == Cell.TOO_LARGE ? null : cell;
+        }
+        if (current.usedBytes.get() >= maxBytes) {
+            return null;
+        }
+        cell = fill(c % cols, c / cols);
+        if (cell != Cell.TOO_LARGE && current.usedBytes.addAndGet(cell.bytes()) > maxBytes) {
+            current.usedBytes.addAndGet(-cell.bytes());
+            cell = Cell.TOO_LARGE;
+        }
+        if (cell == Cell.TOO_LARGE) {
+            current.cells.compareAndSet(c, null, Cell.TOO_LARGE);
+            return null;
+        }
+        if (!current.cells.compareAndSet(c, null, cell)) {
+            /* Another query filled in the same cell first. */
+            current.usedBytes.addAndGet(-cell.bytes());
+            cell = current.cells.get(c);
+            return cell == Cell.TOO_LARGE ? null : cell;
+        }
+        return cell;
+    }
+
+    /** Computes the candidates of the cell in column i and row j. */
+    private Cell fill(int i, int j) {
+        double cx = minX + (i + 0.5) * cellSize;
+        double cy = minY + (j + 0.5) * cellSize;
+        double halfDiagonal = cellSize * Math.sqrt(2) / 2;
+        double[] v0 = coordinates(backing.nearest(cx, cy));
+        if (v0 == null) {
+            return Cell.TOO_LARGE;
+        }
+        double radius = KDTree.euclidean(cx, cy, v0[0], v0[1]) + 2 * halfDiagonal;
+
+        List<Long> inBox = new ArrayList<>();
+        backing.range(cx - radius, cy - radius, cx + radius, cy + radius, inBox);
+        long[] ids = new long[inBox.size()];
+        double[] xs = new double[inBox.size()];
+        double[] ys = new double[inBox.size()];
+        int k = 0;
+        for (long id : inBox) {
+            double[] p = coordinates(id);
+            if (p != null && KDTree.euclidean(cx, cy, p[0], p[1]) <= radius) {
+                ids[k] = id;
+                xs[k] = p[0];
+                ys[k] = p[1];
+                k += 1;
+            }
+        }
+        return new Cell(Arrays.copyOf(ids, k), Arrays.copyOf(xs, k), Arrays.copyOf(ys, k));
+    }
+
+    /** Returns the projected coordinates of a point, or null if it is not known to the table. */
+    private double[] coordinates(long id) {
+        double[] p = inserted.get(id);
+        if (p != null) {
+            return p;
+        }
+        int i = Arrays.binarySearch(sortedIds, id);
+        return i < 0 ? null : new double[]{sortedX[i], sortedY[i]};
+    }
+
+    /** The cells of the grid, and the memory they use. */
+    private static class Table {
+        /** The candidates of each cell, or null if the cell has not been filled in. */
+        final AtomicReferenceArray<Cell> cells;
+        /** An estimate of the bytes used by the array and the cells filled in so far. */
+        final AtomicLong usedBytes;
+
+        Table(int size) {
+            cells = new AtomicReferenceArray<>(size);
+            usedBytes = new AtomicLong(arrayBytes(size));
+        }
+
+        /** Returns an estimate of the memory used by a table: two objects and 8 bytes per cell. */
+        static long arrayBytes(int size) {
+            return 2 * 16 + 8L * size;
+        }
+    }
+
+    /** The candidates of one cell. */
+    private static class Cell {
+        /** Marks a cell that is answered by the backing index instead. */
+        static final Cell TOO_LARGE = new Cell(new long[0], new double[0], new double[0]);
+
+        final long[] ids;
+        final double[] xs, ys;
+
+        Cell(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        /** Returns an estimate of the memory used by this cell: four objects and 24 bytes each. */
+        long bytes() {
+            return 4 * 16 + 24L * ids.length;
+        }
+    }
+
+    /** Bounds the number of cells when the cell size is tiny compared to the region. */
+    private static final int MAX_CELLS = 1 << 24;
+}
@@ -0,0 +1,65 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The SnapRequestParams contains the points received from a client in a batch snapping request.
+ * This class will primarily be used by the MapServer to unpack the request body before calling
+ * the batch <code>GraphDB.closest</code> method.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"points": [[lon, lat], [lon, lat], ...]}</pre>
+ */
+public class SnapRequestParams {
+    /** The longitudes of the points to snap. */
+    public final double[] lons;
+    /** The latitudes of the points to snap, in the same order as <code>lons</code>. */
+    public final double[] lats;
+
+    /**
+     * Validate and return the points in a batch snapping request body.
+     * @param body The raw body of a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the body is not a valid batch snapping request.
+     */
+    public static SnapRequestParams from(String body) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse points.");
+        }
+        if (parsed == null || parsed.points == null) {
+            throw new IllegalArgumentException("Request failed: points not found.");
+        }
+        if (parsed.points.length > MAX_POINTS) {
+            String msg = String.format("Request failed: at most %d points allowed.", MAX_POINTS);
+            throw new IllegalArgumentException(msg);
+        }
+        double[] lons = new double[parsed.points.length];
+        double[] lats = new double[parsed.points.length];
+        for (int i = 0; i < parsed.points.length; i += 1) {
+            double[] point = parsed.points[i];
+            if (point == null || point.length != 2) {
+                String msg = String.format("Incorrect parameters: unable to parse point %d.", i);
+                throw new IllegalArgumentException(msg);
+            }
+            lons[i] = point[0];
+            lats[i] = point[1];
+        }
+        return new SnapRequestParams(lons, lats);
+    }
+
+    private SnapRequestParams(double[] lons, double[] lats) {
+        this.lons = lons;
+        this.lats = lats;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private double[][] points;
+    }
+
+    /** The largest number of points accepted in one request. */
+    private static final int MAX_POINTS = 1 << 20;
+    private static final Gson GSON = new Gson();
+}
@@ -0,0 +1,27 @@
+/**
+ * The SnapResultParams contains the vertex IDs computed by the batch <code>GraphDB.closest</code>
+ * for serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class SnapResultParams {
+    /** Whether or not the points were successfully snapped. */
+    private final boolean snapSuccess;
+    /** The IDs of the closest vertices, in the same order as the requested points. */
+    private final long[] ids;
+
+    /** Private constructor to prevent direct instantiation of a SnapResultParams instance. */
+    private SnapResultParams() {
+        this(false, new long[0]);
+    }
+
+    /**
+     * Constructs a SnapResultParams instance and sets the snapSuccess and ids fields.
+     * @param snapSuccess The snapSuccess field.
+     * @param ids The ids field.
+     */
+    SnapResultParams(boolean snapSuccess, long[] ids) {
+        this.snapSuccess = snapSuccess;
+        this.ids = ids;
+    }
+}
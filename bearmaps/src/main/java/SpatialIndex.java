@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A nearest-neighbor index over the vertices of a <code>GraphDB</code>. Points are given in the
+ * Transverse Mercator coordinates of <code>GraphDB.projectToX</code> and
+ * <code>GraphDB.projectToY</code>, so Euclidean distance is a good stand-in for real distance.
+ */
+public interface SpatialIndex {
+    /**
+     * Returns the ID of the indexed point closest to (x, y).
+     * @param x The projected x-value of the query point.
+     * @param y The projected y-value of the query point.
+     * @return The ID of the closest point, or 0 if the index is empty.
+     */
+    long nearest(double x, double y);
+
+    /**
+     * Answers a batch of nearest queries in the order given by <code>order</code>. Indexes that
+     * can reuse work between nearby queries should override this method.
+     * @param xs The x-values of the queries.
+     * @param ys The y-values of the queries.
+     * @param order Indices into <code>xs</code> and <code>ys</code> in the order to answer them.
+     * @param from The first position of <code>order</code> to answer, inclusive.
+     * @param to The last position of <code>order</code> to answer, exclusive.
+     * @param result Receives the ID of the nearest point at the index of each query.
+     */
+    default void nearest(double[] xs, double[] ys, int[] order, int from, int to, long[] result) {
+        for (int i = from; i < to; i += 1) {
+            result[order[i]] = nearest(xs[order[i]], ys[order[i]]);
+        }
+    }
+
+    /**
+     * Collects the IDs of every indexed point inside the given axis-aligned box, boundaries
+     * included, in time proportional to the number of points found rather than the index size.
+     * @param minX The smallest x-value of the box.
+     * @param minY The smallest y-value of the box.
+     * @param maxX The largest x-value of the box.
+     * @param maxY The largest y-value of the box.
+     * @param result Receives the IDs of the points inside the box, in no particular order.
+     */
+    void range(double minX, double minY, double maxX, double maxY, List<Long> result);
+
+    /**
+     * Returns whether this index supports <code>insert</code> and <code>remove</code>.
+     * @return True if points can be added and removed after the index is built.
+     */
+    default boolean supportsUpdates() {
+        return false;
+    }
+
+    /**
+     * Adds a point to the index, or moves it if a point with the same ID is already indexed.
+     * Only indexes built for updates support this.
+     * @param id The ID of the point.
+     * @param x The projected x-value of the point.
+     * @param y The projected y-value of the point.
+     * @throws UnsupportedOperationException If this index can only be built once.
+     */
+    default void insert(long id, double x, double y) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support insert");
+    }
+
+    /**
+     * Removes a point from the index. Only indexes built for updates support this.
+     * @param id The ID of the point.
+     * @return True if the point was in the index.
+     * @throws UnsupportedOperationException If this index can only be built once.
+     */
+    default boolean remove(long id) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support remove");
+    }
+
+    /**
+     * Returns true if there are no points in the index.
+     * @return Whether the index is empty.
+     */
+    boolean isEmpty();
+
+    /** The kinds of index that can be chosen for a <code>GraphDB</code>. */
+    enum Type {
+        /** A two-dimensional KD-tree; good all-round performance. */
+        KDTREE,
+        /** A uniform grid searched in rings; fast where points are evenly dense. */
+        GRID,
+        /** A set of KD-trees that supports inserts and removes while queries run. */
+        DYNAMIC,
+        /** A KD-tree with buckets of points at its leaves, searched with vectorized loops. */
+        BUCKET
+    }
+
+    /**
+     * Builds an index of the given type over the given vertices.
+     * @param type The kind of index to build.
+     * @param nodes The vertices to index.
+     * @return A new index containing every vertex in <code>nodes</code>.
+     */
+    static SpatialIndex create(Type type, List<Node> nodes) {
+        switch (type) {
+            case GRID:
+                return new GridIndex(nodes);
+            case DYNAMIC:
+                return new DynamicSpatialIndex(nodes);
+            case BUCKET:
+                return new BucketKDTree(nodes);
+            case KDTREE:
+            default:
+                KDTree tree = new KDTree();
+                tree.constructTree(new ArrayList<>(nodes));
+                return tree;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A short order to visit a batch of stops in, and the route along it. The road distances between
+ * every pair of stops are found by <code>DistanceMatrix</code>, with one parallel one-to-many
+ * search per stop, rather than by routing every pair on its own. A nearest-neighbor tour is then
+ * improved by 2-opt and Or-opt moves until neither finds anything better or the time limit is
+ * reached, and the legs of the final order are routed by <code>Router</code> and joined up.
+ *
+ * The tour always starts at the first stop. It either ends wherever is best or, for a round
+ * trip, comes back to the first stop. The roads of the map are two-way, so the distances are
+ * symmetric, which lets a 2-opt move be costed from the four stops at its ends alone.
+ */
+class Tour {
+    /** The cost standing in for a missing route, so unreachable stops are put off to the end. */
+    private static final double UNREACHABLE = 1e9;
+    /** The longest run of stops an Or-opt move takes out and puts back elsewhere. */
+    private static final int MAX_SEGMENT = 3;
+    /** Moves that save less than this, in miles, are not worth making. */
+    private static final double EPSILON = 1e-9;
+
+    /** The positions of the stops in the batch, in the order they are visited. */
+    final int[] order;
+    /** The road distance along the whole tour in miles, or infinity if a leg has no route. */
+    final double distance;
+    /** The vertex IDs along the whole tour, or an empty list if a leg has no route. */
+    final List<Long> route;
+
+    private Tour(int[] order, double distance, List<Long> route) {
+        this.order = order;
+        this.distance = distance;
+        this.route = route;
+    }
+
+    /**
+     * Plans a tour through the given stops.
+     * @param g The graph to route on.
+     * @param lons The longitudes of the stops, starting with the first stop of the tour.
+     * @param lats The latitudes of the stops, in the same order as <code>lons</code>.
+     * @param roundTrip Whether the tour comes back to the first stop at the end.
+     * @param timeLimitMillis How long to spend improving the order, in milliseconds.
+     * @return The tour, which is empty if there are no stops.
+     */
+    static Tour plan(GraphDB g, double[] lons, double[] lats, boolean roundTrip,
+                     long timeLimitMillis) {
+        int n = lons.length;
+        if (n == 0) {
+            return new Tour(new int[0], 0, new ArrayList<>());
+        }
+        double[][] d = DistanceMatrix.distances(g, lons, lats, lons, lats);
+        double[][] costs = new double[n][];
+        for (int i = 0; i < n; i += 1) {
+            costs[i] = Arrays.stream(d[i]).map(x -> Math.min(x, UNREACHABLE)).toArray();
+        }
+        int[] order = nearestNeighbor(costs);
+        improve(costs, order, roundTrip, System.currentTimeMillis() + timeLimitMillis);
+
+        double distance = 0;
+        for (int i = 0; i + 1 < n; i += 1) {
+            distance += d[order[i]][order[i + 1]];
+        }
+        if (roundTrip && n > 1) {
+            distance += d[order[n - 1]][order[0]];
+        }
+        List<Long> route = distance == Double.POSITIVE_INFINITY
+                ? new ArrayList<>() : route(g, lons, lats, order, roundTrip);
+        return new Tour(order, distance, route);
+    }
+
+    /** Returns the tour from the first stop that always goes on to the nearest unvisited stop. */
+    private static int[] nearestNeighbor(double[][] costs) {
+        int n = costs.length;
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        for (int i = 1; i < n; i += 1) {
+            int last = order[i - 1];
+            int next = -1;
+            for (int j = 0; j < n; j += 1) {
+                if (!visited[j] && (next < 0 || costs[last][j] < costs[last][next])) {
+                    next = j;
+                }
+            }
+            order[i] = next;
+            visited[next] = true;
+        }
+        return order;
+    }
+
+    /**
+     * Improves the order in place by 2-opt and Or-opt moves, keeping the first stop first, until
+     * a whole pass finds nothing better or the deadline passes.
+     * @param costs The cost between every pair of stops, which must be symmetric.
+     * @param order The order to improve.
+     * @param roundTrip Whether the tour comes back to the first stop at the end.
+     * @param deadline The time to stop at, in milliseconds since the epoch.
+     */
+    static void improve(double[][] costs, int[] order, boolean roundTrip, long deadline) {
+        boolean improved = true;
+        while (improved && System.currentTimeMillis() < deadline) {
+            improved = twoOpt(costs, order, roundTrip, deadline);
+            improved |= orOpt(costs, order, roundTrip, deadline);
+        }
+    }
+
+    /**
+     * Makes every 2-opt move that shortens the tour: reversing the stops at positions i + 1 to j
+     * replaces the legs (i, i + 1) and (j, j + 1) with (i, j) and (i + 1, j + 1).
+     * @return Whether any move was made.
+     */
+    private static boolean twoOpt(double[][] costs, int[] order, boolean roundTrip,
+                                  long deadline) {
+        int n = order.length;
+        boolean improved = false;
+        for (int i = 0; i + 2 < n && System.currentTimeMillis() < deadline; i += 1) {
+            int a = order[i];
+            int b = order[i + 1];
+            for (int j = i + 2; j < n; j += 1) {
+                int c = order[j];
+                int e = next(order, j, roundTrip);
+                double delta = costs[a][c] + cost(costs, b, e) - costs[a][b] - cost(costs, c, e);
+                if (delta < -EPSILON) {
+                    reverse(order, i + 1, j);
+                    b = order[i + 1];
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Makes every Or-opt move that shortens the tour: a run of up to <code>MAX_SEGMENT</code>
+     * stops is taken out and put back, either way round, between two other neighboring stops.
+     * @return Whether any move was made.
+     */
+    private static boolean orOpt(double[][] costs, int[] order, boolean roundTrip,
+                                 long deadline) {
+        int n = order.length;
+        boolean improved = false;
+        for (int length = 1; length <= MAX_SEGMENT; length += 1) {
+            for (int i = 1; i + length <= n && System.currentTimeMillis() < deadline; i += 1) {
+                int first = order[i];
+                int last = order[i + length - 1];
+                int prev = order[i - 1];
+                int after = next(order, i + length - 1, roundTrip);
+                double removed = costs[prev][first] + cost(costs, last, after)
+                        - cost(costs, prev, after);
+                for (int k = 0; k < n; k += 1) {
+                    if (k >= i - 1 && k < i + length) {
+                        continue;
+                    }
+                    int p = order[k];
+                    int q = next(order, k, roundTrip);
+                    double forward = costs[p][first] + cost(costs, last, q) - cost(costs, p, q);
+                    double backward = costs[p][last] + cost(costs, first, q) - cost(costs, p, q);
+                    if (Math.min(forward, backward) < removed - EPSILON) {
+                        move(order, i, length, k, backward < forward);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /** Returns the stop after position i, or -1 if the tour ends there. */
+    private static int next(int[] order, int i, boolean roundTrip) {
+        if (i + 1 < order.length) {
+            return order[i + 1];
+        }
+        return roundTrip ? order[0] : -1;
+    }
+
+    /** Returns the cost between two stops, or 0 if the second is -1 for the end of the tour. */
+    private static double cost(double[][] costs, int a, int b) {
+        return b < 0 ? 0 : costs[a][b];
+    }
+
+    /** Reverses the stops at positions i to j, inclusive. */
+    private static void reverse(int[] order, int i, int j) {
+        for (; i < j; i += 1, j -= 1) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    /**
+     * Moves the <code>length</code> stops starting at position i to just after the stop now at
+     * position k, which is outside them, reversing them if asked to.
+     */
+    private static void move(int[] order, int i, int length, int k, boolean reversed) {
+        int[] segment = Arrays.copyOfRange(order, i, i + length);
+        if (reversed) {
+            reverse(segment, 0, length - 1);
+        }
+        int[] rest = new int[order.length - length];
+        System.arraycopy(order, 0, rest, 0, i);
+        System.arraycopy(order, i + length, rest, i, order.length - i - length);
+        int at = (k < i ? k : k - length) + 1;
+        System.arraycopy(rest, 0, order, 0, at);
+        System.arraycopy(segment, 0, order, at, length);
+        System.arraycopy(rest, at, order, at + length, rest.length - at);
+    }
+
+    /**
+     * Routes every leg of the tour in parallel, under the caller's search budget, and joins them
+     * into one route.
+     */
+    private static List<Long> route(GraphDB g, double[] lons, double[] lats, int[] order,
+                                    boolean roundTrip) {
+        int n = order.length;
+        int legs = roundTrip && n > 1 ? n : n - 1;
+        SegmentIndex.Snap[] snaps = new SegmentIndex.Snap[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            snaps[i] = g.closestSegment(lons[order[i]], lats[order[i]]);
+        });
+        List<List<Long>> routes = new ArrayList<>();
+        for (int i = 0; i < legs; i += 1) {
+            routes.add(null);
+        }
+        IntStream.range(0, legs).parallel().forEach(SearchBudget.carried(i -> {
+            routes.set(i, Router.shortestPath(g, snaps[i], snaps[(i + 1) % n],
+                    Router.defaultMode(), Profile.DISTANCE));
+        }));
+        List<Long> route = new ArrayList<>();
+        for (List<Long> leg : routes) {
+            /* Each leg starts where the last one ended, so the shared vertex is not repeated. */
+            int from = !route.isEmpty() && !leg.isEmpty()
+                    && route.get(route.size() - 1).equals(leg.get(0)) ? 1 : 0;
+            route.addAll(leg.subList(from, leg.size()));
+        }
+        return route;
+    }
+}
@@ -0,0 +1,88 @@
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * The TourRequestParams contains the stops received from a client in a tour request. This class
+ * will primarily be used by the MapServer to unpack the request body before calling
+ * <code>Tour.plan</code>.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"stops": [[lon, lat], [lon, lat], ...], "round_trip": false, "time_limit": 1000}</pre>
+ * where the tour starts at the first stop, and <code>round_trip</code> and
+ * <code>time_limit</code>, the milliseconds to spend improving the order, are optional.
+ */
+public class TourRequestParams {
+    /** The longitudes of the stops. */
+    public final double[] lons;
+    /** The latitudes of the stops, in the same order as <code>lons</code>. */
+    public final double[] lats;
+    /** Whether the tour comes back to the first stop at the end. */
+    public final boolean roundTrip;
+    /** How long to spend improving the order, in milliseconds. */
+    public final long timeLimit;
+
+    /**
+     * Validate and return the stops in a tour request body.
+     * @param body The raw body of a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the body is not a valid tour request.
+     */
+    public static TourRequestParams from(String body) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse stops.");
+        }
+        if (parsed == null || parsed.stops == null) {
+            throw new IllegalArgumentException("Request failed: stops not found.");
+        }
+        if (parsed.stops.length > MAX_STOPS) {
+            String msg = String.format("Request failed: at most %d stops allowed.", MAX_STOPS);
+            throw new IllegalArgumentException(msg);
+        }
+        long timeLimit = parsed.timeLimit == null ? DEFAULT_TIME_LIMIT : parsed.timeLimit;
+        if (timeLimit < 0 || timeLimit > MAX_TIME_LIMIT) {
+            String msg = String.format("Request failed: the time limit must be 0 to %d ms.",
+                    MAX_TIME_LIMIT);
+            throw new IllegalArgumentException(msg);
+        }
+        double[] lons = new double[parsed.stops.length];
+        double[] lats = new double[parsed.stops.length];
+        for (int i = 0; i < parsed.stops.length; i += 1) {
+            double[] stop = parsed.stops[i];
+            if (stop == null || stop.length != 2) {
+                String msg = String.format("Incorrect parameters: unable to parse stop %d.", i);
+                throw new IllegalArgumentException(msg);
+            }
+            lons[i] = stop[0];
+            lats[i] = stop[1];
+        }
+        return new TourRequestParams(lons, lats, parsed.roundTrip, timeLimit);
+    }
+
+    private TourRequestParams(double[] lons, double[] lats, boolean roundTrip, long timeLimit) {
+        this.lons = lons;
+        this.lats = lats;
+        this.roundTrip = roundTrip;
+        this.timeLimit = timeLimit;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private double[][] stops;
+        private boolean roundTrip;
+        private Long timeLimit;
+    }
+
+    /** The largest number of stops accepted in one request. */
+    private static final int MAX_STOPS = 500;
+    /** The time spent improving the order when no limit is given, in milliseconds. */
+    private static final long DEFAULT_TIME_LIMIT = 1000;
+    /** The longest time limit accepted, in milliseconds. */
+    private static final long MAX_TIME_LIMIT = 10000;
+    private static final Gson GSON = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+}
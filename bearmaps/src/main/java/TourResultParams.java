@@ -0,0 +1,47 @@
+/**
+ * The TourResultParams contains the tour planned by <code>Tour.plan</code> for serialization by
+ * Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class TourResultParams {
+    /** Whether or not every leg of the tour has a route. */
+    private final boolean tourSuccess;
+    /** The positions of the stops in the request, in the order they are visited. */
+    private final int[] order;
+    /** The road distance along the whole tour in miles, or -1 if a leg has no route. */
+    private final double distance;
+    /** The vertex IDs along the whole tour. */
+    private final long[] route;
+    /** Why the searches were abandoned, or null if they ran to completion. */
+    private final String failure;
+
+    /** Private constructor to prevent direct instantiation of a TourResultParams instance. */
+    private TourResultParams() {
+        this((String) null);
+    }
+
+    /**
+     * Constructs a TourResultParams instance for a tour whose searches were abandoned.
+     * @param failure Why the searches were abandoned.
+     */
+    TourResultParams(String failure) {
+        this.tourSuccess = false;
+        this.order = new int[0];
+        this.distance = -1;
+        this.route = new long[0];
+        this.failure = failure;
+    }
+
+    /**
+     * Constructs a TourResultParams instance from a tour.
+     * @param tour The planned tour.
+     */
+    TourResultParams(Tour tour) {
+        this.tourSuccess = tour.distance != Double.POSITIVE_INFINITY;
+        this.order = tour.order;
+        this.distance = tourSuccess ? tour.distance : -1;
+        this.route = tour.route.stream().mapToLong(Long::longValue).toArray();
+        this.failure = null;
+    }
+}
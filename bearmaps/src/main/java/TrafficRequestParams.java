@@ -0,0 +1,97 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The TrafficRequestParams contains a traffic report received from a client. This class will
+ * primarily be used by the MapServer to unpack the request body before calling
+ * <code>CustomizableHierarchy.customize</code>.
+ *
+ * The request body must be a JSON object of the form
+ * <pre>{"profile": "car", "edges": [{"from": id, "to": id, "factor": 1.5},
+ *     {"from": id, "to": id, "closed": true}, ...]}</pre>
+ * Each report replaces the previous one: edges it leaves out go back to their usual weights.
+ * An edge runs one way, so closing a two-way road takes an entry for each direction. The profile
+ * defaults to the distance profile. Traffic only slows roads down, so that the lower bounds
+ * searches use to aim at the goal stay valid.
+ */
+public class TrafficRequestParams {
+    /** The profile whose weights the report applies to. */
+    public final Profile profile;
+    /** The IDs of the vertices at each end of each reported edge. */
+    public final long[] from, to;
+    /** How much each reported edge's weight is multiplied by; infinity for a closure. */
+    public final double[] factors;
+
+    /**
+     * Validate and return the edges in a traffic report body.
+     * @param body The raw body of a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the body is not a valid traffic report.
+     */
+    public static TrafficRequestParams from(String body) {
+        Body parsed;
+        try {
+            parsed = GSON.fromJson(body, Body.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse edges.");
+        }
+        if (parsed == null || parsed.edges == null) {
+            throw new IllegalArgumentException("Request failed: edges not found.");
+        }
+        Profile profile = Profile.DISTANCE;
+        if (parsed.profile != null) {
+            try {
+                profile = Profile.valueOf(parsed.profile.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Incorrect parameters: unknown profile.");
+            }
+        }
+        int n = parsed.edges.length;
+        long[] from = new long[n];
+        long[] to = new long[n];
+        double[] factors = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            Edge e = parsed.edges[i];
+            if (e == null || e.from == null || e.to == null) {
+                String msg = String.format("Incorrect parameters: unable to parse edge %d.", i);
+                throw new IllegalArgumentException(msg);
+            }
+            from[i] = e.from;
+            to[i] = e.to;
+            if (e.closed) {
+                factors[i] = Double.POSITIVE_INFINITY;
+            } else if (e.factor != null && e.factor >= 1 && e.factor <= MAX_FACTOR) {
+                factors[i] = e.factor;
+            } else {
+                String msg = String.format("Request failed: edge %d needs a factor from 1 to %.0f"
+                        + " or closed.", i, MAX_FACTOR);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        return new TrafficRequestParams(profile, from, to, factors);
+    }
+
+    private TrafficRequestParams(Profile profile, long[] from, long[] to, double[] factors) {
+        this.profile = profile;
+        this.from = from;
+        this.to = to;
+        this.factors = factors;
+    }
+
+    /** The shape of the JSON request body. */
+    private static class Body {
+        private String profile;
+        private Edge[] edges;
+    }
+
+    /** The shape of one reported edge. */
+    private static class Edge {
+        private Long from, to;
+        private Double factor;
+        private boolean closed;
+    }
+
+    /** The largest slowdown a report may give an edge; anything slower should be closed. */
+    private static final double MAX_FACTOR = 1000;
+    private static final Gson GSON = new Gson();
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * This class provides a main method for checking the optimized routing engines against a plain
+ * Dijkstra search, on the same origin-destination pairs: random pairs on a real map, or pairs
+ * replayed from a file, and random pairs on a synthetic grid. The pairs are run in parallel
+ * through the reference and then through each engine in turn. For each engine it reports how many
+ * route costs differ from the reference, with a few examples, and the distributions of query
+ * latency and of vertices settled, side by side.
+ *
+ * A route's cost is added up from the routing graph's own edge weights, so an engine that returns
+ * a broken or suboptimal path is caught even if it reports a plausible cost. Settled vertices are
+ * counted through a <code>SearchBudget</code> with no limits; hub labels settle none.
+ *
+ * Usage: <code>java RoutingHarness [osmPath] [pairs] [gridSize] [replayPath]</code>, where the
+ * replay file holds one pair per line as <code>startLon startLat endLon endLat</code>. The
+ * harness is kept with the tests, so it runs from the test classes rather than the server jar.
+ */
+public class RoutingHarness {
+    private static final String OSM_DB_PATH =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final int PAIRS = 1000000;
+    private static final int GRID_SIZE = 200;
+    /** The name under which the reference Dijkstra search is reported. */
+    static final String REFERENCE = "DIJKSTRA";
+    /** The name under which hub labels, which find costs but not routes, are reported. */
+    static final String HUB_LABELS = "HUB_LABELS";
+    /** Costs that differ by more than this fraction of the reference cost are mismatches. */
+    private static final double TOLERANCE = 1e-9;
+    /** The number of mismatched pairs shown for each engine. */
+    private static final int EXAMPLES = 5;
+    /** The number of pairs run untimed through each engine first, so the JIT has compiled it. */
+    private static final int WARMUP_PAIRS = 2000;
+    /** The spread of random pair ends around the vertices they are chosen near, in degrees. */
+    private static final double JITTER = 0.0005;
+
+    public static void main(String[] args) throws IOException {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : PAIRS;
+        int gridSize = args.length > 2 ? Integer.parseInt(args[2]) : GRID_SIZE;
+
+        GraphDB map = new GraphDB(osmPath);
+        double[][] mapPairs = args.length > 3 ? replay(args[3])
+                : randomPairs(map, pairs, new Random(50));
+        run(osmPath, map, mapPairs);
+        GraphDB grid = new GraphDB(SyntheticMaps.grid(gridSize, gridSize, 0.1, 50).getPath());
+        run("synthetic " + gridSize + "x" + gridSize + " grid", grid,
+                randomPairs(grid, pairs, new Random(51)));
+    }
+
+    /** Compares every engine on the given pairs for every profile, and prints the results. */
+    private static void run(String name, GraphDB g, double[][] pairs) {
+        for (Profile profile : new Profile[]{Profile.DISTANCE, Profile.CAR}) {
+            System.out.println(String.format("== %s, %s: %d vertices, %d pairs", name, profile,
+                    g.routingGraph(profile).size(), pairs.length));
+            System.out.println(String.format("%-24s %9s %10s %9s %9s %9s %9s %10s %9s",
+                    "engine", "prepare", "mismatch", "p50 us", "p90 us", "p99 us", "max us",
+                    "settled", "p99"));
+            for (Result r : compare(g, profile, pairs)) {
+                System.out.println(r);
+                for (String example : r.examples) {
+                    System.out.println("    " + example);
+                }
+            }
+        }
+    }
+
+    /** How one engine did on a batch of pairs. */
+    static class Result {
+        /** The name of the engine. */
+        final String engine;
+        /** How long the engine's first query took, including any preprocessing, in ms. */
+        final double prepareMillis;
+        /** The number of pairs whose cost differs from the reference. */
+        final int mismatches;
+        /** The time of each query, in nanoseconds, in increasing order. */
+        final long[] nanos;
+        /** The number of vertices each query settled, in increasing order. */
+        final long[] settled;
+        /** A few of the mismatched pairs, described. */
+        final List<String> examples;
+
+        Result(String engine, double prepareMillis, int mismatches, long[] nanos, long[] settled,
+               List<String> examples) {
+            this.engine = engine;
+            this.prepareMillis = prepareMillis;
+            this.mismatches = mismatches;
+            this.nanos = nanos;
+            this.settled = settled;
+            this.examples = examples;
+        }
+
+        /** Returns the query time at the given quantile, in microseconds. */
+        double micros(double q) {
+            return nanos.length == 0 ? 0 : nanos[quantile(nanos.length, q)] / 1e3;
+        }
+
+        @Override
+        public String toString() {
+            double meanSettled = Arrays.stream(settled).average().orElse(0);
+            long p99Settled = settled.length == 0 ? 0 : settled[quantile(settled.length, 0.99)];
+            return String.format("%-24s %7.0fms %10d %9.1f %9.1f %9.1f %9.1f %10.0f %9d",
+                    engine, prepareMillis, mismatches, micros(0.5), micros(0.9), micros(0.99),
+                    micros(1), meanSettled, p99Settled);
+        }
+
+        private static int quantile(int n, double q) {
+            return Math.min(n - 1, (int) (q * n));
+        }
+    }
+
+    /** Finds the cost between two snapped points, or infinity if there is no route. */
+    private interface Engine {
+        double cost(SegmentIndex.Snap start, SegmentIndex.Snap goal);
+    }
+
+    /**
+     * Runs the pairs through the reference and every engine, and compares their costs.
+     * @param g The graph to route on.
+     * @param profile Whose costs the routes minimize.
+     * @param pairs The pairs, as <code>{startLon, startLat, endLon, endLat}</code>.
+     * @return The reference's result first, then each engine's.
+     */
+    static List<Result> compare(GraphDB g, Profile profile, double[][] pairs) {
+        RoutingGraph rg = g.routingGraph(profile);
+        int n = pairs.length;
+        SegmentIndex.Snap[] starts = new SegmentIndex.Snap[n];
+        SegmentIndex.Snap[] goals = new SegmentIndex.Snap[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            starts[i] = g.closestSegment(pairs[i][0], pairs[i][1]);
+            goals[i] = g.closestSegment(pairs[i][2], pairs[i][3]);
+        });
+
+        Map<String, Engine> engines = new LinkedHashMap<>();
+        engines.put(REFERENCE, (s, t) -> dijkstra(rg, s, t));
+        for (Router.Mode mode : Router.Mode.values()) {
+            engines.put(mode.name(), (s, t) -> pathCost(rg, s, t,
+                    Router.shortestPath(g, s, t, mode, profile)));
+        }
+        engines.put(HUB_LABELS, (s, t) -> g.hubLabels(profile).distance(s, t));
+
+        List<Result> results = new ArrayList<>();
+        double[] reference = null;
+        for (Map.Entry<String, Engine> entry : engines.entrySet()) {
+            Engine engine = entry.getValue();
+            long start = System.nanoTime();
+            if (n > 0) {
+                query(engine, starts[0], goals[0], new long[2]);
+            }
+            double prepareMillis = (System.nanoTime() - start) / 1e6;
+            for (int i = 0; i < Math.min(n, WARMUP_PAIRS); i += 1) {
+                query(engine, starts[i], goals[i], new long[2]);
+            }
+
+            double[] costs = new double[n];
+            long[] nanos = new long[n];
+            long[] settled = new long[n];
+            String[] errors = new String[n];
+            IntStream.range(0, n).parallel().forEach(i -> {
+                long[] counts = new long[2];
+                try {
+                    costs[i] = query(engine, starts[i], goals[i], counts);
+                } catch (RuntimeException e) {
+                    costs[i] = Double.NaN;
+                    errors[i] = e.toString();
+                }
+                nanos[i] = counts[0];
+                settled[i] = counts[1];
+            });
+            if (reference == null) {
+                reference = costs;
+            }
+
+            int mismatches = 0;
+            List<String> examples = new ArrayList<>();
+            for (int i = 0; i < n; i += 1) {
+                if (agrees(reference[i], costs[i])) {
+                    continue;
+                }
+                mismatches += 1;
+                if (examples.size() < EXAMPLES) {
+                    examples.add(String.format("%.6f %.6f -> %.6f %.6f: expected %.9f, got %s",
+                            pairs[i][0], pairs[i][1], pairs[i][2], pairs[i][3], reference[i],
+                            errors[i] != null ? errors[i] : String.format("%.9f", costs[i])));
+                }
+            }
+            Arrays.sort(nanos);
+            Arrays.sort(settled);
+            results.add(new Result(entry.getKey(), prepareMillis, mismatches, nanos, settled,
+                    examples));
+        }
+        return results;
+    }
+
+    /**
+     * Runs one query, and records its time in nanoseconds and the vertices it settled into
+     * <code>counts</code>.
+     */
+    private static double query(Engine engine, SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                                long[] counts) {
+        if (start == null || goal == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        SearchBudget budget = new SearchBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, () -> false);
+        long begin = System.nanoTime();
+        double cost = budget.within(() -> engine.cost(start, goal));
+        counts[0] = System.nanoTime() - begin;
+        counts[1] = budget.settled();
+        return cost;
+    }
+
+    /** Returns whether an engine's cost agrees with the reference cost. */
+    private static boolean agrees(double expected, double actual) {
+        if (expected == Double.POSITIVE_INFINITY || actual == Double.POSITIVE_INFINITY) {
+            return expected == actual;
+        }
+        return Math.abs(expected - actual) <= TOLERANCE * Math.max(1, expected);
+    }
+
+    /**
+     * Returns the cost of the cheapest route between two snapped points by a plain Dijkstra
+     * search. Like <code>Router</code>, points on the same road segment are joined along it.
+     */
+    static double dijkstra(RoutingGraph rg, SegmentIndex.Snap start, SegmentIndex.Snap goal) {
+        if (start.sameSegment(goal) && rg.canFollow(start, goal, rg.edgeWeight)) {
+            return alongSegment(rg, start, goal);
+        }
+        SearchState state = rg.searchState();
+        IndexedMinHeap fringe = state.fringe;
+        for (long id : start.ends()) {
+            int s = rg.number(id);
+            if (s >= 0 && state.improve(s, rg.snapCost(s, start), -1)) {
+                fringe.push(s, rg.snapCost(s, start));
+            }
+        }
+        long[] goalEnds = goal.ends();
+        double best = Double.POSITIVE_INFINITY;
+        while (!fringe.isEmpty() && fringe.minKey() < best) {
+            int v = fringe.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            for (long end : goalEnds) {
+                if (rg.ids[v] == end) {
+                    best = Math.min(best, dv + rg.snapCost(v, goal));
+                }
+            }
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (!state.isSettled(w) && state.improve(w, dv + rg.edgeWeight[e], v)) {
+                    fringe.push(w, dv + rg.edgeWeight[e]);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the cost of a route between two snapped points, added up from the routing graph's
+     * edge weights. A route that does not start and end on the points' roads, or that uses an
+     * edge the graph does not have, costs infinity.
+     */
+    static double pathCost(RoutingGraph rg, SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                           List<Long> route) {
+        if (route.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (start.sameSegment(goal) && rg.canFollow(start, goal, rg.edgeWeight)) {
+            return alongSegment(rg, start, goal);
+        }
+        int first = rg.number(route.get(0));
+        int last = rg.number(route.get(route.size() - 1));
+        if (!isEnd(start, route.get(0)) || !isEnd(goal, route.get(route.size() - 1))) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double cost = rg.snapCost(first, start) + rg.snapCost(last, goal);
+        for (int i = 0; i + 1 < route.size(); i += 1) {
+            int v = rg.number(route.get(i));
+            int w = rg.number(route.get(i + 1));
+            double weight = Double.POSITIVE_INFINITY;
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                if (rg.edgeTo[e] == w) {
+                    weight = Math.min(weight, rg.edgeWeight[e]);
+                }
+            }
+            cost += weight;
+        }
+        return cost;
+    }
+
+    /** Returns the cost between two points on the same road segment, along it. */
+    private static double alongSegment(RoutingGraph rg, SegmentIndex.Snap start,
+                                       SegmentIndex.Snap goal) {
+        int v = rg.number(start.from);
+        return Math.abs(rg.snapCost(v, start) - rg.snapCost(v, goal));
+    }
+
+    /** Returns whether a snapped point can be reached directly from vertex id. */
+    private static boolean isEnd(SegmentIndex.Snap snap, long id) {
+        for (long end : snap.ends()) {
+            if (end == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns random pairs whose ends are near random vertices of the graph. */
+    static double[][] randomPairs(GraphDB g, int n, Random r) {
+        List<Long> vertices = new ArrayList<>();
+        for (long v : g.vertices()) {
+            vertices.add(v);
+        }
+        double[][] pairs = new double[n][4];
+        if (vertices.isEmpty()) {
+            return new double[0][];
+        }
+        for (int i = 0; i < n; i += 1) {
+            for (int k = 0; k < 4; k += 2) {
+                long v = vertices.get(r.nextInt(vertices.size()));
+                pairs[i][k] = g.lon(v) + r.nextGaussian() * JITTER;
+                pairs[i][k + 1] = g.lat(v) + r.nextGaussian() * JITTER;
+            }
+        }
+        return pairs;
+    }
+
+    /** Reads pairs from a file with one <code>startLon startLat endLon endLat</code> per line. */
+    private static double[][] replay(String path) throws IOException {
+        List<double[]> pairs = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("[\\s,]+");
+            if (fields.length != 4) {
+                throw new IOException("Expected 4 numbers per pair: " + line);
+            }
+            pairs.add(Arrays.stream(fields).mapToDouble(Double::parseDouble).toArray());
+        }
+        return pairs.toArray(new double[0][]);
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class provides a main method for comparing the kinds of <code>SpatialIndex</code> on the
+ * same data: the vertices of a real map, and a large synthetic map whose points are concentrated
+ * in a dense core the way a city's are. For each index it reports the build time and the average
+ * time of a nearest query, for queries spread over the whole map and for queries in the core.
+ *
+ * Usage: <code>java SpatialIndexBenchmark [osmPath] [syntheticPoints] [queries]</code>, run from
+ * the test classes. It lives with the tests, which build their points with
+ * <code>syntheticNodes</code>.
+ */
+public class SpatialIndexBenchmark {
+    private static final String OSM_DB_PATH =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final int SYNTHETIC_POINTS = 1000000;
+    private static final int QUERIES = 1000000;
+    /** The fraction of synthetic points (and core queries) in the dense core. */
+    private static final double CORE_FRACTION = 0.7;
+    /** The spread of the dense core, in degrees. */
+    private static final double CORE_SPREAD = 0.006;
+    /** The name under which a KD-tree behind an eagerly built snapping table is reported. */
+    private static final String SNAP_TABLE = "KD+TABLE";
+    /** The cell size of the snapping table, in projected units: about 30 meters. */
+    private static final double SNAP_TABLE_CELL = 0.02 / 3963;
+    /** Number of untimed rounds run first so the JIT has compiled the query paths. */
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int syntheticPoints = args.length > 1 ? Integer.parseInt(args[1]) : SYNTHETIC_POINTS;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : QUERIES;
+
+        GraphDB g = new GraphDB(osmPath);
+        List<Node> mapNodes = new ArrayList<>();
+        for (long v : g.vertices()) {
+            mapNodes.add(g.vertexMap.get(v));
+        }
+        run(osmPath, mapNodes, queries);
+        run("synthetic (" + syntheticPoints + " points)",
+                syntheticNodes(syntheticPoints, new Random(28)), queries);
+    }
+
+    /** Benchmarks every kind of index over the given vertices. */
+    private static void run(String name, List<Node> nodes, int queries) {
+        System.out.println("== " + name + ": " + nodes.size() + " vertices");
+        Random r = new Random(2018);
+        double[][] uniform = queries(queries, 0, r);
+        double[][] core = queries(queries, 1, r);
+        long[] reference = null;
+        List<String> names = new ArrayList<>();
+        for (SpatialIndex.Type type : SpatialIndex.Type.values()) {
+            names.add(type.name());
+        }
+        names.add(SNAP_TABLE);
+        for (String type : names) {
+            long start = System.nanoTime();
+            SpatialIndex index = type.equals(SNAP_TABLE)
+                    ? new SnapLookupTable(SpatialIndex.create(SpatialIndex.Type.KDTREE, nodes),
+                            nodes, SNAP_TABLE_CELL, Long.MAX_VALUE, true)
+                    : SpatialIndex.create(SpatialIndex.Type.valueOf(type), nodes);
+            double buildMs = (System.nanoTime() - start) / 1e6;
+
+            long[] answers = new long[queries];
+            for (int round = 0; round < WARMUP_ROUNDS; round += 1) {
+                time(index, uniform, answers);
+            }
+            double uniformNs = time(index, uniform, answers);
+            double coreNs = time(index, core, answers);
+            if (reference == null) {
+                reference = answers.clone();
+            }
+            System.out.println(String.format("%-10s build %8.1f ms   uniform %7.1f ns/query"
+                    + "   core %7.1f ns/query   agrees %s", type, buildMs, uniformNs, coreNs,
+                    agrees(nodes, core, reference, answers)));
+        }
+    }
+
+    /** Returns the average time of a nearest query, in nanoseconds. */
+    private static double time(SpatialIndex index, double[][] points, long[] answers) {
+        long start = System.nanoTime();
+        for (int i = 0; i < answers.length; i += 1) {
+            answers[i] = index.nearest(points[0][i], points[1][i]);
+        }
+        return (System.nanoTime() - start) / (double) answers.length;
+    }
+
+    /** Returns whether two sets of answers are equally close to the queries (ties may differ). */
+    private static boolean agrees(List<Node> nodes, double[][] points, long[] a, long[] b) {
+        Map<Long, Node> byId = new HashMap<>();
+        for (Node n : nodes) {
+            byId.put(n.nodeID, n);
+        }
+        for (int i = 0; i < a.length; i += 1) {
+            if (a[i] != b[i] && Math.abs(distance(byId.get(a[i]), points[0][i], points[1][i])
+                    - distance(byId.get(b[i]), points[0][i], points[1][i])) > 1e-12) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double distance(Node n, double x, double y) {
+        return KDTree.euclidean(x, y, GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                GraphDB.projectToY(n.nodeLon, n.nodeLat));
+    }
+
+    /**
+     * Returns projected query points, a fraction <code>coreFraction</code> of which are in the
+     * dense core and the rest spread uniformly over the map.
+     */
+    private static double[][] queries(int n, double coreFraction, Random r) {
+        double[][] points = new double[2][n];
+        for (int i = 0; i < n; i += 1) {
+            double[] lonLat = randomLonLat(r, r.nextDouble() < coreFraction);
+            points[0][i] = GraphDB.projectToX(lonLat[0], lonLat[1]);
+            points[1][i] = GraphDB.projectToY(lonLat[0], lonLat[1]);
+        }
+        return points;
+    }
+
+    /** Returns n synthetic vertices, most of them packed into a dense core. */
+    static List<Node> syntheticNodes(int n, Random r) {
+        List<Node> nodes = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            double[] lonLat = randomLonLat(r, r.nextDouble() < CORE_FRACTION);
+            nodes.add(new Node(i + 1, lonLat[1], lonLat[0]));
+        }
+        return nodes;
+    }
+
+    private static double[] randomLonLat(Random r, boolean inCore) {
+        double lon, lat;
+        if (inCore) {
+            lon = (MapServer.ROOT_ULLON + MapServer.ROOT_LRLON) / 2
+                    + r.nextGaussian() * CORE_SPREAD;
+            lat = (MapServer.ROOT_ULLAT + MapServer.ROOT_LRLAT) / 2
+                    + r.nextGaussian() * CORE_SPREAD;
+        } else {
+            lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        return new double[]{lon, lat};
+    }
+}
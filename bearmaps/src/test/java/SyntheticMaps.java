@@ -0,0 +1,147 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Writes synthetic OSM files for tests and benchmarks that need a bigger map than the ones in
+ * library-su18. The maps are jittered street grids inside the map's root bounding box, with some
+ * blocks missing so that routes have to go around them. Tests that only read their graph share
+ * one map, which is written and loaded once per run.
+ */
+class SyntheticMaps {
+    /** The number of intersections along each street of the shared map. */
+    static final int SHARED_SIZE = 30;
+    /** The number of places on the shared map. */
+    static final int SHARED_PLACES = 200;
+    /** The shared map's OSM file, or null until it is first wanted. */
+    private static File sharedFile;
+    /** The shared map's graph, or null until it is first wanted. */
+    private static GraphDB shared;
+
+    private SyntheticMaps() {
+    }
+
+    /**
+     * Returns the OSM file of the shared map: a street grid of <code>SHARED_SIZE</code> by
+     * <code>SHARED_SIZE</code> intersections with some blocks missing, and
+     * <code>SHARED_PLACES</code> places scattered over it.
+     * @return The OSM file, which is written the first time it is wanted.
+     * @throws IOException If the file cannot be written.
+     */
+    static synchronized File sharedFile() throws IOException {
+        if (sharedFile == null) {
+            sharedFile = grid(SHARED_SIZE, SHARED_SIZE, 0.15, 0, SHARED_PLACES);
+        }
+        return sharedFile;
+    }
+
+    /**
+     * Returns the graph of the shared map. Tests must not add or remove its vertices or change
+     * its weights; a test that does should load its own <code>GraphDB</code> from
+     * <code>sharedFile</code>.
+     * @return The graph, which is loaded the first time it is wanted.
+     * @throws IOException If the map cannot be written.
+     */
+    static synchronized GraphDB shared() throws IOException {
+        if (shared == null) {
+            shared = new GraphDB(sharedFile().getPath());
+        }
+        return shared;
+    }
+
+    /**
+     * Writes a street grid to a temporary OSM file that is deleted when the JVM exits.
+     * @param cols The number of intersections along each street running east-west.
+     * @param rows The number of intersections along each street running north-south.
+     * @param missing The fraction of road segments to leave out.
+     * @param seed The seed for the jitter and the missing segments.
+     * @return The OSM file.
+     * @throws IOException If the file cannot be written.
+     */
+    static File grid(int cols, int rows, double missing, long seed) throws IOException {
+        return grid(cols, rows, missing, seed, 0);
+    }
+
+    /**
+     * Writes a street grid with named places scattered over it to a temporary OSM file that is
+     * deleted when the JVM exits. Every other place is tagged as a fuel station and the rest as
+     * cafes; none of them are on a road.
+     * @param cols The number of intersections along each street running east-west.
+     * @param rows The number of intersections along each street running north-south.
+     * @param missing The fraction of road segments to leave out.
+     * @param seed The seed for the jitter, the missing segments and the places.
+     * @param places The number of places.
+     * @return The OSM file.
+     * @throws IOException If the file cannot be written.
+     */
+    static File grid(int cols, int rows, double missing, long seed, int places)
+            throws IOException {
+        Random r = new Random(seed);
+        File dir = Files.createTempDirectory("bearmaps").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "grid-" + cols + "x" + rows + ".osm.xml");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\">");
+            double dLon = MapServer.ROOT_LON_DELTA / (cols + 1);
+            double dLat = MapServer.ROOT_LAT_DELTA / (rows + 1);
+            for (int j = 0; j < rows; j += 1) {
+                for (int i = 0; i < cols; i += 1) {
+                    double lon = MapServer.ROOT_ULLON + (i + 1 + 0.3 * r.nextGaussian()) * dLon;
+                    double lat = MapServer.ROOT_LRLAT + (j + 1 + 0.3 * r.nextGaussian()) * dLat;
+                    out.println(String.format("  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>",
+                            id(i, j, cols), lat, lon));
+                }
+            }
+            long way = 1;
+            for (int j = 0; j < rows; j += 1) {
+                for (int i = 0; i + 1 < cols; i += 1) {
+                    if (r.nextDouble() >= missing) {
+                        way(out, way, id(i, j, cols), id(i + 1, j, cols), "Row " + j);
+                        way += 1;
+                    }
+                }
+            }
+            for (int i = 0; i < cols; i += 1) {
+                for (int j = 0; j + 1 < rows; j += 1) {
+                    if (r.nextDouble() >= missing) {
+                        way(out, way, id(i, j, cols), id(i, j + 1, cols), "Column " + i);
+                        way += 1;
+                    }
+                }
+            }
+            Random placed = new Random(seed + 1);
+            for (int p = 0; p < places; p += 1) {
+                double lon = MapServer.ROOT_ULLON + placed.nextDouble() * MapServer.ROOT_LON_DELTA;
+                double lat = MapServer.ROOT_LRLAT + placed.nextDouble() * MapServer.ROOT_LAT_DELTA;
+                out.println(String.format("  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\">",
+                        PLACE_IDS + p, lat, lon));
+                out.println("    <tag k=\"name\" v=\"Place " + p + "\"/>");
+                out.println("    <tag k=\"amenity\" v=\"" + (p % 2 == 0 ? "fuel" : "cafe")
+                        + "\"/>");
+                out.println("  </node>");
+            }
+            out.println("</osm>");
+        }
+        return file;
+    }
+
+    /** The ID of the first place, well clear of the intersections' IDs. */
+    static final long PLACE_IDS = 1L << 40;
+
+    private static long id(int i, int j, int cols) {
+        return 1 + j * (long) cols + i;
+    }
+
+    private static void way(PrintWriter out, long id, long from, long to, String name) {
+        out.println("  <way id=\"" + id + "\">");
+        out.println("    <nd ref=\"" + from + "\"/>");
+        out.println("    <nd ref=\"" + to + "\"/>");
+        out.println("    <tag k=\"name\" v=\"" + name + "\"/>");
+        out.println("    <tag k=\"highway\" v=\"residential\"/>");
+        out.println("  </way>");
+    }
+}
@@ -0,0 +1,235 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the primitive A* engines: their routes against a plain Dijkstra search and against
+ * each other, their use from several threads at once, and the indexed heap.
+ */
+public class TestAStarSearch {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final int NUM_ROUTES = 200;
+    private static GraphDB graph;
+    private static List<Long> vertices;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+        vertices = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            vertices.add(v);
+        }
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        Random r = new Random(33);
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            long s = vertices.get(r.nextInt(vertices.size()));
+            long t = vertices.get(r.nextInt(vertices.size()));
+            assertEquals(dijkstra(s, t), length(route(s, t)), 1e-9);
+        }
+    }
+
+    @Test
+    public void testConcurrentSearches() throws Exception {
+        Random r = new Random(34);
+        long[][] pairs = new long[NUM_ROUTES][2];
+        List<List<Long>> expected = new ArrayList<>();
+        for (long[] pair : pairs) {
+            pair[0] = vertices.get(r.nextInt(vertices.size()));
+            pair[1] = vertices.get(r.nextInt(vertices.size()));
+            expected.add(route(pair[0], pair[1]));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Long>>> actual = new ArrayList<>();
+            for (long[] pair : pairs) {
+                actual.add(pool.submit(() -> route(pair[0], pair[1])));
+            }
+            for (int i = 0; i < pairs.length; i += 1) {
+                assertEquals(expected.get(i), actual.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesUnidirectional() {
+        Random r = new Random(36);
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double expected = cost(stlon, stlat, destlon, destlat, Router.shortestPath(graph,
+                    stlon, stlat, destlon, destlat, Router.Mode.UNIDIRECTIONAL));
+            double actual = cost(stlon, stlat, destlon, destlat, Router.shortestPath(graph,
+                    stlon, stlat, destlon, destlat, Router.Mode.BIDIRECTIONAL));
+            assertEquals(expected, actual, 1e-9);
+            actual = cost(stlon, stlat, destlon, destlat, Router.shortestPath(graph,
+                    stlon, stlat, destlon, destlat, Router.Mode.PARALLEL_BIDIRECTIONAL));
+            assertEquals(expected, actual, 1e-9);
+        }
+    }
+
+    @Test
+    public void testParallelBidirectionalUnderLoad() throws Exception {
+        /* More searches at once than there are cores, so some take turns on their own thread. */
+        Random r = new Random(35);
+        double[][] pairs = new double[NUM_ROUTES][4];
+        double[] expected = new double[NUM_ROUTES];
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            double[] p = pairs[i];
+            p[0] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            p[1] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            p[2] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            p[3] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            expected[i] = cost(p[0], p[1], p[2], p[3], Router.shortestPath(graph, p[0], p[1],
+                    p[2], p[3], Router.Mode.UNIDIRECTIONAL));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                4 * Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<List<Long>>> actual = new ArrayList<>();
+            for (double[] p : pairs) {
+                actual.add(pool.submit(() -> Router.shortestPath(graph, p[0], p[1], p[2], p[3],
+                        Router.Mode.PARALLEL_BIDIRECTIONAL)));
+            }
+            for (int i = 0; i < NUM_ROUTES; i += 1) {
+                double[] p = pairs[i];
+                assertEquals(expected[i], cost(p[0], p[1], p[2], p[3], actual.get(i).get()),
+                        1e-9);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLandmarksMatchUnidirectional() {
+        graph.setLandmarkCount(8);
+        Landmarks landmarks = graph.landmarks();
+        assertEquals(8, landmarks.count());
+        assertEquals(2L * 4 * 8 * vertices.size() + 4 * 8, landmarks.memoryBytes());
+        Random r = new Random(37);
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double expected = cost(stlon, stlat, destlon, destlat, Router.shortestPath(graph,
+                    stlon, stlat, destlon, destlat, Router.Mode.UNIDIRECTIONAL));
+            double actual = cost(stlon, stlat, destlon, destlat, Router.shortestPath(graph,
+                    stlon, stlat, destlon, destlat, Router.Mode.ALT));
+            assertEquals(expected, actual, 1e-9);
+        }
+    }
+
+    @Test
+    public void testIndexedHeap() {
+        IndexedMinHeap heap = new IndexedMinHeap(100);
+        Random r = new Random(35);
+        double[] keys = new double[100];
+        for (int v = 0; v < 100; v += 1) {
+            keys[v] = r.nextDouble();
+            heap.push(v, keys[v]);
+        }
+        /* Lowering a key moves the vertex up; raising it is ignored. */
+        keys[42] = -1;
+        heap.push(42, -1);
+        heap.push(7, 2);
+        assertEquals(100, heap.size());
+        double last = Double.NEGATIVE_INFINITY;
+        Set<Integer> seen = new HashSet<>();
+        while (!heap.isEmpty()) {
+            double key = heap.minKey();
+            int v = heap.pop();
+            assertEquals(keys[v], key, 0);
+            assertTrue(key >= last);
+            assertTrue(seen.add(v));
+            last = key;
+        }
+        heap.clear();
+        heap.push(3, 5);
+        assertEquals(3, heap.pop());
+        assertTrue(heap.isEmpty());
+    }
+
+    private static List<Long> route(long s, long t) {
+        RoutingGraph rg = graph.routingGraph();
+        return AStarSearch.shortestPath(rg, new int[]{rg.number(s)}, new double[]{0},
+                new int[]{rg.number(t)}, new double[]{0}, graph.lon(t), graph.lat(t));
+    }
+
+    /** Returns the length of a route between two points, including partial roads at the ends. */
+    private static double cost(double stlon, double stlat, double destlon, double destlat,
+                               List<Long> route) {
+        SegmentIndex.Snap start = graph.closestSegment(stlon, stlat);
+        SegmentIndex.Snap goal = graph.closestSegment(destlon, destlat);
+        if (start.sameSegment(goal)) {
+            return 0;
+        }
+        return graph.distance(start.lon, start.lat, route.get(0)) + length(route)
+                + graph.distance(goal.lon, goal.lat, route.get(route.size() - 1));
+    }
+
+    private static double length(List<Long> route) {
+        if (route.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double total = 0;
+        for (int i = 1; i < route.size(); i += 1) {
+            assertTrue(((List<Long>) graph.adjacent(route.get(i - 1))).contains(route.get(i)));
+            total += graph.distance(route.get(i - 1), route.get(i));
+        }
+        return total;
+    }
+
+    /** Returns the length of the shortest route from s to t, found by a textbook Dijkstra. */
+    private static double dijkstra(long s, long t) {
+        Map<Long, Double> dist = new HashMap<>();
+        Set<Long> done = new HashSet<>();
+        PriorityQueue<double[]> fringe = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        dist.put(s, 0.0);
+        fringe.add(new double[]{0, s});
+        while (!fringe.isEmpty()) {
+            long v = (long) fringe.poll()[1];
+            if (!done.add(v)) {
+                continue;
+            }
+            if (v == t) {
+                return dist.get(v);
+            }
+            for (long w : graph.adjacent(v)) {
+                double d = dist.get(v) + graph.distance(v, w);
+                if (d < dist.getOrDefault(w, Double.POSITIVE_INFINITY)) {
+                    dist.put(w, d);
+                    fringe.add(new double[]{d, w});
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for batch routing: every pair is routed exactly once, to the same route as a single
+ * request, a failing listener stops the batch, and pairs whose searches run out of budget are
+ * reported as such.
+ */
+public class TestBatchRouter {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final GraphDB GRAPH = new GraphDB(OSM_DB_PATH_SMALL);
+
+    @Test
+    public void testMatchesSingleRoutes() throws Exception {
+        double[][] pairs = randomPairs(100, new Random(41));
+        Map<Integer, List<Long>> routes = new HashMap<>();
+        BatchRouter.route(GRAPH, pairs, Profile.DISTANCE, 3, unlimited(), (i, route, failure) -> {
+            assertNull(failure);
+            assertNull(routes.put(i, route));
+        });
+        assertEquals(pairs.length, routes.size());
+        for (int i = 0; i < pairs.length; i += 1) {
+            double[] p = pairs[i];
+            assertEquals(Router.shortestPath(GRAPH, p[0], p[1], p[2], p[3]), routes.get(i));
+        }
+    }
+
+    @Test
+    public void testListenerFailureStopsBatch() throws Exception {
+        double[][] pairs = randomPairs(50, new Random(42));
+        int[] calls = new int[1];
+        try {
+            BatchRouter.route(GRAPH, pairs, Profile.DISTANCE, 2, unlimited(), (i, route, f) -> {
+                calls[0] += 1;
+                throw new IOException("client went away");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, calls[0]);
+        }
+    }
+
+    @Test
+    public void testExpiredBudgetAbandonsPairs() throws Exception {
+        double[][] pairs = randomPairs(50, new Random(43));
+        SearchBudget expired = new SearchBudget(Integer.MAX_VALUE, -1, () -> false);
+        int[] abandoned = new int[1];
+        BatchRouter.route(GRAPH, pairs, Profile.DISTANCE, 4, expired, (i, route, failure) -> {
+            if (failure != null) {
+                assertEquals(SearchBudget.Reason.DEADLINE.message, failure);
+                assertTrue(route.isEmpty());
+                abandoned[0] += 1;
+            }
+        });
+        assertTrue(abandoned[0] > 0);
+    }
+
+    private static SearchBudget unlimited() {
+        return new SearchBudget(Integer.MAX_VALUE, 60_000, () -> false);
+    }
+
+    private static double[][] randomPairs(int n, Random r) {
+        double[][] pairs = new double[n][4];
+        for (double[] p : pairs) {
+            p[0] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            p[1] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            p[2] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            p[3] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        return pairs;
+    }
+}
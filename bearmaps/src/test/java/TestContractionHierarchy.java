@@ -0,0 +1,86 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for contraction hierarchies: their routes against plain A*, the unpacking of shortcuts
+ * into roads, and saving and loading them next to the map.
+ */
+public class TestContractionHierarchy {
+    private static final int NUM_ROUTES = 300;
+    private static GraphDB graph;
+    private static File osmFile;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        osmFile = SyntheticMaps.grid(60, 60, 0.15, 35);
+        graph = new GraphDB(osmFile.getPath());
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random r = new Random(35);
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    Router.Mode.UNIDIRECTIONAL);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    Router.Mode.CONTRACTION_HIERARCHY);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            if (expected.isEmpty()) {
+                continue;
+            }
+            /* Both ends must match; the roads in between may differ only in a tie. */
+            assertEquals(expected.get(0), actual.get(0));
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            assertEquals(length(expected), length(actual), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        ContractionHierarchy ch = graph.contractionHierarchy();
+        File saved = new File(osmFile.getPath() + ContractionHierarchy.SUFFIX);
+        assertTrue(saved.isFile());
+        saved.deleteOnExit();
+        assertTrue(ch.edgeCount() > 0);
+
+        RoutingGraph rg = graph.routingGraph();
+        ContractionHierarchy loaded = ContractionHierarchy.load(saved, rg);
+        assertNotNull(loaded);
+        assertEquals(ch.edgeCount(), loaded.edgeCount());
+        SegmentIndex.Snap start = graph.closestSegment(-122.28, 37.83);
+        SegmentIndex.Snap goal = graph.closestSegment(-122.22, 37.89);
+        assertEquals(ch.shortestPath(start, goal), loaded.shortestPath(start, goal));
+
+        /* A hierarchy saved for one graph is not used for another. */
+        GraphDB other = new GraphDB(SyntheticMaps.grid(10, 10, 0, 36).getPath());
+        assertNull(ContractionHierarchy.load(saved, other.routingGraph()));
+    }
+
+    /** Returns the length of a route, checking that each step follows a road. */
+    private static double length(List<Long> route) {
+        double total = 0;
+        for (int i = 1; i < route.size(); i += 1) {
+            assertTrue(((List<Long>) graph.adjacent(route.get(i - 1))).contains(route.get(i)));
+            total += graph.distance(route.get(i - 1), route.get(i));
+        }
+        return total;
+    }
+}
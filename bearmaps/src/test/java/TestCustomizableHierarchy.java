@@ -0,0 +1,137 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for customizable hierarchies: their routes against plain A*, and their distances
+ * against Dijkstra's algorithm after traffic and closures are applied.
+ */
+public class TestCustomizableHierarchy {
+    private static final int NUM_ROUTES = 300;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        /* Traffic changes this graph's weights, so it is loaded apart from the shared one. */
+        graph = new GraphDB(SyntheticMaps.sharedFile().getPath());
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random r = new Random(44);
+        for (int i = 0; i < NUM_ROUTES; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    Router.Mode.UNIDIRECTIONAL);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    Router.Mode.CUSTOMIZABLE);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            if (expected.isEmpty()) {
+                continue;
+            }
+            /* Both ends must match; the roads in between may differ only in a tie. */
+            assertEquals(expected.get(0), actual.get(0));
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            assertEquals(length(expected), length(actual), 1e-9);
+        }
+    }
+
+    @Test
+    public void testCustomizeMatchesDijkstra() {
+        CustomizableHierarchy cch = new CustomizableHierarchy(graph.routingGraph());
+        RoutingGraph rg = cch.rg;
+        Random r = new Random(45);
+        double[] weights = rg.edgeWeight.clone();
+        for (int e = 0; e < weights.length; e += 1) {
+            double p = r.nextDouble();
+            if (p < 0.05) {
+                weights[e] = Double.POSITIVE_INFINITY;
+            } else if (p < 0.5) {
+                weights[e] *= 1 + 4 * r.nextDouble();
+            }
+        }
+        cch.customize(weights);
+        for (int i = 0; i < 20; i += 1) {
+            int s = r.nextInt(rg.size());
+            double[] expected = dijkstra(rg, weights, s);
+            for (int t = 0; t < rg.size(); t += 1) {
+                assertEquals(expected[t], cch.distance(s, t), 1e-9);
+            }
+        }
+
+        /* Going back to the graph's own weights undoes the traffic. */
+        cch.customize(new long[0], new long[0], new double[0]);
+        int s = r.nextInt(rg.size());
+        double[] expected = dijkstra(rg, rg.edgeWeight, s);
+        for (int t = 0; t < rg.size(); t += 1) {
+            assertEquals(expected[t], cch.distance(s, t), 1e-9);
+        }
+    }
+
+    @Test
+    public void testClosureReroutes() {
+        CustomizableHierarchy cch = graph.customizableHierarchy(Profile.DISTANCE);
+        SegmentIndex.Snap start = graph.closestSegment(-122.28, 37.83);
+        SegmentIndex.Snap goal = graph.closestSegment(-122.22, 37.89);
+        List<Long> before = cch.shortestPath(start, goal);
+        assertTrue(before.size() > 4);
+        /* Close the middle of the route in both directions. */
+        int mid = before.size() / 2;
+        long a = before.get(mid);
+        long b = before.get(mid + 1);
+        double inf = Double.POSITIVE_INFINITY;
+        assertEquals(2, cch.customize(new long[]{a, b}, new long[]{b, a},
+                new double[]{inf, inf}));
+        List<Long> after = cch.shortestPath(start, goal);
+        for (int i = 1; i < after.size(); i += 1) {
+            assertTrue(!(after.get(i - 1) == a && after.get(i) == b));
+        }
+        assertTrue(after.isEmpty() || length(after) >= length(before) - 1e-9);
+        cch.customize(new long[0], new long[0], new double[0]);
+        assertEquals(before, cch.shortestPath(start, goal));
+    }
+
+    /** Returns the costs from s to every vertex under the given weights. */
+    private static double[] dijkstra(RoutingGraph rg, double[] weights, int s) {
+        double[] dist = new double[rg.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(rg.size());
+        dist[s] = 0;
+        fringe.push(s, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.pop();
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (dist[v] + weights[e] < dist[w]) {
+                    dist[w] = dist[v] + weights[e];
+                    fringe.push(w, dist[w]);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the length of a route, checking that each step follows a road. */
+    private static double length(List<Long> route) {
+        double total = 0;
+        for (int i = 1; i < route.size(); i += 1) {
+            assertTrue(((List<Long>) graph.adjacent(route.get(i - 1))).contains(route.get(i)));
+            total += graph.distance(route.get(i - 1), route.get(i));
+        }
+        return total;
+    }
+}
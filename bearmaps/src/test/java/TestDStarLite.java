@@ -0,0 +1,145 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for incremental re-routing: as the start moves along the route and as traffic changes,
+ * the repaired routes cost the same as fresh searches, and moving along the route is cheap.
+ */
+public class TestDStarLite {
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testMovingStartMatchesAStar() {
+        RoutingGraph rg = graph.routingGraph();
+        SegmentIndex.Snap goal = graph.closestSegment(-122.22, 37.89);
+        SegmentIndex.Snap start = graph.closestSegment(-122.28, 37.83);
+        DStarLite search = new DStarLite(rg, goal, rg.edgeWeight);
+        List<Long> first = search.route(start, rg.edgeWeight);
+        assertFalse(first.isEmpty());
+        int firstExpanded = search.expanded();
+        assertCost(start, goal, first, rg.edgeWeight);
+
+        /* Move along the route, a little past each vertex. */
+        for (int i = 1; i + 2 < first.size(); i += 1) {
+            long a = first.get(i);
+            long b = first.get(i + 1);
+            double lon = 0.9 * graph.lon(a) + 0.1 * graph.lon(b);
+            double lat = 0.9 * graph.lat(a) + 0.1 * graph.lat(b);
+            SegmentIndex.Snap moved = graph.closestSegment(lon, lat);
+            List<Long> route = search.route(moved, rg.edgeWeight);
+            assertCost(moved, goal, route, rg.edgeWeight);
+            assertTrue(search.expanded() < firstExpanded);
+        }
+
+        /* Wander off the route; the answer must still be right. */
+        Random r = new Random(45);
+        for (int i = 0; i < 30; i += 1) {
+            double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            SegmentIndex.Snap moved = graph.closestSegment(lon, lat);
+            if (moved.sameSegment(goal)) {
+                continue;
+            }
+            assertCost(moved, goal, search.route(moved, rg.edgeWeight), rg.edgeWeight);
+        }
+    }
+
+    @Test
+    public void testTrafficMatchesCustomizableHierarchy() {
+        RoutingGraph rg = graph.routingGraph();
+        SegmentIndex.Snap goal = graph.closestSegment(-122.23, 37.88);
+        SegmentIndex.Snap start = graph.closestSegment(-122.29, 37.84);
+        DStarLite search = new DStarLite(rg, goal, rg.edgeWeight);
+        List<Long> first = search.route(start, rg.edgeWeight);
+        assertFalse(first.isEmpty());
+
+        Random r = new Random(46);
+        CustomizableHierarchy cch = new CustomizableHierarchy(rg);
+        for (int round = 0; round < 5; round += 1) {
+            double[] weights = rg.edgeWeight.clone();
+            for (int e = 0; e < weights.length; e += 1) {
+                double p = r.nextDouble();
+                if (p < 0.03) {
+                    weights[e] = Double.POSITIVE_INFINITY;
+                } else if (p < 0.3) {
+                    weights[e] *= 1 + 3 * r.nextDouble();
+                }
+            }
+            cch.customize(weights);
+            List<Long> route = search.route(start, weights);
+            List<Long> expected = cch.shortestPath(start, goal);
+            assertEquals(expected.isEmpty(), route.isEmpty());
+            if (!expected.isEmpty()) {
+                assertEquals(cost(start, goal, expected, weights),
+                        cost(start, goal, route, weights), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSessions() {
+        SessionStore<DStarLite> sessions = new SessionStore<>(2, 60_000);
+        SegmentIndex.Snap goal = graph.closestSegment(-122.22, 37.89);
+        SegmentIndex.Snap start = graph.closestSegment(-122.28, 37.83);
+        List<Long> expected = Router.shortestPath(graph, start, goal,
+                Router.Mode.UNIDIRECTIONAL, Profile.DISTANCE);
+        assertEquals(cost(start, goal, expected, graph.routingGraph().edgeWeight),
+                cost(start, goal, Router.shortestPath(graph, sessions, "a", start, goal,
+                        Profile.DISTANCE), graph.routingGraph().edgeWeight), 1e-9);
+        DStarLite search = sessions.get("a");
+        Router.shortestPath(graph, sessions, "a", start, goal, Profile.DISTANCE);
+        assertTrue(search == sessions.get("a"));
+        assertEquals(0, search.expanded());
+
+        /* A new goal starts a new search. */
+        SegmentIndex.Snap other = graph.closestSegment(-122.25, 37.86);
+        Router.shortestPath(graph, sessions, "a", start, other, Profile.DISTANCE);
+        assertFalse(search == sessions.get("a"));
+    }
+
+    /** Checks that a route costs the same as the A* route between the same points. */
+    private static void assertCost(SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                                   List<Long> route, double[] weights) {
+        List<Long> expected = Router.shortestPath(graph, start, goal,
+                Router.Mode.UNIDIRECTIONAL, Profile.DISTANCE);
+        assertEquals(expected.isEmpty(), route.isEmpty());
+        if (!expected.isEmpty()) {
+            assertEquals(cost(start, goal, expected, weights),
+                    cost(start, goal, route, weights), 1e-9);
+        }
+    }
+
+    /** Returns the cost of a route from start to goal, checking that each step is an edge. */
+    private static double cost(SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                               List<Long> route, double[] weights) {
+        RoutingGraph rg = graph.routingGraph();
+        int first = rg.number(route.get(0));
+        int last = rg.number(route.get(route.size() - 1));
+        double total = rg.snapCost(first, start) + rg.snapCost(last, goal);
+        for (int i = 1; i < route.size(); i += 1) {
+            int u = rg.number(route.get(i - 1));
+            int v = rg.number(route.get(i));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = rg.edgeStart[u]; e < rg.edgeStart[u + 1]; e += 1) {
+                if (rg.edgeTo[e] == v) {
+                    best = Math.min(best, weights[e]);
+                }
+            }
+            assertTrue(best < Double.POSITIVE_INFINITY);
+            total += best;
+        }
+        return total;
+    }
+}
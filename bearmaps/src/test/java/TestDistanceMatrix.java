@@ -0,0 +1,76 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for distance matrices: every entry matches the length of the route between its two
+ * points.
+ */
+public class TestDistanceMatrix {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+        initialized = true;
+    }
+
+    @Test
+    public void testDistanceMatrixMatchesRoutes() {
+        Random r = new Random(38);
+        int rows = 12, cols = 15;
+        double[] lons = new double[rows + cols];
+        double[] lats = new double[rows + cols];
+        for (int i = 0; i < lons.length; i += 1) {
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        double[] destLons = Arrays.copyOfRange(lons, rows, rows + cols);
+        double[] destLats = Arrays.copyOfRange(lats, rows, rows + cols);
+        double[][] matrix = DistanceMatrix.distances(graph, Arrays.copyOf(lons, rows),
+                Arrays.copyOf(lats, rows), destLons, destLats);
+        assertEquals(rows, matrix.length);
+        for (int i = 0; i < rows; i += 1) {
+            assertEquals(cols, matrix[i].length);
+            for (int j = 0; j < cols; j += 1) {
+                SegmentIndex.Snap start = graph.closestSegment(lons[i], lats[i]);
+                SegmentIndex.Snap goal = graph.closestSegment(destLons[j], destLats[j]);
+                List<Long> route = Router.shortestPath(graph, lons[i], lats[i],
+                        destLons[j], destLats[j], Router.Mode.UNIDIRECTIONAL);
+                double expected;
+                if (start.sameSegment(goal)) {
+                    expected = GraphDB.distance(start.lon, start.lat, goal.lon, goal.lat);
+                } else if (route.isEmpty()) {
+                    expected = Double.POSITIVE_INFINITY;
+                } else {
+                    expected = cost(start, goal, route);
+                }
+                assertEquals(expected, matrix[i][j], 1e-9);
+            }
+        }
+    }
+
+    /** Returns the length of a route between two points, including partial roads at the ends. */
+    private static double cost(SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                               List<Long> route) {
+        double total = graph.distance(start.lon, start.lat, route.get(0))
+                + graph.distance(goal.lon, goal.lat, route.get(route.size() - 1));
+        for (int i = 1; i < route.size(); i += 1) {
+            assertTrue(((List<Long>) graph.adjacent(route.get(i - 1))).contains(route.get(i)));
+            total += graph.distance(route.get(i - 1), route.get(i));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for hub labels: their distances against Dijkstra's algorithm and the distance matrix,
+ * saving and loading them next to the map, and telling whether they are ready without building
+ * them.
+ */
+public class TestHubLabels {
+    private static final int NUM_QUERIES = 300;
+    private static GraphDB graph;
+    private static File osmFile;
+
+    @Before
+    public void setUp() throws Exception {
+        osmFile = SyntheticMaps.sharedFile();
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        for (Profile profile : new Profile[]{Profile.DISTANCE, Profile.CAR}) {
+            RoutingGraph rg = graph.routingGraph(profile);
+            HubLabels labels = graph.hubLabels(profile);
+            Random r = new Random(43);
+            for (int i = 0; i < 20; i += 1) {
+                int s = r.nextInt(rg.size());
+                double[] expected = dijkstra(rg, s);
+                for (int t = 0; t < rg.size(); t += 1) {
+                    assertEquals(expected[t], labels.distance(s, t), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesDistanceMatrix() {
+        Random r = new Random(44);
+        double[] lons = new double[NUM_QUERIES];
+        double[] lats = new double[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i += 1) {
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        double[][] matrix = DistanceMatrix.distances(graph, lons, lats, lons, lats);
+        HubLabels labels = graph.hubLabels(Profile.DISTANCE);
+        for (int i = 0; i < NUM_QUERIES; i += 1) {
+            SegmentIndex.Snap start = graph.closestSegment(lons[i], lats[i]);
+            for (int j = 0; j < NUM_QUERIES; j += 17) {
+                SegmentIndex.Snap goal = graph.closestSegment(lons[j], lats[j]);
+                assertEquals(matrix[i][j], labels.distance(start, goal), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        HubLabels labels = graph.hubLabels(Profile.DISTANCE);
+        File saved = new File(osmFile.getPath() + HubLabels.SUFFIX);
+        assertTrue(saved.isFile());
+        saved.deleteOnExit();
+        assertTrue(labels.averageLabelSize() >= 1);
+
+        RoutingGraph rg = graph.routingGraph();
+        HubLabels loaded = HubLabels.load(saved, rg);
+        assertNotNull(loaded);
+        assertEquals(labels.memoryBytes(), loaded.memoryBytes());
+        for (int s = 0; s < rg.size(); s += 97) {
+            for (int t = 0; t < rg.size(); t += 13) {
+                assertEquals(labels.distance(s, t), loaded.distance(s, t), 0);
+            }
+        }
+
+        /* Labels saved for one graph are not used for another. */
+        GraphDB other = new GraphDB(SyntheticMaps.grid(10, 10, 0, 44).getPath());
+        assertNull(HubLabels.load(saved, other.routingGraph()));
+    }
+
+    @Test
+    public void testReadyOnlyOnceBuilt() throws Exception {
+        GraphDB fresh = new GraphDB(SyntheticMaps.grid(10, 10, 0.15, 1).getPath());
+        assertNull(fresh.readyHubLabels(Profile.CAR));
+        HubLabels labels = fresh.hubLabels(Profile.CAR);
+        assertSame(labels, fresh.readyHubLabels(Profile.CAR));
+        assertNull(fresh.readyHubLabels(Profile.DISTANCE));
+    }
+
+    /** Returns the costs from s to every vertex by Dijkstra's algorithm. */
+    private static double[] dijkstra(RoutingGraph rg, int s) {
+        double[] dist = new double[rg.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(rg.size());
+        dist[s] = 0;
+        fringe.push(s, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.pop();
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (dist[v] + rg.edgeWeight[e] < dist[w]) {
+                    dist[w] = dist[v] + rg.edgeWeight[e];
+                    fringe.push(w, dist[w]);
+                }
+            }
+        }
+        return dist;
+    }
+}
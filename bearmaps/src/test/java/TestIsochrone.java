@@ -0,0 +1,92 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for reachable areas: a vertex is inside exactly when the cheapest route to it is within
+ * the budget, in miles or in seconds of travel depending on the profile.
+ */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final int NUM_ROUTES = 200;
+    private static GraphDB graph;
+    private static List<Long> vertices;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+        vertices = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            vertices.add(v);
+        }
+        initialized = true;
+    }
+
+    @Test
+    public void testIsochroneMatchesRoutes() {
+        Random r = new Random(39);
+        for (Profile profile : Profile.values()) {
+            RoutingGraph rg = graph.routingGraph(profile);
+            /* About a mile of road, in the profile's own cost units. */
+            double scale = profile == Profile.DISTANCE ? 1 : 3600.0 / 25;
+            for (int i = 0; i < 5; i += 1) {
+                double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+                double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+                double budget = (0.2 + r.nextDouble()) * scale;
+                Isochrone area = Isochrone.reachable(graph, lon, lat, profile, budget);
+                assertTrue(area.boundary.length >= 3);
+                Set<Long> reachable = new HashSet<>();
+                for (long v : area.vertices) {
+                    assertTrue(reachable.add(v));
+                }
+                SegmentIndex.Snap start = graph.closestSegment(lon, lat);
+                long[] ends = start.ends();
+                int[] sources = new int[ends.length];
+                double[] costs = new double[ends.length];
+                for (int k = 0; k < ends.length; k += 1) {
+                    sources[k] = rg.number(ends[k]);
+                    costs[k] = rg.snapCost(sources[k], start);
+                }
+                for (int k = 0; k < NUM_ROUTES; k += 1) {
+                    long t = vertices.get(r.nextInt(vertices.size()));
+                    List<Long> route = AStarSearch.shortestPath(rg, sources, costs,
+                            new int[]{rg.number(t)}, new double[]{0}, graph.lon(t),
+                            graph.lat(t));
+                    double d = route.isEmpty() ? Double.POSITIVE_INFINITY
+                            : rg.snapCost(rg.number(route.get(0)), start) + cost(rg, route);
+                    assertEquals(profile + " " + t, d <= budget, reachable.contains(t));
+                }
+            }
+        }
+    }
+
+    /** Returns the cost of the edges along a route. */
+    private static double cost(RoutingGraph rg, List<Long> route) {
+        double total = 0;
+        for (int i = 1; i < route.size(); i += 1) {
+            int v = rg.number(route.get(i - 1));
+            int w = rg.number(route.get(i));
+            double weight = Double.POSITIVE_INFINITY;
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                if (rg.edgeTo[e] == w) {
+                    weight = Math.min(weight, rg.edgeWeight[e]);
+                }
+            }
+            total += weight;
+        }
+        return total;
+    }
+}
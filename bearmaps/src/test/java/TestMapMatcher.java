@@ -0,0 +1,162 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for map matching: noisy traces along known routes are matched back onto those routes,
+ * a trace matched a point at a time is matched the same as all at once, and matching stays
+ * within a search budget.
+ */
+public class TestMapMatcher {
+    /** The spacing of the points along a trace, in miles (about 20 meters). */
+    private static final double SPACING = 0.0125;
+    /** The standard deviation of the noise added to each point, in miles (about 5 meters). */
+    private static final double NOISE = 0.003;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testMatchesNoisyTraces() {
+        Random r = new Random(48);
+        MapMatcher matcher = new MapMatcher(graph);
+        int total = 0;
+        int onRoute = 0;
+        for (int trial = 0; trial < 20; trial += 1) {
+            List<Long> route = randomRoute(r);
+            Set<String> segments = new HashSet<>();
+            for (int i = 0; i + 1 < route.size(); i += 1) {
+                segments.add(route.get(i) + " " + route.get(i + 1));
+                segments.add(route.get(i + 1) + " " + route.get(i));
+            }
+            List<double[]> trace = trace(route, r);
+            double[] lons = trace.stream().mapToDouble(p -> p[0]).toArray();
+            double[] lats = trace.stream().mapToDouble(p -> p[1]).toArray();
+
+            List<MapMatcher.Matched> matched = matcher.match(lons, lats);
+            assertEquals(trace.size(), matched.size());
+            for (int i = 0; i < matched.size(); i += 1) {
+                MapMatcher.Matched m = matched.get(i);
+                assertEquals(i, m.index);
+                assertTrue(i == 0 || m.connected);
+                total += 1;
+                if (segments.contains(m.snap.from + " " + m.snap.to)) {
+                    onRoute += 1;
+                }
+            }
+        }
+        assertTrue(onRoute >= 0.95 * total);
+    }
+
+    @Test
+    public void testStreamMatchesBatch() {
+        Random r = new Random(49);
+        MapMatcher matcher = new MapMatcher(graph);
+        for (int trial = 0; trial < 10; trial += 1) {
+            List<double[]> trace = trace(randomRoute(r), r);
+            double[] lons = trace.stream().mapToDouble(p -> p[0]).toArray();
+            double[] lats = trace.stream().mapToDouble(p -> p[1]).toArray();
+            List<MapMatcher.Matched> batch = matcher.match(lons, lats);
+
+            MapMatcher.Stream stream = matcher.stream();
+            List<MapMatcher.Matched> streamed = new ArrayList<>();
+            int decidedEarly = 0;
+            for (int i = 0; i < lons.length; i += 1) {
+                List<MapMatcher.Matched> out = stream.push(lons[i], lats[i]);
+                decidedEarly += out.size();
+                streamed.addAll(out);
+            }
+            streamed.addAll(stream.finish());
+            assertTrue(decidedEarly > 0);
+            assertEquals(batch.size(), streamed.size());
+            for (int i = 0; i < batch.size(); i += 1) {
+                assertEquals(batch.get(i).index, streamed.get(i).index);
+                assertTrue(batch.get(i).snap.sameSegment(streamed.get(i).snap));
+                assertEquals(batch.get(i).path, streamed.get(i).path);
+            }
+        }
+    }
+
+    @Test
+    public void testPointsAwayFromRoads() {
+        MapMatcher matcher = new MapMatcher(graph);
+        double lon = MapServer.ROOT_ULLON - 1;
+        double lat = MapServer.ROOT_ULLAT + 1;
+        assertTrue(matcher.match(new double[]{lon, lon}, new double[]{lat, lat}).isEmpty());
+    }
+
+    /** Returns the route between two random points on the map, with at least two vertices. */
+    @Test
+    public void testBudgetStopsMatching() {
+        /* Alternating between opposite corners makes every step search most of the map. */
+        SegmentIndex.Snap[] corners = {graph.closestSegment(-122.28, 37.83),
+            graph.closestSegment(-122.23, 37.88)};
+        double[] lons = new double[20];
+        double[] lats = new double[20];
+        for (int i = 0; i < lons.length; i += 1) {
+            lons[i] = corners[i % 2].lon;
+            lats[i] = corners[i % 2].lat;
+        }
+        MapMatcher matcher = new MapMatcher(graph);
+        SearchBudget generous = new SearchBudget(Integer.MAX_VALUE, 60_000, () -> false);
+        assertEquals(matcher.match(lons, lats).size(),
+                generous.within(() -> matcher.match(lons, lats)).size());
+        SearchBudget small = new SearchBudget(50, 60_000, () -> false);
+        try {
+            /* A new matcher, since each one keeps the searches it has already run. */
+            small.within(() -> new MapMatcher(graph).match(lons, lats));
+            fail();
+        } catch (SearchBudget.ExceededException e) {
+            assertEquals(SearchBudget.Reason.TOO_MANY_VERTICES, e.reason);
+        }
+    }
+
+    private static List<Long> randomRoute(Random r) {
+        while (true) {
+            double[] p = new double[4];
+            for (int i = 0; i < 4; i += 2) {
+                p[i] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+                p[i + 1] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            }
+            List<Long> route = Router.shortestPath(graph, p[0], p[1], p[2], p[3]);
+            if (route.size() > 2) {
+                return route;
+            }
+        }
+    }
+
+    /** Returns points along the route at every SPACING miles, moved by random GPS noise. */
+    private static List<double[]> trace(List<Long> route, Random r) {
+        List<double[]> points = new ArrayList<>();
+        double start = 0;
+        double next = 0;
+        for (int i = 0; i + 1 < route.size(); i += 1) {
+            long v = route.get(i);
+            long w = route.get(i + 1);
+            double length = GraphDB.distance(graph.lon(v), graph.lat(v), graph.lon(w),
+                    graph.lat(w));
+            for (; next < start + length; next += SPACING) {
+                double t = (next - start) / length;
+                double lon = graph.lon(v) + t * (graph.lon(w) - graph.lon(v));
+                double lat = graph.lat(v) + t * (graph.lat(w) - graph.lat(v));
+                /* A degree of latitude is about 69 miles, and of longitude about 54 here. */
+                points.add(new double[]{lon + r.nextGaussian() * NOISE / 54,
+                    lat + r.nextGaussian() * NOISE / 69});
+            }
+            start += length;
+        }
+        return points;
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for finding the nearest places by road, against the costs of every place found by a full
+ * Dijkstra search.
+ */
+public class TestPointsOfInterest {
+    private static final int NUM_PLACES = SyntheticMaps.SHARED_PLACES;
+    private static final int NUM_QUERIES = 50;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testPlacesAreKept() {
+        PointsOfInterest pois = graph.pointsOfInterest();
+        assertEquals(NUM_PLACES, pois.size());
+        int fuel = 0;
+        for (int i = 0; i < pois.size(); i += 1) {
+            assertTrue(pois.names[i].startsWith("Place "));
+            if ("fuel".equals(pois.amenities[i])) {
+                fuel += 1;
+            }
+        }
+        assertEquals(NUM_PLACES / 2, fuel);
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        Random r = new Random(46);
+        for (Profile profile : new Profile[]{Profile.DISTANCE, Profile.CAR}) {
+            for (int q = 0; q < NUM_QUERIES; q += 1) {
+                double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+                double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+                String amenity = q % 3 == 0 ? null : "fuel";
+                int k = 1 + r.nextInt(8);
+                double radius = q % 2 == 0 ? 50 : 0.5;
+
+                double[] expected = costs(profile, lon, lat, amenity, radius);
+                List<PointsOfInterest.Found> found = graph.pointsOfInterest().nearest(graph, lon,
+                        lat, k, amenity, profile, radius);
+                assertEquals(Math.min(k, expected.length), found.size());
+                for (int i = 0; i < found.size(); i += 1) {
+                    PointsOfInterest.Found f = found.get(i);
+                    assertEquals(expected[i], f.cost, 1e-9);
+                    assertTrue(amenity == null
+                            || amenity.equals(graph.pointsOfInterest().amenities[f.place]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoPlaces() {
+        assertTrue(graph.pointsOfInterest().nearest(graph, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, 5, "hospital", Profile.DISTANCE, 50).isEmpty());
+        assertTrue(graph.pointsOfInterest().nearest(graph, MapServer.ROOT_ULLON,
+                MapServer.ROOT_LRLAT, 0, null, Profile.DISTANCE, 50).isEmpty());
+    }
+
+    /**
+     * Returns the sorted costs of reaching every reachable place with the amenity whose snapped
+     * point is within the radius of the snapped start, by a full Dijkstra search.
+     */
+    private static double[] costs(Profile profile, double lon, double lat, String amenity,
+                                  double radius) {
+        RoutingGraph rg = graph.routingGraph(profile);
+        SegmentIndex.Snap start = graph.closestSegment(lon, lat);
+        double[] dist = new double[rg.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(rg.size());
+        for (long id : start.ends()) {
+            int s = rg.number(id);
+            dist[s] = Math.min(dist[s], rg.snapCost(s, start));
+            fringe.push(s, dist[s]);
+        }
+        while (!fringe.isEmpty()) {
+            int v = fringe.pop();
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                int w = rg.edgeTo[e];
+                if (dist[v] + rg.edgeWeight[e] < dist[w]) {
+                    dist[w] = dist[v] + rg.edgeWeight[e];
+                    fringe.push(w, dist[w]);
+                }
+            }
+        }
+
+        PointsOfInterest pois = graph.pointsOfInterest();
+        List<Double> costs = new ArrayList<>();
+        for (int i = 0; i < pois.size(); i += 1) {
+            SegmentIndex.Snap snap = graph.closestSegment(pois.lons[i], pois.lats[i]);
+            if (amenity != null && !amenity.equals(pois.amenities[i])
+                    || GraphDB.distance(start.lon, start.lat, snap.lon, snap.lat) > radius) {
+                continue;
+            }
+            double cost = Double.POSITIVE_INFINITY;
+            if (start.sameSegment(snap)) {
+                int v = rg.number(snap.from);
+                cost = Math.abs(rg.snapCost(v, snap) - rg.snapCost(v, start));
+            }
+            for (long id : snap.ends()) {
+                int v = rg.number(id);
+                cost = Math.min(cost, dist[v] + rg.snapCost(v, snap));
+            }
+            if (cost < Double.POSITIVE_INFINITY) {
+                costs.add(cost);
+            }
+        }
+        return costs.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+    }
+}
@@ -0,0 +1,203 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for routing profiles: parsing speed limits, the cost of each kind of road, and routes
+ * that are fastest rather than shortest, from points snapped onto roads open to the profile.
+ */
+public class TestProfiles {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+
+    @Test
+    public void testParseSpeed() {
+        assertEquals(25, Edge.parseSpeed("25 mph"), 1e-9);
+        assertEquals(50 * 0.621371, Edge.parseSpeed("50"), 1e-9);
+        assertEquals(50 * 0.621371, Edge.parseSpeed("50 km/h"), 1e-9);
+        assertEquals(10 * 1.150779, Edge.parseSpeed("10 knots"), 1e-9);
+        assertTrue(Double.isNaN(Edge.parseSpeed("none")));
+        assertTrue(Double.isNaN(Edge.parseSpeed("US:urban")));
+        assertTrue(Double.isNaN(Edge.parseSpeed(null)));
+    }
+
+    @Test
+    public void testCostPerMile() {
+        int residential = Profile.roadClass("residential");
+        int motorway = Profile.roadClass("motorway");
+        assertEquals(0, Profile.roadClass("footway"));
+        assertEquals(1, Profile.DISTANCE.costPerMile(motorway, 65), 0);
+        assertEquals(3600.0 / 25, Profile.CAR.costPerMile(residential, Double.NaN), 1e-9);
+        assertEquals(3600.0 / 35, Profile.CAR.costPerMile(residential, 35), 1e-9);
+        assertEquals(3600.0 / 12, Profile.BIKE.costPerMile(residential, 35), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, Profile.WALK.costPerMile(motorway, 65), 0);
+    }
+
+    @Test
+    public void testModesAgreeOnTravelTime() {
+        GraphDB g = new GraphDB(OSM_DB_PATH_SMALL);
+        RoutingGraph rg = g.routingGraph(Profile.CAR);
+        Random r = new Random(40);
+        for (int i = 0; i < 100; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            SegmentIndex.Snap start = g.closestSegment(stlon, stlat);
+            SegmentIndex.Snap goal = g.closestSegment(destlon, destlat);
+            if (start.sameSegment(goal)) {
+                continue;
+            }
+            double expected = cost(rg, start, goal, Router.shortestPath(g, stlon, stlat,
+                    destlon, destlat, Router.Mode.UNIDIRECTIONAL, Profile.CAR));
+            for (Router.Mode mode : Arrays.asList(Router.Mode.BIDIRECTIONAL, Router.Mode.ALT)) {
+                double actual = cost(rg, start, goal, Router.shortestPath(g, stlon, stlat,
+                        destlon, destlat, mode, Profile.CAR));
+                assertEquals(expected, actual, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testWalkingAvoidsMotorways() throws Exception {
+        /*
+         * A motorway runs straight from 1 to 3, and residential streets go around it through 2.
+         * Residential spurs lead west from 1 to 4 and east from 3 to 5.
+         */
+        File file = tempMap("motorway.osm.xml");
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\">");
+            out.println("  <node id=\"1\" lat=\"37.85\" lon=\"-122.28\"/>");
+            out.println("  <node id=\"2\" lat=\"37.86\" lon=\"-122.27\"/>");
+            out.println("  <node id=\"3\" lat=\"37.85\" lon=\"-122.26\"/>");
+            out.println("  <node id=\"4\" lat=\"37.85\" lon=\"-122.29\"/>");
+            out.println("  <node id=\"5\" lat=\"37.85\" lon=\"-122.25\"/>");
+            way(out, 1, "motorway", 1, 3);
+            way(out, 2, "residential", 1, 2);
+            way(out, 3, "residential", 2, 3);
+            way(out, 4, "residential", 4, 1);
+            way(out, 5, "residential", 3, 5);
+            out.println("</osm>");
+        }
+        GraphDB g = new GraphDB(file.getPath());
+        /* Routes run from the end of the start's spur to the end of the goal's. */
+        assertEquals(List.of(1L, 3L), Router.shortestPath(g, -122.285, 37.8501,
+                -122.255, 37.8501, Router.Mode.UNIDIRECTIONAL, Profile.CAR));
+        assertEquals(List.of(1L, 2L, 3L), Router.shortestPath(g, -122.285, 37.8501,
+                -122.255, 37.8501, Router.Mode.UNIDIRECTIONAL, Profile.WALK));
+        assertEquals(8, g.routingGraph(Profile.WALK).edgeTo.length);
+        assertEquals(10, g.routingGraph(Profile.CAR).edgeTo.length);
+
+        /* Both ends on the motorway: cars follow it, but walkers may not take the shortcut. */
+        SegmentIndex.Snap start = g.closestSegment(-122.275, 37.8499);
+        SegmentIndex.Snap goal = g.closestSegment(-122.265, 37.8499);
+        assertTrue(start.sameSegment(goal));
+        assertEquals(List.of(1L, 3L), Router.shortestPath(g, start, goal,
+                Router.Mode.UNIDIRECTIONAL, Profile.CAR));
+        RoutingGraph walk = g.routingGraph(Profile.WALK);
+        for (Router.Mode mode : Router.Mode.values()) {
+            List<Long> route = Router.shortestPath(g, start, goal, mode, Profile.WALK);
+            assertNotEquals(List.of(1L, 3L), route);
+            assertEquals(g.hubLabels(Profile.WALK).distance(start, goal),
+                    cost(walk, start, goal, route), 1e-6);
+        }
+    }
+
+    @Test
+    public void testWalkersSnapOffMotorways() throws Exception {
+        /*
+         * A motorway runs from 1 through 6 and 7 to 3, and only the motorway reaches 6 and 7.
+         * Residential streets go around it through 2, with spurs west to 4 and east to 5.
+         */
+        File file = tempMap("motorway-middle.osm.xml");
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\">");
+            out.println("  <node id=\"1\" lat=\"37.85\" lon=\"-122.28\"/>");
+            out.println("  <node id=\"2\" lat=\"37.86\" lon=\"-122.27\"/>");
+            out.println("  <node id=\"3\" lat=\"37.85\" lon=\"-122.26\"/>");
+            out.println("  <node id=\"4\" lat=\"37.85\" lon=\"-122.29\"/>");
+            out.println("  <node id=\"5\" lat=\"37.85\" lon=\"-122.25\"/>");
+            out.println("  <node id=\"6\" lat=\"37.85\" lon=\"-122.274\"/>");
+            out.println("  <node id=\"7\" lat=\"37.85\" lon=\"-122.266\"/>");
+            way(out, 1, "motorway", 1, 6);
+            way(out, 2, "motorway", 6, 7);
+            way(out, 3, "motorway", 7, 3);
+            way(out, 4, "residential", 1, 2);
+            way(out, 5, "residential", 2, 3);
+            way(out, 6, "residential", 4, 1);
+            way(out, 7, "residential", 3, 5);
+            out.println("</osm>");
+        }
+        GraphDB g = new GraphDB(file.getPath());
+        /* Right beside the middle of the motorway, whose ends are closed to walkers. */
+        double lon = -122.27;
+        double lat = 37.8499;
+        SegmentIndex.Snap anyRoad = g.closestSegment(lon, lat);
+        assertTrue(anyRoad.sameSegment(g.closestSegment(-122.27, 37.85)));
+        assertEquals(anyRoad.distance, g.closestSegment(lon, lat, Profile.CAR).distance, 0);
+
+        SegmentIndex.Snap walkable = g.closestSegment(lon, lat, Profile.WALK);
+        assertTrue(g.routingGraph(Profile.WALK).isOpen(walkable.from, walkable.to));
+        assertTrue(walkable.from == 2 || walkable.to == 2);
+        for (Router.Mode mode : Router.Mode.values()) {
+            List<Long> route = Router.shortestPath(g, lon, lat, -122.255, 37.8501, mode,
+                    Profile.WALK);
+            assertFalse(mode.name(), route.isEmpty());
+            assertTrue(mode.name(), !route.contains(6L) && !route.contains(7L));
+        }
+        RouteCache cache = new RouteCache(10, 1000, () -> 0);
+        RouteCache.Entry entry = cache.route(g, lon, lat, -122.255, 37.8501, Profile.WALK,
+                List::toString);
+        assertEquals(Router.shortestPath(g, lon, lat, -122.255, 37.8501,
+                Router.defaultMode(), Profile.WALK), entry.route);
+    }
+
+    /** Returns a new temporary file for an OSM map, deleted when the JVM exits. */
+    private static File tempMap(String name) throws Exception {
+        File dir = Files.createTempDirectory("bearmaps").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void way(PrintWriter out, long id, String highway, long from, long to) {
+        out.println("  <way id=\"" + id + "\">");
+        out.println("    <nd ref=\"" + from + "\"/>");
+        out.println("    <nd ref=\"" + to + "\"/>");
+        out.println("    <tag k=\"highway\" v=\"" + highway + "\"/>");
+        out.println("  </way>");
+    }
+
+    /** Returns the cost of a route in a graph's weights, including the partial roads. */
+    private static double cost(RoutingGraph rg, SegmentIndex.Snap start, SegmentIndex.Snap goal,
+                               List<Long> route) {
+        int first = rg.number(route.get(0));
+        int last = rg.number(route.get(route.size() - 1));
+        double total = rg.snapCost(first, start) + rg.snapCost(last, goal);
+        for (int i = 1; i < route.size(); i += 1) {
+            int v = rg.number(route.get(i - 1));
+            int w = rg.number(route.get(i));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = rg.edgeStart[v]; e < rg.edgeStart[v + 1]; e += 1) {
+                if (rg.edgeTo[e] == w) {
+                    best = Math.min(best, rg.edgeWeight[e]);
+                }
+            }
+            total += best;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the route cache: hits on points that snap to the same place, least recently used
+ * eviction, expiry, invalidation when the graph changes, and pairs with no route.
+ */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static GraphDB graph;
+    private long now;
+
+    @Before
+    public void setUp() {
+        if (graph == null) {
+            graph = new GraphDB(OSM_DB_PATH_SMALL);
+        }
+        now = 0;
+    }
+
+    @Test
+    public void testHitsAndEviction() {
+        RouteCache cache = new RouteCache(2, 1000, () -> now);
+        RouteCache.Entry first = route(cache, 0);
+        assertEquals(Router.shortestPath(graph, -122.27, 37.86, -122.25, 37.87), first.route);
+        assertSame(first, route(cache, 0));
+        RouteCache.Entry second = route(cache, 1);
+        assertSame(first, route(cache, 0));
+        route(cache, 2);
+        /* Pair 0 was used after pair 1, so pair 1 was evicted for pair 2. */
+        assertSame(first, route(cache, 0));
+        assertNotSame(second, route(cache, 1));
+        assertEquals(4, cache.misses());
+        assertEquals(3, cache.hits());
+        assertEquals(2, cache.evictions());
+        assertEquals(2, cache.size());
+        assertEquals(3.0 / 7, cache.hitRate(), 1e-12);
+    }
+
+    @Test
+    public void testNearbyPointsShareEntries() {
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        double[][] near = new double[2][];
+        for (int end = 0; end < 2; end += 1) {
+            SegmentIndex.Snap snap = end == 0 ? graph.closestSegment(-122.27, 37.86)
+                    : graph.closestSegment(-122.25, 37.87);
+            /* Two points a little apart on the same stretch of the same road. */
+            int bucket = Math.min(RouteCache.FRACTION_BUCKETS - 1,
+                    (int) (snap.fraction * RouteCache.FRACTION_BUCKETS));
+            double[] fractions = {(bucket + 0.3) / RouteCache.FRACTION_BUCKETS,
+                (bucket + 0.7) / RouteCache.FRACTION_BUCKETS};
+            near[end] = new double[4];
+            for (int i = 0; i < 2; i += 1) {
+                double f = fractions[i];
+                near[end][2 * i] = graph.lon(snap.from) + f * (graph.lon(snap.to)
+                        - graph.lon(snap.from));
+                near[end][2 * i + 1] = graph.lat(snap.from) + f * (graph.lat(snap.to)
+                        - graph.lat(snap.from));
+            }
+        }
+        RouteCache.Entry first = cache.route(graph, near[0][0], near[0][1], near[1][0],
+                near[1][1], Profile.DISTANCE, List::toString);
+        RouteCache.Entry second = cache.route(graph, near[0][2], near[0][3], near[1][2],
+                near[1][3], Profile.DISTANCE, List::toString);
+        assertTrue(graph.closestSegment(near[0][0], near[0][1]).fraction
+                != graph.closestSegment(near[0][2], near[0][3]).fraction);
+        assertSame(first, second);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void testExpiry() {
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        RouteCache.Entry first = route(cache, 0);
+        now += 999_999_999L;
+        assertSame(first, route(cache, 0));
+        now += 1;
+        assertNotSame(first, route(cache, 0));
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testInvalidation() {
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        RouteCache.Entry first = route(cache, 0);
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        RouteCache.Entry second = route(cache, 0);
+        assertNotSame(first, second);
+
+        /* Changing the graph's vertices drops the entries computed on the old roads. */
+        GraphDB other = new GraphDB(OSM_DB_PATH_SMALL, SpatialIndex.Type.DYNAMIC);
+        RouteCache.Entry third = route(cache, other, 0);
+        assertNotSame(second, third);
+        other.addVertex(new Node(-1, 37.0, -122.0));
+        assertNotSame(third, route(cache, other, 0));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testUnreachablePair() throws Exception {
+        /* With most roads missing, the grid falls apart into pieces with no path between. */
+        GraphDB broken = new GraphDB(SyntheticMaps.grid(10, 10, 0.7, 1).getPath());
+        Random r = new Random(39);
+        RouteCache cache = new RouteCache(10, 1000, () -> now);
+        for (int i = 0; i < 100; i += 1) {
+            double stlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double stlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            double destlon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double destlat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            if (!Router.shortestPath(broken, stlon, stlat, destlon, destlat).isEmpty()) {
+                continue;
+            }
+            RouteCache.Entry entry = cache.route(broken, stlon, stlat, destlon, destlat,
+                    Profile.DISTANCE, route -> Router.routeDirections(broken, route).toString());
+            assertTrue(entry.route.isEmpty());
+            assertEquals("", entry.directions);
+            return;
+        }
+        fail("no unreachable pair");
+    }
+
+    private RouteCache.Entry route(RouteCache cache, int pair) {
+        return route(cache, graph, pair);
+    }
+
+    private static RouteCache.Entry route(RouteCache cache, GraphDB g, int pair) {
+        double d = 0.01 * pair;
+        return cache.route(g, -122.27 + d, 37.86, -122.25, 37.87 - d, Profile.DISTANCE,
+                List::toString);
+    }
+}
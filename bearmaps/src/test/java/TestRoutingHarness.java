@@ -0,0 +1,57 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that every routing engine finds routes as cheap as a plain Dijkstra search, for random
+ * pairs on a synthetic map, under every profile.
+ */
+public class TestRoutingHarness {
+    private static final int NUM_PAIRS = 200;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testEnginesMatchDijkstra() {
+        double[][] pairs = RoutingHarness.randomPairs(graph, NUM_PAIRS, new Random(50));
+        for (Profile profile : new Profile[]{Profile.DISTANCE, Profile.CAR}) {
+            List<RoutingHarness.Result> results = RoutingHarness.compare(graph, profile, pairs);
+            assertEquals(Router.Mode.values().length + 2, results.size());
+            assertEquals(RoutingHarness.REFERENCE, results.get(0).engine);
+            assertTrue(results.get(0).settled[NUM_PAIRS - 1] > 0);
+            for (RoutingHarness.Result r : results) {
+                assertEquals(r.engine + ": " + r.examples, 0, r.mismatches);
+                assertEquals(NUM_PAIRS, r.nanos.length);
+            }
+        }
+    }
+
+    @Test
+    public void testPathCostRejectsBrokenRoutes() {
+        RoutingGraph rg = graph.routingGraph(Profile.DISTANCE);
+        double[][] pairs = RoutingHarness.randomPairs(graph, 20, new Random(51));
+        for (double[] p : pairs) {
+            SegmentIndex.Snap s = graph.closestSegment(p[0], p[1]);
+            SegmentIndex.Snap t = graph.closestSegment(p[2], p[3]);
+            List<Long> route = Router.shortestPath(graph, s, t, Router.defaultMode(),
+                    Profile.DISTANCE);
+            if (s.sameSegment(t) || route.size() < 3) {
+                continue;
+            }
+            assertEquals(RoutingHarness.dijkstra(rg, s, t),
+                    RoutingHarness.pathCost(rg, s, t, route), 1e-9);
+            route.remove(route.size() / 2);
+            assertTrue(RoutingHarness.pathCost(rg, s, t, route)
+                    > RoutingHarness.dijkstra(rg, s, t) + 1e-9);
+        }
+    }
+}
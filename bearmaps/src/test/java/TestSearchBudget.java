@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for search budgets: a search that runs out of vertices, time or interest is abandoned in
+ * every routing mode, a generous budget does not change the route, and a distance matrix spends
+ * one budget on all of its worker threads.
+ */
+public class TestSearchBudget {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final GraphDB GRAPH = new GraphDB(OSM_DB_PATH_SMALL);
+    /** Two points at opposite corners of the map, so every search settles several vertices. */
+    private static final double[] FAR = {-122.2955, 37.8885, -122.2215, 37.8266};
+
+    @Test
+    public void testGenerousBudgetKeepsRoute() {
+        for (Router.Mode mode : Router.Mode.values()) {
+            List<Long> expected = route(mode);
+            assertFalse(expected.isEmpty());
+            SearchBudget budget = new SearchBudget(Integer.MAX_VALUE, 60_000, () -> false);
+            assertEquals(mode.name(), expected, budget.within(() -> route(mode)));
+        }
+    }
+
+    @Test
+    public void testTooManyVertices() {
+        for (Router.Mode mode : Router.Mode.values()) {
+            assertAborted(mode, new SearchBudget(2, 60_000, () -> false),
+                    SearchBudget.Reason.TOO_MANY_VERTICES);
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+        for (Router.Mode mode : Router.Mode.values()) {
+            assertAborted(mode, new SearchBudget(Integer.MAX_VALUE, -1, () -> false),
+                    SearchBudget.Reason.DEADLINE);
+        }
+    }
+
+    @Test
+    public void testCancelled() {
+        for (Router.Mode mode : Router.Mode.values()) {
+            assertAborted(mode, new SearchBudget(Integer.MAX_VALUE, 60_000, () -> true),
+                    SearchBudget.Reason.CANCELLED);
+        }
+    }
+
+    @Test
+    public void testBudgetEndsWithQuery() {
+        SearchBudget budget = new SearchBudget(2, 60_000, () -> false);
+        budget.within(() -> null);
+        assertFalse(route(Router.Mode.UNIDIRECTIONAL).isEmpty());
+    }
+
+    @Test
+    public void testMatrixCarriesBudget() {
+        double[] lons = new double[40];
+        double[] lats = new double[40];
+        for (int i = 0; i < lons.length; i += 1) {
+            lons[i] = FAR[0] + (FAR[2] - FAR[0]) * i / lons.length;
+            lats[i] = FAR[1] + (FAR[3] - FAR[1]) * i / lons.length;
+        }
+        /* Every row's search looks at the cancellation check when it settles its first vertex. */
+        AtomicInteger checks = new AtomicInteger();
+        SearchBudget budget = new SearchBudget(Integer.MAX_VALUE, 60_000, () -> {
+            checks.incrementAndGet();
+            return false;
+        });
+        budget.within(() -> DistanceMatrix.distances(GRAPH, lons, lats, lons, lats));
+        assertTrue(checks.get() >= lons.length);
+    }
+
+    private static void assertAborted(Router.Mode mode, SearchBudget budget,
+                                      SearchBudget.Reason reason) {
+        try {
+            budget.within(() -> route(mode));
+            fail(mode.name());
+        } catch (SearchBudget.ExceededException e) {
+            assertEquals(mode.name(), reason, e.reason);
+        }
+    }
+
+    private static List<Long> route(Router.Mode mode) {
+        return Router.shortestPath(GRAPH, FAR[0], FAR[1], FAR[2], FAR[3], mode);
+    }
+}
@@ -0,0 +1,164 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for snapping points onto road segments, and routing from points in the middle of a road.
+ */
+public class TestSegmentSnap {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static GraphDB graphSmall;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphSmall = new GraphDB(OSM_DB_PATH_SMALL);
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testSnapMidRoad() {
+        SegmentIndex.Snap snap = graphTiny.closestSegment(-122.265, 37.8301);
+        assertTrue(snap.sameSegment(new SegmentIndex.Snap(11, 41, 0, 0, 0, 0)));
+        assertEquals(0.5, snap.fractionFrom(11), 0.01);
+        assertEquals(37.83, snap.lat, 1e-9);
+    }
+
+    @Test
+    public void testSnapMatchesBruteForce() {
+        Random r = new Random(27);
+        for (int i = 0; i < 2000; i += 1) {
+            double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            SegmentIndex.Snap snap = graphSmall.closestSegment(lon, lat);
+            assertEquals(bruteForce(graphSmall, lon, lat), snap.distance, 1e-12);
+        }
+    }
+
+    @Test
+    public void testRouteFromMiddleOfRoad() {
+        /* Halfway between 22 and 46, heading to 66: continue on to 46 instead of backtracking. */
+        List<Long> actual = Router.shortestPath(graphTiny, -122.26, 37.86, -122.23, 37.88);
+        List<Long> expected = new ArrayList<>();
+        expected.add(46L);
+        expected.add(66L);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testRouteAlongOneRoad() {
+        List<Long> actual = Router.shortestPath(graphTiny, -122.262, 37.83, -122.275, 37.83);
+        List<Long> expected = new ArrayList<>();
+        expected.add(41L);
+        expected.add(11L);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testVerticesAndSegmentsInBox() {
+        double ullon = -122.265, ullat = 37.875, lrlon = -122.235, lrlat = 37.835;
+        Set<Long> expected = new HashSet<>();
+        for (long v : graphTiny.vertices()) {
+            if (graphTiny.lon(v) >= ullon && graphTiny.lon(v) <= lrlon
+                    && graphTiny.lat(v) <= ullat && graphTiny.lat(v) >= lrlat) {
+                expected.add(v);
+            }
+        }
+        assertEquals(expected, new HashSet<>(graphTiny.verticesInBox(ullon, ullat, lrlon, lrlat)));
+        assertEquals(Set.of(55L), expected);
+
+        /* Every road touching 55 crosses the box, and so does 22-46. */
+        Set<Set<Long>> segments = new HashSet<>();
+        for (long[] s : graphTiny.segmentsInBox(ullon, ullat, lrlon, lrlat)) {
+            segments.add(Set.of(s[0], s[1]));
+        }
+        assertTrue(segments.contains(Set.of(22L, 55L)));
+        assertTrue(segments.contains(Set.of(55L, 63L)));
+        assertTrue(segments.contains(Set.of(22L, 46L)));
+        assertTrue(!segments.contains(Set.of(46L, 66L)));
+    }
+
+    @Test
+    public void testSnapTableMatchesIndex() {
+        SegmentIndex si = graphSmall.segmentIndex();
+        double cell = 0.02 / 3963;
+        checkTable(new SegmentSnapTable(si, cell, Long.MAX_VALUE, false), new Random(31));
+        SegmentSnapTable eager = new SegmentSnapTable(si, cell, Long.MAX_VALUE, true);
+        assertTrue(eager.usedBytes() > 0);
+        checkTable(eager, new Random(32));
+
+        /* A table that is out of memory answers from the index. */
+        SegmentSnapTable capped = new SegmentSnapTable(si, cell, 1 << 16, true);
+        assertTrue(capped.usedBytes() <= 1 << 16);
+        checkTable(capped, new Random(33));
+    }
+
+    @Test
+    public void testSnapTableAfterUpdates() throws Exception {
+        GraphDB g = new GraphDB(OSM_DB_PATH_SMALL, SpatialIndex.Type.DYNAMIC);
+        g.enableSnapTable(0.02, Long.MAX_VALUE, false);
+        Random r = new Random(34);
+        List<Long> vertices = new ArrayList<>();
+        g.vertices().forEach(vertices::add);
+        for (int i = 0; i < 20; i += 1) {
+            g.removeVertex(vertices.get(r.nextInt(vertices.size())));
+        }
+        /* The table is built again over the new roads, so snaps match a scan of them. */
+        for (int i = 0; i < 500; i += 1) {
+            double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            assertEquals(bruteForce(g, lon, lat), g.closestSegment(lon, lat).distance, 1e-12);
+        }
+    }
+
+    /** Checks that the table snaps random points, some off the map, as far as the index does. */
+    private static void checkTable(SegmentSnapTable table, Random r) {
+        for (int i = 0; i < 20000; i += 1) {
+            double lon = MapServer.ROOT_ULLON + (1.2 * r.nextDouble() - 0.1)
+                    * MapServer.ROOT_LON_DELTA;
+            double lat = MapServer.ROOT_LRLAT + (1.2 * r.nextDouble() - 0.1)
+                    * MapServer.ROOT_LAT_DELTA;
+            double x = GraphDB.projectToX(lon, lat);
+            double y = GraphDB.projectToY(lon, lat);
+            assertEquals(table.index.nearest(x, y).distance, table.nearest(x, y).distance, 0);
+        }
+    }
+
+    private static double bruteForce(GraphDB g, double lon, double lat) {
+        double x = GraphDB.projectToX(lon, lat);
+        double y = GraphDB.projectToY(lon, lat);
+        double best = Double.MAX_VALUE;
+        for (long v : g.vertices()) {
+            for (long w : g.adjacent(v)) {
+                if (!g.vertexMap.containsKey(w)) {
+                    continue;
+                }
+                double ax = GraphDB.projectToX(g.lon(v), g.lat(v));
+                double ay = GraphDB.projectToY(g.lon(v), g.lat(v));
+                double bx = GraphDB.projectToX(g.lon(w), g.lat(w));
+                double by = GraphDB.projectToY(g.lon(w), g.lat(w));
+                double dx = bx - ax;
+                double dy = by - ay;
+                double t = ((x - ax) * dx + (y - ay) * dy) / (dx * dx + dy * dy);
+                t = Math.max(0, Math.min(1, t));
+                best = Math.min(best, KDTree.euclidean(x, y, ax + t * dx, ay + t * dy));
+            }
+        }
+        return best;
+    }
+}
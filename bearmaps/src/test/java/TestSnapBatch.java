@@ -0,0 +1,61 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the batch <code>GraphDB.closest</code> agrees with snapping one point at a time.
+ */
+public class TestSnapBatch {
+    private static final String OSM_DB_PATH_SMALL =
+            "../library-su18/bearmaps/berkeley-2018-small.osm.xml";
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+    private static final int NUM_POINTS = 10000;
+    private static GraphDB graphSmall;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphSmall = new GraphDB(OSM_DB_PATH_SMALL);
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testBatchMatchesSingle() {
+        checkBatch(graphSmall, new Random(61));
+        checkBatch(graphTiny, new Random(62));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertEquals(0, graphSmall.closest(new double[0], new double[0]).length);
+    }
+
+    private static void checkBatch(GraphDB g, Random r) {
+        double[] lons = new double[NUM_POINTS];
+        double[] lats = new double[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i += 1) {
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        long[] actual = g.closest(lons, lats);
+        for (int i = 0; i < NUM_POINTS; i += 1) {
+            long expected = g.closest(lons[i], lats[i]);
+            /* Ties may be broken differently, so compare how far away the answers are. */
+            assertEquals(projectedDistance(g, lons[i], lats[i], expected),
+                    projectedDistance(g, lons[i], lats[i], actual[i]), 1e-12);
+        }
+    }
+
+    private static double projectedDistance(GraphDB g, double lon, double lat, long v) {
+        return KDTree.euclidean(GraphDB.projectToX(lon, lat), GraphDB.projectToY(lon, lat),
+                GraphDB.projectToX(g.lon(v), g.lat(v)), GraphDB.projectToY(g.lon(v), g.lat(v)));
+    }
+}
@@ -0,0 +1,331 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks every kind of <code>SpatialIndex</code> against a linear scan over the same points.
+ */
+public class TestSpatialIndex {
+    private static final int NUM_QUERIES = 5000;
+
+    @Test
+    public void testNearestMatchesLinearScan() {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(20000, new Random(28));
+        Queries queries = new Queries(nodes, new Random(61));
+        for (SpatialIndex.Type type : SpatialIndex.Type.values()) {
+            checkNearest(SpatialIndex.create(type, nodes), queries);
+        }
+    }
+
+    @Test
+    public void testDegenerateInputs() {
+        for (SpatialIndex.Type type : SpatialIndex.Type.values()) {
+            SpatialIndex empty = SpatialIndex.create(type, new ArrayList<>());
+            assertTrue(empty.isEmpty());
+            assertEquals(0, empty.nearest(0, 0));
+
+            /* Points on one line give the grid a zero-height bounding box. */
+            List<Node> line = new ArrayList<>();
+            for (int i = 0; i < 100; i += 1) {
+                line.add(new Node(i + 1, 37.87, MapServer.ROOT_ULLON + i * 0.0005));
+            }
+            checkNearest(SpatialIndex.create(type, line), line, new Random(62));
+        }
+    }
+
+    @Test
+    public void testRangeMatchesLinearScan() {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(20000, new Random(29));
+        Random r = new Random(63);
+        for (SpatialIndex.Type type : SpatialIndex.Type.values()) {
+            SpatialIndex index = SpatialIndex.create(type, nodes);
+            for (int i = 0; i < 200; i += 1) {
+                double x1 = GraphDB.projectToX(MapServer.ROOT_ULLON, 37.85) * r.nextDouble();
+                double x2 = GraphDB.projectToX(MapServer.ROOT_LRLON, 37.85) * r.nextDouble();
+                double y1 = GraphDB.projectToY(-122.25, MapServer.ROOT_LRLAT) * r.nextDouble();
+                double y2 = GraphDB.projectToY(-122.25, MapServer.ROOT_ULLAT) * r.nextDouble();
+                List<Long> actual = new ArrayList<>();
+                index.range(x1, y1, x2, y2, actual);
+                Set<Long> expected = new HashSet<>();
+                for (Node n : nodes) {
+                    double x = GraphDB.projectToX(n.nodeLon, n.nodeLat);
+                    double y = GraphDB.projectToY(n.nodeLon, n.nodeLat);
+                    if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
+                        expected.add(n.nodeID);
+                    }
+                }
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected, new HashSet<>(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testDynamicInsertAndRemove() {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(3000, new Random(30));
+        SpatialIndex index = SpatialIndex.create(SpatialIndex.Type.DYNAMIC,
+                new ArrayList<>(nodes.subList(0, 1000)));
+        List<Node> live = new ArrayList<>(nodes.subList(0, 1000));
+        Random r = new Random(64);
+        for (Node n : nodes.subList(1000, 3000)) {
+            index.insert(n.nodeID, GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                    GraphDB.projectToY(n.nodeLon, n.nodeLat));
+            live.add(n);
+            if (r.nextDouble() < 0.6) {
+                Node victim = live.remove(r.nextInt(live.size()));
+                assertTrue(index.remove(victim.nodeID));
+                assertTrue(!index.remove(victim.nodeID));
+            }
+        }
+        checkNearest(index, live, new Random(65));
+        assertEquals(live.size(), ((DynamicSpatialIndex) index).ids().size());
+    }
+
+    @Test
+    public void testDynamicQueriesDuringUpdates() throws Exception {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(4000, new Random(31));
+        SpatialIndex index = SpatialIndex.create(SpatialIndex.Type.DYNAMIC,
+                new ArrayList<>(nodes.subList(0, 2000)));
+        Set<Long> everInserted = new HashSet<>();
+        for (Node n : nodes) {
+            everInserted.add(n.nodeID);
+        }
+        Thread writer = new Thread(() -> {
+            for (Node n : nodes.subList(2000, 4000)) {
+                index.insert(n.nodeID, GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                        GraphDB.projectToY(n.nodeLon, n.nodeLat));
+                index.remove(n.nodeID - 2000);
+            }
+        });
+        writer.start();
+        Random r = new Random(66);
+        while (writer.isAlive()) {
+            long id = index.nearest(r.nextDouble() * 2 - 1, r.nextDouble() * 2 - 1);
+            assertTrue(everInserted.contains(id));
+        }
+        writer.join();
+        checkNearest(index, nodes.subList(2000, 4000), new Random(67));
+    }
+
+    @Test
+    public void testDynamicMovesStayVisible() throws Exception {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(1000, new Random(33));
+        SpatialIndex index = SpatialIndex.create(SpatialIndex.Type.DYNAMIC, nodes);
+        Thread writer = new Thread(() -> {
+            Random r = new Random(69);
+            for (int i = 0; i < 5000; i += 1) {
+                Node n = nodes.get(r.nextInt(nodes.size()));
+                index.insert(n.nodeID, r.nextDouble() * 2 - 1, r.nextDouble() * 2 - 1);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            Set<Long> found = new HashSet<>();
+            List<Long> all = new ArrayList<>();
+            index.range(-2, -2, 2, 2, all);
+            found.addAll(all);
+            assertEquals(nodes.size(), found.size());
+        }
+        writer.join();
+        assertEquals(nodes.size(), ((DynamicSpatialIndex) index).ids().size());
+    }
+
+    @Test
+    public void testGraphVertexUpdates() throws Exception {
+        String path = SyntheticMaps.grid(10, 10, 0, 30).getPath();
+        GraphDB fixed = new GraphDB(path);
+        int before = fixed.vertexMap.size();
+        try {
+            fixed.addVertex(new Node(-1, 37.87, -122.25));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(before, fixed.vertexMap.size());
+        }
+
+        GraphDB g = new GraphDB(path, SpatialIndex.Type.DYNAMIC);
+        PointsOfInterest pois = g.pointsOfInterest();
+        long v = g.closest(-122.25, 37.87);
+        double lon = g.lon(v);
+        double lat = g.lat(v);
+        g.removeVertex(v);
+        SegmentIndex.Snap snap = g.closestSegment(lon, lat);
+        assertTrue(snap.from != v && snap.to != v);
+        assertTrue(!Router.shortestPath(g, lon, lat, -122.24, 37.86).contains(v));
+        assertNotSame(pois, g.pointsOfInterest());
+    }
+
+    @Test
+    public void testGraphUpdatesWhileQuerying() throws Exception {
+        GraphDB g = new GraphDB(SyntheticMaps.grid(20, 20, 0, 31).getPath(),
+                SpatialIndex.Type.DYNAMIC);
+        List<Long> removed = new ArrayList<>();
+        Random r = new Random(31);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t += 1) {
+            Thread reader = new Thread(() -> {
+                Random q = new Random();
+                while (!done.get()) {
+                    double lon = MapServer.ROOT_ULLON + q.nextDouble() * MapServer.ROOT_LON_DELTA;
+                    double lat = MapServer.ROOT_LRLAT + q.nextDouble() * MapServer.ROOT_LAT_DELTA;
+                    g.closestSegment(lon, lat);
+                    g.routingGraph();
+                    g.pointsOfInterest();
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            for (int i = 0; i < 100; i += 1) {
+                double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+                double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+                long v = g.closest(lon, lat);
+                g.removeVertex(v);
+                removed.add(v);
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        /* Whatever the readers built meanwhile, what is cached now has none of the vertices. */
+        RoutingGraph rg = g.routingGraph();
+        SegmentIndex si = g.segmentIndex();
+        for (long v : removed) {
+            assertEquals(-1, rg.number(v));
+        }
+        for (int i = 0; i < 1000; i += 1) {
+            double lon = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            double lat = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+            SegmentIndex.Snap snap = g.closestSegment(lon, lat);
+            assertTrue(!removed.contains(snap.from) && !removed.contains(snap.to));
+        }
+        assertSame(si, g.segmentIndex());
+    }
+
+    @Test
+    public void testSnapTableMatchesLinearScan() {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(20000, new Random(32));
+        SpatialIndex kdTree = SpatialIndex.create(SpatialIndex.Type.KDTREE, nodes);
+        double cell = 0.02 / 3963;
+        Queries queries = new Queries(nodes, new Random(68));
+        checkNearest(new SnapLookupTable(kdTree, nodes, cell, Long.MAX_VALUE, false), queries);
+        SnapLookupTable eager = new SnapLookupTable(kdTree, nodes, cell, Long.MAX_VALUE, true);
+        assertTrue(eager.usedBytes() > 0);
+        checkNearest(eager, queries);
+
+        /* A table that is out of memory answers from the backing index. */
+        SnapLookupTable capped = new SnapLookupTable(kdTree, nodes, cell, 4096, true);
+        assertTrue(capped.usedBytes() <= 4096);
+        checkNearest(capped, queries);
+    }
+
+    @Test
+    public void testSnapTableAfterUpdates() {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(2000, new Random(33));
+        List<Node> live = new ArrayList<>(nodes.subList(0, 1000));
+        SpatialIndex index = new SnapLookupTable(SpatialIndex.create(SpatialIndex.Type.DYNAMIC,
+                live), live, 0.05 / 3963, Long.MAX_VALUE, true);
+        for (Node n : nodes.subList(1000, 2000)) {
+            index.insert(n.nodeID, GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                    GraphDB.projectToY(n.nodeLon, n.nodeLat));
+            live.add(n);
+        }
+        for (int i = 0; i < 500; i += 1) {
+            assertTrue(index.remove(live.remove(0).nodeID));
+        }
+        checkNearest(index, live, new Random(71));
+    }
+
+    @Test
+    public void testSnapTableCapDuringUpdates() throws Exception {
+        List<Node> nodes = SpatialIndexBenchmark.syntheticNodes(2000, new Random(34));
+        long cap = 1 << 20;
+        SnapLookupTable table = new SnapLookupTable(SpatialIndex.create(
+                SpatialIndex.Type.DYNAMIC, nodes), nodes, 0.02 / 3963, cap, false);
+        assertTrue(table.usedBytes() > 0);
+        Thread writer = new Thread(() -> {
+            for (Node n : nodes.subList(0, 200)) {
+                table.insert(n.nodeID, GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                        GraphDB.projectToY(n.nodeLon, n.nodeLat));
+            }
+        });
+        writer.start();
+        Random r = new Random(72);
+        while (writer.isAlive()) {
+            Node n = nodes.get(r.nextInt(nodes.size()));
+            table.nearest(GraphDB.projectToX(n.nodeLon, n.nodeLat),
+                    GraphDB.projectToY(n.nodeLon, n.nodeLat));
+            assertTrue(table.usedBytes() <= cap);
+        }
+        writer.join();
+        checkNearest(table, nodes, new Random(73));
+        assertTrue(table.usedBytes() <= cap);
+    }
+
+    private static void checkNearest(SpatialIndex index, List<Node> nodes, Random r) {
+        checkNearest(index, new Queries(nodes, r));
+    }
+
+    /** Checks that the index answers every query with a point as close as the nearest one. */
+    private static void checkNearest(SpatialIndex index, Queries queries) {
+        for (int i = 0; i < NUM_QUERIES; i += 1) {
+            double[] found = queries.projected.get(index.nearest(queries.xs[i], queries.ys[i]));
+            assertEquals(queries.expected[i],
+                    KDTree.euclidean(queries.xs[i], queries.ys[i], found[0], found[1]), 1e-12);
+        }
+    }
+
+    /**
+     * Random query points, some well outside the bounding box of a set of points, and the
+     * distance from each to its nearest point by a linear scan. The points are projected once,
+     * so every index checked against the same queries shares the one scan.
+     */
+    private static class Queries {
+        /** The projected coordinates of each point, by ID. */
+        final Map<Long, double[]> projected = new HashMap<>();
+        /** The projected coordinates of each query. */
+        final double[] xs = new double[NUM_QUERIES], ys = new double[NUM_QUERIES];
+        /** The distance from each query to its nearest point. */
+        final double[] expected = new double[NUM_QUERIES];
+
+        Queries(List<Node> nodes, Random r) {
+            double[] px = new double[nodes.size()];
+            double[] py = new double[nodes.size()];
+            for (int k = 0; k < nodes.size(); k += 1) {
+                Node n = nodes.get(k);
+                px[k] = GraphDB.projectToX(n.nodeLon, n.nodeLat);
+                py[k] = GraphDB.projectToY(n.nodeLon, n.nodeLat);
+                projected.put(n.nodeID, new double[]{px[k], py[k]});
+            }
+            for (int i = 0; i < NUM_QUERIES; i += 1) {
+                double lon = MapServer.ROOT_ULLON - 0.05
+                        + r.nextDouble() * (MapServer.ROOT_LON_DELTA + 0.1);
+                double lat = MapServer.ROOT_LRLAT - 0.05
+                        + r.nextDouble() * (MapServer.ROOT_LAT_DELTA + 0.1);
+                xs[i] = GraphDB.projectToX(lon, lat);
+                ys[i] = GraphDB.projectToY(lon, lat);
+                expected[i] = Double.MAX_VALUE;
+                for (int k = 0; k < px.length; k += 1) {
+                    expected[i] = Math.min(expected[i],
+                            KDTree.euclidean(xs[i], ys[i], px[k], py[k]));
+                }
+            }
+        }
+    }
+}
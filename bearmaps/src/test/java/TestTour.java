@@ -0,0 +1,119 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for multi-stop tours: that the local search only ever shortens a tour, and that planned
+ * tours visit every stop once along a connected route.
+ */
+public class TestTour {
+    private static final int NUM_STOPS = 40;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = SyntheticMaps.shared();
+    }
+
+    @Test
+    public void testImproveShortensTours() {
+        Random r = new Random(47);
+        for (boolean roundTrip : new boolean[]{false, true}) {
+            for (int trial = 0; trial < 20; trial += 1) {
+                int n = 2 + r.nextInt(60);
+                double[] xs = r.doubles(n).toArray();
+                double[] ys = r.doubles(n).toArray();
+                double[][] costs = new double[n][n];
+                for (int i = 0; i < n; i += 1) {
+                    for (int j = 0; j < n; j += 1) {
+                        costs[i][j] = Math.hypot(xs[i] - xs[j], ys[i] - ys[j]);
+                    }
+                }
+                int[] order = IntStream.range(0, n).toArray();
+                double before = length(costs, order, roundTrip);
+                Tour.improve(costs, order, roundTrip, Long.MAX_VALUE);
+                assertEquals(0, order[0]);
+                assertArrayEquals(IntStream.range(0, n).toArray(),
+                        Arrays.stream(order).sorted().toArray());
+                assertTrue(length(costs, order, roundTrip) <= before + 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testImproveFindsSmallOptimum() {
+        /* Stops on a line, visited out of order, can always be untangled. */
+        double[] xs = {0, 4, 1, 3, 2, 5};
+        int n = xs.length;
+        double[][] costs = new double[n][n];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                costs[i][j] = Math.abs(xs[i] - xs[j]);
+            }
+        }
+        int[] order = IntStream.range(0, n).toArray();
+        Tour.improve(costs, order, false, Long.MAX_VALUE);
+        assertEquals(5, length(costs, order, false), 1e-9);
+    }
+
+    @Test
+    public void testPlan() {
+        Random r = new Random(48);
+        double[] lons = new double[NUM_STOPS];
+        double[] lats = new double[NUM_STOPS];
+        for (int i = 0; i < NUM_STOPS; i += 1) {
+            lons[i] = MapServer.ROOT_ULLON + r.nextDouble() * MapServer.ROOT_LON_DELTA;
+            lats[i] = MapServer.ROOT_LRLAT + r.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+        double[][] matrix = DistanceMatrix.distances(graph, lons, lats, lons, lats);
+        for (boolean roundTrip : new boolean[]{false, true}) {
+            Tour tour = Tour.plan(graph, lons, lats, roundTrip, 1000);
+            assertEquals(0, tour.order[0]);
+            assertArrayEquals(IntStream.range(0, NUM_STOPS).toArray(),
+                    Arrays.stream(tour.order).sorted().toArray());
+            assertEquals(length(matrix, tour.order, roundTrip), tour.distance, 1e-9);
+
+            int[] visiting = IntStream.range(0, NUM_STOPS).toArray();
+            assertTrue(tour.distance <= length(matrix, visiting, roundTrip) + 1e-9);
+
+            List<Long> route = tour.route;
+            assertTrue(route.size() > 1);
+            for (int i = 0; i + 1 < route.size(); i += 1) {
+                long v = route.get(i);
+                long w = route.get(i + 1);
+                boolean adjacent = false;
+                for (long u : graph.adjacent(v)) {
+                    adjacent |= u == w;
+                }
+                assertTrue(adjacent || v == w);
+            }
+        }
+    }
+
+    @Test
+    public void testNoStops() {
+        Tour tour = Tour.plan(graph, new double[0], new double[0], true, 1000);
+        assertEquals(0, tour.order.length);
+        assertTrue(tour.route.isEmpty());
+    }
+
+    /** Returns the cost of visiting the stops in the given order. */
+    private static double length(double[][] costs, int[] order, boolean roundTrip) {
+        double total = 0;
+        for (int i = 0; i + 1 < order.length; i += 1) {
+            total += costs[order[i]][order[i + 1]];
+        }
+        if (roundTrip && order.length > 1) {
+            total += costs[order[order.length - 1]][order[0]];
+        }
+        return total;
+    }
+}